@@ -1199,6 +1199,27 @@ public class JClassPatcher {
           }
         }
       }
+      // createSocket, hand the client an in-memory connection during replay playback
+      if (methodNode.name.equals("a")
+          && methodNode.desc.equals("(IILjava/lang/String;)Ljava/net/Socket;")) {
+        AbstractInsnNode insnNode = methodNode.instructions.getFirst();
+        LabelNode label = new LabelNode();
+        methodNode.instructions.insertBefore(insnNode, new VarInsnNode(Opcodes.ILOAD, 2));
+        methodNode.instructions.insertBefore(insnNode, new VarInsnNode(Opcodes.ALOAD, 3));
+        methodNode.instructions.insertBefore(
+            insnNode,
+            new MethodInsnNode(
+                Opcodes.INVOKESTATIC,
+                "Game/Replay",
+                "connectHook",
+                "(ILjava/lang/String;)Ljava/net/Socket;",
+                false));
+        methodNode.instructions.insertBefore(insnNode, new InsnNode(Opcodes.DUP));
+        methodNode.instructions.insertBefore(insnNode, new JumpInsnNode(Opcodes.IFNULL, label));
+        methodNode.instructions.insertBefore(insnNode, new InsnNode(Opcodes.ARETURN));
+        methodNode.instructions.insertBefore(insnNode, label);
+        methodNode.instructions.insertBefore(insnNode, new InsnNode(Opcodes.POP));
+      }
       // sendLogout
       if (methodNode.name.equals("B") && methodNode.desc.equals("(I)V")) {
         Iterator<AbstractInsnNode> insnNodeList = methodNode.instructions.iterator();
@@ -3670,7 +3691,9 @@ public class JClassPatcher {
         LabelNode label = new LabelNode();
         methodNode.instructions.insertBefore(insnNode, new InsnNode(Opcodes.ICONST_0));
         methodNode.instructions.insertBefore(
-            insnNode, new FieldInsnNode(Opcodes.GETSTATIC, "Game/Replay", "isSeeking", "Z"));
+            insnNode,
+            new MethodInsnNode(
+                Opcodes.INVOKESTATIC, "Game/Renderer", "skipDrawGame", "()Z", false));
         methodNode.instructions.insertBefore(insnNode, new JumpInsnNode(Opcodes.IFEQ, label));
         methodNode.instructions.insertBefore(insnNode, new InsnNode(Opcodes.RETURN));
         methodNode.instructions.insertBefore(insnNode, label);
@@ -3921,7 +3944,8 @@ public class JClassPatcher {
         LabelNode label = new LabelNode();
         methodNode.instructions.insertBefore(findNode, new InsnNode(Opcodes.ICONST_0));
         methodNode.instructions.insertBefore(
-            findNode, new FieldInsnNode(Opcodes.GETSTATIC, "Game/Replay", "isSeeking", "Z"));
+            findNode,
+            new MethodInsnNode(Opcodes.INVOKESTATIC, "Game/Renderer", "skipPresent", "()Z", false));
         methodNode.instructions.insertBefore(findNode, new JumpInsnNode(Opcodes.IFEQ, label));
         methodNode.instructions.insertBefore(findNode, new InsnNode(Opcodes.RETURN));
         methodNode.instructions.insertBefore(findNode, label);
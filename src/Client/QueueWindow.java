@@ -32,6 +32,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.net.URL;
+import java.text.Collator;
 import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.List;
@@ -46,6 +47,7 @@ import javax.swing.event.ListSelectionListener;
 import javax.swing.plaf.nimbus.NimbusLookAndFeel;
 import javax.swing.table.*;
 import Game.Replay;
+import Game.ReplayCatalog;
 import Game.ReplayQueue;
 
 /**
@@ -55,6 +57,7 @@ public class QueueWindow {
   static JTable playlistTable = new JTable(new PlaylistModel());
   static PlaylistModel model = (PlaylistModel) playlistTable.getModel();
   static JLabel replayCountLabel = new JLabel("0 replays");
+  static private String scanProgress = null;
   static private JFrame frame;
   static private JButton button;
   static private Font controlsFont;
@@ -172,7 +175,7 @@ public class QueueWindow {
     playlistTable.setFillsViewportHeight(true);
 
     // enable clicking header to sort it
-    playlistTable.setAutoCreateRowSorter(true);
+    playlistTable.setRowSorter(new PlaylistSorter(model));
 
     // disable rearranging columns
     playlistTable.getTableHeader().setReorderingAllowed(false);
@@ -205,6 +208,7 @@ public class QueueWindow {
       public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected, boolean hasFocus, int row, int column) {
         super.getTableCellRendererComponent(table, value, isSelected, hasFocus, row, column);
         setHorizontalAlignment(JLabel.CENTER);
+        if (value == null) return this; // not loaded yet
         try {
           if (Settings.PREFERRED_DATE_FORMAT.get(Settings.currentProfile).trim().length() > 0) {
             this.setText(new SimpleDateFormat(Settings.PREFERRED_DATE_FORMAT.get(Settings.currentProfile)).format(value));
@@ -225,7 +229,7 @@ public class QueueWindow {
         super.getTableCellRendererComponent(table, value, isSelected, hasFocus, row, column);
         setHorizontalAlignment(JLabel.CENTER);
 
-        this.setText(Util.formatTimeLongShort((int)value));
+        if (value != null) this.setText(Util.formatTimeLongShort((int)value));
 
         return this;
       }
@@ -499,22 +503,17 @@ public class QueueWindow {
         }
 
         for (int i = selectedRowsConverted.length - 1; i >= 0; i--) {
-          ReplayQueue.removeReplay((int)model.getValueAt(selectedRowsConverted[i], 1) - 1);
-          model.removeRow(selectedRowsConverted[i]);
+          ReplayQueue.removeReplay(selectedRowsConverted[i]);
         }
 
         if (selectedRows.length > 0) {
-          // update second column
-          for (int i = 0; i < model.getRowCount(); i++) {
-            model.setValueAt(new Integer(i+1),i,1);
-          }
+          // the second column follows the queue
+          copyQueueToTable();
         }
       }
     });
 
     // add functionality to go back to unsorted mode by clicking three times on the header
-    playlistTable.setRowSorter(new TableRowSorter(model));
-
     // Add MouseListener for onClick event
     playlistTable.getTableHeader().addMouseListener(new MouseAdapter() {
       private SortOrder currentOrder = SortOrder.UNSORTED;
@@ -633,25 +632,10 @@ public class QueueWindow {
     }
   }
 
+  /** Brings the table in line with the queue, call it after changing ReplayQueue.queue. */
   public static void copyQueueToTable() {
     Logger.Debug("copyQueueToTable called");
-    model.getDataVector().removeAllElements();
-    for (int i=0; i < ReplayQueue.queue.size(); i++) {
-      String replayFolder = ReplayQueue.queue.get(i).getAbsolutePath();
-      Object[] metadata = Replay.readMetadata(replayFolder);
-
-      model.addRow(new Object[] {
-              ReplayQueue.currentIndex - 1 == i ? "▶" : "",
-              new Integer(i+1),
-              new File(replayFolder).getParent(),
-              ReplayQueue.queue.get(i).getName(),
-              new Integer((int)metadata[0]),
-              new Date((long)metadata[1]),
-              metadata[2],
-              new Integer((byte)metadata[3]),
-              new Integer((int)metadata[4])
-      });
-    }
+    model.sync();
     updateReplayCountLabel();
   }
 
@@ -665,30 +649,28 @@ public class QueueWindow {
 
     // copy table data to queue in correct order
     int size = model.getRowCount();
-    ReplayQueue.clearQueue();
+    List<File> replays = new ArrayList<File>(size);
     for (int i = 0; i < size; i++) {
-      int row = playlistTable.getRowSorter().convertRowIndexToModel(i);
-      ReplayQueue.queue.add(new File((String)model.getValueAt(row, 2),(String)model.getValueAt(row, 3)));
+      replays.add(model.getReplay(playlistTable.getRowSorter().convertRowIndexToModel(i)));
     }
+    replaceQueue(replays);
+    Logger.Debug("Wrote sorted order to queue");
+  }
+
+  private static void replaceQueue(List<File> replays) {
+    ReplayQueue.clearQueue();
+    ReplayQueue.queue.addAll(replays);
 
     // display newly reordered data in table
     clearSort();
     copyQueueToTable();
-    Logger.Debug("Wrote sorted order to queue");
   }
 
   public static void updatePlaying() {
-    if (model.getRowCount() >= ReplayQueue.lastIndex &&
-            ReplayQueue.lastIndex >=1) {
-      model.setValueAt("", ReplayQueue.lastIndex - 1, 0);
-    }
-    if (model.getRowCount() >= ReplayQueue.currentIndex &&
-            ReplayQueue.currentIndex >= 1) {
-      if (Replay.isPlaying) {
-        model.setValueAt("▶", ReplayQueue.currentIndex - 1, 0);
-      } else {
-        model.setValueAt("", ReplayQueue.currentIndex - 1, 0);
-      }
+    if (Replay.isPlaying && ReplayQueue.currentIndex >= 1) {
+      model.setPlayingRow(ReplayQueue.currentIndex - 1);
+    } else {
+      model.setPlayingRow(-1);
     }
   }
 
@@ -701,7 +683,13 @@ public class QueueWindow {
     public void reorder(int toIndex, int[] selectedRows);
   }
 
-  static class PlaylistModel extends DefaultTableModel implements Reorderable {
+  /**
+   * Table model over ReplayQueue.queue.
+   *
+   * <p>Only the queue entries themselves are copied, the metadata columns are kept in primitive
+   * arrays and filled in the background for the rows that get painted.
+   */
+  static class PlaylistModel extends AbstractTableModel implements Reorderable {
 
     // Handle Columns
     private String[] columnNames = {"▶", //is the currently selected replay or not
@@ -714,6 +702,32 @@ public class QueueWindow {
             "Conversion Settings",
             "User Field"};
 
+    // The queue as of the last sync, the metadata arrays are indexed the same way
+    private File[] replays = new File[0];
+    private int playingRow = -1;
+    private boolean[] requested = new boolean[0];
+    private boolean[] loaded = new boolean[0];
+    private int[] lengths = new int[0];
+    private long[] dates = new long[0];
+    private String[] worlds = new String[0];
+    private int[] conversionSettings = new int[0];
+    private int[] userFields = new int[0];
+
+    // Rows waiting for their metadata, most recently painted first
+    private final LinkedList<MetadataRequest> pending = new LinkedList<MetadataRequest>();
+    private Thread loader = null;
+
+    private static class MetadataRequest {
+      final int row;
+      final File replay;
+      Object[] metadata;
+
+      MetadataRequest(int row, File replay) {
+        this.row = row;
+        this.replay = replay;
+      }
+    }
+
     public int getColumnCount() {
       return columnNames.length;
     }
@@ -721,6 +735,14 @@ public class QueueWindow {
       return columnNames[col];
     }
 
+    public int getRowCount() {
+      return replays.length;
+    }
+
+    public File getReplay(int row) {
+      return replays[row];
+    }
+
     @Override
     public boolean isCellEditable(int row, int col) {
       if (col == 3 && editingEnabled) { //Replay Name Column
@@ -729,97 +751,266 @@ public class QueueWindow {
       return false;
     }
 
+    /** Returns the value of a cell, null for metadata that isn't loaded yet. */
+    public Object getValueAt(int row, int col) {
+      if (row >= replays.length) return null;
+
+      switch (col) {
+        case 0:
+          return row == playingRow ? "▶" : "";
+        case 1:
+          return row + 1;
+        case 2:
+          return replays[row].getAbsoluteFile().getParent();
+        case 3:
+          return replays[row].getName();
+      }
+
+      if (!loaded[row]) {
+        requestMetadata(row);
+        return null;
+      }
+      switch (col) {
+        case 4:
+          return lengths[row];
+        case 5:
+          return new Date(dates[row]);
+        case 6:
+          return worlds[row];
+        case 7:
+          return conversionSettings[row];
+        case 8:
+          return userFields[row];
+      }
+      return null;
+    }
+
     @Override
-    public void fireTableCellUpdated(int row, int col) {
-      if (col == 3) {
-        String afterEditValue = (String) model.getValueAt(row, col);
-
-        //rename folder
-        if (afterEditValue.indexOf('/') == -1) {
-          if (!editValue.equals(afterEditValue) && !editValue.equals("@:/@")) {
-            File renamedFile = new File(ReplayQueue.queue.get(row).getParent(), afterEditValue);
-            Logger.Debug("We'd like to rename to: " + renamedFile.getAbsolutePath());
-            if (!ReplayQueue.queue.get(row).renameTo(renamedFile)) {
-              Logger.Warn("@|red Failed to rename row: |@" + ReplayQueue.queue.get(row).getAbsolutePath());
-              if (System.getProperty("os.name").contains("Windows")) {
-                if (afterEditValue.matches(".*[?%*:|\"<>]")) {
-                  Logger.Warn(String.format("@|yellow You're on Windows and you tried to use a restricted character in your desired filename: |@@|red %s|@", afterEditValue));
-                } else {
-                  Logger.Warn("@|yellow Probably this is because you're |@@|red using Windows |@@|yellow and Windows locks the replay files while they are in use. There are workarounds, but my advice is to |@@|green use Debian!|@");
-                  Logger.Warn("@|yellow You can also try just advancing to the next replay, in order to name the replay you're currently watching, if you would like to stop watching this replay at this time.|@");
-                }
+    public void setValueAt(Object value, int row, int col) {
+      if (col != 3) return;
+
+      String afterEditValue = (String) value;
+      File replay = replays[row];
+
+      //rename folder
+      if (afterEditValue.indexOf('/') == -1) {
+        if (!editValue.equals(afterEditValue) && !editValue.equals("@:/@")) {
+          File renamedFile = new File(replay.getParent(), afterEditValue);
+          Logger.Debug("We'd like to rename to: " + renamedFile.getAbsolutePath());
+          if (!replay.renameTo(renamedFile)) {
+            Logger.Warn("@|red Failed to rename row: |@" + replay.getAbsolutePath());
+            if (System.getProperty("os.name").contains("Windows")) {
+              if (afterEditValue.matches(".*[?%*:|\"<>]")) {
+                Logger.Warn(String.format("@|yellow You're on Windows and you tried to use a restricted character in your desired filename: |@@|red %s|@", afterEditValue));
+              } else {
+                Logger.Warn("@|yellow Probably this is because you're |@@|red using Windows |@@|yellow and Windows locks the replay files while they are in use. There are workarounds, but my advice is to |@@|green use Debian!|@");
+                Logger.Warn("@|yellow You can also try just advancing to the next replay, in order to name the replay you're currently watching, if you would like to stop watching this replay at this time.|@");
               }
-              copyQueueToTable();
-            } else {
-              //Instances of the File class are immutable, so after calling renameTo, we must update the pathname to the new one
-              ReplayQueue.queue.set(row, renamedFile);
-              Logger.Info(String.format("Renamed @|green %s|@ to @|cyan %s|@", editValue, afterEditValue));
             }
+          } else {
+            //Instances of the File class are immutable, so after calling renameTo, we must update the pathname to the new one
+            ReplayCatalog.rename(replay, renamedFile);
+            ReplayQueue.queue.set(row, renamedFile);
+            replays[row] = renamedFile;
+            Logger.Info(String.format("Renamed @|green %s|@ to @|cyan %s|@", editValue, afterEditValue));
           }
-        } else {
-          Logger.Warn(String.format("@|yellow RSC+ is not programmed to rename folders into subdirectories. Your offending filename: |@@|red %s|@",afterEditValue));
-          copyQueueToTable();
         }
-        editValue = "@:/@";
+      } else {
+        Logger.Warn(String.format("@|yellow RSC+ is not programmed to rename folders into subdirectories. Your offending filename: |@@|red %s|@",afterEditValue));
       }
+      editValue = "@:/@";
 
-      super.fireTableCellUpdated(row, col);
+      fireTableRowsUpdated(row, row);
     }
 
-    /*
-    public String getToolTipText(MouseEvent e) { //TODO generate tooltips somehow
-      String tip = "";
-      try {
-        java.awt.Point p = e.getPoint();
-        int rowIndex = playlistTable.rowAtPoint(p);
-        int colIndex = playlistTable.columnAtPoint(p);
-        tip = getValueAt(rowIndex, colIndex).toString();
-      } catch (RuntimeException e1) {
-        // catch null pointer exception if mouse is over an empty line
+    /** Takes over the current queue, keeping the metadata of the replays that are still in it. */
+    void sync() {
+      File[] previous = replays;
+      File[] current = ReplayQueue.queue.toArray(new File[0]);
+
+      // Entries in front that didn't change keep their row as is
+      int unchanged = 0;
+      while (unchanged < previous.length
+              && unchanged < current.length
+              && previous[unchanged].equals(current[unchanged])) unchanged++;
+
+      boolean[] previousLoaded = loaded;
+      int[] previousLengths = lengths;
+      long[] previousDates = dates;
+      String[] previousWorlds = worlds;
+      int[] previousConversionSettings = conversionSettings;
+      int[] previousUserFields = userFields;
+
+      replays = current;
+      requested = Arrays.copyOf(requested, current.length);
+      loaded = Arrays.copyOf(loaded, current.length);
+      lengths = Arrays.copyOf(lengths, current.length);
+      dates = Arrays.copyOf(dates, current.length);
+      worlds = Arrays.copyOf(worlds, current.length);
+      conversionSettings = Arrays.copyOf(conversionSettings, current.length);
+      userFields = Arrays.copyOf(userFields, current.length);
+
+      if (unchanged < current.length) {
+        // Find where the moved entries were before
+        HashMap<File, Integer> previousRows = new HashMap<File, Integer>();
+        for (int i = unchanged; i < previous.length; i++) previousRows.put(previous[i], i);
+
+        for (int i = unchanged; i < current.length; i++) {
+          Integer from = previousRows.get(current[i]);
+          requested[i] = false;
+          loaded[i] = from != null && previousLoaded[from];
+          if (loaded[i]) {
+            lengths[i] = previousLengths[from];
+            dates[i] = previousDates[from];
+            worlds[i] = previousWorlds[from];
+            conversionSettings[i] = previousConversionSettings[from];
+            userFields[i] = previousUserFields[from];
+          }
+        }
+      }
+      playingRow = ReplayQueue.currentIndex - 1;
+
+      if (unchanged == previous.length) {
+        if (current.length > previous.length) fireTableRowsInserted(previous.length, current.length - 1);
+      } else {
+        fireTableDataChanged();
       }
-      playlistTable.createToolTip().setTipText(tip);
-      return tip;
     }
-    */
 
-    // Handle Rows
-    public void addRow(Object[] rowData) {
-      Vector<Object> rowVector = new Vector<>();
-      for (int i=0; i < getColumnCount(); i++) {
-        rowVector.add(rowData[i]);
+    void setPlayingRow(int row) {
+      int previous = playingRow;
+      playingRow = row;
+      if (previous >= 0 && previous < replays.length) fireTableRowsUpdated(previous, previous);
+      if (row >= 0 && row < replays.length) fireTableRowsUpdated(row, row);
+    }
+
+    private void requestMetadata(int row) {
+      if (requested[row]) return;
+      requested[row] = true;
+
+      synchronized (pending) {
+        pending.addFirst(new MetadataRequest(row, replays[row]));
+        if (loader == null) {
+          loader = new Thread(new MetadataLoader(), "QueueWindow metadata");
+          loader.setDaemon(true);
+          loader.start();
+        }
       }
-      super.addRow(rowVector);
     }
 
-    public void insertRow(int i, Object[] rowData) {
-      Vector<Object> rowVector = new Vector<>();
-      for (int j=0; j < getColumnCount(); j++)
-        rowVector.add(rowData[j]);
-      super.insertRow(i, rowVector);
+    private void setMetadata(int row, Object[] metadata) {
+      lengths[row] = (int) metadata[0];
+      dates[row] = (long) metadata[1];
+      worlds[row] = (String) metadata[2];
+      conversionSettings[row] = (byte) metadata[3];
+      userFields[row] = (int) metadata[4];
+      loaded[row] = true;
     }
 
-    public Object[] getRow(int i) {
-      Object[] thisRow = new Object[getRowCount()];
+    private void applyMetadata(List<MetadataRequest> requests) {
+      int first = Integer.MAX_VALUE;
+      int last = -1;
+      for (MetadataRequest request : requests) {
+        // Skip rows that changed since they were requested
+        if (request.row >= replays.length || replays[request.row] != request.replay) continue;
+        setMetadata(request.row, request.metadata);
+        first = Math.min(first, request.row);
+        last = Math.max(last, request.row);
+      }
+      if (last != -1) fireTableRowsUpdated(first, last);
+    }
 
-      for (int j=0; j < getColumnCount(); j++) {
-        if (getRowCount() >= i) {
-          thisRow[j] = getValueAt(i, j);
-        } else {
-          thisRow[j] = "";
+    private class MetadataLoader implements Runnable {
+      @Override
+      public void run() {
+        while (true) {
+          final ArrayList<MetadataRequest> batch = new ArrayList<MetadataRequest>();
+          synchronized (pending) {
+            while (!pending.isEmpty() && batch.size() < 64) batch.add(pending.pollFirst());
+            if (batch.isEmpty()) {
+              loader = null;
+              return;
+            }
+          }
+
+          for (MetadataRequest request : batch)
+            request.metadata = ReplayCatalog.getMetadata(request.replay.getAbsolutePath());
+
+          SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+              applyMetadata(batch);
+            }
+          });
         }
       }
-      return thisRow;
     }
 
-    // required for columns to not always sort as string (30 < 4)
-    public Class getColumnClass(int c) {
-      // specify each column manually b/c when table is empty, it dies
-      if (c == 1 || c == 4 || c == 7 || c == 8) {
-        return Integer.class;
-      } else if (c == 5) {
-        return Date.class;
+    /**
+     * Returns the rows sorted by a column, compared on the primitive columns directly.
+     *
+     * @return the model row of each view row
+     */
+    int[] sortRows(int col, boolean descending) {
+      final int size = replays.length;
+
+      // Sorting by metadata needs all of it, it's in the catalog by now
+      if (col >= 4) {
+        for (int i = 0; i < size; i++) {
+          if (!loaded[i]) setMetadata(i, ReplayCatalog.getMetadata(replays[i].getAbsolutePath()));
+        }
       }
-      return String.class;
+
+      RowComparator comparator;
+      switch (col) {
+        case 0:
+          comparator = new RowComparator() {
+            public int compare(int a, int b) {
+              return Boolean.compare(a == playingRow, b == playingRow);
+            }
+          };
+          break;
+        case 2:
+        case 3:
+        case 6:
+          final String[] keys = new String[size];
+          for (int i = 0; i < size; i++) keys[i] = col == 6 ? worlds[i] : (String) getValueAt(i, col);
+          final Collator collator = Collator.getInstance();
+          comparator = new RowComparator() {
+            public int compare(int a, int b) {
+              return collator.compare(keys[a], keys[b]);
+            }
+          };
+          break;
+        case 4:
+          comparator = new IntComparator(lengths);
+          break;
+        case 5:
+          comparator = new RowComparator() {
+            public int compare(int a, int b) {
+              return Long.compare(dates[a], dates[b]);
+            }
+          };
+          break;
+        case 7:
+          comparator = new IntComparator(conversionSettings);
+          break;
+        case 8:
+          comparator = new IntComparator(userFields);
+          break;
+        default:
+          comparator = new RowComparator() {
+            public int compare(int a, int b) {
+              return Integer.compare(a, b);
+            }
+          };
+          break;
+      }
+
+      int[] rows = new int[size];
+      for (int i = 0; i < size; i++) rows[i] = i;
+      mergeSort(rows, new int[size], 0, size, comparator, descending ? -1 : 1);
+      return rows;
     }
 
     @Override
@@ -839,25 +1030,149 @@ public class QueueWindow {
       }
 
       //move the rows
-      for (int i = 0; i < rowFroms.length; i++) {
-        if (rowFroms[i] < toIndex) {
-          //row moving forward, nothing needs to change b/c reference always shifting
-          insertRow(toIndex, getRow(rowFroms[0]));
-          removeRow(rowFroms[0]);
-        } else {
-          //row moving backward, rowFrom moved
-          insertRow(toIndex + i, getRow(rowFroms[i]));
-          removeRow(rowFroms[i] + 1);
-        }
+      List<File> moved = new ArrayList<File>();
+      List<File> reordered = new ArrayList<File>(Arrays.asList(replays));
+      int insertAt = toIndex;
+      for (int i = rowFroms.length - 1; i >= 0; i--) {
+        moved.add(0, reordered.remove(rowFroms[i]));
+        if (rowFroms[i] < toIndex) insertAt--;
       }
-      reorderIsPointless = false;
-      copyTableToQueue();
+      reordered.addAll(insertAt, moved);
+      replaceQueue(reordered);
       ReplayQueue.skipped = false;
-      reorderIsPointless = true;
     }
 
   }
 
+  private static interface RowComparator {
+    int compare(int a, int b);
+  }
+
+  private static class IntComparator implements RowComparator {
+    private final int[] values;
+
+    IntComparator(int[] values) {
+      this.values = values;
+    }
+
+    public int compare(int a, int b) {
+      return Integer.compare(values[a], values[b]);
+    }
+  }
+
+  // stable, so rows that compare equal stay in queue order
+  private static void mergeSort(int[] rows, int[] buffer, int from, int to, RowComparator comparator, int direction) {
+    if (to - from < 2) return;
+    int middle = (from + to) >>> 1;
+    mergeSort(rows, buffer, from, middle, comparator, direction);
+    mergeSort(rows, buffer, middle, to, comparator, direction);
+    if (comparator.compare(rows[middle - 1], rows[middle]) * direction <= 0) return;
+
+    System.arraycopy(rows, from, buffer, from, to - from);
+    int left = from;
+    int right = middle;
+    for (int i = from; i < to; i++) {
+      if (right >= to || (left < middle && comparator.compare(buffer[left], buffer[right]) * direction <= 0)) {
+        rows[i] = buffer[left++];
+      } else {
+        rows[i] = buffer[right++];
+      }
+    }
+  }
+
+  /** Sorts the playlist through {@link PlaylistModel#sortRows}, without boxing every cell. */
+  static class PlaylistSorter extends RowSorter<PlaylistModel> {
+    private final PlaylistModel model;
+    private List<SortKey> sortKeys = Collections.emptyList();
+    private int[] viewToModel = null;
+    private int[] modelToView = null;
+
+    PlaylistSorter(PlaylistModel model) {
+      this.model = model;
+    }
+
+    public PlaylistModel getModel() {
+      return model;
+    }
+
+    // the header's mouse listener cycles through the sort orders itself
+    public void toggleSortOrder(int column) {}
+
+    public int convertRowIndexToModel(int index) {
+      return viewToModel != null ? viewToModel[index] : index;
+    }
+
+    public int convertRowIndexToView(int index) {
+      return modelToView != null ? modelToView[index] : index;
+    }
+
+    public void setSortKeys(List<? extends SortKey> keys) {
+      sortKeys = keys != null ? Collections.unmodifiableList(new ArrayList<SortKey>(keys)) : Collections.<SortKey>emptyList();
+      fireSortOrderChanged();
+      sort();
+    }
+
+    public List<? extends SortKey> getSortKeys() {
+      return sortKeys;
+    }
+
+    public int getViewRowCount() {
+      return model.getRowCount();
+    }
+
+    public int getModelRowCount() {
+      return model.getRowCount();
+    }
+
+    public void modelStructureChanged() {
+      sort();
+    }
+
+    public void allRowsChanged() {
+      sort();
+    }
+
+    public void rowsInserted(int firstRow, int endRow) {
+      sort();
+    }
+
+    public void rowsDeleted(int firstRow, int endRow) {
+      sort();
+    }
+
+    // like TableRowSorter, updated rows stay where they are until the next sort
+    public void rowsUpdated(int firstRow, int endRow) {}
+
+    public void rowsUpdated(int firstRow, int endRow, int column) {}
+
+    private void sort() {
+      int[] previous = viewToModel;
+      SortKey key = null;
+      for (SortKey sortKey : sortKeys) {
+        if (sortKey.getSortOrder() != SortOrder.UNSORTED) {
+          key = sortKey;
+          break;
+        }
+      }
+
+      if (key == null) {
+        viewToModel = null;
+        modelToView = null;
+      } else {
+        viewToModel = model.sortRows(key.getColumn(), key.getSortOrder() == SortOrder.DESCENDING);
+        modelToView = new int[viewToModel.length];
+        for (int i = 0; i < viewToModel.length; i++) modelToView[viewToModel[i]] = i;
+      }
+
+      if (previous == null && viewToModel == null) return;
+      if (previous == null) {
+        previous = new int[model.getRowCount()];
+        for (int i = 0; i < previous.length; i++) previous[i] = i;
+      }
+      fireRowSorterChanged(previous);
+    }
+  }
+
   // necessary to be able to center the headers with the same look and feel
   private static class HeaderRenderer implements TableCellRenderer {
     DefaultTableCellRenderer renderer;
@@ -1006,8 +1321,19 @@ public class QueueWindow {
     button.setMargin(new Insets(-5,-7,-2,-7));
   }
 
+  /** Shows how far a replay scan got in place of the selection count, -1 once it's over. */
+  public static void updateScanProgress(int scanned, int total) {
+    scanProgress = scanned >= 0 ? String.format("scanning %d/%d", scanned, total) : null;
+    setReplayCountText();
+  }
+
+  private static void setReplayCountText() {
+    String secondLine = scanProgress != null ? scanProgress : playlistTable.getSelectedRowCount() + " selected";
+    replayCountLabel.setText(String.format("<html><body>%d replays<br>%s</body></html>", ReplayQueue.queue.size(), secondLine));
+  }
+
   private static void updateReplayCountLabel() {
-    replayCountLabel.setText(String.format("<html><body>%d replays<br>%d selected</body></html>", ReplayQueue.queue.size(), playlistTable.getSelectedRowCount()));
+    setReplayCountText();
     if (Settings.DEBUG.get(Settings.currentProfile)) {
       updateSelectedLengthLabel();
     }
@@ -1019,7 +1345,8 @@ public class QueueWindow {
     for (int i=0; i < selectedRows.length; i++) {
       if (selectedRows[i] < playlistTable.getRowCount() && selectedRows[i] >= 0)
         try {
-          timeSum += (int) playlistTable.getValueAt(selectedRows[i], 4);
+          Object length = playlistTable.getValueAt(selectedRows[i], 4);
+          if (length != null) timeSum += (int) length;
         } catch (ArrayIndexOutOfBoundsException e) {
 
         }
@@ -1028,8 +1355,7 @@ public class QueueWindow {
   }
 
   private static void clearSort() {
-    playlistTable.setAutoCreateRowSorter(false);
-    playlistTable.setAutoCreateRowSorter(true);
+    playlistTable.getRowSorter().setSortKeys(null);
     playlistTable.getTableHeader().repaint();
   }
 
@@ -195,6 +195,12 @@ public class Settings {
   public static HashMap<String, Boolean> SHOW_PLAYER_CONTROLS = new HashMap<String, Boolean>();
   public static HashMap<String, Boolean> TRIGGER_ALERTS_REPLAY = new HashMap<String, Boolean>();
   public static HashMap<String, String> REPLAY_BASE_PATH = new HashMap<String, String>();
+  public static HashMap<String, Integer> REPLAY_SYNC_WINDOW = new HashMap<String, Integer>();
+  public static HashMap<String, Boolean> REPLAY_TCP_TRANSPORT = new HashMap<String, Boolean>();
+  public static HashMap<String, Boolean> REPLAY_TURBO_SEEK = new HashMap<String, Boolean>();
+  public static HashMap<String, Integer> REPLAY_CACHE_SIZE = new HashMap<String, Integer>();
+  public static HashMap<String, Integer> REPLAY_PREFETCH_COUNT = new HashMap<String, Integer>();
+  public static HashMap<String, Integer> REPLAY_PREFETCH_SIZE = new HashMap<String, Integer>();
   public static HashMap<String, String> PREFERRED_DATE_FORMAT = new HashMap<String, String>();
   public static HashMap<String, Boolean> SHOW_WORLD_COLUMN = new HashMap<String, Boolean>();
   public static HashMap<String, Boolean> SHOW_CONVERSION_COLUMN = new HashMap<String, Boolean>();
@@ -1237,6 +1243,68 @@ public class Settings {
     REPLAY_BASE_PATH.put(
         "custom", getPropString(props, "replay_base_path", REPLAY_BASE_PATH.get("default")));
 
+    // Bytes the replay server may send ahead of the client before waiting for it
+    REPLAY_SYNC_WINDOW.put("vanilla", 200);
+    REPLAY_SYNC_WINDOW.put("vanilla_resizable", 200);
+    REPLAY_SYNC_WINDOW.put("lite", 200);
+    REPLAY_SYNC_WINDOW.put("default", 200);
+    REPLAY_SYNC_WINDOW.put("heavy", 200);
+    REPLAY_SYNC_WINDOW.put("all", 200);
+    REPLAY_SYNC_WINDOW.put(
+        "custom", getPropInt(props, "replay_sync_window", REPLAY_SYNC_WINDOW.get("default")));
+
+    // Serve replays over a loopback socket instead of in memory, for debugging
+    REPLAY_TCP_TRANSPORT.put("vanilla", false);
+    REPLAY_TCP_TRANSPORT.put("vanilla_resizable", false);
+    REPLAY_TCP_TRANSPORT.put("lite", false);
+    REPLAY_TCP_TRANSPORT.put("default", false);
+    REPLAY_TCP_TRANSPORT.put("heavy", false);
+    REPLAY_TCP_TRANSPORT.put("all", false);
+    REPLAY_TCP_TRANSPORT.put(
+        "custom",
+        getPropBoolean(props, "replay_tcp_transport", REPLAY_TCP_TRANSPORT.get("default")));
+
+    // Skip everything but packet handling while seeking, showing only the seek progress
+    REPLAY_TURBO_SEEK.put("vanilla", true);
+    REPLAY_TURBO_SEEK.put("vanilla_resizable", true);
+    REPLAY_TURBO_SEEK.put("lite", true);
+    REPLAY_TURBO_SEEK.put("default", true);
+    REPLAY_TURBO_SEEK.put("heavy", true);
+    REPLAY_TURBO_SEEK.put("all", true);
+    REPLAY_TURBO_SEEK.put(
+        "custom", getPropBoolean(props, "replay_turbo_seek", REPLAY_TURBO_SEEK.get("default")));
+
+    // Megabytes of decompressed replays kept for restarting and rewinding, 0 turns it off
+    REPLAY_CACHE_SIZE.put("vanilla", 512);
+    REPLAY_CACHE_SIZE.put("vanilla_resizable", 512);
+    REPLAY_CACHE_SIZE.put("lite", 256);
+    REPLAY_CACHE_SIZE.put("default", 512);
+    REPLAY_CACHE_SIZE.put("heavy", 1024);
+    REPLAY_CACHE_SIZE.put("all", 1024);
+    REPLAY_CACHE_SIZE.put(
+        "custom", getPropInt(props, "replay_cache_size", REPLAY_CACHE_SIZE.get("default")));
+
+    // Replays of the queue prepared in the background while the current one plays
+    REPLAY_PREFETCH_COUNT.put("vanilla", 2);
+    REPLAY_PREFETCH_COUNT.put("vanilla_resizable", 2);
+    REPLAY_PREFETCH_COUNT.put("lite", 1);
+    REPLAY_PREFETCH_COUNT.put("default", 2);
+    REPLAY_PREFETCH_COUNT.put("heavy", 4);
+    REPLAY_PREFETCH_COUNT.put("all", 4);
+    REPLAY_PREFETCH_COUNT.put(
+        "custom",
+        getPropInt(props, "replay_prefetch_count", REPLAY_PREFETCH_COUNT.get("default")));
+
+    // Megabytes of prefetched packets held with PARSE_OPCODES
+    REPLAY_PREFETCH_SIZE.put("vanilla", 256);
+    REPLAY_PREFETCH_SIZE.put("vanilla_resizable", 256);
+    REPLAY_PREFETCH_SIZE.put("lite", 128);
+    REPLAY_PREFETCH_SIZE.put("default", 256);
+    REPLAY_PREFETCH_SIZE.put("heavy", 512);
+    REPLAY_PREFETCH_SIZE.put("all", 512);
+    REPLAY_PREFETCH_SIZE.put(
+        "custom", getPropInt(props, "replay_prefetch_size", REPLAY_PREFETCH_SIZE.get("default")));
+
     PREFERRED_DATE_FORMAT.put(
         "vanilla", "dd MMMMMMMMM yyyy - HH:mm:ss"); // jagex is british so this is vanilla
     PREFERRED_DATE_FORMAT.put("vanilla_resizable", "dd MMMMMMMMM yyyy - HH:mm:ss");
@@ -1435,6 +1503,7 @@ public class Settings {
     Util.makeDirectory(Dir.SPEEDRUN);
     Dir.BANK = Dir.JAR + "/bank";
     Util.makeDirectory(Dir.BANK);
+    Dir.KEYMATCH = Dir.JAR + "/replay_keymatch";
   }
 
   /** Loads properties from config.ini for use with definePresets */
@@ -1859,6 +1928,15 @@ public class Settings {
       props.setProperty(
           "trigger_alerts_replay", Boolean.toString(TRIGGER_ALERTS_REPLAY.get(preset)));
       props.setProperty("replay_base_path", REPLAY_BASE_PATH.get(preset));
+      props.setProperty("replay_sync_window", Integer.toString(REPLAY_SYNC_WINDOW.get(preset)));
+      props.setProperty(
+          "replay_tcp_transport", Boolean.toString(REPLAY_TCP_TRANSPORT.get(preset)));
+      props.setProperty("replay_turbo_seek", Boolean.toString(REPLAY_TURBO_SEEK.get(preset)));
+      props.setProperty("replay_cache_size", Integer.toString(REPLAY_CACHE_SIZE.get(preset)));
+      props.setProperty(
+          "replay_prefetch_count", Integer.toString(REPLAY_PREFETCH_COUNT.get(preset)));
+      props.setProperty(
+          "replay_prefetch_size", Integer.toString(REPLAY_PREFETCH_SIZE.get(preset)));
       props.setProperty("preferred_date_format", PREFERRED_DATE_FORMAT.get(preset));
       props.setProperty("show_world_column", Boolean.toString(SHOW_WORLD_COLUMN.get(preset)));
       props.setProperty(
@@ -2459,6 +2537,7 @@ public class Settings {
     public static String WORLDS;
     public static String SPEEDRUN;
     public static String BANK;
+    public static String KEYMATCH;
   }
 
   /**
@@ -18,18 +18,16 @@
  */
 package Client;
 
-import Game.Replay;
+import Game.ReplayIndex;
 import Game.ReplayQueue;
+import Game.ReplayScanner;
 import java.awt.Point;
 import java.io.*;
 import java.nio.file.Files;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
 import java.util.Locale;
 import java.util.zip.CRC32;
-import java.util.zip.GZIPInputStream;
 
 /** A miscellaneous utility class */
 public class Util {
@@ -310,77 +308,27 @@ public class Util {
     return sb.toString();
   }
 
+  /**
+   * Finds the replays in folders and their subfolders, generating missing metadata on the way.
+   *
+   * @return the replay folders, sorted alphabetically
+   * @see ReplayScanner
+   */
   public static List<File> getAllReplays(List<File> folderInputs) {
-    ReplayQueue.foundBrokenReplay = false;
-    List<File> potentialReplayFolders = new ArrayList<File>();
-    List<File> replayFolders = new ArrayList<File>();
-
-    for (File folderInputFile : folderInputs) {
-      if (folderInputFile != null) {
-        String folderInput = folderInputFile.getAbsolutePath();
-        listf(folderInput, potentialReplayFolders);
-        if (Replay.isValid(folderInput)) {
-          Replay.checkAndGenerateMetadata(folderInput);
-          replayFolders.add(new File(folderInput));
-        } else {
-          if (Replay.isBroken(folderInput)) {
-            ReplayQueue.foundBrokenReplay = true;
-          }
-        }
-      }
-    }
-    for (File file : potentialReplayFolders) {
-      if (Replay.isValid(file.getAbsolutePath())) {
-        Replay.checkAndGenerateMetadata(file.getAbsolutePath());
-        replayFolders.add(file);
-      } else {
-        if (Replay.isBroken(file.getAbsolutePath())) {
-          ReplayQueue.foundBrokenReplay = true;
-        }
-      }
-    }
-
-    Collections.sort(
-        replayFolders,
-        new Comparator<File>() {
-          @Override
-          public int compare(File file2, File file1) {
-            // sorts alphabetically
-            return file2.compareTo(file1);
-          }
-        });
-    return replayFolders;
+    ReplayScanner scanner = new ReplayScanner(folderInputs, null);
+    scanner.run();
+    ReplayQueue.foundBrokenReplay = scanner.hasFoundBrokenReplay();
+    return scanner.getReplays();
   }
 
+  /**
+   * Returns the last timestamp of a replay, read from its index.
+   *
+   * @param replay the in.bin.gz file of the replay
+   */
   public static int getReplayEnding(File replay) {
-    int timestamp_ret = 0;
-
-    try {
-      DataInputStream fileInput =
-          new DataInputStream(
-              new BufferedInputStream(new GZIPInputStream(new FileInputStream(replay))));
-      for (; ; ) {
-        int timestamp_input = fileInput.readInt();
-
-        // EOF
-        if (timestamp_input == -1) break;
-
-        // Skip data, we need to find the last timestamp
-        int length = fileInput.readInt();
-        if (length > 0) {
-          int skipped = fileInput.skipBytes(length);
-
-          if (skipped != length) break;
-        }
-
-        timestamp_ret = timestamp_input;
-      }
-      fileInput.close();
-    } catch (Exception e) {
-      // e.printStackTrace();
-    }
-
-    return timestamp_ret;
+    ReplayIndex index = ReplayIndex.load(replay.getParent());
+    return index != null ? index.endTimestamp : 0;
   }
 
   // recurse through directory to get all folders
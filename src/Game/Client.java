@@ -440,6 +440,13 @@ public class Client {
     /* Removing this increases stability according to the Hixk issue linked above */
     // if (unknown != 0) return;
 
+    // Run the game loop as fast as the packets come in while turbo seeking or at max speed
+    if (Replay.isTurboSeeking() || Replay.isMaxSpeed()) {
+      Thread.yield();
+      shadowSleepCount += 1;
+      return;
+    }
+
     try {
       Thread.sleep(ms);
     } catch (Exception e) {
@@ -663,8 +670,13 @@ public class Client {
     float delta_time = (float) (nanoTime - last_time) / 1000000000.0f;
     last_time = nanoTime;
 
-    Camera.setLookatTile(getPlayerWaypointX(), getPlayerWaypointY());
-    Camera.update(delta_time);
+    // Nothing is drawn while turbo seeking, so there's no view or window to update
+    boolean turboSeeking = Replay.isTurboSeeking();
+
+    if (!turboSeeking) {
+      Camera.setLookatTile(getPlayerWaypointX(), getPlayerWaypointY());
+      Camera.update(delta_time);
+    }
 
     Replay.update();
 
@@ -702,7 +714,7 @@ public class Client {
       Client.adaptLoginInfo();
     }
 
-    Game.getInstance().updateTitle();
+    if (!turboSeeking) Game.getInstance().updateTitle();
 
     if (forceDisconnect) {
       Client.closeConnection(false);
@@ -743,11 +755,13 @@ public class Client {
       login_hook();
     }
 
-    WorldMapWindow.UpdateView();
-    if (Client.state == Client.STATE_GAME) {
-      WorldMapWindow.Update();
-    } else {
-      WorldMapWindow.Reset();
+    if (!turboSeeking) {
+      WorldMapWindow.UpdateView();
+      if (Client.state == Client.STATE_GAME) {
+        WorldMapWindow.Update();
+      } else {
+        WorldMapWindow.Reset();
+      }
     }
 
     updates++;
@@ -771,7 +785,7 @@ public class Client {
       xpLast.get(xpUsername)[skill] += xpGain[skill];
 
       if (xpGain[skill] > 0.0f) {
-        if (Settings.SHOW_XPDROPS.get(Settings.currentProfile))
+        if (Settings.SHOW_XPDROPS.get(Settings.currentProfile) && !Replay.isSeeking)
           xpdrop_handler.add(
               "+" + xpGain[skill] + " (" + skill_name[skill] + ")", Renderer.color_text);
 
@@ -1432,6 +1446,24 @@ public class Client {
         case "cancelrecoveryrequest":
           AccountManagement.sendCancelRecoveryChange();
           break;
+        case "cancelscan":
+          if (ReplayQueue.cancelScans()) displayMessage("Cancelled the replay scan", CHAT_QUEST);
+          break;
+        case "indexreplays":
+          if (ReplaySearch.update()) displayMessage("@whi@Indexing replays...", CHAT_QUEST);
+          else displayMessage("@whi@Replays are already being indexed", CHAT_QUEST);
+          break;
+        case "searchreplays":
+          if (commandArray.length > 1)
+            ReplaySearch.search(line.substring(line.indexOf(' ') + 1));
+          break;
+        case "playhit":
+          try {
+            ReplaySearch.playHit(Integer.parseInt(commandArray[1]));
+          } catch (Exception e) {
+            displayMessage("@whi@Usage: ::playhit [number]", CHAT_QUEST);
+          }
+          break;
         default:
           if (commandArray[0] != null) {
             return "::";
@@ -2348,6 +2380,9 @@ public class Client {
       if (username != null) lastpm_username = username;
     }
 
+    // Don't log the messages skipped over while turbo seeking
+    if (Replay.isTurboSeeking()) return;
+
     // Don't output private messages if option is turned on and replaying
     if (Settings.HIDE_PRIVATE_MSGS_REPLAY.get(Settings.currentProfile) && Replay.isPlaying) {
       if (type == CHAT_PRIVATE_LOG_IN_OUT || type == CHAT_PRIVATE || type == CHAT_PRIVATE_OUTGOING)
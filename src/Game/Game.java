@@ -32,7 +32,6 @@ import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.event.*;
 import java.net.URL;
-import java.text.DecimalFormat;
 import javax.swing.JFrame;
 
 /** Singleton class that handles packaging the client into a JFrame and starting the applet. */
@@ -123,7 +122,7 @@ public class Game extends JFrame
       String elapsed = Util.formatTimeDuration(Replay.elapsedTimeMillis(), Replay.endTimeMillis());
       String end = Util.formatTimeDuration(Replay.endTimeMillis(), Replay.endTimeMillis());
       title += elapsed + " / " + end;
-      title += ", Speed: " + new DecimalFormat("##.##").format(Replay.fpsPlayMultiplier) + "x";
+      title += ", Speed: " + Replay.getSpeedText();
       if (Replay.paused) title += ", Paused";
     }
 
@@ -157,6 +157,15 @@ public class Help {
                 Client.CHAT_QUEST);
             Client.displayMessage(
                 "@whi@::update - manually check if RSC+ has updated", Client.CHAT_QUEST);
+            Client.displayMessage(
+                "@whi@::indexreplays - Indexes the chat of the replay folder for ::searchreplays",
+                Client.CHAT_QUEST);
+            Client.displayMessage(
+                "@whi@::searchreplays [words from:name kill:id] - Lists replays containing them",
+                Client.CHAT_QUEST);
+            Client.displayMessage(
+                "@whi@::playhit [number] - Plays the replay of a ::searchreplays hit",
+                Client.CHAT_QUEST);
             Client.displayMessage("@whi@Middle mouse click - Rotate camera", Client.CHAT_QUEST);
             Client.displayMessage("@whi@Mouse wheel scroll - Zoom camera", Client.CHAT_QUEST);
             break;
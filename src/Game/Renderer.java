@@ -125,6 +125,14 @@ public class Renderer {
   private static int shapeX;
 
   private static int sleepTimer = 0;
+
+  // Frames are only presented this often while turbo seeking, to show the progress
+  private static final long SEEK_PRESENT_INTERVAL = 250;
+  private static long seek_present_time = 0;
+
+  // Frames are drawn at this rate while playing at max speed
+  private static final long MAX_SPEED_FRAME_NANOS = 1000000000L / 30;
+  private static long max_speed_frame_time = 0;
   private static boolean lastInterlace = false;
 
   private static int bankResetTimer = 0;
@@ -202,6 +210,43 @@ public class Renderer {
   private static float lastBaseDrainRate = 0;
   private static float lastAdjustedDrainRate = 0;
 
+  /**
+   * Called by the client before presenting a frame.
+   *
+   * @return true if the frame shouldn't be presented
+   */
+  public static boolean skipPresent() {
+    if (!Replay.isSeeking) return false;
+    if (!Replay.isTurboSeeking()) return true;
+
+    long now = System.currentTimeMillis();
+    if (now - seek_present_time < SEEK_PRESENT_INTERVAL) return true;
+
+    seek_present_time = now;
+    return false;
+  }
+
+  /**
+   * Called by the client before drawing the game.
+   *
+   * @return true if the frame shouldn't be drawn
+   */
+  public static boolean skipDrawGame() {
+    if (Replay.isSeeking) {
+      // Present goes through drawGame, so show the turbo seek progress from here
+      if (!skipPresent() && graphicsInstance != null) presentSeekProgress(graphicsInstance);
+      return true;
+    }
+
+    if (!Replay.isMaxSpeed()) return false;
+
+    long now = System.nanoTime();
+    if (now - max_speed_frame_time < MAX_SPEED_FRAME_NANOS) return true;
+
+    max_speed_frame_time = now;
+    return false;
+  }
+
   public static void present(Graphics g, Image image) {
     // Update timing
     long new_time = System.currentTimeMillis();
@@ -209,6 +254,11 @@ public class Renderer {
     time = new_time;
     alpha_time = 0.25f + (((float) Math.sin(time / 100) + 1.0f) / 2.0f * 0.75f);
 
+    if (Replay.isTurboSeeking()) {
+      presentSeekProgress(g);
+      return;
+    }
+
     // This workaround is required to use custom resolution on macOS
     if (macOS_resize_workaround) {
       if (Settings.CUSTOM_CLIENT_SIZE.get(Settings.currentProfile)) {
@@ -940,6 +990,17 @@ public class Renderer {
         drawShadowText(
             g2, "replay_client_write: " + Replay.getClientWrite(), x, y, color_text, false);
         y += 16;
+        drawShadowText(
+            g2,
+            "replay_seek_rate: " + Replay.getSeekBytesPerSecond() / 1024 + " KB/s",
+            x,
+            y,
+            color_text,
+            false);
+        y += 16;
+        drawShadowText(
+            g2, "replay_tick_jitter: " + Replay.getTickJitter() + " us", x, y, color_text, false);
+        y += 16;
         drawShadowText(g2, "Last sound effect: " + Client.lastSoundEffect, x, y, color_text, false);
         y += 16;
         drawShadowText(g2, "Mouse Text: " + Client.mouseText, x, y, color_text, false);
@@ -1619,6 +1680,15 @@ public class Renderer {
           if (MouseHandler.inBounds(nextBounds) && MouseHandler.mouseClicked)
             Replay.controlPlayback("next");
 
+          // playback speed, past 20x fast forward goes to max speed
+          drawShadowText(
+              g2,
+              Replay.getSpeedText(),
+              nextBounds.x + nextBounds.width + BUTTON_OFFSET_X,
+              nextBounds.y + nextBounds.height - 2,
+              color_white,
+              false);
+
           // open queue button (right aligned)
           queueBounds =
               new Rectangle(
@@ -1795,6 +1865,41 @@ public class Renderer {
     MouseHandler.mouseClicked = false;
   }
 
+  /** Draws the seek progress over the last frame drawn before the seek. */
+  private static void presentSeekProgress(Graphics g) {
+    Graphics2D g2 = (Graphics2D) game_image.getGraphics();
+    g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+    g2.setFont(font_main);
+
+    // Fade the last frame a little more on every update
+    g2.setColor(color_shadow);
+    setAlpha(g2, 0.1f);
+    g2.fillRect(0, 0, width, height);
+
+    int percent = (int) (Replay.getSeekProgress() * 100);
+    Rectangle bounds = new Rectangle(width / 2 - 100, height / 2 - 6, 200, 12);
+    setAlpha(g2, 1.0f);
+    g2.setColor(color_shadow);
+    g2.fillRect(bounds.x, bounds.y, bounds.width, bounds.height);
+    g2.setColor(color_prayer);
+    g2.fillRect(bounds.x, bounds.y, bounds.width * percent / 100, bounds.height);
+    g2.setColor(color_text);
+    g2.drawRect(bounds.x, bounds.y, bounds.width, bounds.height);
+    drawShadowText(g2, "Seeking... " + percent + "%", width / 2, bounds.y - 10, color_text, true);
+    drawShadowText(
+        g2,
+        Util.formatTimeDuration(Replay.elapsedTimeMillis(), Replay.endTimeMillis())
+            + " / "
+            + Util.formatTimeDuration(Replay.getSeekEnd() * 20, Replay.endTimeMillis()),
+        width / 2,
+        bounds.y + bounds.height + 12,
+        color_text,
+        true);
+    g2.dispose();
+
+    g.drawImage(game_image, 0, 0, null);
+  }
+
   public static void drawBar(
       Graphics2D g, Image image, int x, int y, Color color, float alpha, int value, int total) {
     // Prevent divide by zero
@@ -36,7 +36,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.ByteBuffer;
+import java.net.Socket;
 import java.security.MessageDigest;
 import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
@@ -48,21 +48,15 @@ import javax.swing.JOptionPane;
 public class Replay {
   // If we ever change replays in a way that breaks backwards compatibility,
   // we need to increment this
-  public static int VERSION = 5;
+  public static int VERSION = 6;
 
-  static DataOutputStream output = null;
-  static DataOutputStream input = null;
-  static DataOutputStream keys = null;
-  static DataOutputStream keyboard = null;
-  static DataOutputStream mouse = null;
+  static ReplayWriter writer = null;
+  static ReplayInputWriter inputWriter = null;
   static DataOutputStream metadata = null;
 
   static DataInputStream play_keys = null;
-  static DataInputStream play_keyboard = null;
-  static DataInputStream play_mouse = null;
-
-  static MessageDigest output_checksum = null;
-  static MessageDigest input_checksum = null;
+  static ReplayInputReader play_keyboard = null;
+  static ReplayInputReader play_mouse = null;
 
   public static final byte KEYBOARD_TYPED = 0;
   public static final byte KEYBOARD_PRESSED = 1;
@@ -93,7 +87,11 @@ public class Replay {
 
   public static int fps = 50;
   public static float fpsPlayMultiplier = 1.0f;
+  // Play as fast as the client handles the packets, drawing only some frames
+  public static boolean maxSpeed = false;
   public static int frame_time_slice;
+  // Exact length of a frame for the replay server, frame_time_slice is rounded to millis
+  public static double frame_time_nanos;
   public static int connection_port;
 
   public static ReplayServer replayServer = null;
@@ -120,6 +118,9 @@ public class Replay {
   public static boolean started_record_kb_mouse = true;
 
   public static int enc_opcode;
+
+  // Initial size of the retained packet buffer, the client never reads more than this at once
+  private static final int RETAINED_BUFFER_SIZE = 5000;
   public static int retained_timestamp;
   public static byte[] retained_bytes = null;
   public static int retained_off;
@@ -159,10 +160,27 @@ public class Replay {
     closeDialogue = false;
     replayDirectory = directory;
     replayMembers =
-        ((int) Replay.readMetadata(directory)[4] & (1 << 31))
+        ((int) ReplayPrefetcher.readMetadata(directory)[4] & (1 << 31))
             == 0; // first bit of user settings is true if replay is F2P
   }
 
+  /** Returns true while seeking with everything but packet handling skipped. */
+  public static boolean isTurboSeeking() {
+    return isSeeking && Settings.REPLAY_TURBO_SEEK.get(Settings.currentProfile);
+  }
+
+  /** Returns how far the current seek has gotten, from 0 to 1. */
+  public static float getSeekProgress() {
+    if (replayServer == null || !isSeeking) return 0.0f;
+
+    int start = replayServer.timestamp_seek_start;
+    int end = replayServer.timestamp_new;
+    if (end == TIMESTAMP_EOF || end <= start) return 1.0f;
+
+    float progress = (float) (timestamp - start) / (end - start);
+    return Math.max(0.0f, Math.min(1.0f, progress));
+  }
+
   public static int getServerLag() {
     return timestamp - timestamp_server_last;
   }
@@ -176,6 +194,7 @@ public class Replay {
   public static void seek(int new_timestamp) {
     isSeeking = true;
     frame_time_slice = 0;
+    frame_time_nanos = 0;
     replayServer.seek(new_timestamp);
   }
 
@@ -232,18 +251,20 @@ public class Replay {
         File file = new File(replayDirectory + "/keyboard.bin.gz");
         if (file.exists()) {
           play_keyboard =
-              new DataInputStream(
-                  new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))));
-          timestamp_kb_input = play_keyboard.readInt();
+              new ReplayInputReader(
+                  new DataInputStream(
+                      new BufferedInputStream(new GZIPInputStream(new FileInputStream(file)))),
+                  replay_version);
+          timestamp_kb_input = play_keyboard.readTimestamp();
         }
         file = new File(replayDirectory + "/mouse.bin.gz");
         if (file.exists()) {
           play_mouse =
-              new DataInputStream(
-                  new BufferedInputStream(
-                      new GZIPInputStream(
-                          new FileInputStream(new File(replayDirectory + "/mouse.bin.gz")))));
-          timestamp_mouse_input = play_mouse.readInt();
+              new ReplayInputReader(
+                  new DataInputStream(
+                      new BufferedInputStream(new GZIPInputStream(new FileInputStream(file)))),
+                  replay_version);
+          timestamp_mouse_input = play_mouse.readTimestamp();
         }
         started_record_kb_mouse = true;
       } else {
@@ -364,31 +385,43 @@ public class Replay {
       version.writeInt(Client.version);
       version.close();
 
-      output =
+      writer = new ReplayWriter();
+      writer.setStream(
+          ReplayWriter.STREAM_OUTPUT,
           new DataOutputStream(
               new BufferedOutputStream(
                   new FlushableGZIPOutputStream(
-                      new FileOutputStream(new File(recordingDirectory + "/out.bin.gz")))));
-      input =
+                      new FileOutputStream(new File(recordingDirectory + "/out.bin.gz"))))),
+          MessageDigest.getInstance("SHA-256"));
+      writer.setStream(
+          ReplayWriter.STREAM_INPUT,
           new DataOutputStream(
               new BufferedOutputStream(
                   new FlushableGZIPOutputStream(
-                      new FileOutputStream(new File(recordingDirectory + "/in.bin.gz")))));
-      keys =
+                      new ReplayIndex.Recorder(new File(recordingDirectory + "/in.bin.gz"))))),
+          MessageDigest.getInstance("SHA-256"));
+      writer.setStream(
+          ReplayWriter.STREAM_KEYS,
           new DataOutputStream(
               new BufferedOutputStream(
-                  new FileOutputStream(new File(recordingDirectory + "/keys.bin"))));
+                  new FileOutputStream(new File(recordingDirectory + "/keys.bin")))),
+          null);
       if (Settings.RECORD_KB_MOUSE.get(Settings.currentProfile)) {
-        keyboard =
+        writer.setStream(
+            ReplayWriter.STREAM_KEYBOARD,
             new DataOutputStream(
                 new BufferedOutputStream(
                     new FlushableGZIPOutputStream(
-                        new FileOutputStream(new File(recordingDirectory + "/keyboard.bin.gz")))));
-        mouse =
+                        new FileOutputStream(new File(recordingDirectory + "/keyboard.bin.gz"))))),
+            null);
+        writer.setStream(
+            ReplayWriter.STREAM_MOUSE,
             new DataOutputStream(
                 new BufferedOutputStream(
                     new FlushableGZIPOutputStream(
-                        new FileOutputStream(new File(recordingDirectory + "/mouse.bin.gz")))));
+                        new FileOutputStream(new File(recordingDirectory + "/mouse.bin.gz"))))),
+            null);
+        inputWriter = new ReplayInputWriter(writer);
         started_record_kb_mouse =
             true; // need this to know whether or not to close the file if the user changes settings
         // mid-recording
@@ -400,16 +433,12 @@ public class Replay {
               new BufferedOutputStream(
                   new FileOutputStream(new File(recordingDirectory + "/metadata.bin"))));
 
-      output_checksum = MessageDigest.getInstance("SHA-256");
-      input_checksum = MessageDigest.getInstance("SHA-256");
+      writer.start();
 
       Logger.Info("Replay recording started");
     } catch (Exception e) {
-      output = null;
-      input = null;
-      keys = null;
-      keyboard = null;
-      mouse = null;
+      writer = null;
+      inputWriter = null;
       Logger.Error("Unable to create replay files");
       return;
     }
@@ -420,37 +449,34 @@ public class Replay {
   }
 
   public static void closeReplayRecording() {
-    if (input == null) return;
+    if (writer == null) return;
+
+    // Detach the writer first, so an error while closing can't close the recording twice
+    ReplayWriter closingWriter = writer;
+    ReplayInputWriter closingInputWriter = inputWriter;
+    writer = null;
+    inputWriter = null;
 
     try {
       // since we are working with packet retention, last packet on memory has not been written,
       // write it here
       if (retained_timestamp != TIMESTAMP_EOF && retained_bytes != null) {
-        try {
-          ByteBuffer buffer = ByteBuffer.allocate(retained_bread + 8);
-          buffer.putInt(retained_timestamp);
-          buffer.putInt(retained_bread);
-          buffer.put(retained_bytes, retained_off, retained_bread);
-          input_checksum.update(buffer.array());
-          input.write(buffer.array());
-          input.flush();
-        } catch (Exception e) {
-          e.printStackTrace();
-          shutdown_error();
-        }
+        closingWriter.writePacket(
+            ReplayWriter.STREAM_INPUT,
+            retained_timestamp,
+            retained_bytes,
+            retained_off,
+            retained_bread,
+            true);
       }
 
       // Write EOF values
-      ByteBuffer buffer = ByteBuffer.allocate(4);
-      buffer.putInt(TIMESTAMP_EOF);
-      input_checksum.update(buffer.array());
-      input.write(buffer.array());
-      output_checksum.update(buffer.array());
-      output.write(buffer.array());
+      closingWriter.writeInt(ReplayWriter.STREAM_INPUT, TIMESTAMP_EOF, false);
+      closingWriter.writeInt(ReplayWriter.STREAM_OUTPUT, TIMESTAMP_EOF, false);
 
       // Write Checksum
-      input.write(input_checksum.digest());
-      output.write(output_checksum.digest());
+      closingWriter.writeChecksum(ReplayWriter.STREAM_INPUT);
+      closingWriter.writeChecksum(ReplayWriter.STREAM_OUTPUT);
 
       Logger.Debug("Generating metadata");
       // generate new metadata
@@ -482,37 +508,21 @@ public class Replay {
         Logger.Error("Couldn't write metadata.bin!");
       }
 
-      output.close();
-      input.close();
-      keys.close();
-      if (started_record_kb_mouse) {
-        keyboard.write(buffer.array());
-        mouse.write(buffer.array());
-        keyboard.close();
-        mouse.close();
-      }
-
-      output = null;
-      input = null;
-      keys = null;
-      keyboard = null;
-      mouse = null;
+      if (closingInputWriter != null) closingInputWriter.close();
 
-      output_checksum = null;
-      input_checksum = null;
+      // Waits for all pending data to reach the disk
+      closingWriter.close();
 
       retained_timestamp = TIMESTAMP_EOF;
       retained_bytes = null;
 
-      Logger.Info("Replay recording stopped");
+      if (closingWriter.hasFailed()) {
+        Logger.Error("Unable to close replay files");
+      } else {
+        Logger.Info("Replay recording stopped");
+      }
     } catch (Exception e) {
-      output = null;
-      input = null;
-      keys = null;
-      keyboard = null;
-      mouse = null;
       Logger.Error("Unable to close replay files");
-      return;
     }
 
     isRecording = false;
@@ -571,11 +581,12 @@ public class Replay {
 
   public static void playKeyboardInput() {
     try {
-      while (timestamp >= timestamp_kb_input) {
-        byte event = play_keyboard.readByte();
-        char keychar = play_keyboard.readChar();
-        int keycode = play_keyboard.readInt();
-        int modifier = play_keyboard.readInt();
+      while (timestamp_kb_input != TIMESTAMP_EOF && timestamp >= timestamp_kb_input) {
+        play_keyboard.readKeyboard();
+        byte event = play_keyboard.event;
+        char keychar = play_keyboard.keychar;
+        int keycode = play_keyboard.keycode;
+        int modifier = play_keyboard.modifier;
         KeyEvent keyEvent;
         switch (event) {
           case KEYBOARD_PRESSED:
@@ -612,7 +623,7 @@ public class Replay {
             Client.handler_keyboard.keyTyped(keyEvent);
             break;
         }
-        timestamp_kb_input = play_keyboard.readInt();
+        timestamp_kb_input = play_keyboard.readTimestamp();
       }
     } catch (Exception e) {
     }
@@ -620,17 +631,18 @@ public class Replay {
 
   public static void playMouseInput() {
     try {
-      while (timestamp >= timestamp_mouse_input) {
-        byte event = play_mouse.readByte();
-        int x = play_mouse.readInt();
-        int y = play_mouse.readInt();
-        int rotation = play_mouse.readInt();
-        int modifier = play_mouse.readInt();
-        int clickCount = play_mouse.readInt();
-        int scrollType = play_mouse.readInt();
-        int scrollAmount = play_mouse.readInt();
-        boolean popupTrigger = play_mouse.readBoolean();
-        int button = play_mouse.readInt();
+      while (timestamp_mouse_input != TIMESTAMP_EOF && timestamp >= timestamp_mouse_input) {
+        play_mouse.readMouse();
+        byte event = play_mouse.event;
+        int x = play_mouse.x;
+        int y = play_mouse.y;
+        int rotation = play_mouse.rotation;
+        int modifier = play_mouse.modifier;
+        int clickCount = play_mouse.clickCount;
+        int scrollType = play_mouse.scrollType;
+        int scrollAmount = play_mouse.scrollAmount;
+        boolean popupTrigger = play_mouse.popupTrigger;
+        int button = play_mouse.button;
         MouseEvent mouseEvent;
         switch (event) {
           case MOUSE_CLICKED:
@@ -748,7 +760,7 @@ public class Replay {
             Client.handler_mouse.mouseWheelMoved(wheelEvent);
             break;
         }
-        timestamp_mouse_input = play_mouse.readInt();
+        timestamp_mouse_input = play_mouse.readTimestamp();
       }
     } catch (Exception e) {
     }
@@ -815,6 +827,7 @@ public class Replay {
       // probably members
       metadata.flush();
       metadata.close();
+      ReplayCatalog.invalidate(replayFolder);
     } catch (IOException e) {
       Logger.Error("Couldn't write metadata.bin!");
     }
@@ -891,6 +904,7 @@ public class Replay {
     if (isSeeking) return;
 
     frame_time_slice = 1000 / fps;
+    frame_time_nanos = 1000000000.0 / fps;
   }
 
   // adjusts frame time slice
@@ -898,6 +912,10 @@ public class Replay {
     return frame_time_slice;
   }
 
+  public static double getFrameTimeNanos() {
+    return frame_time_nanos;
+  }
+
   // Returns video elapsed time in millis
   public static int elapsedTimeMillis() {
     int time_slice = 1000 / fps;
@@ -915,12 +933,31 @@ public class Replay {
   public static void updateFrameTimeSlice() {
     if (paused || isSeeking) return;
 
+    if (isPlaying && maxSpeed) {
+      frame_time_slice = 0;
+      frame_time_nanos = 0;
+      return;
+    }
+
     if (isPlaying) {
       frame_time_slice = 1000 / ((int) (fps * fpsPlayMultiplier));
+      frame_time_nanos = 1000000000.0 / (fps * fpsPlayMultiplier);
       return;
     }
 
     frame_time_slice = 1000 / fps;
+    frame_time_nanos = 1000000000.0 / fps;
+  }
+
+  /** Returns true while playing at max speed, see {@link Renderer#skipDrawGame()}. */
+  public static boolean isMaxSpeed() {
+    return isPlaying && maxSpeed && !paused;
+  }
+
+  public static String getSpeedText() {
+    if (maxSpeed) return "max";
+
+    return new DecimalFormat("##.##").format(fpsPlayMultiplier) + "x";
   }
 
   public static int getFPS() {
@@ -949,6 +986,19 @@ public class Replay {
     return replayServer.client_write;
   }
 
+  public static long getSeekBytesPerSecond() {
+    if (replayServer == null) return 0;
+
+    return replayServer.seekBytesPerSecond;
+  }
+
+  // Returns the average lateness of replay ticks in micros
+  public static long getTickJitter() {
+    if (replayServer == null) return 0;
+
+    return replayServer.clock.getJitterNanos() / 1000;
+  }
+
   // only change port in replay
   public static void changePort(int newPort) {
     if (isPlaying) {
@@ -989,29 +1039,26 @@ public class Replay {
             fpsPlayMultiplier += 0.25f;
           } else if (fpsPlayMultiplier < 20.0f) {
             fpsPlayMultiplier += 1.0f;
+          } else {
+            maxSpeed = true;
           }
           updateFrameTimeSlice();
-          Client.displayMessage(
-              "Playback speed set to "
-                  + new DecimalFormat("##.##").format(fpsPlayMultiplier)
-                  + "x.",
-              Client.CHAT_QUEST);
+          Client.displayMessage("Playback speed set to " + getSpeedText() + ".", Client.CHAT_QUEST);
           break;
         case "ff_minus":
-          if (fpsPlayMultiplier > 1.0f) {
+          if (maxSpeed) {
+            maxSpeed = false;
+          } else if (fpsPlayMultiplier > 1.0f) {
             fpsPlayMultiplier -= 1.0f;
           } else if (fpsPlayMultiplier > 0.25f) {
             fpsPlayMultiplier -= 0.25f;
           }
           updateFrameTimeSlice();
-          Client.displayMessage(
-              "Playback speed set to "
-                  + new DecimalFormat("##.##").format(fpsPlayMultiplier)
-                  + "x.",
-              Client.CHAT_QUEST);
+          Client.displayMessage("Playback speed set to " + getSpeedText() + ".", Client.CHAT_QUEST);
           break;
         case "ff_reset":
           fpsPlayMultiplier = 1.0f;
+          maxSpeed = false;
           updateFrameTimeSlice();
           Client.displayMessage("Playback speed reset to 1x.", Client.CHAT_QUEST);
           break;
@@ -1044,15 +1091,11 @@ public class Replay {
   }
 
   public static void dumpKeyboardInput(int keycode, byte event, char keychar, int modifier) {
-    if (keyboard == null) return;
+    ReplayInputWriter inputWriter = Replay.inputWriter;
+    if (inputWriter == null) return;
 
     try {
-      keyboard.writeInt(timestamp);
-      keyboard.writeByte(event);
-      keyboard.writeChar(keychar);
-      keyboard.writeInt(keycode);
-      keyboard.writeInt(modifier);
-      keyboard.flush();
+      inputWriter.writeKeyboard(timestamp, event, keychar, keycode, modifier);
     } catch (Exception e) {
       e.printStackTrace();
       shutdown_error();
@@ -1070,37 +1113,54 @@ public class Replay {
       int scrollAmount,
       boolean popupTrigger,
       int button) {
-    if (mouse == null) return;
+    ReplayInputWriter inputWriter = Replay.inputWriter;
+    if (inputWriter == null) return;
 
     try {
-      mouse.writeInt(timestamp);
-      mouse.writeByte(event);
-      mouse.writeInt(x);
-      mouse.writeInt(y);
-      mouse.writeInt(rotation);
-      mouse.writeInt(modifier);
-      mouse.writeInt(clickCount);
-      mouse.writeInt(scrollType);
-      mouse.writeInt(scrollAmount);
-      mouse.writeBoolean(popupTrigger);
-      mouse.writeInt(button);
-      mouse.flush();
+      inputWriter.writeMouse(
+          timestamp,
+          event,
+          x,
+          y,
+          rotation,
+          modifier,
+          clickCount,
+          scrollType,
+          scrollAmount,
+          popupTrigger,
+          button);
     } catch (Exception e) {
       e.printStackTrace();
       shutdown_error();
     }
   }
 
+  /**
+   * Called by the client before it opens a socket to the server.
+   *
+   * @return an in-memory connection to the replay server, or null to open a real socket
+   */
+  public static Socket connectHook(int port, String address) throws IOException {
+    if (!isPlaying || replayServer == null || !replayServer.inMemory) return null;
+
+    return replayServer.connect();
+  }
+
   public static void dumpRawInputStream(byte[] b, int n, int n2, int n5, int bytesread) {
     // Save timestamp of last time we saw data from the server
     if (bytesread > 0) {
       int lag = timestamp - timestamp_server_last;
       if (lag > 10) timestamp_lag = lag;
       timestamp_server_last = timestamp;
-      if (replayServer != null) replayServer.client_read += bytesread;
+      if (replayServer != null) replayServer.onClientRead(bytesread);
     }
 
-    if (input == null) return;
+    if (writer == null) return;
+
+    if (writer.hasFailed()) {
+      shutdown_error();
+      return;
+    }
 
     int off = n2 + n5;
     // when packet 182 is received retained_timestamp should be TIMESTAMP_EOF
@@ -1110,104 +1170,92 @@ public class Replay {
       try {
         // Handle disconnection
         if (timestamp_disconnect != TIMESTAMP_EOF && retained_timestamp >= timestamp_disconnect) {
-          ByteBuffer buffer = ByteBuffer.allocate(8);
-          buffer.putInt(timestamp_disconnect);
-          buffer.putInt(-1);
-          input_checksum.update(buffer.array());
-          input.write(buffer.array());
-          input.flush();
+          ReplayWriter.Record record = writer.obtain(ReplayWriter.STREAM_INPUT);
+          record.putInt(timestamp_disconnect);
+          record.putInt(-1);
+          writer.write(record, true);
           timestamp_disconnect = TIMESTAMP_EOF;
         }
 
-        ByteBuffer buffer = ByteBuffer.allocate(retained_bread + 8);
-        buffer.putInt(retained_timestamp);
-        buffer.putInt(retained_bread);
-        buffer.put(retained_bytes, retained_off, retained_bread);
-        input_checksum.update(buffer.array());
-        input.write(buffer.array());
-
         /* Debug viewing entire input stream
         System.out.print("Writing Input Stream: ");
-        for (byte h : buffer.array()) {
-            System.out.print(String.format("%d ",  Byte.toUnsignedInt(h)));
+        for (int i = retained_off; i < retained_off + retained_bread; i++) {
+            System.out.print(String.format("%d ",  Byte.toUnsignedInt(retained_bytes[i])));
         }
         System.out.println();
         */
 
-        input.flush();
+        writer.writePacket(
+            ReplayWriter.STREAM_INPUT,
+            retained_timestamp,
+            retained_bytes,
+            retained_off,
+            retained_bread,
+            true);
       } catch (Exception e) {
         e.printStackTrace();
         shutdown_error();
       }
     }
     retained_timestamp = timestamp;
-    // Important! Cloned since it gets modified by decryption in game logic
-    retained_bytes = b.clone();
-    retained_off = off;
+    // Important! Copied since it gets modified by decryption in game logic
+    // Only the bytes that were read are kept, in a buffer reused for the whole recording
+    if (retained_bytes == null || retained_bytes.length < bytesread) {
+      retained_bytes = new byte[Math.max(bytesread, RETAINED_BUFFER_SIZE)];
+    }
+    if (bytesread > 0) System.arraycopy(b, off, retained_bytes, 0, bytesread);
+    retained_off = 0;
     retained_bread = bytesread;
   }
 
   public static void dumpRawOutputStream(byte[] b, int off, int len) {
-    if (output == null) return;
+    if (writer == null) return;
+
+    if (writer.hasFailed()) {
+      shutdown_error();
+      return;
+    }
 
     try {
       boolean isLogin = false;
       int pos = -1;
-      byte[] out_b = null;
       // for the first bytes if byte == (byte)Client.version, 4 bytes before indicate if its
       // login or reconnect and 5 its what determines if its login-related
       for (int i = off + 5; i < off + Math.min(15, len); i++) {
         if (b[i] == (byte) Client.version && b[i - 5] == 0 && (b[i - 4] == 0 || b[i - 4] == 1)) {
           isLogin = true;
           pos = i + 1;
-          out_b = b.clone();
           break;
         }
       }
+
+      ReplayWriter.Record record = writer.obtain(ReplayWriter.STREAM_OUTPUT);
+      record.putInt(timestamp);
+      record.putInt(len);
+      int dataStart = record.position();
+      record.put(b, off, len);
+
       if (isLogin && pos != -1) {
-        for (int i = pos; i < off + len; i++) {
+        // Scrub the login block in our copy, the client's buffer is left untouched
+        byte[] out_b = record.array();
+        for (int i = dataStart + pos - off; i < dataStart + len; i++) {
           out_b[i] = 0x00;
         }
 
         Logger.Info("Replay: Removed login block from client output");
-
-        ByteBuffer buffer = ByteBuffer.allocate(len + 8);
-        buffer.putInt(timestamp);
-        buffer.putInt(len);
-        buffer.put(out_b, off, len);
-        output_checksum.update(buffer.array());
-        output.write(buffer.array());
-        output.flush();
-
-        /*
-         // Debug viewing entire output stream
-        System.out.print("Writing Output Stream: ");
-        for (byte h : buffer.array()) {
-            System.out.print(String.format("%d ",  Byte.toUnsignedInt(h)));
-        }
-        System.out.println();
-        */
-
-        return;
       }
 
-      ByteBuffer buffer = ByteBuffer.allocate(len + 8);
-      buffer.putInt(timestamp);
-      buffer.putInt(len);
-      buffer.put(b, off, len);
-      output_checksum.update(buffer.array());
-      output.write(buffer.array());
-      output.flush();
-
       /*
       // Debug viewing entire output stream
       System.out.print("Writing Output Stream: ");
-      for (byte h : buffer.array()) {
-        System.out.print(String.format("%d ",  Byte.toUnsignedInt(h)));
+      for (int i = 0; i < record.position(); i++) {
+        System.out.print(String.format("%d ",  Byte.toUnsignedInt(record.array()[i])));
       }
       System.out.println();
       */
 
+      writer.write(record, true);
+
     } catch (Exception e) {
       e.printStackTrace();
       shutdown_error();
@@ -1230,12 +1278,11 @@ public class Replay {
       }
     }
 
-    if (keys == null) return key;
+    if (writer == null) return key;
 
     try {
       Logger.Debug(String.format("Writing XTEA key: %d", key));
-      keys.writeInt(key); // data length
-      keys.flush();
+      writer.writeInt(ReplayWriter.STREAM_KEYS, key, true); // data length
     } catch (Exception e) {
       // e.printStackTrace();
       shutdown_error();
@@ -1264,30 +1311,29 @@ public class Replay {
       Client.allTheWayLoggedIn();
 
       // received packet 182 while recording, set flag, do not dump bytes
-      if (input == null) return;
+      if (writer == null) return;
       if (isRecording) {
         // in here probably would need to check the position
         // don't care about the packet if 182, just rewrite it using the enc opcode
         try {
-          ByteBuffer buffer = ByteBuffer.allocate(retained_bread + 8);
-          buffer.putInt(retained_timestamp);
-          buffer.putInt(retained_bread);
           retained_bytes[retained_off + 1] = (byte) 127;
           retained_bytes[retained_off + 2] = 0;
           retained_bytes[retained_off + 3] = 0;
           retained_bytes[retained_off + 4] = 1;
-          buffer.put(retained_bytes, retained_off, retained_bread);
-          input_checksum.update(buffer.array());
-          input.write(buffer.array());
-          input.flush();
+          writer.writePacket(
+              ReplayWriter.STREAM_INPUT,
+              retained_timestamp,
+              retained_bytes,
+              retained_off,
+              retained_bread,
+              true);
           Logger.Debug("Replay: Removed host block from client input");
         } catch (Exception e) {
           e.printStackTrace();
           shutdown_error();
         }
+        // the retained buffer is kept, it gets reused by the next packet
         retained_timestamp = TIMESTAMP_EOF;
-        // free memory
-        retained_bytes = null;
       }
     }
 
@@ -0,0 +1,282 @@
+/**
+ * rscplus
+ *
+ * <p>This file is part of rscplus.
+ *
+ * <p>rscplus is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * <p>rscplus is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * <p>You should have received a copy of the GNU General Public License along with rscplus. If not,
+ * see <http://www.gnu.org/licenses/>.
+ *
+ * <p>Authors: see <https://github.com/RSCPlus/rscplus>
+ */
+package Game;
+
+import Client.Logger;
+import Client.Settings;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Decompressed copies of in.bin.gz for the replays played this session.
+ *
+ * <p>A replay is inflated once into a temp file in the background and memory mapped, so restarts
+ * and rewinds read it without decompressing it again. The least recently played replays are
+ * evicted once the cache grows past replay_cache_size.
+ */
+public class ReplayCache {
+  private static final LinkedHashMap<String, Entry> entries =
+      new LinkedHashMap<String, Entry>(16, 0.75f, true);
+  private static long totalSize = 0;
+  // Replays that couldn't be cached, not tried again until their in.bin.gz changes
+  private static final HashMap<String, Entry> rejected = new HashMap<String, Entry>();
+
+  public static class Entry {
+    private final String directory;
+    private final File source;
+    private final long sourceLength;
+    private final long sourceModified;
+    private File file = null;
+    private volatile MappedByteBuffer buffer = null;
+    private int users = 0;
+    private boolean evicted = false;
+
+    private Entry(String directory, File source) {
+      this.directory = directory;
+      this.source = source;
+      sourceLength = source.length();
+      sourceModified = source.lastModified();
+    }
+
+    private boolean isStale() {
+      return source.length() != sourceLength || source.lastModified() != sourceModified;
+    }
+
+    /** Returns true once the replay is inflated and mapped. */
+    public boolean isReady() {
+      return buffer != null;
+    }
+
+    /** Returns the decompressed length, or 0 if the entry isn't ready. */
+    public long length() {
+      MappedByteBuffer mapped = buffer;
+      return mapped != null ? mapped.capacity() : 0;
+    }
+
+    /**
+     * Opens the decompressed replay.
+     *
+     * @param offset offset in the decompressed stream to start at
+     * @return the stream, or null if the entry isn't ready yet
+     */
+    public InputStream open(long offset) {
+      MappedByteBuffer mapped = buffer;
+      if (mapped == null || offset > mapped.capacity()) return null;
+
+      ByteBuffer view = mapped.duplicate();
+      view.position((int) offset);
+      return new ByteBufferInputStream(view);
+    }
+
+    private void inflate() {
+      // One mapping can't be larger than 2GB, those replays are read from in.bin.gz
+      long limit = Math.min(Integer.MAX_VALUE, getMaxSize());
+      long length = 0;
+      File temp = null;
+      try {
+        temp = File.createTempFile("rscplus-replay", ".bin");
+        temp.deleteOnExit();
+        try (InputStream in = new GZIPInputStream(new FileInputStream(source), 65536);
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(temp), 65536)) {
+          byte[] data = new byte[65536];
+          int count;
+          while (length <= limit && (count = in.read(data)) != -1) {
+            length += count;
+            if (length <= limit) out.write(data, 0, count);
+          }
+        }
+        if (length > limit) {
+          Logger.Debug("ReplayCache: Replay too large to cache; " + directory);
+          temp.delete();
+          failed(this);
+          return;
+        }
+
+        MappedByteBuffer mapped;
+        try (RandomAccessFile raf = new RandomAccessFile(temp, "r")) {
+          mapped = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        }
+        added(this, temp, mapped);
+      } catch (IOException e) {
+        Logger.Warn("ReplayCache: Unable to cache replay; " + directory);
+        if (temp != null) temp.delete();
+        failed(this);
+      }
+    }
+  }
+
+  private static long getMaxSize() {
+    return Settings.REPLAY_CACHE_SIZE.get(Settings.currentProfile) * 1024L * 1024L;
+  }
+
+  /**
+   * Gets the cache entry of a replay, inflating it in the background if it isn't cached yet.
+   *
+   * <p>The entry isn't evicted until it's given back with {@link #release(Entry)}.
+   *
+   * @return the entry, or null if caching is turned off, the replay has no in.bin.gz or it
+   *     couldn't be cached before
+   */
+  public static synchronized Entry acquire(String directory) {
+    if (getMaxSize() <= 0) return null;
+
+    File source = new File(directory, "in.bin.gz");
+    if (!source.isFile()) return null;
+
+    Entry rejectedEntry = rejected.get(directory);
+    if (rejectedEntry != null) {
+      if (!rejectedEntry.isStale()) return null;
+      rejected.remove(directory);
+    }
+
+    Entry entry = entries.get(directory);
+    if (entry != null && entry.isStale()) {
+      remove(entry);
+      entry = null;
+    }
+    if (entry == null) {
+      final Entry newEntry = new Entry(directory, source);
+      entries.put(directory, newEntry);
+      entry = newEntry;
+      Thread thread =
+          new Thread(
+              new Runnable() {
+                @Override
+                public void run() {
+                  newEntry.inflate();
+                }
+              },
+              "ReplayCache");
+      thread.setDaemon(true);
+      thread.start();
+    }
+    entry.users++;
+    return entry;
+  }
+
+  public static synchronized void release(Entry entry) {
+    if (entry == null) return;
+
+    entry.users--;
+    evict();
+  }
+
+  private static synchronized void added(Entry entry, File file, MappedByteBuffer buffer) {
+    if (entry.evicted) {
+      file.delete();
+      return;
+    }
+
+    entry.file = file;
+    entry.buffer = buffer;
+    totalSize += file.length();
+    Logger.Debug(
+        "ReplayCache: Cached "
+            + file.length() / 1024
+            + " KB; total="
+            + totalSize / 1024
+            + " KB; "
+            + entry.directory);
+    evict();
+  }
+
+  /** Drops an entry that couldn't be cached and remembers its replay until in.bin.gz changes. */
+  private static synchronized void failed(Entry entry) {
+    entry.evicted = true;
+    if (entries.remove(entry.directory, entry)) rejected.put(entry.directory, entry);
+  }
+
+  /** Removes the least recently used entries that aren't in use until the cache fits its size. */
+  private static void evict() {
+    long maxSize = getMaxSize();
+    Iterator<Entry> iterator = entries.values().iterator();
+    while (totalSize > maxSize && iterator.hasNext()) {
+      Entry entry = iterator.next();
+      if (entry.users > 0 || entry.file == null) continue;
+
+      iterator.remove();
+      discard(entry);
+    }
+  }
+
+  private static void remove(Entry entry) {
+    entries.remove(entry.directory);
+    discard(entry);
+  }
+
+  private static void discard(Entry entry) {
+    entry.evicted = true;
+    if (entry.file == null) return;
+
+    totalSize -= entry.file.length();
+    entry.buffer = null;
+    // Streams opened on the entry keep their mapping, the file is gone once they're collected
+    if (!entry.file.delete()) entry.file.deleteOnExit();
+    entry.file = null;
+  }
+
+  /** Reads a buffer, without copying it. */
+  private static class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer buffer;
+
+    ByteBufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] data, int offset, int length) {
+      if (length == 0) return 0;
+      if (!buffer.hasRemaining()) return -1;
+
+      length = Math.min(length, buffer.remaining());
+      buffer.get(data, offset, length);
+      return length;
+    }
+
+    @Override
+    public long skip(long count) {
+      int skipped = (int) Math.max(0, Math.min(count, buffer.remaining()));
+      buffer.position(buffer.position() + skipped);
+      return skipped;
+    }
+
+    @Override
+    public int available() {
+      return buffer.remaining();
+    }
+  }
+}
@@ -0,0 +1,274 @@
+/**
+ * rscplus
+ *
+ * <p>This file is part of rscplus.
+ *
+ * <p>rscplus is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * <p>rscplus is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * <p>You should have received a copy of the GNU General Public License along with rscplus. If not,
+ * see <http://www.gnu.org/licenses/>.
+ *
+ * <p>Authors: see <https://github.com/RSCPlus/rscplus>
+ */
+package Game;
+
+import Client.Logger;
+import Client.Settings;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The metadata.bin of every replay seen so far, saved in replay_catalog.bin.
+ *
+ * <p>Entries are keyed by the replay folder. After loading, they are used right away and checked
+ * against the length and modification time of their metadata.bin in the background, so the queue
+ * window can show thousands of replays without touching their folders first.
+ */
+public class ReplayCatalog {
+  public static final String FILENAME = "replay_catalog.bin";
+
+  private static final int MAGIC = 0x52435443; // RCTC
+  private static final int VERSION = 1;
+  // How long changes are collected before the catalog is saved, in milliseconds
+  private static final int SAVE_DELAY = 2000;
+
+  private static final ConcurrentHashMap<String, Entry> entries =
+      new ConcurrentHashMap<String, Entry>();
+  private static volatile boolean loaded = false;
+  private static volatile boolean checked = false;
+  // Incremented by reset, so a check of the catalog loaded before it doesn't count
+  private static volatile int generation = 0;
+  private static boolean saveScheduled = false;
+
+  private static class Entry {
+    final long metadataLength;
+    final long metadataModified;
+    final Object[] metadata;
+    // Set once the entry was checked against its metadata.bin this session
+    volatile boolean checked;
+
+    Entry(long metadataLength, long metadataModified, Object[] metadata, boolean checked) {
+      this.metadataLength = metadataLength;
+      this.metadataModified = metadataModified;
+      this.metadata = metadata;
+      this.checked = checked;
+    }
+  }
+
+  /**
+   * Returns the metadata of a replay, in the same form as {@link Replay#readMetadata(String)}.
+   *
+   * @param replayFolder the replay folder
+   */
+  public static Object[] getMetadata(String replayFolder) {
+    load();
+    String path = new File(replayFolder).getAbsolutePath();
+    Entry entry = entries.get(path);
+    // Loaded entries are trusted until the background check gets to them
+    if (entry != null) return entry.metadata;
+
+    File metadataFile = new File(path + "/metadata.bin");
+    long metadataLength = metadataFile.length();
+    long metadataModified = metadataFile.lastModified();
+    Object[] metadata = Replay.readMetadata(path);
+    entries.put(path, new Entry(metadataLength, metadataModified, metadata, true));
+    scheduleSave();
+    return metadata;
+  }
+
+  /** Returns true once every loaded entry was checked against its metadata.bin. */
+  public static boolean isChecked() {
+    return checked;
+  }
+
+  /** Drops the loaded entries whose metadata.bin changed or is gone. */
+  private static void check(int loadedGeneration) {
+    long start = System.currentTimeMillis();
+    int dropped = 0;
+    for (Map.Entry<String, Entry> mapEntry : entries.entrySet()) {
+      Entry entry = mapEntry.getValue();
+      if (entry.checked) continue;
+
+      File metadataFile = new File(mapEntry.getKey() + "/metadata.bin");
+      if (metadataFile.length() == entry.metadataLength
+          && metadataFile.lastModified() == entry.metadataModified) {
+        entry.checked = true;
+      } else if (entries.remove(mapEntry.getKey(), entry)) {
+        dropped++;
+      }
+    }
+    if (generation != loadedGeneration) return;
+    checked = true;
+    if (dropped > 0) scheduleSave();
+    Logger.Debug(
+        String.format(
+            "ReplayCatalog: Checked %d replays in %d ms; dropped=%d",
+            entries.size(), System.currentTimeMillis() - start, dropped));
+  }
+
+  /** Forgets the metadata of a replay, for when its metadata.bin was written. */
+  public static void invalidate(String replayFolder) {
+    load();
+    if (entries.remove(new File(replayFolder).getAbsolutePath()) != null) scheduleSave();
+  }
+
+  /** Moves the metadata of a renamed replay folder. */
+  public static void rename(File from, File to) {
+    load();
+    Entry entry = entries.remove(from.getAbsolutePath());
+    if (entry != null) {
+      entries.put(to.getAbsolutePath(), entry);
+      scheduleSave();
+    }
+  }
+
+  private static File getFile() {
+    return new File(Settings.Dir.JAR + "/" + FILENAME);
+  }
+
+  private static void load() {
+    if (loaded) return;
+    final int loadedGeneration;
+    synchronized (ReplayCatalog.class) {
+      if (loaded) return;
+      read();
+      loaded = true;
+      loadedGeneration = generation;
+    }
+
+    Thread thread =
+        new Thread(
+            new Runnable() {
+              @Override
+              public void run() {
+                check(loadedGeneration);
+              }
+            },
+            "ReplayCatalog");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  private static void read() {
+    File file = getFile();
+    if (!file.exists()) return;
+
+    long start = System.currentTimeMillis();
+    try {
+      DataInputStream in =
+          new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536));
+      try {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+          Logger.Warn("ReplayCatalog: Ignoring " + FILENAME + " of an unknown version");
+          return;
+        }
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+          String path = in.readUTF();
+          long metadataLength = in.readLong();
+          long metadataModified = in.readLong();
+          Object[] metadata =
+              new Object[] {
+                in.readInt(), in.readLong(), in.readUTF(), in.readByte(), in.readInt()
+              };
+          entries.put(path, new Entry(metadataLength, metadataModified, metadata, false));
+        }
+      } finally {
+        in.close();
+      }
+      Logger.Debug(
+          String.format(
+              "ReplayCatalog: Loaded %d replays in %d ms",
+              entries.size(), System.currentTimeMillis() - start));
+    } catch (IOException e) {
+      Logger.Warn("ReplayCatalog: Couldn't read " + FILENAME);
+    }
+  }
+
+  /** Saves the catalog in the background once changes stop coming in for a moment. */
+  private static synchronized void scheduleSave() {
+    if (saveScheduled) return;
+    saveScheduled = true;
+
+    Thread thread =
+        new Thread(
+            new Runnable() {
+              @Override
+              public void run() {
+                try {
+                  Thread.sleep(SAVE_DELAY);
+                } catch (InterruptedException e) {
+                }
+                synchronized (ReplayCatalog.class) {
+                  saveScheduled = false;
+                }
+                save();
+              }
+            },
+            "ReplayCatalog");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /** Writes the catalog to replay_catalog.bin. */
+  public static synchronized void save() {
+    ArrayList<Map.Entry<String, Entry>> snapshot =
+        new ArrayList<Map.Entry<String, Entry>>(entries.entrySet());
+
+    // Written next to the catalog first, so a crash can't leave half of it behind
+    File file = getFile();
+    File tempFile = new File(file.getPath() + ".tmp");
+    try {
+      DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 65536));
+      try {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(snapshot.size());
+        for (Map.Entry<String, Entry> mapEntry : snapshot) {
+          Entry entry = mapEntry.getValue();
+          out.writeUTF(mapEntry.getKey());
+          out.writeLong(entry.metadataLength);
+          out.writeLong(entry.metadataModified);
+          out.writeInt((Integer) entry.metadata[0]);
+          out.writeLong((Long) entry.metadata[1]);
+          out.writeUTF((String) entry.metadata[2]);
+          out.writeByte((Byte) entry.metadata[3]);
+          out.writeInt((Integer) entry.metadata[4]);
+        }
+      } finally {
+        out.close();
+      }
+      if (!tempFile.renameTo(file)) {
+        file.delete();
+        if (!tempFile.renameTo(file)) throw new IOException("rename failed");
+      }
+    } catch (IOException e) {
+      Logger.Warn("ReplayCatalog: Couldn't save " + FILENAME);
+      tempFile.delete();
+    }
+  }
+
+  /** Drops the loaded catalog, so it's read from replay_catalog.bin again on next use. */
+  static synchronized void reset() {
+    entries.clear();
+    loaded = false;
+    checked = false;
+    generation++;
+  }
+}
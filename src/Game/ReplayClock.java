@@ -0,0 +1,104 @@
+/**
+ * rscplus
+ *
+ * <p>This file is part of rscplus.
+ *
+ * <p>rscplus is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * <p>rscplus is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * <p>You should have received a copy of the GNU General Public License along with rscplus. If not,
+ * see <http://www.gnu.org/licenses/>.
+ *
+ * <p>Authors: see <https://github.com/RSCPlus/rscplus>
+ */
+package Game;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Paces replay playback at the frame length from {@link Replay#getFrameTimeNanos()}.
+ *
+ * <p>Deadlines are counted in ticks from a start time instead of being added up frame by frame, so
+ * frame lengths that aren't a whole number of nanos or millis don't drift. Waiting sleeps until
+ * shortly before a deadline and spins for the rest, since sleeps can overshoot by a millisecond or
+ * more.
+ */
+public class ReplayClock {
+  // Spin instead of sleeping when the deadline is this close
+  private static final long SPIN_NANOS = 1500000L;
+  // Start over from the current time instead of catching up when this far behind
+  private static final long MAX_LAG_NANOS = 250000000L;
+  // Weight of the latest tick in the jitter average
+  private static final int JITTER_SAMPLES = 32;
+
+  private long start;
+  private long ticks;
+  private double frameNanos;
+  private long deadline;
+
+  private volatile long jitter;
+
+  /** Makes the next tick due now. */
+  public void reset() {
+    start = System.nanoTime();
+    ticks = 0;
+    frameNanos = Replay.getFrameTimeNanos();
+    deadline = start;
+  }
+
+  /** Makes the next tick due one frame from now. */
+  public void resetDelayed() {
+    reset();
+    ticks = 1;
+    deadline = start + (long) frameNanos;
+  }
+
+  /**
+   * Advances the clock by a tick if its deadline has passed.
+   *
+   * @return true if a tick was due
+   */
+  public boolean poll() {
+    double frame = Replay.getFrameTimeNanos();
+    if (frame != frameNanos) {
+      // Continue from the current deadline at the new speed
+      start = deadline;
+      ticks = 0;
+      frameNanos = frame;
+    }
+
+    long now = System.nanoTime();
+    long lateness = now - deadline;
+    if (lateness < 0) return false;
+
+    if (lateness > MAX_LAG_NANOS) {
+      // We were held up, e.g. by a reconnect, don't rush through the missed frames
+      start = now;
+      ticks = 0;
+    } else if (frameNanos > 0) {
+      jitter += (lateness - jitter) / JITTER_SAMPLES;
+    }
+    ticks++;
+    deadline = start + (long) (ticks * frameNanos);
+    return true;
+  }
+
+  /** Waits until the next tick is due. */
+  public void await() {
+    long remaining;
+    while ((remaining = deadline - System.nanoTime()) > 0) {
+      if (remaining > SPIN_NANOS) LockSupport.parkNanos(remaining - SPIN_NANOS);
+      else Thread.yield();
+    }
+  }
+
+  /** Returns the average time ticks happened after their deadline. */
+  public long getJitterNanos() {
+    return jitter;
+  }
+}
@@ -0,0 +1,558 @@
+/**
+ * rscplus
+ *
+ * <p>This file is part of rscplus.
+ *
+ * <p>rscplus is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * <p>rscplus is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * <p>You should have received a copy of the GNU General Public License along with rscplus. If not,
+ * see <http://www.gnu.org/licenses/>.
+ *
+ * <p>Authors: see <https://github.com/RSCPlus/rscplus>
+ */
+package Game;
+
+import Client.Logger;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Sidecar index of a replay's in.bin.gz, stored as index.bin next to it.
+ *
+ * <p>It holds the end timestamp and packet count, so the replay length is known without
+ * decompressing the replay, and checkpoints at which decompression can resume. A checkpoint
+ * points at a deflate sync flush in the compressed file and carries the last 32 KiB of
+ * uncompressed data, which is the dictionary needed to resume from there.
+ *
+ * <p>Checkpoints are taken periodically and at every reconnect. Reconnect checkpoints are where
+ * playback can be restarted from, since the server sends the whole game state again on login.
+ *
+ * <p>The index is written while recording and built on first use for older replays.
+ */
+public class ReplayIndex {
+  public static final String FILENAME = "index.bin";
+
+  private static final int INDEX_VERSION = 1;
+
+  // Uncompressed bytes between periodic checkpoints
+  private static final int CHECKPOINT_INTERVAL = 4 * 1024 * 1024;
+  // Size of the deflate history window
+  private static final int WINDOW_SIZE = 32 * 1024;
+  // Size of the header written by GZIPOutputStream
+  private static final int GZIP_HEADER_SIZE = 10;
+  // Uncompressed bytes used to verify a checkpoint found while scanning an existing replay
+  private static final int VERIFY_SIZE = 4096;
+
+  public int endTimestamp = 0;
+  public int packetCount = 0;
+  public ArrayList<Checkpoint> checkpoints = new ArrayList<Checkpoint>();
+
+  private long sourceLength;
+  private long sourceModified;
+
+  public static class Checkpoint {
+    // Timestamp of the last record before the checkpoint
+    public int timestamp;
+    // Offset of the next record in the uncompressed stream
+    public long offset;
+    // Offset in in.bin.gz where decompression resumes
+    public long compressedOffset;
+    // Number of connections before the checkpoint if it is at a reconnect, otherwise -1
+    public int connection;
+    public byte[] window;
+
+    public boolean isReconnect() {
+      return connection > 0;
+    }
+  }
+
+  /**
+   * Returns the index of a replay, building and saving it first if it is missing or outdated.
+   *
+   * @param replayDirectory the replay folder
+   * @return the index, or null if the replay can't be read
+   */
+  public static ReplayIndex load(String replayDirectory) {
+    File inFile = new File(replayDirectory + "/in.bin.gz");
+    if (!inFile.exists()) return null;
+
+    File indexFile = new File(replayDirectory + "/" + FILENAME);
+    if (indexFile.exists()) {
+      ReplayIndex index = read(indexFile);
+      if (index != null
+          && index.sourceLength == inFile.length()
+          && index.sourceModified == inFile.lastModified()) return index;
+    }
+
+    ReplayIndex index = build(inFile);
+    if (index != null) index.save(indexFile);
+    return index;
+  }
+
+  /**
+   * Finds the latest reconnect checkpoint at or before a timestamp.
+   *
+   * @return the checkpoint, or null if there is none
+   */
+  public Checkpoint findReconnect(int timestamp) {
+    Checkpoint ret = null;
+    for (Checkpoint checkpoint : checkpoints) {
+      if (checkpoint.timestamp > timestamp) break;
+      if (checkpoint.isReconnect()) ret = checkpoint;
+    }
+    return ret;
+  }
+
+  /**
+   * Opens the uncompressed in.bin.gz stream at a checkpoint.
+   *
+   * @param fileInput stream of the in.bin.gz file, the returned stream takes ownership of it
+   * @param checkpoint checkpoint of this index
+   * @return a stream positioned at the checkpoint's record
+   */
+  public static InputStream open(FileInputStream fileInput, Checkpoint checkpoint)
+      throws IOException {
+    fileInput.getChannel().position(checkpoint.compressedOffset);
+    final Inflater inflater = new Inflater(true);
+    inflater.setDictionary(checkpoint.window);
+    return new InflaterInputStream(fileInput, inflater, 8192) {
+      @Override
+      public void close() throws IOException {
+        super.close();
+        inflater.end();
+      }
+    };
+  }
+
+  public void save(File indexFile) {
+    try {
+      DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)));
+      out.writeInt(INDEX_VERSION);
+      out.writeLong(sourceLength);
+      out.writeLong(sourceModified);
+      out.writeInt(endTimestamp);
+      out.writeInt(packetCount);
+      out.writeInt(checkpoints.size());
+      for (Checkpoint checkpoint : checkpoints) {
+        out.writeInt(checkpoint.timestamp);
+        out.writeLong(checkpoint.offset);
+        out.writeLong(checkpoint.compressedOffset);
+        out.writeInt(checkpoint.connection);
+        out.writeInt(checkpoint.window.length);
+        out.write(checkpoint.window);
+      }
+      out.close();
+    } catch (IOException e) {
+      // Replays on read-only media are still playable, the index is rebuilt next time
+      Logger.Debug("Unable to write " + indexFile.getPath());
+    }
+  }
+
+  private static ReplayIndex read(File indexFile) {
+    try {
+      DataInputStream in =
+          new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+      try {
+        if (in.readInt() != INDEX_VERSION) return null;
+
+        ReplayIndex index = new ReplayIndex();
+        index.sourceLength = in.readLong();
+        index.sourceModified = in.readLong();
+        index.endTimestamp = in.readInt();
+        index.packetCount = in.readInt();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+          Checkpoint checkpoint = new Checkpoint();
+          checkpoint.timestamp = in.readInt();
+          checkpoint.offset = in.readLong();
+          checkpoint.compressedOffset = in.readLong();
+          checkpoint.connection = in.readInt();
+          checkpoint.window = new byte[in.readInt()];
+          in.readFully(checkpoint.window);
+          index.checkpoints.add(checkpoint);
+        }
+        return index;
+      } finally {
+        in.close();
+      }
+    } catch (Exception e) {
+      return null;
+    }
+  }
+
+  /**
+   * Builds the index of an existing in.bin.gz by decompressing it once.
+   *
+   * <p>Sync flush markers are found by scanning the compressed data, every checkpoint taken at one
+   * is verified by resuming decompression from it and comparing the output.
+   */
+  public static ReplayIndex build(File inFile) {
+    Builder builder = new Builder();
+    Inflater inflater = new Inflater(true);
+    RandomAccessFile verifyFile = null;
+
+    try {
+      InputStream in = new BufferedInputStream(new FileInputStream(inFile));
+      try {
+        long position = skipGZIPHeader(in);
+        verifyFile = new RandomAccessFile(inFile, "r");
+
+        byte[] compressed = new byte[65536];
+        byte[] uncompressed = new byte[65536];
+        int marker = -1;
+        int length;
+        while (!inflater.finished() && (length = in.read(compressed)) != -1) {
+          int start = 0;
+          while (start < length && !inflater.finished()) {
+            // Feed the inflater up to the end of the next sync flush marker
+            int end = start;
+            boolean syncPoint = false;
+            while (end < length) {
+              marker = (marker << 8) | (compressed[end++] & 0xFF);
+              if (marker == 0x0000FFFF) {
+                syncPoint = true;
+                break;
+              }
+            }
+
+            inflater.setInput(compressed, start, end - start);
+            int count;
+            while ((count = inflater.inflate(uncompressed)) > 0) {
+              builder.update(uncompressed, 0, count);
+            }
+            if (inflater.needsDictionary()) return null;
+            position += end - start;
+            start = end;
+
+            if (syncPoint && builder.isCheckpointDue()) {
+              Checkpoint checkpoint = builder.addCheckpoint(position);
+              builder.expect(checkpoint, resume(verifyFile, checkpoint));
+            }
+          }
+        }
+      } finally {
+        in.close();
+      }
+    } catch (Exception e) {
+      // Truncated replays still get an index of everything readable
+      Logger.Debug("ReplayIndex: Stopped reading " + inFile.getPath() + ": " + e.getMessage());
+    } finally {
+      inflater.end();
+      try {
+        if (verifyFile != null) verifyFile.close();
+      } catch (IOException e) {
+      }
+    }
+
+    return builder.finish(inFile);
+  }
+
+  private static long skipGZIPHeader(InputStream in) throws IOException {
+    DataInputStream data = new DataInputStream(in);
+    if (data.readUnsignedShort() != 0x1F8B || data.readUnsignedByte() != 8)
+      throw new IOException("Not a gzip file");
+    int flags = data.readUnsignedByte();
+    data.skipBytes(6);
+    long position = 10;
+    if ((flags & 0x04) != 0) {
+      int length = data.readUnsignedByte() | (data.readUnsignedByte() << 8);
+      data.skipBytes(length);
+      position += 2 + length;
+    }
+    for (int flag = 0x08; flag <= 0x10; flag <<= 1) {
+      if ((flags & flag) != 0) {
+        while (data.readUnsignedByte() != 0) position++;
+        position++;
+      }
+    }
+    if ((flags & 0x02) != 0) {
+      data.skipBytes(2);
+      position += 2;
+    }
+    return position;
+  }
+
+  /** Decompresses the start of the data following a checkpoint, null if that fails. */
+  private static byte[] resume(RandomAccessFile file, Checkpoint checkpoint) throws IOException {
+    byte[] compressed = new byte[VERIFY_SIZE * 2];
+    file.seek(checkpoint.compressedOffset);
+    int length = file.read(compressed);
+    if (length <= 0) return null;
+
+    Inflater inflater = new Inflater(true);
+    try {
+      inflater.setDictionary(checkpoint.window);
+      inflater.setInput(compressed, 0, length);
+      byte[] output = new byte[VERIFY_SIZE];
+      int count = 0;
+      while (count < output.length && !inflater.finished()) {
+        int inflated = inflater.inflate(output, count, output.length - count);
+        if (inflated == 0) break;
+        count += inflated;
+      }
+      byte[] ret = new byte[count];
+      System.arraycopy(output, 0, ret, 0, count);
+      return ret;
+    } catch (DataFormatException e) {
+      return null;
+    } finally {
+      inflater.end();
+    }
+  }
+
+  /**
+   * Sits between the compressor and the in.bin.gz file while recording, and builds the index from
+   * the compressed data as it is written. The index is saved when the stream is closed.
+   *
+   * <p>The compressed data is decompressed again to find the sync flush points. A checkpoint is
+   * only taken when the data written so far ends with a sync flush marker and decompresses up to a
+   * record boundary, so it never depends on how the compressor split its output.
+   */
+  public static class Recorder extends FilterOutputStream {
+    private final File inFile;
+    private final Builder builder = new Builder();
+    private final Inflater inflater = new Inflater(true);
+    private final byte[] uncompressed = new byte[65536];
+    private long position = 0;
+    private int marker = -1;
+    private boolean failed = false;
+
+    public Recorder(File inFile) throws IOException {
+      super(new FileOutputStream(inFile));
+      this.inFile = inFile;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+
+      // Skip the fixed gzip header written by GZIPOutputStream
+      int header = (int) Math.max(0, Math.min(len, GZIP_HEADER_SIZE - position));
+      position += len;
+      for (int i = off + len - Math.min(len, 4); i < off + len; i++)
+        marker = (marker << 8) | (b[i] & 0xFF);
+      if (failed || header == len || inflater.finished()) return;
+
+      try {
+        inflater.setInput(b, off + header, len - header);
+        int count;
+        while ((count = inflater.inflate(uncompressed)) > 0) builder.update(uncompressed, 0, count);
+      } catch (DataFormatException e) {
+        // Doesn't affect the recording, the index is rebuilt from the file when it's loaded
+        failed = true;
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      out.flush();
+      if (!failed && marker == 0x0000FFFF && builder.isCheckpointDue())
+        builder.addCheckpoint(position);
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        super.close();
+      } finally {
+        inflater.end();
+      }
+      if (!failed) builder.finish(inFile).save(new File(inFile.getParentFile(), FILENAME));
+    }
+  }
+
+  /**
+   * Collects the index from the uncompressed in.bin stream, either while recording or while
+   * scanning an existing replay.
+   */
+  public static class Builder {
+    private final ReplayIndex index = new ReplayIndex();
+
+    // Record parser state
+    private final byte[] header = new byte[8];
+    private int headerLength = 0;
+    private int skip = 0;
+    private int pendingTimestamp;
+    private boolean eof = false;
+    private boolean reconnect = false;
+    private int connections = 1;
+    private long offset = 0;
+    private long lastCheckpoint = 0;
+
+    // Ring buffer of the last uncompressed bytes
+    private final byte[] window = new byte[WINDOW_SIZE];
+    private int windowPosition = 0;
+    private boolean windowFull = false;
+
+    // Output expected after the last checkpoint, if it still needs verifying
+    private Checkpoint verifyCheckpoint = null;
+    private byte[] verifyData = null;
+    private int verifyPosition = 0;
+
+    /** Feeds uncompressed in.bin data. */
+    public void update(byte[] data, int off, int len) {
+      updateWindow(data, off, len);
+      verify(data, off, len);
+      offset += len;
+
+      int end = off + len;
+      while (off < end && !eof) {
+        if (skip > 0) {
+          int count = Math.min(skip, end - off);
+          skip -= count;
+          off += count;
+          if (skip == 0) index.endTimestamp = pendingTimestamp;
+          continue;
+        }
+
+        header[headerLength++] = data[off++];
+        if (headerLength == 4 && readInt(0) == Replay.TIMESTAMP_EOF) {
+          eof = true;
+        } else if (headerLength == 8) {
+          headerLength = 0;
+          int timestamp = readInt(0);
+          int length = readInt(4);
+          if (length == -1) {
+            connections++;
+            reconnect = true;
+          } else {
+            index.packetCount++;
+            reconnect = false;
+          }
+          // Like Util.getReplayEnding, a packet only counts once its data is complete
+          if (length > 0) {
+            skip = length;
+            pendingTimestamp = timestamp;
+          } else {
+            index.endTimestamp = timestamp;
+          }
+        }
+      }
+    }
+
+    /** Returns true if a checkpoint should be added at the current position. */
+    public boolean isCheckpointDue() {
+      if (eof || skip > 0 || headerLength > 0 || offset == 0) return false;
+      // Only one checkpoint is verified at a time
+      if (verifyCheckpoint != null) return false;
+
+      return reconnect || offset - lastCheckpoint >= CHECKPOINT_INTERVAL;
+    }
+
+    /**
+     * Adds a checkpoint at the current position.
+     *
+     * @param compressedOffset position in the compressed file right after a sync flush
+     */
+    public Checkpoint addCheckpoint(long compressedOffset) {
+      Checkpoint checkpoint = new Checkpoint();
+      checkpoint.timestamp = index.endTimestamp;
+      checkpoint.offset = offset;
+      checkpoint.compressedOffset = compressedOffset;
+      checkpoint.connection = reconnect ? connections - 1 : -1;
+      checkpoint.window = copyWindow();
+      index.checkpoints.add(checkpoint);
+      lastCheckpoint = offset;
+      reconnect = false;
+      return checkpoint;
+    }
+
+    public ReplayIndex finish(File inFile) {
+      // A checkpoint that couldn't be verified until the end is only trusted if it is complete
+      if (verifyCheckpoint != null && verifyPosition < verifyData.length)
+        index.checkpoints.remove(verifyCheckpoint);
+
+      index.sourceLength = inFile.length();
+      index.sourceModified = inFile.lastModified();
+      return index;
+    }
+
+    void expect(Checkpoint checkpoint, byte[] data) {
+      if (data == null) {
+        index.checkpoints.remove(checkpoint);
+        return;
+      }
+      verifyCheckpoint = checkpoint;
+      verifyData = data;
+      verifyPosition = 0;
+    }
+
+    private void verify(byte[] data, int off, int len) {
+      if (verifyCheckpoint == null) return;
+
+      int count = Math.min(len, verifyData.length - verifyPosition);
+      for (int i = 0; i < count; i++) {
+        if (data[off + i] != verifyData[verifyPosition + i]) {
+          // Not a real sync flush, the marker bytes were part of the compressed data
+          index.checkpoints.remove(verifyCheckpoint);
+          verifyCheckpoint = null;
+          return;
+        }
+      }
+      verifyPosition += count;
+      if (verifyPosition == verifyData.length) verifyCheckpoint = null;
+    }
+
+    private void updateWindow(byte[] data, int off, int len) {
+      if (len >= WINDOW_SIZE) {
+        System.arraycopy(data, off + len - WINDOW_SIZE, window, 0, WINDOW_SIZE);
+        windowPosition = 0;
+        windowFull = true;
+        return;
+      }
+
+      int count = Math.min(len, WINDOW_SIZE - windowPosition);
+      System.arraycopy(data, off, window, windowPosition, count);
+      System.arraycopy(data, off + count, window, 0, len - count);
+      windowPosition += len;
+      if (windowPosition >= WINDOW_SIZE) {
+        windowPosition -= WINDOW_SIZE;
+        windowFull = true;
+      }
+    }
+
+    private byte[] copyWindow() {
+      if (!windowFull) {
+        byte[] ret = new byte[windowPosition];
+        System.arraycopy(window, 0, ret, 0, windowPosition);
+        return ret;
+      }
+      byte[] ret = new byte[WINDOW_SIZE];
+      System.arraycopy(window, windowPosition, ret, 0, WINDOW_SIZE - windowPosition);
+      System.arraycopy(window, 0, ret, WINDOW_SIZE - windowPosition, windowPosition);
+      return ret;
+    }
+
+    private int readInt(int off) {
+      return ((header[off] & 0xFF) << 24)
+          | ((header[off + 1] & 0xFF) << 16)
+          | ((header[off + 2] & 0xFF) << 8)
+          | (header[off + 3] & 0xFF);
+    }
+  }
+}
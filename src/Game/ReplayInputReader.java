@@ -0,0 +1,172 @@
+/**
+ * rscplus
+ *
+ * <p>This file is part of rscplus.
+ *
+ * <p>rscplus is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * <p>rscplus is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * <p>You should have received a copy of the GNU General Public License along with rscplus. If not,
+ * see <http://www.gnu.org/licenses/>.
+ *
+ * <p>Authors: see <https://github.com/RSCPlus/rscplus>
+ */
+package Game;
+
+import java.awt.event.KeyEvent;
+import java.io.DataInputStream;
+import java.io.IOException;
+
+/**
+ * Reads keyboard.bin.gz and mouse.bin.gz, in both the fixed-width layout of older replays and the
+ * compact layout written by {@link ReplayInputWriter}.
+ *
+ * <p>Decoded fields are stored in this reader instead of a new object per record.
+ */
+public class ReplayInputReader {
+  // First replay version with compact keyboard and mouse streams
+  public static final int VERSION_COMPACT = 6;
+
+  // Compact timestamp value marking the end of the stream
+  static final int EOF = 0;
+
+  static final int KEYBOARD_EVENT_MASK = 0x03;
+  static final int KEYBOARD_FLAG_MODIFIER = 0x04;
+  static final int KEYBOARD_FLAG_CHAR_UNDEFINED = 0x08;
+
+  static final int MOUSE_EVENT_MASK = 0x07;
+  static final int MOUSE_FLAG_MODIFIER = 0x08;
+  static final int MOUSE_FLAG_CLICK_COUNT = 0x10;
+  static final int MOUSE_FLAG_BUTTON = 0x20;
+  static final int MOUSE_FLAG_POPUP_TRIGGER = 0x40;
+  static final int MOUSE_FLAG_WHEEL = 0x80;
+
+  private final DataInputStream in;
+  private final boolean compact;
+  private boolean eof = false;
+
+  public int timestamp = 0;
+  public byte event;
+
+  // Keyboard fields
+  public char keychar;
+  public int keycode;
+
+  // Mouse fields
+  public int x = 0;
+  public int y = 0;
+  public int rotation;
+  public int clickCount = 0;
+  public int scrollType;
+  public int scrollAmount;
+  public boolean popupTrigger;
+  public int button = 0;
+
+  public int modifier = 0;
+
+  public ReplayInputReader(DataInputStream in, int replayVersion) {
+    this.in = in;
+    this.compact = replayVersion >= VERSION_COMPACT;
+  }
+
+  /**
+   * Reads the timestamp of the next record.
+   *
+   * @return the timestamp, or {@link Replay#TIMESTAMP_EOF} at the end of the stream
+   */
+  public int readTimestamp() throws IOException {
+    if (eof) return Replay.TIMESTAMP_EOF;
+
+    if (!compact) {
+      timestamp = in.readInt();
+      if (timestamp == Replay.TIMESTAMP_EOF) eof = true;
+      return timestamp;
+    }
+
+    int value = readVarInt();
+    if (value == EOF) {
+      eof = true;
+      return Replay.TIMESTAMP_EOF;
+    }
+    value--;
+    timestamp += (value >>> 1) ^ -(value & 1);
+    return timestamp;
+  }
+
+  /** Reads the keyboard record following {@link #readTimestamp()}. */
+  public void readKeyboard() throws IOException {
+    if (!compact) {
+      event = in.readByte();
+      keychar = in.readChar();
+      keycode = in.readInt();
+      modifier = in.readInt();
+      return;
+    }
+
+    int header = in.readUnsignedByte();
+    event = (byte) (header & KEYBOARD_EVENT_MASK);
+    keycode = readVarInt();
+    if ((header & KEYBOARD_FLAG_MODIFIER) != 0) modifier = readVarInt();
+    if ((header & KEYBOARD_FLAG_CHAR_UNDEFINED) != 0) keychar = KeyEvent.CHAR_UNDEFINED;
+    else keychar = (char) readVarInt();
+  }
+
+  /** Reads the mouse record following {@link #readTimestamp()}. */
+  public void readMouse() throws IOException {
+    if (!compact) {
+      event = in.readByte();
+      x = in.readInt();
+      y = in.readInt();
+      rotation = in.readInt();
+      modifier = in.readInt();
+      clickCount = in.readInt();
+      scrollType = in.readInt();
+      scrollAmount = in.readInt();
+      popupTrigger = in.readBoolean();
+      button = in.readInt();
+      return;
+    }
+
+    int header = in.readUnsignedByte();
+    event = (byte) (header & MOUSE_EVENT_MASK);
+    x += readSignedVarInt();
+    y += readSignedVarInt();
+    if ((header & MOUSE_FLAG_MODIFIER) != 0) modifier = readVarInt();
+    if ((header & MOUSE_FLAG_CLICK_COUNT) != 0) clickCount = readVarInt();
+    if ((header & MOUSE_FLAG_BUTTON) != 0) button = readVarInt();
+    popupTrigger = (header & MOUSE_FLAG_POPUP_TRIGGER) != 0;
+    if ((header & MOUSE_FLAG_WHEEL) != 0) {
+      rotation = readSignedVarInt();
+      scrollType = readVarInt();
+      scrollAmount = readSignedVarInt();
+    } else {
+      rotation = 0;
+      scrollType = 0;
+      scrollAmount = 0;
+    }
+  }
+
+  public void close() throws IOException {
+    in.close();
+  }
+
+  private int readVarInt() throws IOException {
+    int value = 0;
+    for (int shift = 0; shift < 35; shift += 7) {
+      int b = in.readUnsignedByte();
+      value |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) return value;
+    }
+    throw new IOException("Malformed varint in replay input stream");
+  }
+
+  private int readSignedVarInt() throws IOException {
+    int value = readVarInt();
+    return (value >>> 1) ^ -(value & 1);
+  }
+}
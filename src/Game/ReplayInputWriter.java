@@ -0,0 +1,207 @@
+/**
+ * rscplus
+ *
+ * <p>This file is part of rscplus.
+ *
+ * <p>rscplus is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * <p>rscplus is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * <p>You should have received a copy of the GNU General Public License along with rscplus. If not,
+ * see <http://www.gnu.org/licenses/>.
+ *
+ * <p>Authors: see <https://github.com/RSCPlus/rscplus>
+ */
+package Game;
+
+import java.awt.event.KeyEvent;
+
+/**
+ * Encodes keyboard and mouse input into the compact keyboard.bin.gz and mouse.bin.gz layout used
+ * since replay version {@link ReplayInputReader#VERSION_COMPACT}.
+ *
+ * <p>Every record starts with the timestamp delta to the previous record as a varint. A header
+ * byte holds the event and flags telling which fields changed, followed by only those fields.
+ * Coordinates are stored as deltas. Consecutive mouse moves within the same tick are coalesced
+ * into the last one, since playback dispatches all events of a tick at once anyway.
+ */
+public class ReplayInputWriter {
+  private final ReplayWriter writer;
+
+  private int keyboardTimestamp = 0;
+  private int keyboardModifier = 0;
+
+  private int mouseTimestamp = 0;
+  private int mouseX = 0;
+  private int mouseY = 0;
+  private int mouseModifier = 0;
+  private int mouseClickCount = 0;
+  private int mouseButton = 0;
+
+  // Mouse move held back so later moves in the same tick can replace it
+  private boolean pendingMove = false;
+  private int pendingTimestamp;
+  private int pendingX;
+  private int pendingY;
+  private int pendingModifier;
+  private int pendingClickCount;
+  private boolean pendingPopupTrigger;
+  private int pendingButton;
+
+  public ReplayInputWriter(ReplayWriter writer) {
+    this.writer = writer;
+  }
+
+  public synchronized void writeKeyboard(
+      int timestamp, byte event, char keychar, int keycode, int modifier)
+      throws InterruptedException {
+    ReplayWriter.Record record = writer.obtain(ReplayWriter.STREAM_KEYBOARD);
+    putTimestamp(record, timestamp - keyboardTimestamp);
+    keyboardTimestamp = timestamp;
+
+    int header = event;
+    if (modifier != keyboardModifier) header |= ReplayInputReader.KEYBOARD_FLAG_MODIFIER;
+    if (keychar == KeyEvent.CHAR_UNDEFINED)
+      header |= ReplayInputReader.KEYBOARD_FLAG_CHAR_UNDEFINED;
+    record.put((byte) header);
+
+    record.putVarInt(keycode);
+    if ((header & ReplayInputReader.KEYBOARD_FLAG_MODIFIER) != 0) {
+      record.putVarInt(modifier);
+      keyboardModifier = modifier;
+    }
+    if ((header & ReplayInputReader.KEYBOARD_FLAG_CHAR_UNDEFINED) == 0) record.putVarInt(keychar);
+
+    writer.write(record, true);
+  }
+
+  public synchronized void writeMouse(
+      int timestamp,
+      byte event,
+      int x,
+      int y,
+      int rotation,
+      int modifier,
+      int clickCount,
+      int scrollType,
+      int scrollAmount,
+      boolean popupTrigger,
+      int button)
+      throws InterruptedException {
+    if (event == Replay.MOUSE_MOVED) {
+      if (pendingMove && pendingTimestamp != timestamp) writePendingMove();
+
+      pendingMove = true;
+      pendingTimestamp = timestamp;
+      pendingX = x;
+      pendingY = y;
+      pendingModifier = modifier;
+      pendingClickCount = clickCount;
+      pendingPopupTrigger = popupTrigger;
+      pendingButton = button;
+      return;
+    }
+
+    if (pendingMove) writePendingMove();
+
+    writeMouseRecord(
+        timestamp,
+        event,
+        x,
+        y,
+        rotation,
+        modifier,
+        clickCount,
+        scrollType,
+        scrollAmount,
+        popupTrigger,
+        button);
+  }
+
+  /** Writes out any held back input and the end of stream markers. */
+  public synchronized void close() throws InterruptedException {
+    if (pendingMove) writePendingMove();
+
+    writer.write(
+        writer.obtain(ReplayWriter.STREAM_KEYBOARD).putVarInt(ReplayInputReader.EOF), false);
+    writer.write(
+        writer.obtain(ReplayWriter.STREAM_MOUSE).putVarInt(ReplayInputReader.EOF), false);
+  }
+
+  private void writePendingMove() throws InterruptedException {
+    pendingMove = false;
+    writeMouseRecord(
+        pendingTimestamp,
+        Replay.MOUSE_MOVED,
+        pendingX,
+        pendingY,
+        0,
+        pendingModifier,
+        pendingClickCount,
+        0,
+        0,
+        pendingPopupTrigger,
+        pendingButton);
+  }
+
+  private void writeMouseRecord(
+      int timestamp,
+      byte event,
+      int x,
+      int y,
+      int rotation,
+      int modifier,
+      int clickCount,
+      int scrollType,
+      int scrollAmount,
+      boolean popupTrigger,
+      int button)
+      throws InterruptedException {
+    ReplayWriter.Record record = writer.obtain(ReplayWriter.STREAM_MOUSE);
+    putTimestamp(record, timestamp - mouseTimestamp);
+    mouseTimestamp = timestamp;
+
+    int header = event;
+    if (modifier != mouseModifier) header |= ReplayInputReader.MOUSE_FLAG_MODIFIER;
+    if (clickCount != mouseClickCount) header |= ReplayInputReader.MOUSE_FLAG_CLICK_COUNT;
+    if (button != mouseButton) header |= ReplayInputReader.MOUSE_FLAG_BUTTON;
+    if (popupTrigger) header |= ReplayInputReader.MOUSE_FLAG_POPUP_TRIGGER;
+    if (rotation != 0 || scrollType != 0 || scrollAmount != 0)
+      header |= ReplayInputReader.MOUSE_FLAG_WHEEL;
+    record.put((byte) header);
+
+    record.putSignedVarInt(x - mouseX);
+    record.putSignedVarInt(y - mouseY);
+    mouseX = x;
+    mouseY = y;
+
+    if ((header & ReplayInputReader.MOUSE_FLAG_MODIFIER) != 0) {
+      record.putVarInt(modifier);
+      mouseModifier = modifier;
+    }
+    if ((header & ReplayInputReader.MOUSE_FLAG_CLICK_COUNT) != 0) {
+      record.putVarInt(clickCount);
+      mouseClickCount = clickCount;
+    }
+    if ((header & ReplayInputReader.MOUSE_FLAG_BUTTON) != 0) {
+      record.putVarInt(button);
+      mouseButton = button;
+    }
+    if ((header & ReplayInputReader.MOUSE_FLAG_WHEEL) != 0) {
+      record.putSignedVarInt(rotation);
+      record.putVarInt(scrollType);
+      record.putSignedVarInt(scrollAmount);
+    }
+
+    writer.write(record, true);
+  }
+
+  private static void putTimestamp(ReplayWriter.Record record, int delta) {
+    // Zero is reserved for the end of the stream
+    record.putVarInt(((delta << 1) ^ (delta >> 31)) + 1);
+  }
+}
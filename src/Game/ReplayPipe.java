@@ -0,0 +1,189 @@
+/**
+ * rscplus
+ *
+ * <p>This file is part of rscplus.
+ *
+ * <p>rscplus is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * <p>rscplus is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * <p>You should have received a copy of the GNU General Public License along with rscplus. If not,
+ * see <http://www.gnu.org/licenses/>.
+ *
+ * <p>Authors: see <https://github.com/RSCPlus/rscplus>
+ */
+package Game;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
+
+/**
+ * One way in-memory connection from the replay server to the client.
+ *
+ * <p>The server writes into a ring buffer through the channel interface and the client reads it
+ * through {@link #getInputStream()}, blocking the same way a socket would.
+ */
+public class ReplayPipe implements GatheringByteChannel {
+  static final int CAPACITY = 64 * 1024;
+
+  private final byte[] buffer = new byte[CAPACITY];
+  private int readPosition = 0;
+  private int count = 0;
+  private boolean writerClosed = false;
+  private boolean readerClosed = false;
+  private int readTimeout = 0;
+
+  private final InputStream inputStream =
+      new InputStream() {
+        @Override
+        public int read() throws IOException {
+          return ReplayPipe.this.read();
+        }
+
+        @Override
+        public int read(byte[] data, int offset, int length) throws IOException {
+          return ReplayPipe.this.read(data, offset, length);
+        }
+
+        @Override
+        public int available() throws IOException {
+          synchronized (ReplayPipe.this) {
+            if (readerClosed) throw new SocketException("Socket closed");
+            return count;
+          }
+        }
+
+        @Override
+        public void close() {
+          closeReader();
+        }
+      };
+
+  public InputStream getInputStream() {
+    return inputStream;
+  }
+
+  /** Sets how long a read may wait for data in millis, 0 waits forever. */
+  public synchronized void setReadTimeout(int timeout) {
+    readTimeout = timeout;
+  }
+
+  public synchronized int getReadTimeout() {
+    return readTimeout;
+  }
+
+  /** Writes all remaining bytes, waiting for the client to read when the buffer is full. */
+  @Override
+  public synchronized int write(ByteBuffer source) throws IOException {
+    int written = 0;
+    while (source.hasRemaining()) {
+      if (writerClosed) throw new ClosedChannelException();
+      if (readerClosed) throw new IOException("Connection closed by client");
+      if (count == CAPACITY) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          throw new IOException("Interrupted while writing", e);
+        }
+        continue;
+      }
+
+      int writePosition = (readPosition + count) % CAPACITY;
+      int length =
+          Math.min(source.remaining(), Math.min(CAPACITY - writePosition, CAPACITY - count));
+      source.get(buffer, writePosition, length);
+      count += length;
+      written += length;
+      notifyAll();
+    }
+    return written;
+  }
+
+  @Override
+  public synchronized long write(ByteBuffer[] sources, int offset, int length)
+      throws IOException {
+    long written = 0;
+    for (int i = offset; i < offset + length; i++) written += write(sources[i]);
+    return written;
+  }
+
+  @Override
+  public long write(ByteBuffer[] sources) throws IOException {
+    return write(sources, 0, sources.length);
+  }
+
+  private synchronized int read() throws IOException {
+    if (!awaitData()) return -1;
+
+    int data = buffer[readPosition] & 0xFF;
+    readPosition = (readPosition + 1) % CAPACITY;
+    count--;
+    notifyAll();
+    return data;
+  }
+
+  private synchronized int read(byte[] data, int offset, int length) throws IOException {
+    if (length == 0) return 0;
+    if (!awaitData()) return -1;
+
+    length = Math.min(length, Math.min(count, CAPACITY - readPosition));
+    System.arraycopy(buffer, readPosition, data, offset, length);
+    readPosition = (readPosition + length) % CAPACITY;
+    count -= length;
+    notifyAll();
+    return length;
+  }
+
+  /**
+   * Waits until there's data to read, for up to the read timeout. Called with the pipe locked.
+   *
+   * @return false at the end of the stream
+   */
+  private boolean awaitData() throws IOException {
+    long deadline = readTimeout > 0 ? System.currentTimeMillis() + readTimeout : 0;
+    while (count == 0) {
+      if (readerClosed) throw new SocketException("Socket closed");
+      if (writerClosed) return false;
+
+      long timeout = 0;
+      if (deadline != 0) {
+        timeout = deadline - System.currentTimeMillis();
+        if (timeout <= 0) throw new SocketTimeoutException("Read timed out");
+      }
+      try {
+        wait(timeout);
+      } catch (InterruptedException e) {
+        throw new IOException("Interrupted while reading", e);
+      }
+    }
+    if (readerClosed) throw new SocketException("Socket closed");
+    return true;
+  }
+
+  @Override
+  public synchronized boolean isOpen() {
+    return !writerClosed;
+  }
+
+  /** Closes the server end, the client reads what's left and then the end of the stream. */
+  @Override
+  public synchronized void close() {
+    writerClosed = true;
+    notifyAll();
+  }
+
+  /** Closes the client end, further writes by the server fail. */
+  public synchronized void closeReader() {
+    readerClosed = true;
+    notifyAll();
+  }
+}
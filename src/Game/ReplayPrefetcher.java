@@ -0,0 +1,263 @@
+/**
+ * rscplus
+ *
+ * <p>This file is part of rscplus.
+ *
+ * <p>rscplus is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * <p>rscplus is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * <p>You should have received a copy of the GNU General Public License along with rscplus. If not,
+ * see <http://www.gnu.org/licenses/>.
+ *
+ * <p>Authors: see <https://github.com/RSCPlus/rscplus>
+ */
+package Game;
+
+import Client.Logger;
+import Client.Settings;
+import Replay.scraper.ReplayEditor;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Prepares the next replays of the queue in the background while the current one plays.
+ *
+ * <p>Each replay gets its metadata read and its index loaded. With PARSE_OPCODES its packets are
+ * opened for decoding, as long as they fit in replay_prefetch_size, otherwise its decompressed copy
+ * is started in the {@link ReplayCache}. {@link ReplayServer} takes what was prepared when the
+ * replay starts instead of doing all of it before the first frame.
+ */
+public class ReplayPrefetcher {
+  private static final HashMap<String, Prefetch> prefetched = new HashMap<String, Prefetch>();
+  private static final LinkedList<String> pending = new LinkedList<String>();
+  private static List<String> wanted = new ArrayList<String>();
+  private static String preparing = null;
+  private static Thread worker = null;
+  private static long totalSize = 0;
+
+  public static class Prefetch {
+    public final String directory;
+    private final boolean parseOpcodes;
+    private Object[] metadata;
+    private ReplayIndex index;
+    private ReplayEditor editor;
+    private boolean editorComplete;
+    private ReplayCache.Entry cache;
+    private long size;
+
+    private Prefetch(String directory, boolean parseOpcodes) {
+      this.directory = directory;
+      this.parseOpcodes = parseOpcodes;
+    }
+
+    public ReplayIndex getIndex() {
+      return index;
+    }
+
+    /**
+     * Hands over the opened packets, they can only be taken once.
+     *
+     * @return the editor, or null if it wasn't prepared for the current PARSE_OPCODES setting
+     */
+    public ReplayEditor takeEditor() {
+      ReplayEditor ret = parseOpcodes == isParsing() ? editor : null;
+      editor = null;
+      return ret;
+    }
+
+    /** Returns true if the packets taken with {@link #takeEditor()} were read completely. */
+    public boolean isEditorComplete() {
+      return editorComplete;
+    }
+
+    /**
+     * Hands over the cache entry, the caller has to release it with {@link ReplayCache#release}.
+     *
+     * @return the entry, or null if there is none
+     */
+    public ReplayCache.Entry takeCache() {
+      ReplayCache.Entry ret = cache;
+      cache = null;
+      return ret;
+    }
+
+    /** Releases whatever wasn't taken. */
+    public void discard() {
+      editor = null;
+      ReplayCache.release(cache);
+      cache = null;
+    }
+  }
+
+  private static boolean isParsing() {
+    return Settings.PARSE_OPCODES.get(Settings.currentProfile);
+  }
+
+  /**
+   * Prefetches the replays of the queue following an index, dropping the ones that aren't among
+   * them anymore.
+   *
+   * @param queue the replay queue
+   * @param index index of the replay that's about to play
+   */
+  public static void update(List<File> queue, int index) {
+    int count = Settings.REPLAY_PREFETCH_COUNT.get(Settings.currentProfile);
+    ArrayList<String> next = new ArrayList<String>();
+    for (int i = index + 1; i < queue.size() && next.size() < count; i++)
+      next.add(queue.get(i).getAbsolutePath());
+
+    synchronized (ReplayPrefetcher.class) {
+      // The replay that's about to play keeps what was prefetched for it until it's taken
+      wanted = new ArrayList<String>(next);
+      if (index >= 0 && index < queue.size()) wanted.add(queue.get(index).getAbsolutePath());
+      ArrayList<Prefetch> dropped = new ArrayList<Prefetch>();
+      for (Prefetch prefetch : prefetched.values()) {
+        if (!wanted.contains(prefetch.directory)) dropped.add(prefetch);
+      }
+      for (Prefetch prefetch : dropped) remove(prefetch.directory).discard();
+
+      pending.clear();
+      for (String directory : next) {
+        if (!prefetched.containsKey(directory) && !directory.equals(preparing))
+          pending.add(directory);
+      }
+      if (worker == null && !pending.isEmpty()) {
+        worker = new Thread(new Worker(), "ReplayPrefetcher");
+        worker.setDaemon(true);
+        worker.start();
+      }
+    }
+  }
+
+  /**
+   * Takes the prefetched data of a replay, waiting for it if it's being prepared right now.
+   *
+   * @return the prefetched data, or null if the replay wasn't prefetched
+   */
+  public static synchronized Prefetch take(String directory) {
+    directory = new File(directory).getAbsolutePath();
+    try {
+      while (directory.equals(preparing)) ReplayPrefetcher.class.wait();
+    } catch (InterruptedException e) {
+      return null;
+    }
+    // Not started yet, it's about to be loaded anyway
+    pending.remove(directory);
+    return remove(directory);
+  }
+
+  /** Returns true if a replay is prefetched and ready to be taken. */
+  public static synchronized boolean isPrefetched(String directory) {
+    return prefetched.containsKey(new File(directory).getAbsolutePath());
+  }
+
+  /** Returns the metadata of a replay, from its prefetch if there is one. */
+  public static Object[] readMetadata(String directory) {
+    synchronized (ReplayPrefetcher.class) {
+      Prefetch prefetch = prefetched.get(new File(directory).getAbsolutePath());
+      if (prefetch != null && prefetch.metadata != null) return prefetch.metadata;
+    }
+    return ReplayCatalog.getMetadata(directory);
+  }
+
+  /** Drops everything that was prefetched. */
+  public static void clear() {
+    synchronized (ReplayPrefetcher.class) {
+      wanted = new ArrayList<String>();
+      pending.clear();
+      for (Prefetch prefetch : prefetched.values()) prefetch.discard();
+      prefetched.clear();
+      totalSize = 0;
+    }
+  }
+
+  private static Prefetch remove(String directory) {
+    Prefetch prefetch = prefetched.remove(directory);
+    if (prefetch != null) totalSize -= prefetch.size;
+    return prefetch;
+  }
+
+  private static Prefetch prepare(String directory) {
+    long start = System.nanoTime();
+    boolean parseOpcodes = isParsing();
+    Prefetch prefetch = new Prefetch(directory, parseOpcodes);
+    prefetch.metadata = ReplayCatalog.getMetadata(directory);
+    prefetch.index = ReplayIndex.load(directory);
+
+    if (parseOpcodes) {
+      // The incoming data is about as large as the decompressed in.bin.gz
+      long budget = Settings.REPLAY_PREFETCH_SIZE.get(Settings.currentProfile) * 1024L * 1024L;
+      long estimate = 0;
+      if (prefetch.index != null && !prefetch.index.checkpoints.isEmpty())
+        estimate = prefetch.index.checkpoints.get(prefetch.index.checkpoints.size() - 1).offset;
+      if (getTotalSize() + estimate <= budget) {
+        ReplayEditor editor = new ReplayEditor();
+        editor.setKeyCacheDirectory(new File(Settings.Dir.KEYMATCH));
+        prefetch.editorComplete = editor.openData(directory);
+        prefetch.size = editor.getDataSize();
+        if (getTotalSize() + prefetch.size <= budget) prefetch.editor = editor;
+        else prefetch.size = 0;
+      }
+    } else {
+      prefetch.cache = ReplayCache.acquire(directory);
+    }
+
+    Logger.Debug(
+        String.format(
+            "ReplayPrefetcher: Prepared %s in %d ms; packets=%b, size=%d KB",
+            directory,
+            (System.nanoTime() - start) / 1000000,
+            prefetch.editor != null,
+            prefetch.size / 1024));
+    return prefetch;
+  }
+
+  private static synchronized long getTotalSize() {
+    return totalSize;
+  }
+
+  private static class Worker implements Runnable {
+    @Override
+    public void run() {
+      while (true) {
+        String directory;
+        synchronized (ReplayPrefetcher.class) {
+          directory = pending.poll();
+          if (directory == null) {
+            worker = null;
+            return;
+          }
+          preparing = directory;
+        }
+
+        Prefetch prefetch = null;
+        try {
+          prefetch = prepare(directory);
+        } catch (Exception e) {
+          Logger.Warn("ReplayPrefetcher: Couldn't prepare " + directory);
+        }
+
+        synchronized (ReplayPrefetcher.class) {
+          preparing = null;
+          if (prefetch != null) {
+            if (wanted.contains(directory)) {
+              prefetched.put(directory, prefetch);
+              totalSize += prefetch.size;
+            } else {
+              prefetch.discard();
+            }
+          }
+          ReplayPrefetcher.class.notifyAll();
+        }
+      }
+    }
+  }
+}
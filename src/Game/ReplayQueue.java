@@ -33,6 +33,7 @@ import java.util.ArrayList;
 import java.util.List;
 import javax.swing.JFileChooser;
 import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
 
 public class ReplayQueue {
   public static int currentIndex = 0;
@@ -89,57 +90,8 @@ public class ReplayQueue {
               evt.acceptDrop(DnDConstants.ACTION_LINK);
               List<File> droppedFiles =
                   (List<File>) evt.getTransferable().getTransferData(DataFlavor.javaFileListFlavor);
-              List<File> replays = Util.getAllReplays(droppedFiles);
               Logger.Debug("Got some files");
-
-              if (replays.size() == 0) {
-                // no valid replays
-                if (foundBrokenReplay) {
-                  JOptionPane.showMessageDialog(
-                      Game.getInstance().getApplet(),
-                      "The replay you dragged onto the client has a keys.bin file which is empty.\n"
-                          + "The data inside is encrypted without a key to decrypt it. :(\n\n"
-                          + "Some information might be able to be retrieved from this replay\n"
-                          + "through reverse engineering, but basically it's broken.",
-                      "rscplus",
-                      JOptionPane.ERROR_MESSAGE,
-                      Launcher.icon_warn);
-                } else {
-                  boolean importedBank = false;
-                  if (Client.show_bank && droppedFiles.size() == 1) {
-                    if (droppedFiles.get(0).getName().contains("rscplus_bank")) {
-                      // TODO: should use int return
-                      String returnMes = Bank.importBankCsv(droppedFiles.get(0));
-                      importedBank = returnMes.contains("Successfully imported");
-                      Client.displayMessage(returnMes, Client.CHAT_QUEST);
-                    }
-                  }
-                  if (!importedBank) {
-                    // nothing that even looks like a replay was found
-                    JOptionPane.showMessageDialog(
-                        Game.getInstance().getApplet(),
-                        "The folder you dropped onto the client is not a replay, nor does it contain replay folders.\n"
-                            + "\n"
-                            + "You need to drop a folder that contains a 'version.bin', 'in.bin.gz', and 'keys.bin' for the replay.",
-                        "rscplus",
-                        JOptionPane.ERROR_MESSAGE,
-                        Launcher.icon_warn);
-                  }
-                }
-                return;
-              } else {
-                // at least 1 replay found
-                ReplayQueue.queue.addAll(replays);
-                QueueWindow.copyQueueToTable();
-                Logger.Info(
-                    String.format(
-                        "Added %d replay%s to the queue. New size: %d",
-                        replays.size(), replays.size() != 1 ? "s" : "", ReplayQueue.queue.size()));
-
-                if (Client.state == Client.STATE_LOGIN) {
-                  ReplayQueue.nextReplay();
-                }
-              }
+              scanReplays(droppedFiles);
             } else {
               // This can happen for example if a person drags rows from the replay queue window
               // into the main window
@@ -154,6 +106,139 @@ public class ReplayQueue {
         }
       };
 
+  // Scans of dropped folders still running
+  private static final ArrayList<ReplayScanner> scanners = new ArrayList<ReplayScanner>();
+
+  /** Adds the replays in dropped files to the queue in the background, as they are found. */
+  private static void scanReplays(final List<File> droppedFiles) {
+    final boolean playFirst = Client.state == Client.STATE_LOGIN;
+    ReplayScanner scanner =
+        new ReplayScanner(
+            droppedFiles,
+            new ReplayScanner.Listener() {
+              private long lastLog = System.currentTimeMillis();
+              private boolean played = false;
+
+              @Override
+              public void replaysFound(final List<File> replays) {
+                SwingUtilities.invokeLater(
+                    new Runnable() {
+                      @Override
+                      public void run() {
+                        queue.addAll(replays);
+                        QueueWindow.copyQueueToTable();
+                        if (playFirst && !played && Client.state == Client.STATE_LOGIN) {
+                          played = true;
+                          nextReplay();
+                        }
+                      }
+                    });
+              }
+
+              @Override
+              public void progress(final int scanned, final int total) {
+                if (System.currentTimeMillis() - lastLog >= 2000) {
+                  lastLog = System.currentTimeMillis();
+                  Logger.Info(String.format("Scanning replays: %d/%d", scanned, total));
+                }
+                SwingUtilities.invokeLater(
+                    new Runnable() {
+                      @Override
+                      public void run() {
+                        QueueWindow.updateScanProgress(scanned, total);
+                      }
+                    });
+              }
+
+              @Override
+              public void finished(
+                  final int found, final boolean foundBroken, final boolean cancelled) {
+                SwingUtilities.invokeLater(
+                    new Runnable() {
+                      @Override
+                      public void run() {
+                        QueueWindow.updateScanProgress(-1, -1);
+                        foundBrokenReplay = foundBroken;
+                        if (cancelled) {
+                          Logger.Info(
+                              String.format(
+                                  "Replay scan cancelled, added %d replay%s to the queue",
+                                  found, found != 1 ? "s" : ""));
+                        } else if (found == 0) {
+                          noReplaysFound(droppedFiles);
+                        } else {
+                          Logger.Info(
+                              String.format(
+                                  "Added %d replay%s to the queue. New size: %d",
+                                  found, found != 1 ? "s" : "", queue.size()));
+                        }
+                      }
+                    });
+              }
+            });
+    synchronized (scanners) {
+      removeFinishedScans();
+      scanners.add(scanner);
+    }
+    scanner.start();
+  }
+
+  /**
+   * Cancels the scans of dropped folders.
+   *
+   * @return true if a scan was running
+   */
+  public static boolean cancelScans() {
+    synchronized (scanners) {
+      removeFinishedScans();
+      for (ReplayScanner scanner : scanners) scanner.cancel();
+      boolean running = !scanners.isEmpty();
+      scanners.clear();
+      return running;
+    }
+  }
+
+  private static void removeFinishedScans() {
+    for (int i = scanners.size() - 1; i >= 0; i--) {
+      if (scanners.get(i).isFinished()) scanners.remove(i);
+    }
+  }
+
+  private static void noReplaysFound(List<File> droppedFiles) {
+    if (foundBrokenReplay) {
+      JOptionPane.showMessageDialog(
+          Game.getInstance().getApplet(),
+          "The replay you dragged onto the client has a keys.bin file which is empty.\n"
+              + "The data inside is encrypted without a key to decrypt it. :(\n\n"
+              + "Some information might be able to be retrieved from this replay\n"
+              + "through reverse engineering, but basically it's broken.",
+          "rscplus",
+          JOptionPane.ERROR_MESSAGE,
+          Launcher.icon_warn);
+    } else {
+      boolean importedBank = false;
+      if (Client.show_bank && droppedFiles.size() == 1) {
+        if (droppedFiles.get(0).getName().contains("rscplus_bank")) {
+          // TODO: should use int return
+          String returnMes = Bank.importBankCsv(droppedFiles.get(0));
+          importedBank = returnMes.contains("Successfully imported");
+          Client.displayMessage(returnMes, Client.CHAT_QUEST);
+        }
+      }
+      if (!importedBank) {
+        // nothing that even looks like a replay was found
+        JOptionPane.showMessageDialog(
+            Game.getInstance().getApplet(),
+            "The folder you dropped onto the client is not a replay, nor does it contain replay folders.\n"
+                + "\n"
+                + "You need to drop a folder that contains a 'version.bin', 'in.bin.gz', and 'keys.bin' for the replay.",
+            "rscplus",
+            JOptionPane.ERROR_MESSAGE,
+            Launcher.icon_warn);
+      }
+    }
+  }
+
   public static void nextReplay() {
     if (currentIndex < queue.size()) {
       lastIndex = currentIndex;
@@ -210,6 +295,7 @@ public class ReplayQueue {
             + "): |@@|cyan,intensity_bold "
             + currentReplayName.replace(Settings.REPLAY_BASE_PATH.get("custom"), "")
             + "|@");
+    ReplayPrefetcher.update(queue, index);
     Client.runReplayHook = true;
     QueueWindow.updatePlaying();
   }
@@ -219,6 +305,7 @@ public class ReplayQueue {
   }
 
   public static void clearQueue() {
+    ReplayPrefetcher.clear();
     queue = new ArrayList<File>();
     lastIndex = -1;
     currentIndex = 0;
@@ -0,0 +1,248 @@
+/**
+ * rscplus
+ *
+ * <p>This file is part of rscplus.
+ *
+ * <p>rscplus is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * <p>rscplus is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * <p>You should have received a copy of the GNU General Public License along with rscplus. If not,
+ * see <http://www.gnu.org/licenses/>.
+ *
+ * <p>Authors: see <https://github.com/RSCPlus/rscplus>
+ */
+package Game;
+
+import Client.Logger;
+import Client.Util;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Finds the replays in a set of folders and generates their missing metadata.
+ *
+ * <p>The folders are checked by a bounded pool of worker threads. Found replays are handed to the
+ * {@link Listener} as they come in, in the same alphabetical order a complete scan has.
+ */
+public class ReplayScanner implements Runnable {
+  private static final int MAX_THREADS = 4;
+  // How often found replays and progress are passed on, in milliseconds
+  private static final int REPORT_INTERVAL = 250;
+
+  private static final byte STATE_PENDING = 0;
+  private static final byte STATE_VALID = 1;
+  private static final byte STATE_INVALID = 2;
+  private static final byte STATE_BROKEN = 3;
+
+  // Validity of the folders scanned this session, see getState
+  private static final ConcurrentHashMap<String, Validity> validity =
+      new ConcurrentHashMap<String, Validity>();
+
+  private final List<File> inputs;
+  private final Listener listener;
+  private volatile boolean cancelled = false;
+  private volatile boolean finished = false;
+  private volatile boolean foundBroken = false;
+  private final List<File> replays = new ArrayList<File>();
+  private List<File> folders;
+  private byte[] states;
+  private final AtomicInteger nextFolder = new AtomicInteger();
+  private final AtomicInteger scanned = new AtomicInteger();
+
+  public interface Listener {
+    /** Called with each batch of found replays, in order. */
+    void replaysFound(List<File> replays);
+
+    /** Called periodically while scanning. */
+    void progress(int scanned, int total);
+
+    /**
+     * Called once the scan is over.
+     *
+     * @param found how many replays were found
+     * @param foundBroken true if a replay with an empty keys.bin was found
+     */
+    void finished(int found, boolean foundBroken, boolean cancelled);
+  }
+
+  private static class Validity {
+    final long keysLength;
+    final long keysModified;
+    final byte state;
+
+    Validity(long keysLength, long keysModified, byte state) {
+      this.keysLength = keysLength;
+      this.keysModified = keysModified;
+      this.state = state;
+    }
+  }
+
+  /**
+   * Creates a scanner.
+   *
+   * @param listener gets the results as they come in, or null to collect them for {@link
+   *     #getReplays()}
+   */
+  public ReplayScanner(List<File> inputs, Listener listener) {
+    this.inputs = inputs;
+    this.listener = listener;
+  }
+
+  /** Starts scanning in the background. */
+  public void start() {
+    Thread thread = new Thread(this, "ReplayScanner");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /** Stops the scan, replays already passed on to the listener stay found. */
+  public void cancel() {
+    cancelled = true;
+  }
+
+  public boolean isCancelled() {
+    return cancelled;
+  }
+
+  public boolean isFinished() {
+    return finished;
+  }
+
+  /** Returns true if a replay with an empty keys.bin was found. */
+  public boolean hasFoundBrokenReplay() {
+    return foundBroken;
+  }
+
+  /** Returns the replays found by a scan without a listener, sorted. */
+  public List<File> getReplays() {
+    return replays;
+  }
+
+  @Override
+  public void run() {
+    long start = System.currentTimeMillis();
+    folders = new ArrayList<File>();
+    for (File input : inputs) {
+      if (input == null) continue;
+      folders.add(input.getAbsoluteFile());
+      Util.listf(input.getAbsolutePath(), folders);
+    }
+    // Replay folders are played in alphabetical order
+    Collections.sort(folders);
+    states = new byte[folders.size()];
+
+    int threadCount =
+        Math.max(
+            1,
+            Math.min(
+                Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors()), folders.size()));
+    Thread[] threads = new Thread[threadCount];
+    for (int i = 0; i < threadCount; i++) {
+      threads[i] = new Thread(new Worker(), "ReplayScanner-" + i);
+      threads[i].setDaemon(true);
+      threads[i].start();
+    }
+
+    int reported = 0;
+    int found = 0;
+    while (reported < states.length && !cancelled) {
+      synchronized (this) {
+        try {
+          if (scanned.get() < states.length) wait(REPORT_INTERVAL);
+        } catch (InterruptedException e) {
+          cancelled = true;
+        }
+      }
+
+      // Pass on everything scanned up to the first pending folder
+      List<File> batch = new ArrayList<File>();
+      synchronized (this) {
+        for (; reported < states.length && states[reported] != STATE_PENDING; reported++) {
+          if (states[reported] == STATE_VALID) batch.add(folders.get(reported));
+          else if (states[reported] == STATE_BROKEN) foundBroken = true;
+        }
+      }
+      if (!batch.isEmpty() && !cancelled) {
+        found += batch.size();
+        if (listener != null) listener.replaysFound(batch);
+        else replays.addAll(batch);
+      }
+      if (listener != null) listener.progress(scanned.get(), states.length);
+    }
+
+    for (Thread thread : threads) {
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+      }
+    }
+
+    Logger.Debug(
+        String.format(
+            "ReplayScanner: Scanned %d folders in %d ms with %d threads; found=%d, cancelled=%b",
+            states.length, System.currentTimeMillis() - start, threadCount, found, cancelled));
+    finished = true;
+    if (listener != null) listener.finished(found, foundBroken, cancelled);
+  }
+
+  /**
+   * Checks a folder, generating its metadata if it's a replay without any.
+   *
+   * <p>Whether a folder is a replay is remembered until its keys.bin changes.
+   */
+  private static byte getState(File folder) {
+    String path = folder.getAbsolutePath();
+    File keys = new File(path + "/keys.bin");
+    long keysLength = keys.length();
+    long keysModified = keys.lastModified();
+
+    Validity cached = validity.get(path);
+    if (cached != null
+        && cached.keysLength == keysLength
+        && cached.keysModified == keysModified) {
+      if (cached.state == STATE_VALID) Replay.checkAndGenerateMetadata(path);
+      return cached.state;
+    }
+
+    byte state;
+    if (Replay.isValid(path)) {
+      Replay.checkAndGenerateMetadata(path);
+      // Read for the queue window while we're at it
+      ReplayCatalog.getMetadata(path);
+      state = STATE_VALID;
+    } else {
+      state = Replay.isBroken(path) ? STATE_BROKEN : STATE_INVALID;
+    }
+    validity.put(path, new Validity(keysLength, keysModified, state));
+    return state;
+  }
+
+  private class Worker implements Runnable {
+    @Override
+    public void run() {
+      int index;
+      while (!cancelled && (index = nextFolder.getAndIncrement()) < states.length) {
+        byte state;
+        try {
+          state = getState(folders.get(index));
+        } catch (Exception e) {
+          Logger.Warn("ReplayScanner: Couldn't check " + folders.get(index));
+          state = STATE_INVALID;
+        }
+        synchronized (ReplayScanner.this) {
+          states[index] = state;
+          if (scanned.incrementAndGet() == states.length) ReplayScanner.this.notifyAll();
+        }
+      }
+    }
+  }
+}
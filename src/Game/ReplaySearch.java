@@ -0,0 +1,177 @@
+/**
+ * rscplus
+ *
+ * <p>This file is part of rscplus.
+ *
+ * <p>rscplus is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * <p>rscplus is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * <p>You should have received a copy of the GNU General Public License along with rscplus. If not,
+ * see <http://www.gnu.org/licenses/>.
+ *
+ * <p>Authors: see <https://github.com/RSCPlus/rscplus>
+ */
+package Game;
+
+import Client.Logger;
+import Client.QueueWindow;
+import Client.Settings;
+import Client.Util;
+import Replay.analysis.ReplayAnalysis;
+import Replay.analysis.ReplaySearchIndex;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Chat and npc kill search over the replay folder, using the index in replay_search.bin.
+ *
+ * <p>"::indexreplays" brings the index up to date in the background, "::searchreplays" lists the
+ * hits of a query and "::playhit" plays the replay of a hit from a few seconds before it.
+ */
+public class ReplaySearch {
+  public static final String FILENAME = "replay_search.bin";
+
+  // Number of hits listed in the chat box
+  private static final int HIT_LIMIT = 10;
+  // How long playback starts before a hit, in frames
+  private static final int HIT_LEAD = 5 * 50;
+
+  private static ReplaySearchIndex index;
+  private static Thread indexer;
+  private static List<ReplaySearchIndex.Hit> hits = new ArrayList<ReplaySearchIndex.Hit>();
+
+  // Replay started by playHit and where to seek once it plays
+  private static String startDirectory;
+  private static int startTimestamp = Replay.TIMESTAMP_EOF;
+
+  private static synchronized ReplaySearchIndex getIndex() {
+    if (index == null) {
+      index = new ReplaySearchIndex(new File(Settings.Dir.JAR + "/" + FILENAME));
+      index.setKeyCacheDirectory(new File(Settings.Dir.KEYMATCH));
+      index.load();
+    }
+    return index;
+  }
+
+  /**
+   * Indexes the new and changed replays of the replay folder in the background.
+   *
+   * @return false if indexing is already running
+   */
+  public static synchronized boolean update() {
+    if (indexer != null && indexer.isAlive()) return false;
+
+    final String basePath = Settings.REPLAY_BASE_PATH.get(Settings.currentProfile);
+    indexer =
+        new Thread(
+            new Runnable() {
+              @Override
+              public void run() {
+                try {
+                  long start = System.currentTimeMillis();
+                  List<File> inputs = new ArrayList<File>();
+                  inputs.add(new File(basePath));
+                  List<File> replays = ReplayAnalysis.findReplays(inputs);
+                  int indexed =
+                      getIndex().update(replays, Runtime.getRuntime().availableProcessors());
+                  String message =
+                      String.format(
+                          "Indexed %d of %d replays in %d ms",
+                          indexed, replays.size(), System.currentTimeMillis() - start);
+                  Logger.Info(message);
+                  Client.displayMessage("@whi@" + message, Client.CHAT_QUEST);
+                } catch (IOException e) {
+                  Logger.Error("Could not index replays: " + e.getMessage());
+                }
+              }
+            });
+    indexer.setDaemon(true);
+    indexer.start();
+    return true;
+  }
+
+  /** Lists the hits of a query in the chat box, numbered for {@link #playHit(int)}. */
+  public static void search(String query) {
+    ReplaySearchIndex searchIndex = getIndex();
+    if (searchIndex.getReplayCount() == 0) {
+      Client.displayMessage(
+          "@whi@No replays are indexed yet, use ::indexreplays", Client.CHAT_QUEST);
+      return;
+    }
+
+    try {
+      long start = System.nanoTime();
+      hits = searchIndex.search(query, HIT_LIMIT);
+      Logger.Debug(
+          String.format(
+              "Searched %d replays for \"%s\" in %.2f ms",
+              searchIndex.getReplayCount(), query, (System.nanoTime() - start) / 1e6));
+    } catch (IOException e) {
+      Logger.Error("Could not search replays: " + e.getMessage());
+      return;
+    }
+
+    if (hits.isEmpty()) {
+      Client.displayMessage("@whi@No replays found for: " + query, Client.CHAT_QUEST);
+      return;
+    }
+    String basePath = Settings.REPLAY_BASE_PATH.get(Settings.currentProfile);
+    for (int i = 0; i < hits.size(); i++) {
+      ReplaySearchIndex.Hit hit = hits.get(i);
+      Client.displayMessage(
+          String.format(
+              "@whi@%d: %s @lre@%s",
+              i + 1,
+              hit.replay.getPath().replace(basePath, ""),
+              Util.formatTimeLongShort(hit.timestamp)),
+          Client.CHAT_QUEST);
+    }
+  }
+
+  /** Plays the replay of a hit listed by the last search, numbered from 1. */
+  public static void playHit(int number) {
+    if (number < 1 || number > hits.size()) {
+      Client.displayMessage("@whi@No such search hit: " + number, Client.CHAT_QUEST);
+      return;
+    }
+
+    ReplaySearchIndex.Hit hit = hits.get(number - 1);
+    synchronized (ReplaySearch.class) {
+      startDirectory = hit.replay.getAbsolutePath();
+      startTimestamp = Math.max(0, hit.timestamp - HIT_LEAD);
+    }
+
+    int queueIndex = -1;
+    for (int i = 0; i < ReplayQueue.queue.size() && queueIndex < 0; i++) {
+      if (ReplayQueue.queue.get(i).getAbsolutePath().equals(startDirectory)) queueIndex = i;
+    }
+    if (queueIndex < 0) {
+      ReplayQueue.queue.add(hit.replay);
+      QueueWindow.copyQueueToTable();
+      queueIndex = ReplayQueue.queue.size() - 1;
+    }
+    ReplayQueue.skipToReplay(queueIndex);
+  }
+
+  /**
+   * Returns where playback of a replay started by {@link #playHit(int)} should seek to, once.
+   *
+   * @return the timestamp, or {@link Replay#TIMESTAMP_EOF} if playback starts at the beginning
+   */
+  public static synchronized int takeStartTimestamp(String directory) {
+    if (startDirectory == null || !startDirectory.equals(new File(directory).getAbsolutePath()))
+      return Replay.TIMESTAMP_EOF;
+
+    int timestamp = startTimestamp;
+    startDirectory = null;
+    startTimestamp = Replay.TIMESTAMP_EOF;
+    return timestamp;
+  }
+}
@@ -26,36 +26,42 @@ import static java.net.StandardSocketOptions.TCP_NODELAY;
 
 import Client.Logger;
 import Client.Settings;
-import Client.Util;
 import Replay.common.ISAACCipher;
 import Replay.game.constants.Game.ItemAction;
 import Replay.scraper.ReplayEditor;
 import Replay.scraper.ReplayPacket;
+import Replay.scraper.ReplayPacketCursor;
 import java.io.BufferedInputStream;
 import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
+import java.net.Socket;
 import java.nio.ByteBuffer;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.nio.channels.GatheringByteChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.LinkedList;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.zip.GZIPInputStream;
 
 public class ReplayServer implements Runnable {
   String playbackDirectory;
   DataInputStream input = null;
-  FileInputStream file_input = null;
+  // Stream the replay is read from, in.bin.gz or its decompressed copy in the cache
+  InputStream file_input = null;
+  ReplayCache.Entry cache = null;
   ServerSocketChannel sock = null;
-  SocketChannel client = null;
+  GatheringByteChannel client = null;
   ByteBuffer readBuffer = null;
-  long frame_timer = 0;
+  final ReplayClock clock = new ReplayClock();
   int timestamp_new = Replay.TIMESTAMP_EOF;
+  // Timestamp the current seek started from
+  int timestamp_seek_start = 0;
 
   int keyIndex = 0;
   int[] keys = new int[] {0xDEADBEEF, 0xDEADBEEF, 0xDEADBEEF, 0xDEADBEEF};
@@ -72,36 +78,217 @@ public class ReplayServer implements Runnable {
   public int client_read = 0;
   public int client_write = 0;
   public int client_writePrev = 0;
+  // Guards client_read, notified whenever the client has read data
+  private final Object clientLock = new Object();
+
+  // Data sent to the client since the last seek started, for measuring the seek rate
+  private long seekStartTime = 0;
+  private long seekBytes = 0;
+  public volatile long seekBytesPerSecond = 0;
   ISAACCipher isaac = new ISAACCipher();
 
-  public LinkedList<ReplayPacket> incomingPackets;
-  public LinkedList<ReplayPacket> outgoingPackets;
-  public int incomingPacketsSizeCache = 0;
-  public int outgoingPacketsSizeCache = 0;
-  public int outgoingPacketsIndex = 0;
-  public int incomingPacketsIndex = 0;
+  // Serve the client through a ReplayPipe instead of a loopback socket
+  volatile boolean inMemory = false;
+  // In-memory connection the client made that hasn't been accepted yet
+  private ReplayPipe pendingClient = null;
+  private final Object connectLock = new Object();
+
+  ReplayIndex index = null;
+  // Reconnect checkpoint the next restart resumes from instead of the start of the replay
+  volatile ReplayIndex.Checkpoint restartCheckpoint = null;
+
+  public ReplayPacketCursor incomingPackets;
+  public ReplayPacketCursor outgoingPackets;
   public ReplayPacket nextOutgoingPacket;
   public ReplayPacket nextIncomingPacket;
   public AtomicReference<ArrayList<String>> lastMenu;
   public int lastErrorChosenOptStamp; // timestamp in which couldnt replay chosen option
   public int lastErrorChosenOpt; // chosen option which couldnt be replayed in that moment
 
+  // Packets sent while seeking are gathered in these and written together
+  private static final int SEEK_BUFFER_COUNT = 4;
+  private static final int SEEK_BUFFER_SIZE = 64 * 1024;
+  private ByteBuffer[] seekBuffers = null;
+  private int seekBufferIndex = 0;
+  // Reused to encode or read each packet before it's sent
+  private ByteBuffer packetBuffer = ByteBuffer.allocate(8 * 1024);
+
   ReplayServer(String directory) {
     playbackDirectory = directory;
     readBuffer = ByteBuffer.allocate(1024);
   }
 
   private void sync_with_client(boolean parseOpcodes) {
-    int diff = client_write - client_read;
-    int threshold = 200;
+    int threshold = Settings.REPLAY_SYNC_WINDOW.get(Settings.currentProfile);
 
     // Wait for client
-    while (!isDone && diff > threshold) {
-      try {
-        Thread.sleep(1);
-      } catch (Exception e) {
+    synchronized (clientLock) {
+      while (!isDone && client_write - client_read > threshold) {
+        try {
+          // Time out to notice isDone and a client that went away
+          clientLock.wait(100);
+        } catch (InterruptedException e) {
+        }
+      }
+    }
+  }
+
+  /** Called by the client after it has read data sent by the server. */
+  public void onClientRead(int bytesread) {
+    synchronized (clientLock) {
+      client_read += bytesread;
+      clientLock.notifyAll();
+    }
+  }
+
+  private void onClientWrite(int writeSize) {
+    client_writePrev = client_write;
+    client_write += writeSize;
+    seekBytes += writeSize;
+  }
+
+  private void resetClient() {
+    synchronized (clientLock) {
+      client_write = 0;
+      client_read = 0;
+      client_writePrev = 0;
+    }
+  }
+
+  private void finishSeek() {
+    long time = System.nanoTime() - seekStartTime;
+    if (time > 0) seekBytesPerSecond = seekBytes * 1000000000L / time;
+    Logger.Debug(
+        String.format(
+            "ReplayServer: Seek finished; %d KB in %d ms (%d KB/s), turbo=%b",
+            seekBytes / 1024,
+            time / 1000000,
+            seekBytesPerSecond / 1024,
+            Settings.REPLAY_TURBO_SEEK.get(Settings.currentProfile)));
+  }
+
+  /**
+   * Connects the client to the server in memory, like connecting to its port.
+   *
+   * @return the client end of the connection
+   */
+  public Socket connect() throws IOException {
+    ReplayPipe pipe = new ReplayPipe();
+    synchronized (connectLock) {
+      if (pendingClient != null) pendingClient.close();
+      pendingClient = pipe;
+      connectLock.notifyAll();
+    }
+    return new ReplaySocket(pipe);
+  }
+
+  /** Waits for the client to connect. */
+  private GatheringByteChannel acceptClient() throws IOException {
+    if (!inMemory) {
+      SocketChannel channel = sock.accept();
+      channel.setOption(TCP_NODELAY, new Boolean(true));
+      return channel;
+    }
+
+    synchronized (connectLock) {
+      while (pendingClient == null) {
+        if (isDone) throw new IOException("Replay closed while waiting for the client");
+        try {
+          connectLock.wait(100);
+        } catch (InterruptedException e) {
+          throw new IOException("Interrupted while waiting for the client", e);
+        }
       }
-      diff = client_write - client_read;
+      ReplayPipe pipe = pendingClient;
+      pendingClient = null;
+      return pipe;
+    }
+  }
+
+  private ByteBuffer getPacketBuffer(int size) {
+    if (packetBuffer.capacity() < size) packetBuffer = ByteBuffer.allocate(size);
+    packetBuffer.clear();
+    return packetBuffer;
+  }
+
+  /**
+   * Sends a packet to the client.
+   *
+   * <p>While seeking, packets are only copied into the seek buffers, which are written and synced
+   * with the client once they're full, see {@link #flushSeekBuffers(boolean)}.
+   */
+  private void sendToClient(ByteBuffer packet, boolean parseOpcodes) throws IOException {
+    if (!isSeeking) {
+      flushSeekBuffers(parseOpcodes);
+      int writeSize = client.write(packet);
+      if (writeSize > 0) {
+        onClientWrite(writeSize);
+        sync_with_client(parseOpcodes);
+      }
+      return;
+    }
+
+    if (seekBuffers == null) {
+      seekBuffers = new ByteBuffer[SEEK_BUFFER_COUNT];
+      for (int i = 0; i < seekBuffers.length; i++)
+        seekBuffers[i] = ByteBuffer.allocateDirect(SEEK_BUFFER_SIZE);
+    }
+
+    int limit = packet.limit();
+    while (packet.hasRemaining()) {
+      ByteBuffer seekBuffer = seekBuffers[seekBufferIndex];
+      if (!seekBuffer.hasRemaining()) {
+        if (seekBufferIndex == seekBuffers.length - 1) flushSeekBuffers(parseOpcodes);
+        else seekBufferIndex++;
+        continue;
+      }
+
+      packet.limit(packet.position() + Math.min(packet.remaining(), seekBuffer.remaining()));
+      seekBuffer.put(packet);
+      packet.limit(limit);
+    }
+  }
+
+  /** Writes the packets gathered while seeking and waits for the client to catch up. */
+  private void flushSeekBuffers(boolean parseOpcodes) throws IOException {
+    if (seekBuffers == null || seekBuffers[0].position() == 0) return;
+
+    int count = seekBufferIndex + 1;
+    for (int i = 0; i < count; i++) seekBuffers[i].flip();
+    long writeSize = 0;
+    try {
+      while (seekBuffers[count - 1].hasRemaining())
+        writeSize += client.write(seekBuffers, 0, count);
+    } finally {
+      for (ByteBuffer seekBuffer : seekBuffers) seekBuffer.clear();
+      seekBufferIndex = 0;
+    }
+
+    if (writeSize > 0) {
+      onClientWrite((int) writeSize);
+      sync_with_client(parseOpcodes);
+    }
+  }
+
+  /** Opens the replay at a checkpoint, or at the start if it's null. */
+  private void openInput(File file, ReplayIndex.Checkpoint checkpoint) throws IOException {
+    // Read from the decompressed copy once it's ready
+    long offset = checkpoint != null ? checkpoint.offset : 0;
+    InputStream cached = cache != null ? cache.open(offset) : null;
+    if (cached != null) {
+      file_input = cached;
+      size = cache.length();
+      input = new DataInputStream(cached);
+      return;
+    }
+
+    FileInputStream fileInput = new FileInputStream(file);
+    file_input = fileInput;
+    size = file.length();
+    if (checkpoint != null) {
+      input = new DataInputStream(new BufferedInputStream(ReplayIndex.open(fileInput, checkpoint)));
+    } else {
+      input = new DataInputStream(new BufferedInputStream(new GZIPInputStream(fileInput)));
     }
   }
 
@@ -114,21 +301,54 @@ public class ReplayServer implements Runnable {
   }
 
   public void seek(int new_timestamp) {
-    if (Replay.timestamp > new_timestamp) Replay.restartReplayPlayback();
+    ReplayIndex.Checkpoint checkpoint = findRestartCheckpoint(new_timestamp);
+
+    // Jump to the last reconnect before the new timestamp, unless playback is already past it
+    timestamp_seek_start = Replay.timestamp;
+    if (Replay.timestamp > new_timestamp
+        || (checkpoint != null && checkpoint.timestamp > Replay.timestamp)) {
+      restartCheckpoint = checkpoint;
+      Replay.restartReplayPlayback();
+      if (!restart) restartCheckpoint = null;
+      else timestamp_seek_start = checkpoint != null ? checkpoint.timestamp : 0;
+    }
 
+    seekStartTime = System.nanoTime();
+    seekBytes = 0;
     timestamp_new = new_timestamp;
     isSeeking = true;
   }
 
+  /**
+   * Finds the reconnect checkpoint playback can be restarted from to reach a timestamp.
+   *
+   * @return the checkpoint, or null if playback has to start from the beginning
+   */
+  private ReplayIndex.Checkpoint findRestartCheckpoint(int timestamp) {
+    // Resuming at a reconnect needs the disconnect markers of v1+ and one key set per connection
+    if (index == null
+        || Replay.replay_version < 1
+        || Settings.PARSE_OPCODES.get(Settings.currentProfile)) return null;
+
+    ReplayIndex.Checkpoint checkpoint = index.findReconnect(timestamp);
+    if (checkpoint == null) return null;
+
+    long keysLength = new File(playbackDirectory + "/keys.bin").length();
+    if (keysLength < (checkpoint.connection + 1) * 16L) return null;
+
+    return checkpoint;
+  }
+
   @Override
   public void run() {
     sock = null;
     isDone = false;
+    inMemory = !Settings.REPLAY_TCP_TRANSPORT.get(Settings.currentProfile);
     // this one will try to find open port
     int port = -1;
-    int usePort;
+    int usePort = -1;
     // attempt to find free port starting from default port
-    for (int i = 0; i < 10; i++) {
+    for (int i = 0; i < 10 && !inMemory; i++) {
       try {
         new ServerSocket(Replay.DEFAULT_PORT + i).close();
         port = Replay.DEFAULT_PORT + i;
@@ -141,37 +361,58 @@ public class ReplayServer implements Runnable {
     try {
       // Load replay
       File file = new File(playbackDirectory + "/in.bin.gz");
-      size = file.length();
-      file_input = new FileInputStream(file);
-      input = new DataInputStream(new BufferedInputStream(new GZIPInputStream(file_input)));
-      timestamp_end = Util.getReplayEnding(file);
-      Logger.Debug("ReplayServer: Replay loaded, waiting for client; length=" + timestamp_end);
-
       boolean parseOpcodesPrev = Settings.PARSE_OPCODES.get(Settings.currentProfile);
       boolean parseOpcode = parseOpcodesPrev;
 
+      // Use what was prepared while the previous replay of the queue played
+      ReplayPrefetcher.Prefetch prefetch = ReplayPrefetcher.take(playbackDirectory);
+      if (prefetch != null) {
+        index = prefetch.getIndex();
+        if (!parseOpcode) cache = prefetch.takeCache();
+      }
+
+      if (!parseOpcode && cache == null) cache = ReplayCache.acquire(playbackDirectory);
+      openInput(file, null);
+      if (index == null) index = ReplayIndex.load(playbackDirectory);
+      if (index != null) timestamp_end = index.endTimestamp;
+      Logger.Debug(
+          "ReplayServer: Replay loaded, waiting for client; length="
+              + timestamp_end
+              + ", prefetched="
+              + (prefetch != null));
+
       // Load replay a second time but using the RSCMinus method
       if (parseOpcode) {
-        initializeIncomingOutgoingPackets();
+        ReplayEditor editor = prefetch != null ? prefetch.takeEditor() : null;
+        if (editor != null) initializeIncomingOutgoingPackets(editor, prefetch.isEditorComplete());
+        else initializeIncomingOutgoingPackets();
         initializeNextIncomingOutgoingPackets();
       }
-
-      // Start the server
-      sock = ServerSocketChannel.open();
-      // last attempt 10 + default port
-      usePort = port == -1 ? Replay.DEFAULT_PORT + 10 : port;
-      Replay.changePort(usePort);
-      sock.bind(new InetSocketAddress(usePort));
+      if (prefetch != null) prefetch.discard();
+
+      // Start the server, the in-memory transport doesn't need one
+      if (!inMemory) {
+        sock = ServerSocketChannel.open();
+        // last attempt 10 + default port
+        usePort = port == -1 ? Replay.DEFAULT_PORT + 10 : port;
+        Replay.changePort(usePort);
+        sock.bind(new InetSocketAddress(usePort));
+      }
 
       // Let's connect our client
       Logger.Debug("ReplayServer: Syncing playback to client...");
       isReady = true;
-      client = sock.accept(); // waiting for Replay.initializeReplayPlayback()
-      client.setOption(TCP_NODELAY, new Boolean(true));
+      client = acceptClient(); // waiting for Replay.initializeReplayPlayback()
+
+      Logger.Debug(
+          "ReplayServer: Starting playback; "
+              + (inMemory ? "transport=memory" : "port=" + usePort));
 
-      Logger.Debug("ReplayServer: Starting playback; port=" + usePort);
+      clock.reset();
 
-      frame_timer = System.currentTimeMillis();
+      // Started from a replay search hit
+      int startTimestamp = ReplaySearch.takeStartTimestamp(playbackDirectory);
+      if (startTimestamp > 0) Replay.seek(startTimestamp);
 
       while (!isDone) {
         // Check if settings were changed for parse opcode
@@ -185,6 +426,13 @@ public class ReplayServer implements Runnable {
 
         // Restart the replay
         if (restart) {
+          ReplayIndex.Checkpoint checkpoint = parseOpcode ? null : restartCheckpoint;
+          restartCheckpoint = null;
+
+          // Skip the keys of the connections before the checkpoint
+          if (checkpoint != null) Replay.play_keys.skipBytes(checkpoint.connection * 16);
+
+          flushSeekBuffers(parseOpcode);
           if (!parseOpcode) {
             // Sync on restart
             Client.forceReconnect = true;
@@ -193,25 +441,26 @@ public class ReplayServer implements Runnable {
             Replay.frame_time_slice = 1000 / 50;
             client.close();
             Replay.paused = false;
-            client = sock.accept();
-            client.setOption(TCP_NODELAY, new Boolean(true));
-            client_write = 0;
-            client_read = 0;
-            client_writePrev = 0;
+            client = acceptClient();
+            resetClient();
             if (Replay.isSeeking) Replay.paused = wasPaused;
             else Replay.paused = false;
             Replay.frame_time_slice = oldTimeSlice;
           }
           input.close();
-          file_input = new FileInputStream(file);
-          input = new DataInputStream(new BufferedInputStream(new GZIPInputStream(file_input)));
-          Replay.timestamp = 0;
-          Replay.timestamp_client = 0;
-          Replay.timestamp_server_last = 0;
+          openInput(file, checkpoint);
+          if (checkpoint != null) {
+            Replay.timestamp = checkpoint.timestamp;
+            Replay.timestamp_client = checkpoint.timestamp;
+            Replay.timestamp_server_last = checkpoint.timestamp;
+            Logger.Debug("ReplayServer: Resuming at reconnect; timestamp=" + checkpoint.timestamp);
+          } else {
+            Replay.timestamp = 0;
+            Replay.timestamp_client = 0;
+            Replay.timestamp_server_last = 0;
+          }
           keyIndex = 0;
-          frame_timer = System.currentTimeMillis() + Replay.getFrameTimeSlice();
-          incomingPacketsIndex = 0;
-          outgoingPacketsIndex = 0;
+          clock.resetDelayed();
 
           if (parseOpcode) {
             if (incomingPackets == null) {
@@ -232,13 +481,17 @@ public class ReplayServer implements Runnable {
           }
         } else {
           // Update timestamp immediately on unpausing
-          frame_timer = System.currentTimeMillis();
+          clock.reset();
           Thread.sleep(1);
         }
       }
 
+      try {
+        flushSeekBuffers(parseOpcode);
+      } catch (IOException e) {
+      }
       client.close();
-      sock.close();
+      if (sock != null) sock.close();
       input.close();
 
       Logger.Debug("ReplayServer: Replay ended");
@@ -247,18 +500,19 @@ public class ReplayServer implements Runnable {
       if (ReplayQueue.currentIndex >= ReplayQueue.queue.size())
         Logger.Info("ReplayServer: Playback has finished");
     } catch (Exception e) {
-      if (sock != null) {
-        try {
-          sock.close();
-          client.close();
-          input.close();
-        } catch (Exception e2) {
-        }
+      try {
+        if (sock != null) sock.close();
+        if (client != null) client.close();
+        if (input != null) input.close();
+      } catch (Exception e2) {
       }
 
       isReady = true;
       e.printStackTrace();
       Logger.Error("ReplayServer: Failed to serve replay");
+    } finally {
+      ReplayCache.release(cache);
+      cache = null;
     }
   }
 
@@ -393,12 +647,17 @@ public class ReplayServer implements Runnable {
     int timestamp_input = nextIncomingPacket.timestamp;
 
     // Handle outgoing packets
-    while (outgoingPacketsIndex != (outgoingPacketsSizeCache - 1)
-        && nextOutgoingPacket.timestamp <= timestamp_input) {
+    while (outgoingPackets.hasNext() && nextOutgoingPacket.timestamp <= timestamp_input) {
+      // Replaying the client's actions depends on it having read everything before them
+      try {
+        flushSeekBuffers(parseOpcodes);
+      } catch (IOException e) {
+        return false;
+      }
       Logger.Opcode(
           nextOutgoingPacket.timestamp, "OUT", nextOutgoingPacket.opcode, nextOutgoingPacket.data);
       replayOutput(nextOutgoingPacket);
-      nextOutgoingPacket = outgoingPackets.get(++outgoingPacketsIndex);
+      nextOutgoingPacket = outgoingPackets.next();
     }
 
     // Handle seeking
@@ -408,28 +667,22 @@ public class ReplayServer implements Runnable {
         Replay.isSeeking = false;
         timestamp_new = Replay.TIMESTAMP_EOF;
         Replay.updateFrameTimeSlice();
-        frame_timer = System.currentTimeMillis();
+        clock.reset();
         if (Replay.paused) Replay.resetFrameTimeSlice();
+        try {
+          flushSeekBuffers(parseOpcodes);
+        } catch (IOException e) {
+          return false;
+        }
         isSeeking = false;
+        finishSeek();
       }
     }
 
     // Synchronize the server to input
     while (Replay.timestamp < timestamp_input) {
-      long time = System.currentTimeMillis();
-      if (time >= frame_timer) {
-        frame_timer += Replay.getFrameTimeSlice();
-        Replay.incrementTimestamp();
-      }
-
-      // Don't hammer the cpu, unless we have to
-      long sleepTime = frame_timer - System.currentTimeMillis() - 1;
-      if (sleepTime > 0) {
-        try {
-          Thread.sleep(sleepTime);
-        } catch (Exception e) {
-        }
-      }
+      if (clock.poll()) Replay.incrementTimestamp();
+      else clock.await();
     }
 
     while (nextIncomingPacket.timestamp == timestamp_input) {
@@ -440,7 +693,8 @@ public class ReplayServer implements Runnable {
 
       // Do nothing
       if (nextIncomingPacket.opcode == VIRTUAL_OPCODE_NOP) {
-        nextIncomingPacket = incomingPackets.get(++incomingPacketsIndex);
+        if (!incomingPackets.hasNext()) return false;
+        nextIncomingPacket = incomingPackets.next();
         return true;
       }
 
@@ -449,7 +703,7 @@ public class ReplayServer implements Runnable {
       // Login response/disconnect
       if (nextIncomingPacket.opcode == VIRTUAL_OPCODE_CONNECT) {
         byte loginResponse = nextIncomingPacket.data[0];
-        buffer = ByteBuffer.allocate(1);
+        buffer = getPacketBuffer(1);
         buffer.put(loginResponse);
 
         // Handle disconnecting
@@ -460,14 +714,12 @@ public class ReplayServer implements Runnable {
             boolean oldPaused = Replay.paused;
             Replay.frame_time_slice = 1000 / 50;
             Replay.paused = false;
+            flushSeekBuffers(parseOpcodes);
             Logger.Info("ReplayServer: Killing client connection");
             client.close();
             Logger.Info("ReplayServer: Reconnecting client");
-            client = sock.accept();
-            client.setOption(TCP_NODELAY, new Boolean(true));
-            client_write = 0;
-            client_read = 0;
-            client_writePrev = client_write;
+            client = acceptClient();
+            resetClient();
             Logger.Info("ReplayServer: Client reconnected");
             Replay.frame_time_slice = oldTimeSlice;
             Replay.paused = oldPaused;
@@ -488,19 +740,19 @@ public class ReplayServer implements Runnable {
         // Encode packet and send
         int encodedOpcode = (nextIncomingPacket.opcode + isaac.getNextValue()) & 0xFF;
         if (packetLength == 1) {
-          buffer = ByteBuffer.allocate(2);
+          buffer = getPacketBuffer(2);
           buffer.put((byte) (packetLength));
           buffer.put((byte) (encodedOpcode));
         } else {
           if (packetLength < 160) {
-            buffer = ByteBuffer.allocate(packetLength + 1);
+            buffer = getPacketBuffer(packetLength + 1);
             int dataSize = packetLength - 1;
             buffer.put((byte) (packetLength));
             buffer.put((byte) (nextIncomingPacket.data[dataSize - 1]));
             buffer.put((byte) (encodedOpcode));
             if (dataSize > 1) buffer.put(nextIncomingPacket.data, 0, dataSize - 1);
           } else {
-            buffer = ByteBuffer.allocate(packetLength + 2);
+            buffer = getPacketBuffer(packetLength + 2);
             buffer.put((byte) (packetLength / 256 + 160));
             buffer.put((byte) (packetLength & 0xFF));
             buffer.put((byte) (encodedOpcode));
@@ -512,22 +764,17 @@ public class ReplayServer implements Runnable {
       if (buffer != null) {
         try {
           buffer.flip();
-          int writeSize = client.write(buffer);
-          if (writeSize > 0) {
-            client_writePrev = client_write;
-            client_write += writeSize;
-            sync_with_client(parseOpcodes);
-          }
+          sendToClient(buffer, parseOpcodes);
         } catch (Exception e) {
           return false;
         }
       }
 
       // End of replay
-      if (incomingPacketsIndex == (incomingPacketsSizeCache - 1)) return false;
+      if (!incomingPackets.hasNext()) return false;
 
       // Load next packet
-      nextIncomingPacket = incomingPackets.get(++incomingPacketsIndex);
+      nextIncomingPacket = incomingPackets.next();
     }
 
     return true;
@@ -543,8 +790,9 @@ public class ReplayServer implements Runnable {
       int length = input.readInt();
       ByteBuffer buffer = null;
       if (length > 0) {
-        buffer = ByteBuffer.allocate(length);
-        input.read(buffer.array());
+        buffer = getPacketBuffer(length);
+        input.readFully(buffer.array(), 0, length);
+        buffer.limit(length);
         available = file_input.available();
       }
 
@@ -564,14 +812,12 @@ public class ReplayServer implements Runnable {
         // If packet length is -1, it's a disconnection
         if (length == -1) {
           Client.forceReconnect = true;
+          flushSeekBuffers(parseOpcodes);
           Logger.Info("ReplayServer: Killing client connection");
           client.close();
           Logger.Info("ReplayServer: Reconnecting client");
-          client = sock.accept();
-          client.setOption(TCP_NODELAY, new Boolean(true));
-          client_write = 0;
-          client_read = 0;
-          client_writePrev = client_write;
+          client = acceptClient();
+          resetClient();
           Logger.Info("ReplayServer: Client reconnected");
 
           if (Replay.isSeeking || Settings.FAST_DISCONNECT.get(Settings.currentProfile))
@@ -593,12 +839,10 @@ public class ReplayServer implements Runnable {
                   + Replay.timestamp
                   + ", timestamp_diff="
                   + timestamp_diff);
+          flushSeekBuffers(parseOpcodes);
           client.close();
-          client = sock.accept();
-          client.setOption(TCP_NODELAY, new Boolean(true));
-          client_write = 0;
-          client_read = 0;
-          client_writePrev = client_write;
+          client = acceptClient();
+          resetClient();
           timestamp_diff -= 400;
           Replay.timestamp = timestamp_input - timestamp_diff;
           Logger.Info("ReplayServer: Reconnected client; timestamp=" + Replay.timestamp);
@@ -617,35 +861,23 @@ public class ReplayServer implements Runnable {
           Replay.isSeeking = false;
           timestamp_new = Replay.TIMESTAMP_EOF;
           Replay.updateFrameTimeSlice();
-          frame_timer = System.currentTimeMillis();
+          clock.reset();
           if (Replay.paused) Replay.resetFrameTimeSlice();
+          flushSeekBuffers(parseOpcodes);
           isSeeking = false;
+          finishSeek();
         }
       }
 
       // Synchronize the server to input
       while (Replay.timestamp < timestamp_input) {
-        long time = System.currentTimeMillis();
-        if (time >= frame_timer) {
-          frame_timer += Replay.getFrameTimeSlice();
-          Replay.incrementTimestamp();
-        }
-
-        // Don't hammer the cpu, unless we have to
-        long sleepTime = frame_timer - System.currentTimeMillis() - 1;
-        if (sleepTime > 0) Thread.sleep(sleepTime);
+        if (clock.poll()) Replay.incrementTimestamp();
+        else clock.await();
       }
 
       // Write out replay data to the client
       try {
-        if (buffer != null) {
-          int writeSize = client.write(buffer);
-          if (writeSize > 0) {
-            client_writePrev = client_write;
-            client_write += writeSize;
-            sync_with_client(parseOpcodes);
-          }
-        }
+        if (buffer != null) sendToClient(buffer, parseOpcodes);
       } catch (Exception e) {
       }
 
@@ -659,8 +891,17 @@ public class ReplayServer implements Runnable {
 
   public void initializeIncomingOutgoingPackets() {
     ReplayEditor editor = new ReplayEditor();
-    boolean success = editor.importData(playbackDirectory);
+    editor.setKeyCacheDirectory(new File(Settings.Dir.KEYMATCH));
+    boolean success = editor.openData(playbackDirectory);
+    initializeIncomingOutgoingPackets(editor, success);
+  }
 
+  /**
+   * Plays the packets of a replay opened with {@link ReplayEditor#openData(String)}.
+   *
+   * @param success false if the replay couldn't be read completely
+   */
+  public void initializeIncomingOutgoingPackets(ReplayEditor editor, boolean success) {
     if (!success) {
       Logger.Warn("@|red Can't parse this as complete replay!|@");
     }
@@ -668,29 +909,24 @@ public class ReplayServer implements Runnable {
     Logger.Debug("client version: " + editor.getReplayVersion().clientVersion);
     Logger.Debug("replay version: " + editor.getReplayVersion().version);
 
-    incomingPackets = editor.getIncomingPackets();
-    outgoingPackets = editor.getOutgoingPackets();
+    // Packets are decoded as playback reaches them
+    incomingPackets = editor.getIncomingCursor();
+    outgoingPackets = editor.getOutgoingCursor();
 
     lastMenu = new AtomicReference<ArrayList<String>>();
-
-    Logger.Info(String.format("Incoming packet length: %d", incomingPackets.size()));
-    Logger.Info(String.format("Outgoing packet length: %d", outgoingPackets.size()));
-
-    incomingPacketsIndex = 0;
-    outgoingPacketsIndex = 0;
-    incomingPacketsSizeCache = incomingPackets.size();
-    outgoingPacketsSizeCache = outgoingPackets.size();
   }
 
   public void initializeNextIncomingOutgoingPackets() {
-    if (incomingPacketsSizeCache > 0) {
-      nextIncomingPacket = incomingPackets.getFirst();
+    incomingPackets.rewind();
+    outgoingPackets.rewind();
+    if (incomingPackets.hasNext()) {
+      nextIncomingPacket = incomingPackets.next();
     } else {
       // RSC+ won't be able to play this replay, so let's skip it.
       Logger.Warn("@|red No incoming packets in that Replay, moving on...|@");
       ReplayQueue.nextReplay();
       isDone = true;
     }
-    if (outgoingPacketsSizeCache > 0) nextOutgoingPacket = outgoingPackets.getFirst();
+    if (outgoingPackets.hasNext()) nextOutgoingPacket = outgoingPackets.next();
   }
 }
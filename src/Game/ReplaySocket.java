@@ -0,0 +1,261 @@
+/**
+ * rscplus
+ *
+ * <p>This file is part of rscplus.
+ *
+ * <p>rscplus is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * <p>rscplus is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * <p>You should have received a copy of the GNU General Public License along with rscplus. If not,
+ * see <http://www.gnu.org/licenses/>.
+ *
+ * <p>Authors: see <https://github.com/RSCPlus/rscplus>
+ */
+package Game;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.SocketImpl;
+
+/**
+ * Socket handed to the client during in-memory replay playback.
+ *
+ * <p>It reads what the replay server writes to its {@link ReplayPipe}. What the client sends is
+ * dropped, the replay server never reads it.
+ *
+ * <p>There is no SocketImpl behind it, so every method of Socket that would use one is overridden:
+ * the streams, the read timeout, closing and shutting down work on the pipe, the addresses are the
+ * loopback address without ports, and the other options are accepted and ignored. The socket is
+ * always connected, so connecting or binding it fails. The generic socket options added in Java 9,
+ * {@code setOption}, {@code getOption} and {@code supportedOptions}, are not overridden and throw a
+ * NullPointerException.
+ */
+public class ReplaySocket extends Socket {
+  private final ReplayPipe pipe;
+  private boolean closed = false;
+  private boolean inputShutdown = false;
+  private boolean outputShutdown = false;
+
+  private final OutputStream outputStream =
+      new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+          checkOutput();
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) throws IOException {
+          checkOutput();
+        }
+      };
+
+  ReplaySocket(ReplayPipe pipe) throws SocketException {
+    // No SocketImpl, nothing here touches the network
+    super((SocketImpl) null);
+    this.pipe = pipe;
+  }
+
+  private synchronized void checkOpen() throws SocketException {
+    if (closed) throw new SocketException("Socket closed");
+  }
+
+  private synchronized void checkOutput() throws SocketException {
+    checkOpen();
+    if (outputShutdown) throw new SocketException("Socket output is shutdown");
+  }
+
+  @Override
+  public InputStream getInputStream() throws IOException {
+    checkOpen();
+    return pipe.getInputStream();
+  }
+
+  @Override
+  public OutputStream getOutputStream() throws IOException {
+    checkOpen();
+    return outputStream;
+  }
+
+  @Override
+  public void setSoTimeout(int timeout) throws SocketException {
+    checkOpen();
+    pipe.setReadTimeout(timeout);
+  }
+
+  @Override
+  public int getSoTimeout() throws SocketException {
+    return pipe.getReadTimeout();
+  }
+
+  @Override
+  public void setTcpNoDelay(boolean on) {}
+
+  @Override
+  public boolean getTcpNoDelay() {
+    return true;
+  }
+
+  @Override
+  public void setKeepAlive(boolean on) {}
+
+  @Override
+  public boolean getKeepAlive() {
+    return false;
+  }
+
+  @Override
+  public void setSoLinger(boolean on, int linger) {}
+
+  @Override
+  public int getSoLinger() {
+    return -1;
+  }
+
+  @Override
+  public void setOOBInline(boolean on) {}
+
+  @Override
+  public boolean getOOBInline() {
+    return false;
+  }
+
+  @Override
+  public void sendUrgentData(int data) throws IOException {
+    checkOutput();
+  }
+
+  @Override
+  public void setSendBufferSize(int size) {}
+
+  @Override
+  public int getSendBufferSize() {
+    return ReplayPipe.CAPACITY;
+  }
+
+  @Override
+  public void setReceiveBufferSize(int size) {}
+
+  @Override
+  public int getReceiveBufferSize() {
+    return ReplayPipe.CAPACITY;
+  }
+
+  @Override
+  public void setTrafficClass(int trafficClass) {}
+
+  @Override
+  public int getTrafficClass() {
+    return 0;
+  }
+
+  @Override
+  public void setReuseAddress(boolean on) {}
+
+  @Override
+  public boolean getReuseAddress() {
+    return false;
+  }
+
+  @Override
+  public void connect(SocketAddress endpoint, int timeout) throws IOException {
+    throw new SocketException("Already connected");
+  }
+
+  @Override
+  public void bind(SocketAddress bindpoint) throws IOException {
+    throw new SocketException("Already bound");
+  }
+
+  @Override
+  public InetAddress getInetAddress() {
+    return InetAddress.getLoopbackAddress();
+  }
+
+  @Override
+  public InetAddress getLocalAddress() {
+    return InetAddress.getLoopbackAddress();
+  }
+
+  /** Returns 0, the connection is in memory and has no port. */
+  @Override
+  public int getPort() {
+    return 0;
+  }
+
+  /** Returns 0, the connection is in memory and has no port. */
+  @Override
+  public int getLocalPort() {
+    return 0;
+  }
+
+  @Override
+  public SocketAddress getRemoteSocketAddress() {
+    return new InetSocketAddress(getInetAddress(), getPort());
+  }
+
+  @Override
+  public SocketAddress getLocalSocketAddress() {
+    return new InetSocketAddress(getLocalAddress(), getLocalPort());
+  }
+
+  @Override
+  public boolean isConnected() {
+    return true;
+  }
+
+  @Override
+  public boolean isBound() {
+    return true;
+  }
+
+  @Override
+  public synchronized boolean isClosed() {
+    return closed;
+  }
+
+  /** Stops the server from sending more, reads fail afterwards instead of ending the stream. */
+  @Override
+  public synchronized void shutdownInput() throws IOException {
+    checkOpen();
+    inputShutdown = true;
+    pipe.closeReader();
+  }
+
+  @Override
+  public synchronized void shutdownOutput() throws IOException {
+    checkOpen();
+    outputShutdown = true;
+  }
+
+  @Override
+  public synchronized boolean isInputShutdown() {
+    return inputShutdown;
+  }
+
+  @Override
+  public synchronized boolean isOutputShutdown() {
+    return outputShutdown;
+  }
+
+  @Override
+  public synchronized void close() {
+    closed = true;
+    pipe.closeReader();
+  }
+
+  @Override
+  public String toString() {
+    return "ReplaySocket[closed=" + isClosed() + "]";
+  }
+}
@@ -0,0 +1,324 @@
+/**
+ * rscplus
+ *
+ * <p>This file is part of rscplus.
+ *
+ * <p>rscplus is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * <p>rscplus is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * <p>You should have received a copy of the GNU General Public License along with rscplus. If not,
+ * see <http://www.gnu.org/licenses/>.
+ *
+ * <p>Authors: see <https://github.com/RSCPlus/rscplus>
+ */
+package Game;
+
+import Client.Logger;
+import java.io.DataOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Writes replay recordings on a dedicated thread.
+ *
+ * <p>The recording hooks only enqueue records into a bounded ring buffer. The writer thread drains
+ * the buffer in batches and does the checksumming, compression and file I/O. Every record is
+ * written and flushed exactly like the hooks used to do it themselves, so the files on disk are
+ * byte-for-byte identical to a synchronous recording.
+ *
+ * <p>Back-pressure: when the ring buffer is full, the recording thread blocks until the writer has
+ * caught up. Records are never dropped, since a missing packet would corrupt the replay.
+ *
+ * <p>Records and their byte arrays are pooled and handed back to the recording threads once they
+ * have been written, so a long session records without allocating per packet.
+ */
+public class ReplayWriter implements Runnable {
+  public static final int STREAM_INPUT = 0;
+  public static final int STREAM_OUTPUT = 1;
+  public static final int STREAM_KEYS = 2;
+  public static final int STREAM_KEYBOARD = 3;
+  public static final int STREAM_MOUSE = 4;
+  private static final int STREAM_COUNT = 5;
+
+  // Number of records that can be pending before the recording thread blocks
+  public static final int QUEUE_CAPACITY = 4096;
+  // Maximum number of records handled per wakeup of the writer thread
+  private static final int BATCH_SIZE = 256;
+  // Initial capacity of a pooled record, records grow to fit the largest packet they have held
+  private static final int RECORD_CAPACITY = 256;
+
+  private static final int RECORD_DATA = 0;
+  private static final int RECORD_CHECKSUM = 1;
+  private static final int RECORD_CLOSE = 2;
+
+  private final DataOutputStream[] streams = new DataOutputStream[STREAM_COUNT];
+  private final MessageDigest[] checksums = new MessageDigest[STREAM_COUNT];
+  private final ArrayBlockingQueue<Record> queue =
+      new ArrayBlockingQueue<Record>(QUEUE_CAPACITY);
+  private final ArrayBlockingQueue<Record> pool =
+      new ArrayBlockingQueue<Record>(QUEUE_CAPACITY + BATCH_SIZE);
+  private Thread thread = null;
+
+  private volatile boolean failed = false;
+  // Taken to enqueue records and to close, so nothing is queued after the close record
+  private final Object enqueueLock = new Object();
+  private boolean closed = false;
+  private boolean warnedFull = false;
+  private boolean warnedClosed = false;
+
+  /** A reusable buffer holding data for one write, obtained with {@link #obtain(int)}. */
+  public static class Record {
+    int type;
+    int stream;
+    byte[] data = new byte[RECORD_CAPACITY];
+    int length;
+    boolean flush;
+
+    private void ensureCapacity(int capacity) {
+      if (data.length < capacity) data = Arrays.copyOf(data, Math.max(capacity, data.length * 2));
+    }
+
+    public byte[] array() {
+      return data;
+    }
+
+    public int position() {
+      return length;
+    }
+
+    public Record put(byte value) {
+      ensureCapacity(length + 1);
+      data[length++] = value;
+      return this;
+    }
+
+    public Record putChar(char value) {
+      ensureCapacity(length + 2);
+      data[length++] = (byte) (value >> 8);
+      data[length++] = (byte) value;
+      return this;
+    }
+
+    public Record putInt(int value) {
+      ensureCapacity(length + 4);
+      data[length++] = (byte) (value >> 24);
+      data[length++] = (byte) (value >> 16);
+      data[length++] = (byte) (value >> 8);
+      data[length++] = (byte) value;
+      return this;
+    }
+
+    /** Writes an int as an unsigned LEB128 varint, small values take a single byte. */
+    public Record putVarInt(int value) {
+      ensureCapacity(length + 5);
+      while ((value & ~0x7F) != 0) {
+        data[length++] = (byte) ((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      data[length++] = (byte) value;
+      return this;
+    }
+
+    /** Writes an int as a zigzag encoded varint, small negative values take a single byte. */
+    public Record putSignedVarInt(int value) {
+      return putVarInt((value << 1) ^ (value >> 31));
+    }
+
+    public Record put(byte[] src, int offset, int count) {
+      ensureCapacity(length + count);
+      System.arraycopy(src, offset, data, length, count);
+      length += count;
+      return this;
+    }
+  }
+
+  /**
+   * Registers an output stream, must be called before {@link #start()}.
+   *
+   * @param stream one of the STREAM_* constants
+   * @param out the stream to write to, the writer takes ownership of it
+   * @param checksum digest updated with every record written to this stream, may be null
+   */
+  public void setStream(int stream, DataOutputStream out, MessageDigest checksum) {
+    streams[stream] = out;
+    checksums[stream] = checksum;
+  }
+
+  /** Returns true if the writer thread has hit an I/O error and the recording is unusable. */
+  public boolean hasFailed() {
+    return failed;
+  }
+
+  public void start() {
+    thread = new Thread(this, "ReplayWriter");
+    // Doesn't keep the client running if the recording is never closed
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Takes an empty record from the pool, to be filled and passed to {@link #write(Record,
+   * boolean)}.
+   *
+   * @param stream one of the STREAM_* constants
+   */
+  public Record obtain(int stream) {
+    Record record = pool.poll();
+    if (record == null) record = new Record();
+    record.type = RECORD_DATA;
+    record.stream = stream;
+    record.length = 0;
+    return record;
+  }
+
+  /**
+   * Queues a filled record to be written. The record belongs to the writer afterwards and must
+   * not be touched again.
+   *
+   * @param record record from {@link #obtain(int)}
+   * @param flush whether the stream should be flushed after writing
+   */
+  public void write(Record record, boolean flush) throws InterruptedException {
+    if (streams[record.stream] == null) {
+      recycle(record);
+      return;
+    }
+    record.flush = flush;
+    enqueue(record);
+  }
+
+  /** Queues a single int, written in big-endian order like {@link DataOutputStream#writeInt}. */
+  public void writeInt(int stream, int value, boolean flush) throws InterruptedException {
+    write(obtain(stream).putInt(value), flush);
+  }
+
+  /**
+   * Queues a packet made of its timestamp, its length and the packet data.
+   *
+   * @param stream one of the STREAM_* constants
+   * @param timestamp timestamp of the packet
+   * @param data array holding the packet
+   * @param offset offset of the packet in the array
+   * @param length length of the packet
+   * @param flush whether the stream should be flushed after writing
+   */
+  public void writePacket(
+      int stream, int timestamp, byte[] data, int offset, int length, boolean flush)
+      throws InterruptedException {
+    write(obtain(stream).putInt(timestamp).putInt(length).put(data, offset, length), flush);
+  }
+
+  /** Queues writing the digest of everything written to the stream so far. */
+  public void writeChecksum(int stream) throws InterruptedException {
+    Record record = obtain(stream);
+    record.type = RECORD_CHECKSUM;
+    write(record, false);
+  }
+
+  /**
+   * Writes out all pending records, closes every stream and waits for the writer to finish.
+   * Records written afterwards are dropped.
+   */
+  public void close() throws InterruptedException {
+    synchronized (enqueueLock) {
+      if (closed) return;
+
+      Record record = obtain(0);
+      record.type = RECORD_CLOSE;
+      // The writer thread keeps draining the queue, so this only waits while it's full
+      queue.put(record);
+      closed = true;
+    }
+    thread.join();
+  }
+
+  private void recycle(Record record) {
+    pool.offer(record);
+  }
+
+  private void enqueue(Record record) throws InterruptedException {
+    synchronized (enqueueLock) {
+      if (closed) {
+        if (!warnedClosed) {
+          Logger.Debug("ReplayWriter: Dropped replay data written after the recording closed");
+          warnedClosed = true;
+        }
+        recycle(record);
+        return;
+      }
+
+      if (!queue.offer(record)) {
+        if (!warnedFull) {
+          Logger.Warn("ReplayWriter: Recording buffer is full, waiting for disk writes");
+          warnedFull = true;
+        }
+        queue.put(record);
+      }
+    }
+  }
+
+  @Override
+  public void run() {
+    ArrayList<Record> batch = new ArrayList<Record>(BATCH_SIZE);
+    boolean running = true;
+
+    while (running) {
+      try {
+        batch.add(queue.take());
+      } catch (InterruptedException e) {
+        continue;
+      }
+      queue.drainTo(batch, BATCH_SIZE - 1);
+
+      for (Record record : batch) {
+        if (record.type == RECORD_CLOSE) {
+          closeStreams();
+          running = false;
+          break;
+        }
+
+        // Keep draining after an error so the recording threads never block
+        if (failed) continue;
+
+        try {
+          DataOutputStream out = streams[record.stream];
+          MessageDigest checksum = checksums[record.stream];
+          if (record.type == RECORD_CHECKSUM) {
+            out.write(checksum.digest());
+          } else {
+            if (checksum != null) checksum.update(record.data, 0, record.length);
+            out.write(record.data, 0, record.length);
+          }
+          if (record.flush) out.flush();
+        } catch (Exception e) {
+          e.printStackTrace();
+          Logger.Error("ReplayWriter: Unable to write replay data");
+          failed = true;
+        }
+      }
+      for (Record record : batch) recycle(record);
+      batch.clear();
+    }
+  }
+
+  private void closeStreams() {
+    for (int i = 0; i < STREAM_COUNT; i++) {
+      if (streams[i] == null) continue;
+
+      try {
+        streams[i].close();
+      } catch (Exception e) {
+        Logger.Error("ReplayWriter: Unable to close replay files");
+        failed = true;
+      }
+      streams[i] = null;
+    }
+  }
+}
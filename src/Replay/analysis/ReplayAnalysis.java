@@ -0,0 +1,222 @@
+/**
+ * rscminus
+ *
+ * <p>This file is part of rscminus.
+ *
+ * <p>rscminus is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * <p>rscminus is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * <p>You should have received a copy of the GNU General Public License along with rscminus. If not,
+ * see <http://www.gnu.org/licenses/>.
+ *
+ * <p>Authors: see <https://github.com/RSCPlus/rscminus>
+ */
+package Replay.analysis;
+
+import Client.Logger;
+import Client.Settings;
+import Game.Replay;
+import Replay.scraper.ReplayEditor;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs {@link ReplayAnalyzer}s over whole replay libraries without the client.
+ *
+ * <p>The replays are decoded in parallel on a fork/join pool, straight from their cursors and
+ * without waiting for game ticks. Every analyzer writes one CSV or JSON file to the output
+ * directory, with the rows in the order of the replays.
+ *
+ * <p>Run with "ant analyze -Danalyze.input=path/to/replays", see {@link #main(String[])}.
+ */
+public class ReplayAnalysis {
+  public static final String FORMAT_CSV = "csv";
+  public static final String FORMAT_JSON = "json";
+
+  private final String[] m_analyzers;
+  private final String m_format;
+  private final File m_outputDirectory;
+  private final int m_parallelism;
+  private File m_keyCacheDirectory;
+
+  // State of a run
+  private ReplayAnalysisWriter[] m_writers;
+  private int m_failed;
+  private long m_packetCount;
+  private long m_malformedCount;
+  private long m_dataSize;
+
+  public ReplayAnalysis(String[] analyzers, String format, File outputDirectory, int parallelism) {
+    for (String analyzer : analyzers) {
+      if (ReplayAnalyzer.create(analyzer) == null)
+        throw new IllegalArgumentException("Unknown analyzer: " + analyzer);
+    }
+    if (!FORMAT_CSV.equals(format) && !FORMAT_JSON.equals(format))
+      throw new IllegalArgumentException("Unknown format: " + format);
+
+    m_analyzers = analyzers;
+    m_format = format;
+    m_outputDirectory = outputDirectory;
+    m_parallelism = Math.max(1, parallelism);
+  }
+
+  /**
+   * Sets the directory the keys that matched the logins of the replays are remembered in.
+   *
+   * @param directory the key cache directory, null to not use a cache
+   */
+  public void setKeyCacheDirectory(File directory) {
+    m_keyCacheDirectory = directory;
+  }
+
+  /** Returns the replay folders in and below the inputs, sorted by path. */
+  public static List<File> findReplays(List<File> inputs) {
+    return ReplayBatch.findReplays(
+        inputs,
+        new FileFilter() {
+          @Override
+          public boolean accept(File folder) {
+            return Replay.isValid(folder.getPath());
+          }
+        });
+  }
+
+  /** Returns the number of replays that couldn't be read completely or analyzed in the last run. */
+  public int getFailedCount() {
+    return m_failed;
+  }
+
+  /** Returns the number of packets decoded in the last run. */
+  public long getPacketCount() {
+    return m_packetCount;
+  }
+
+  /** Returns the number of packets that couldn't be decoded in the last run. */
+  public long getMalformedCount() {
+    return m_malformedCount;
+  }
+
+  /** Analyzes the replays and writes the output files, returning when all are written. */
+  public void run(List<File> replays) throws IOException {
+    m_outputDirectory.mkdirs();
+
+    m_writers = new ReplayAnalysisWriter[m_analyzers.length];
+    m_failed = 0;
+    m_packetCount = 0;
+    m_malformedCount = 0;
+    m_dataSize = 0;
+
+    long start = System.nanoTime();
+    try {
+      for (int i = 0; i < m_analyzers.length; i++) {
+        ReplayAnalyzer analyzer = ReplayAnalyzer.create(m_analyzers[i]);
+        File file = new File(m_outputDirectory, analyzer.getName() + "." + m_format);
+        m_writers[i] = ReplayAnalysisWriter.create(m_format, file, analyzer.getColumns());
+      }
+
+      new ReplayBatch<ReplayAnalyzer[]>(replays) {
+        @Override
+        protected ReplayAnalyzer[] process(File replay) {
+          // A replay that breaks the decoder or an analyzer only loses its own rows
+          try {
+            return analyze(replay);
+          } catch (RuntimeException e) {
+            Logger.Error("Could not analyze replay " + replay.getPath() + ": " + e);
+            synchronized (ReplayAnalysis.this) {
+              m_failed++;
+            }
+            return new ReplayAnalyzer[0];
+          }
+        }
+
+        @Override
+        protected void write(File replay, ReplayAnalyzer[] analyzers) throws IOException {
+          for (int i = 0; i < analyzers.length; i++) {
+            for (Object[] row : analyzers[i].getRows()) m_writers[i].write(replay.getPath(), row);
+          }
+        }
+      }.run(m_parallelism);
+    } finally {
+      for (ReplayAnalysisWriter writer : m_writers) {
+        if (writer != null) writer.close();
+      }
+    }
+
+    double seconds = (System.nanoTime() - start) / 1e9;
+    Logger.Info(
+        String.format(
+            "Analyzed %d replays in %.1f s, %.1f MB/s, %d packets, %d malformed, %d failed",
+            replays.size(),
+            seconds,
+            m_dataSize / 1048576.0 / Math.max(seconds, 0.001),
+            m_packetCount,
+            m_malformedCount,
+            m_failed));
+  }
+
+  /** Decodes a replay and returns the analyzers that received its events. */
+  protected ReplayAnalyzer[] analyze(File replay) {
+    ReplayAnalyzer[] analyzers = new ReplayAnalyzer[m_analyzers.length];
+    for (int i = 0; i < analyzers.length; i++) analyzers[i] = ReplayAnalyzer.create(m_analyzers[i]);
+
+    ReplayEventDecoder decoder =
+        new ReplayEventDecoder(
+            new ReplayEventDecoder.Listener() {
+              @Override
+              public void event(ReplayEvent event) {
+                for (ReplayAnalyzer analyzer : analyzers) analyzer.event(event);
+              }
+            });
+
+    ReplayEditor editor = new ReplayEditor();
+    editor.setKeyCacheDirectory(m_keyCacheDirectory);
+    boolean success = editor.openData(replay.getPath());
+    decoder.decode(editor);
+    for (ReplayAnalyzer analyzer : analyzers) analyzer.finish();
+
+    if (!success) Logger.Warn("Replay could not be read completely: " + replay.getPath());
+    synchronized (this) {
+      if (!success) m_failed++;
+      m_packetCount += decoder.getPacketCount();
+      m_malformedCount += decoder.getMalformedCount();
+      m_dataSize += editor.getDataSize();
+    }
+    return analyzers;
+  }
+
+  /**
+   * Command line entry point.
+   *
+   * <p>Usage: [-a xp,chat,kills,trades] [-f csv|json] [-o output] [-t threads] paths...
+   */
+  public static void main(String[] args) throws IOException {
+    ReplayBatch.Options options = ReplayBatch.Options.parse(args, "-a", "-f", "-o", "-t");
+    String[] analyzers = options.get("-a", String.join(",", ReplayAnalyzer.NAMES)).split(",");
+    String format = options.get("-f", FORMAT_CSV);
+    File output = new File(options.get("-o", "analysis"));
+    int threads = options.getThreads();
+    List<File> inputs = options.getInputs();
+
+    if (inputs.isEmpty()) {
+      System.err.println(
+          "Usage: ReplayAnalysis [-a "
+              + String.join(",", Arrays.asList(ReplayAnalyzer.NAMES))
+              + "] [-f csv|json] [-o output] [-t threads] paths...");
+      System.exit(1);
+    }
+
+    List<File> replays = findReplays(inputs);
+    Logger.Info("Found " + replays.size() + " replays, analyzing with " + threads + " threads");
+    ReplayAnalysis analysis = new ReplayAnalysis(analyzers, format, output, threads);
+    analysis.setKeyCacheDirectory(new File(Settings.Dir.KEYMATCH));
+    analysis.run(replays);
+  }
+}
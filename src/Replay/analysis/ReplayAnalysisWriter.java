@@ -0,0 +1,147 @@
+/**
+ * rscminus
+ *
+ * <p>This file is part of rscminus.
+ *
+ * <p>rscminus is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * <p>rscminus is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * <p>You should have received a copy of the GNU General Public License along with rscminus. If not,
+ * see <http://www.gnu.org/licenses/>.
+ *
+ * <p>Authors: see <https://github.com/RSCPlus/rscminus>
+ */
+package Replay.analysis;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/** Writes the rows of one analyzer to a CSV or JSON file, with the replay of every row first. */
+public abstract class ReplayAnalysisWriter {
+  protected final Writer m_writer;
+  protected final String[] m_columns;
+
+  ReplayAnalysisWriter(File file, String[] columns) throws IOException {
+    m_writer =
+        new BufferedWriter(
+            new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+    m_columns = columns;
+  }
+
+  /**
+   * Creates a writer for the given format.
+   *
+   * @param format {@link ReplayAnalysis#FORMAT_CSV} or {@link ReplayAnalysis#FORMAT_JSON}
+   */
+  public static ReplayAnalysisWriter create(String format, File file, String[] columns)
+      throws IOException {
+    if (ReplayAnalysis.FORMAT_JSON.equals(format)) return new Json(file, columns);
+    return new Csv(file, columns);
+  }
+
+  public abstract void write(String replay, Object[] row) throws IOException;
+
+  public void close() throws IOException {
+    m_writer.close();
+  }
+
+  /** Comma separated values with a header line, quoted when needed. */
+  static class Csv extends ReplayAnalysisWriter {
+    Csv(File file, String[] columns) throws IOException {
+      super(file, columns);
+      m_writer.write("replay");
+      for (String column : columns) {
+        m_writer.write(',');
+        m_writer.write(column);
+      }
+      m_writer.write('\n');
+    }
+
+    @Override
+    public void write(String replay, Object[] row) throws IOException {
+      writeValue(replay);
+      for (Object value : row) {
+        m_writer.write(',');
+        if (value != null) writeValue(value.toString());
+      }
+      m_writer.write('\n');
+    }
+
+    private void writeValue(String value) throws IOException {
+      boolean quote = false;
+      for (int i = 0; i < value.length() && !quote; i++) {
+        char c = value.charAt(i);
+        quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+      }
+      if (!quote) {
+        m_writer.write(value);
+        return;
+      }
+      m_writer.write('"');
+      m_writer.write(value.replace("\"", "\"\""));
+      m_writer.write('"');
+    }
+  }
+
+  /** An array of objects, one per row, with the column names as keys. */
+  static class Json extends ReplayAnalysisWriter {
+    private boolean m_first = true;
+
+    Json(File file, String[] columns) throws IOException {
+      super(file, columns);
+      m_writer.write('[');
+    }
+
+    @Override
+    public void write(String replay, Object[] row) throws IOException {
+      m_writer.write(m_first ? "\n" : ",\n");
+      m_first = false;
+
+      m_writer.write("{\"replay\":");
+      writeString(replay);
+      for (int i = 0; i < row.length; i++) {
+        m_writer.write(",\"");
+        m_writer.write(m_columns[i]);
+        m_writer.write("\":");
+        Object value = row[i];
+        if (value == null) m_writer.write("null");
+        else if (value instanceof Number || value instanceof Boolean)
+          m_writer.write(value.toString());
+        else writeString(value.toString());
+      }
+      m_writer.write('}');
+    }
+
+    @Override
+    public void close() throws IOException {
+      m_writer.write(m_first ? "]\n" : "\n]\n");
+      super.close();
+    }
+
+    private void writeString(String value) throws IOException {
+      m_writer.write('"');
+      for (int i = 0; i < value.length(); i++) {
+        char c = value.charAt(i);
+        if (c == '"' || c == '\\') {
+          m_writer.write('\\');
+          m_writer.write(c);
+        } else if (c < 0x20) {
+          m_writer.write(String.format("\\u%04x", (int) c));
+        } else {
+          m_writer.write(c);
+        }
+      }
+      m_writer.write('"');
+    }
+  }
+}
@@ -0,0 +1,243 @@
+/**
+ * rscminus
+ *
+ * <p>This file is part of rscminus.
+ *
+ * <p>rscminus is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * <p>rscminus is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * <p>You should have received a copy of the GNU General Public License along with rscminus. If not,
+ * see <http://www.gnu.org/licenses/>.
+ *
+ * <p>Authors: see <https://github.com/RSCPlus/rscminus>
+ */
+package Replay.analysis;
+
+import Replay.game.constants.Game;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Turns the events of one replay into rows of a table, written out by {@link ReplayAnalysis}.
+ *
+ * <p>A new analyzer is created for every replay, so analyzers can keep state between events.
+ */
+public abstract class ReplayAnalyzer implements ReplayEventDecoder.Listener {
+  public static final String[] NAMES = {"xp", "chat", "kills", "trades"};
+
+  private final ArrayList<Object[]> m_rows = new ArrayList<Object[]>();
+
+  /**
+   * Creates the analyzer with the given name, one of {@link #NAMES}.
+   *
+   * @return the analyzer, or null if there's no analyzer with that name
+   */
+  public static ReplayAnalyzer create(String name) {
+    switch (name) {
+      case "xp":
+        return new Experience();
+      case "chat":
+        return new Chat();
+      case "kills":
+        return new NpcKills();
+      case "trades":
+        return new Trades();
+      default:
+        return null;
+    }
+  }
+
+  public abstract String getName();
+
+  /** Returns the names of the values in each row. */
+  public abstract String[] getColumns();
+
+  /** Called after the last event of the replay. */
+  public void finish() {}
+
+  public List<Object[]> getRows() {
+    return m_rows;
+  }
+
+  protected void addRow(Object... values) {
+    m_rows.add(values);
+  }
+
+  /** Experience of every stat over time, with a row each time it changes. */
+  public static class Experience extends ReplayAnalyzer {
+    private final int[] m_levels = new int[Game.STAT_COUNT];
+    private final int[] m_maxLevels = new int[Game.STAT_COUNT];
+    private final int[] m_experience = new int[Game.STAT_COUNT];
+
+    public Experience() {
+      for (int i = 0; i < Game.STAT_COUNT; i++) m_experience[i] = -1;
+    }
+
+    @Override
+    public String getName() {
+      return "xp";
+    }
+
+    @Override
+    public String[] getColumns() {
+      return new String[] {"timestamp", "stat", "level", "max_level", "experience", "gain"};
+    }
+
+    @Override
+    public void event(ReplayEvent event) {
+      if (!(event instanceof ReplayEvent.Stat)) return;
+
+      ReplayEvent.Stat stat = (ReplayEvent.Stat) event;
+      if (stat.stat < 0 || stat.stat >= Game.STAT_COUNT) return;
+
+      int i = stat.stat;
+      if (stat.level >= 0) {
+        m_levels[i] = stat.level;
+        m_maxLevels[i] = stat.maxLevel;
+      }
+      if (stat.experience == m_experience[i]) return;
+
+      int gain = m_experience[i] >= 0 ? stat.experience - m_experience[i] : 0;
+      m_experience[i] = stat.experience;
+      addRow(
+          stat.timestamp,
+          Game.STAT_NAMES[i],
+          m_levels[i],
+          m_maxLevels[i],
+          stat.experience,
+          gain);
+    }
+  }
+
+  /** Server messages and the public and private messages sent by the player. */
+  public static class Chat extends ReplayAnalyzer {
+    private static final String[] CHANNEL_NAMES = {"server", "public", "private"};
+
+    @Override
+    public String getName() {
+      return "chat";
+    }
+
+    @Override
+    public String[] getColumns() {
+      return new String[] {"timestamp", "channel", "type", "sender", "recipient", "message"};
+    }
+
+    @Override
+    public void event(ReplayEvent event) {
+      if (!(event instanceof ReplayEvent.Chat)) return;
+
+      ReplayEvent.Chat chat = (ReplayEvent.Chat) event;
+      addRow(
+          chat.timestamp,
+          CHANNEL_NAMES[chat.channel],
+          chat.type >= 0 ? chat.type : null,
+          chat.sender,
+          chat.recipient,
+          chat.message);
+    }
+  }
+
+  /** Npcs killed by the player. */
+  public static class NpcKills extends ReplayAnalyzer {
+    @Override
+    public String getName() {
+      return "kills";
+    }
+
+    @Override
+    public String[] getColumns() {
+      return new String[] {"timestamp", "npc_index", "npc_id"};
+    }
+
+    @Override
+    public void event(ReplayEvent event) {
+      if (!(event instanceof ReplayEvent.NpcKill)) return;
+
+      ReplayEvent.NpcKill kill = (ReplayEvent.NpcKill) event;
+      addRow(kill.timestamp, kill.npcIndex, kill.npcId >= 0 ? kill.npcId : null);
+    }
+  }
+
+  /** Trades with the last items offered by both sides and whether the player accepted them. */
+  public static class Trades extends ReplayAnalyzer {
+    private int m_start = -1;
+    private boolean m_confirmed;
+    private boolean m_accepted;
+    private String m_given = "";
+    private String m_received = "";
+
+    @Override
+    public String getName() {
+      return "trades";
+    }
+
+    @Override
+    public String[] getColumns() {
+      return new String[] {"timestamp", "end_timestamp", "accepted", "given", "received"};
+    }
+
+    @Override
+    public void event(ReplayEvent event) {
+      if (event instanceof ReplayEvent.Login) {
+        // A trade can't survive a reconnect
+        close(event.timestamp);
+        return;
+      }
+      if (!(event instanceof ReplayEvent.Trade)) return;
+
+      ReplayEvent.Trade trade = (ReplayEvent.Trade) event;
+      switch (trade.stage) {
+        case ReplayEvent.Trade.STAGE_OPEN:
+          close(trade.timestamp);
+          m_start = trade.timestamp;
+          break;
+        case ReplayEvent.Trade.STAGE_OFFER_SENT:
+          m_given = formatItems(trade);
+          break;
+        case ReplayEvent.Trade.STAGE_OFFER_RECEIVED:
+          m_received = formatItems(trade);
+          break;
+        case ReplayEvent.Trade.STAGE_CONFIRM:
+          m_confirmed = true;
+          break;
+        case ReplayEvent.Trade.STAGE_ACCEPT:
+          m_accepted = m_confirmed;
+          break;
+        case ReplayEvent.Trade.STAGE_CLOSE:
+          close(trade.timestamp);
+          break;
+      }
+    }
+
+    @Override
+    public void finish() {
+      close(-1);
+    }
+
+    private void close(int timestamp) {
+      if (m_start >= 0) {
+        addRow(m_start, timestamp >= 0 ? timestamp : null, m_accepted, m_given, m_received);
+      }
+      m_start = -1;
+      m_confirmed = false;
+      m_accepted = false;
+      m_given = "";
+      m_received = "";
+    }
+
+    private static String formatItems(ReplayEvent.Trade trade) {
+      StringBuilder items = new StringBuilder();
+      for (int i = 0; i < trade.itemIds.length; i++) {
+        if (i > 0) items.append(';');
+        items.append(trade.itemIds[i]).append(':').append(trade.itemAmounts[i]);
+      }
+      return items.toString();
+    }
+  }
+}
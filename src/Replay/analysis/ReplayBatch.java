@@ -0,0 +1,166 @@
+/**
+ * rscminus
+ *
+ * <p>This file is part of rscminus.
+ *
+ * <p>rscminus is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * <p>rscminus is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * <p>You should have received a copy of the GNU General Public License along with rscminus. If not,
+ * see <http://www.gnu.org/licenses/>.
+ *
+ * <p>Authors: see <https://github.com/RSCPlus/rscminus>
+ */
+package Replay.analysis;
+
+import Client.Settings;
+import Client.Util;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Processes replays in parallel on a fork/join pool and writes their results in the order of the
+ * replays, for the tools that go through whole replay libraries without the client.
+ */
+abstract class ReplayBatch<T> {
+  private final List<File> m_replays;
+
+  // The results of the replays after the last one written are kept until then
+  private final Object[] m_results;
+  private int m_written;
+
+  ReplayBatch(List<File> replays) {
+    m_replays = replays;
+    m_results = new Object[replays.size()];
+  }
+
+  /** Processes one replay, called on the threads of the pool. */
+  protected abstract T process(File replay);
+
+  /** Writes the result of a replay, called one at a time in the order of the replays. */
+  protected abstract void write(File replay, T result) throws IOException;
+
+  /** Processes the replays on up to parallelism threads, returning when all are written. */
+  void run(int parallelism) throws IOException {
+    ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+    try {
+      pool.invoke(new Task(0, m_replays.size()));
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private synchronized void finish(int index, T result) throws IOException {
+    m_results[index] = result;
+
+    // Write every finished replay in order, up to the first one still being processed
+    while (m_written < m_results.length && m_results[m_written] != null) {
+      write(m_replays.get(m_written), (T) m_results[m_written]);
+      m_results[m_written++] = null;
+    }
+  }
+
+  private class Task extends RecursiveAction {
+    private final int m_start;
+    private final int m_end;
+
+    Task(int start, int end) {
+      m_start = start;
+      m_end = end;
+    }
+
+    @Override
+    protected void compute() {
+      if (m_end - m_start > 1) {
+        int middle = (m_start + m_end) >>> 1;
+        invokeAll(new Task(m_start, middle), new Task(middle, m_end));
+        return;
+      }
+      if (m_end == m_start) return;
+
+      try {
+        finish(m_start, process(m_replays.get(m_start)));
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+  /** Returns the folders in and below the inputs accepted by the filter, sorted by path. */
+  static List<File> findReplays(List<File> inputs, FileFilter filter) {
+    List<File> folders = new ArrayList<File>();
+    for (File input : inputs) {
+      folders.add(input);
+      Util.listf(input.getPath(), folders);
+    }
+
+    List<File> replays = new ArrayList<File>();
+    for (File folder : folders) {
+      if (filter.accept(folder)) replays.add(folder);
+    }
+    Collections.sort(replays);
+    return replays;
+  }
+
+  /** Command line arguments of the tools, options with a value followed by the input paths. */
+  static class Options {
+    private final HashMap<String, String> m_values = new HashMap<String, String>();
+    private final List<File> m_inputs = new ArrayList<File>();
+
+    private Options() {}
+
+    /**
+     * Parses the arguments, every name in options takes the argument after it as value. Also sets
+     * up the logger, since the client's settings aren't needed without a client.
+     */
+    static Options parse(String[] args, String... options) {
+      Settings.initDir();
+      Settings.definePresets(new Properties());
+
+      Options parsed = new Options();
+      for (int i = 0; i < args.length; i++) {
+        String arg = args[i];
+        if (arg.length() == 0) continue;
+        boolean option = false;
+        for (String name : options) option |= arg.equals(name);
+        if (option && i + 1 < args.length) parsed.m_values.put(arg, args[++i]);
+        else parsed.m_inputs.add(new File(arg));
+      }
+      return parsed;
+    }
+
+    String get(String option, String defaultValue) {
+      String value = m_values.get(option);
+      return value != null ? value : defaultValue;
+    }
+
+    /** Returns the value of "-t", or the number of processors. */
+    int getThreads() {
+      String threads = m_values.get("-t");
+      return threads != null
+          ? Integer.parseInt(threads)
+          : Runtime.getRuntime().availableProcessors();
+    }
+
+    List<File> getInputs() {
+      return m_inputs;
+    }
+  }
+}
@@ -0,0 +1,111 @@
+/**
+ * rscminus
+ *
+ * <p>This file is part of rscminus.
+ *
+ * <p>rscminus is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * <p>rscminus is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * <p>You should have received a copy of the GNU General Public License along with rscminus. If not,
+ * see <http://www.gnu.org/licenses/>.
+ *
+ * <p>Authors: see <https://github.com/RSCPlus/rscminus>
+ */
+package Replay.analysis;
+
+/**
+ * A game event decoded from the packets of a replay by {@link ReplayEventDecoder}.
+ *
+ * <p>Timestamps are in replay frames, the same unit as the timestamps of the packets.
+ */
+public abstract class ReplayEvent {
+  public final int timestamp;
+
+  ReplayEvent(int timestamp) {
+    this.timestamp = timestamp;
+  }
+
+  /** A new login session started, after the start of the replay or a reconnect. */
+  public static final class Login extends ReplayEvent {
+    Login(int timestamp) {
+      super(timestamp);
+    }
+  }
+
+  /** The level or experience of a stat was set by the server. */
+  public static final class Stat extends ReplayEvent {
+    public final int stat;
+    public final int level;
+    public final int maxLevel;
+    public final int experience;
+
+    Stat(int timestamp, int stat, int level, int maxLevel, int experience) {
+      super(timestamp);
+      this.stat = stat;
+      this.level = level;
+      this.maxLevel = maxLevel;
+      this.experience = experience;
+    }
+  }
+
+  /** A message shown in the chat box, or one sent by the player. */
+  public static final class Chat extends ReplayEvent {
+    public static final int CHANNEL_SERVER = 0;
+    public static final int CHANNEL_PUBLIC = 1;
+    public static final int CHANNEL_PRIVATE = 2;
+
+    public final int channel;
+    public final int type;
+    public final String sender;
+    public final String recipient;
+    public final String message;
+
+    Chat(int timestamp, int channel, int type, String sender, String recipient, String message) {
+      super(timestamp);
+      this.channel = channel;
+      this.type = type;
+      this.sender = sender;
+      this.recipient = recipient;
+      this.message = message;
+    }
+  }
+
+  /** An npc the player attacked was brought down to zero hits. */
+  public static final class NpcKill extends ReplayEvent {
+    public final int npcIndex;
+    // -1 if the npc wasn't seen being created
+    public final int npcId;
+
+    NpcKill(int timestamp, int npcIndex, int npcId) {
+      super(timestamp);
+      this.npcIndex = npcIndex;
+      this.npcId = npcId;
+    }
+  }
+
+  /** A step of a trade with another player, with the items offered for the offer steps. */
+  public static final class Trade extends ReplayEvent {
+    public static final int STAGE_OPEN = 0;
+    public static final int STAGE_OFFER_SENT = 1;
+    public static final int STAGE_OFFER_RECEIVED = 2;
+    public static final int STAGE_CONFIRM = 3;
+    public static final int STAGE_ACCEPT = 4;
+    public static final int STAGE_CLOSE = 5;
+
+    public final int stage;
+    public final int[] itemIds;
+    public final int[] itemAmounts;
+
+    Trade(int timestamp, int stage, int[] itemIds, int[] itemAmounts) {
+      super(timestamp);
+      this.stage = stage;
+      this.itemIds = itemIds;
+      this.itemAmounts = itemAmounts;
+    }
+  }
+}
@@ -0,0 +1,273 @@
+/**
+ * rscminus
+ *
+ * <p>This file is part of rscminus.
+ *
+ * <p>rscminus is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * <p>rscminus is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * <p>You should have received a copy of the GNU General Public License along with rscminus. If not,
+ * see <http://www.gnu.org/licenses/>.
+ *
+ * <p>Authors: see <https://github.com/RSCPlus/rscminus>
+ */
+package Replay.analysis;
+
+import Replay.game.PacketBuilder;
+import Replay.game.constants.Game;
+import Replay.scraper.ReplayEditor;
+import Replay.scraper.ReplayPacket;
+import Replay.scraper.ReplayPacketCursor;
+import java.util.Arrays;
+
+/**
+ * Decodes the packets of an opened replay into {@link ReplayEvent}s, without playing it back.
+ *
+ * <p>The incoming and outgoing packets are merged in timestamp order and decoded as fast as the
+ * cursors can read them. A packet that can't be decoded is counted and skipped.
+ */
+public class ReplayEventDecoder {
+  // Outgoing opcodes, see Game.outgoingOpcodeMap
+  private static final int OPCODE_OUT_OFFER_TRADE_ITEM = 46;
+  private static final int OPCODE_OUT_CAST_NPC = 50;
+  private static final int OPCODE_OUT_CONFIRM_ACCEPT_TRADE = 104;
+  private static final int OPCODE_OUT_ATTACK_NPC = 190;
+  private static final int OPCODE_OUT_SEND_CHAT_MESSAGE = 216;
+  private static final int OPCODE_OUT_SEND_PM = 218;
+
+  // Npc server indexes are 12 bits
+  private static final int NPC_INDEX_COUNT = 4096;
+
+  public interface Listener {
+    void event(ReplayEvent event);
+  }
+
+  private final Listener m_listener;
+  private final int[] m_npcIds = new int[NPC_INDEX_COUNT];
+  private int m_targetNpc;
+  private int m_packetCount;
+  private int m_malformedCount;
+
+  public ReplayEventDecoder(Listener listener) {
+    m_listener = listener;
+    reset();
+  }
+
+  /** Returns the number of packets read by {@link #decode}. */
+  public int getPacketCount() {
+    return m_packetCount;
+  }
+
+  /** Returns the number of packets that were skipped because they couldn't be decoded. */
+  public int getMalformedCount() {
+    return m_malformedCount;
+  }
+
+  /**
+   * Decodes all packets left in the cursors of an editor opened with {@link
+   * ReplayEditor#openData(String)}.
+   */
+  public void decode(ReplayEditor editor) {
+    ReplayPacketCursor incoming = editor.getIncomingCursor();
+    ReplayPacketCursor outgoing = editor.getOutgoingCursor();
+    ReplayPacket nextIncoming = incoming != null ? incoming.next() : null;
+    ReplayPacket nextOutgoing = outgoing != null ? outgoing.next() : null;
+
+    while (nextIncoming != null || nextOutgoing != null) {
+      // The client acts before it sees the reply, so outgoing packets go first on a tie
+      if (nextOutgoing != null
+          && (nextIncoming == null || nextOutgoing.timestamp <= nextIncoming.timestamp)) {
+        decode(nextOutgoing, true);
+        nextOutgoing = outgoing.next();
+      } else {
+        decode(nextIncoming, false);
+        nextIncoming = incoming.next();
+      }
+    }
+  }
+
+  private void reset() {
+    Arrays.fill(m_npcIds, -1);
+    m_targetNpc = -1;
+  }
+
+  private void decode(ReplayPacket packet, boolean outgoing) {
+    m_packetCount++;
+    try {
+      if (outgoing) decodeOutgoing(packet);
+      else decodeIncoming(packet);
+    } catch (RuntimeException e) {
+      // Truncated or unexpected packet data
+      m_malformedCount++;
+    }
+  }
+
+  private void decodeIncoming(ReplayPacket packet) {
+    int timestamp = packet.timestamp;
+    switch (packet.opcode) {
+      case ReplayEditor.VIRTUAL_OPCODE_CONNECT:
+        reset();
+        m_listener.event(new ReplayEvent.Login(timestamp));
+        break;
+      case PacketBuilder.OPCODE_SET_STATS:
+        {
+          int[] levels = new int[Game.STAT_COUNT];
+          int[] maxLevels = new int[Game.STAT_COUNT];
+          for (int i = 0; i < levels.length; i++) levels[i] = packet.readUnsignedByte();
+          for (int i = 0; i < maxLevels.length; i++) maxLevels[i] = packet.readUnsignedByte();
+          for (int i = 0; i < levels.length; i++) {
+            int experience = packet.readUnsignedInt();
+            m_listener.event(
+                new ReplayEvent.Stat(timestamp, i, levels[i], maxLevels[i], experience));
+          }
+          break;
+        }
+      case PacketBuilder.OPCODE_UPDATE_STAT:
+        {
+          int stat = packet.readUnsignedByte();
+          int level = packet.readUnsignedByte();
+          int maxLevel = packet.readUnsignedByte();
+          int experience = packet.readUnsignedInt();
+          m_listener.event(new ReplayEvent.Stat(timestamp, stat, level, maxLevel, experience));
+          break;
+        }
+      case PacketBuilder.OPCODE_UPDATE_XP:
+        {
+          int stat = packet.readUnsignedByte();
+          int experience = packet.readUnsignedInt();
+          m_listener.event(new ReplayEvent.Stat(timestamp, stat, -1, -1, experience));
+          break;
+        }
+      case PacketBuilder.OPCODE_SEND_MESSAGE:
+        {
+          int type = packet.readUnsignedByte();
+          int infoContained = packet.readUnsignedByte();
+          String message = packet.readPaddedString();
+          String sender = null;
+          if ((infoContained & 1) != 0) sender = packet.readPaddedString();
+          m_listener.event(
+              new ReplayEvent.Chat(
+                  timestamp, ReplayEvent.Chat.CHANNEL_SERVER, type, sender, null, message));
+          break;
+        }
+      case PacketBuilder.OPCODE_CREATE_NPC:
+        decodeCreateNpc(packet);
+        break;
+      case PacketBuilder.OPCODE_UPDATE_NPC:
+        decodeUpdateNpc(packet);
+        break;
+      case PacketBuilder.OPCODE_INITIATE_TRADE:
+        m_listener.event(
+            new ReplayEvent.Trade(timestamp, ReplayEvent.Trade.STAGE_OPEN, null, null));
+        break;
+      case PacketBuilder.OPCODE_UPDATE_ITEMS_TRADED_TO_YOU:
+        m_listener.event(readTradeItems(packet, ReplayEvent.Trade.STAGE_OFFER_RECEIVED));
+        break;
+      case PacketBuilder.OPCODE_SHOW_CONFIRM_TRADE:
+        m_listener.event(
+            new ReplayEvent.Trade(timestamp, ReplayEvent.Trade.STAGE_CONFIRM, null, null));
+        break;
+      case PacketBuilder.OPCODE_CONCLUDE_TRADE:
+        m_listener.event(
+            new ReplayEvent.Trade(timestamp, ReplayEvent.Trade.STAGE_CLOSE, null, null));
+        break;
+    }
+  }
+
+  private void decodeOutgoing(ReplayPacket packet) {
+    int timestamp = packet.timestamp;
+    switch (packet.opcode) {
+      case OPCODE_OUT_ATTACK_NPC:
+      case OPCODE_OUT_CAST_NPC:
+        m_targetNpc = packet.readUnsignedShort();
+        break;
+      case OPCODE_OUT_SEND_CHAT_MESSAGE:
+        {
+          String message = packet.readRSCString();
+          m_listener.event(
+              new ReplayEvent.Chat(
+                  timestamp, ReplayEvent.Chat.CHANNEL_PUBLIC, -1, null, null, message));
+          break;
+        }
+      case OPCODE_OUT_SEND_PM:
+        {
+          String recipient = packet.readPaddedString();
+          String message = packet.readRSCString();
+          m_listener.event(
+              new ReplayEvent.Chat(
+                  timestamp, ReplayEvent.Chat.CHANNEL_PRIVATE, -1, null, recipient, message));
+          break;
+        }
+      case OPCODE_OUT_OFFER_TRADE_ITEM:
+        m_listener.event(readTradeItems(packet, ReplayEvent.Trade.STAGE_OFFER_SENT));
+        break;
+      case OPCODE_OUT_CONFIRM_ACCEPT_TRADE:
+        m_listener.event(
+            new ReplayEvent.Trade(timestamp, ReplayEvent.Trade.STAGE_ACCEPT, null, null));
+        break;
+    }
+  }
+
+  private void decodeCreateNpc(ReplayPacket packet) {
+    if (packet.data == null) return;
+
+    packet.startBitmask();
+    int knownCount = packet.readBitmask(8);
+    for (int i = 0; i < knownCount; i++) {
+      if (packet.readBitmask(1) == 0) continue;
+      // Either a 3 bit walking direction or a 4 bit sprite change or removal
+      if (packet.readBitmask(1) == 0) packet.readBitmask(3);
+      else packet.readBitmask(4);
+    }
+
+    // New npcs, 12 bit index, 5 bit x and y offsets, 4 bit sprite and 10 bit id
+    int end = packet.data.length << 3;
+    while (packet.tellBitmask() + 34 < end) {
+      int index = packet.readBitmask(12);
+      packet.readBitmask(5);
+      packet.readBitmask(5);
+      packet.readBitmask(4);
+      m_npcIds[index] = packet.readBitmask(10);
+    }
+  }
+
+  private void decodeUpdateNpc(ReplayPacket packet) {
+    int count = packet.readUnsignedShort();
+    for (int i = 0; i < count; i++) {
+      int index = packet.readUnsignedShort();
+      int type = packet.readUnsignedByte();
+      if (type == 1) {
+        // Npc talking to a player
+        packet.readUnsignedShort();
+        packet.readRSCString();
+      } else if (type == 2) {
+        packet.readUnsignedByte(); // damage
+        int hits = packet.readUnsignedByte();
+        packet.readUnsignedByte(); // max hits
+        if (hits == 0 && index == m_targetNpc) {
+          m_listener.event(new ReplayEvent.NpcKill(packet.timestamp, index, m_npcIds[index]));
+          m_targetNpc = -1;
+        }
+      } else {
+        // Unknown update, the rest of the packet can't be read
+        return;
+      }
+    }
+  }
+
+  private static ReplayEvent.Trade readTradeItems(ReplayPacket packet, int stage) {
+    int count = packet.data != null ? packet.readUnsignedByte() : 0;
+    int[] itemIds = new int[count];
+    int[] itemAmounts = new int[count];
+    for (int i = 0; i < count; i++) {
+      itemIds[i] = packet.readUnsignedShort();
+      itemAmounts[i] = packet.readUnsignedInt();
+    }
+    return new ReplayEvent.Trade(packet.timestamp, stage, itemIds, itemAmounts);
+  }
+}
@@ -0,0 +1,599 @@
+/**
+ * rscminus
+ *
+ * <p>This file is part of rscminus.
+ *
+ * <p>rscminus is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * <p>rscminus is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * <p>You should have received a copy of the GNU General Public License along with rscminus. If not,
+ * see <http://www.gnu.org/licenses/>.
+ *
+ * <p>Authors: see <https://github.com/RSCPlus/rscminus>
+ */
+package Replay.analysis;
+
+import Client.Logger;
+import Replay.scraper.ReplayEditor;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * An inverted index of the chat and npc kills of a replay library, stored in one file.
+ *
+ * <p>Every term maps to its postings, the (replay, timestamp) pairs it occurs at. Terms are the
+ * lowercase words of chat and server messages, "from:name" and "to:name" for the sender and
+ * recipient of a message, and "kill:id" for npc kills.
+ *
+ * <p>The file holds the replays, then the postings of every term as varint deltas, then the sorted
+ * term dictionary, followed by the offset of the dictionary. Only the replays and the dictionary
+ * are loaded, the postings of the terms of a query are read from the file when it's searched.
+ */
+public class ReplaySearchIndex {
+  private static final int MAGIC = 0x52534958; // RSIX
+  // 2 has the recorded timestamps instead of the ones skewed after reconnects
+  private static final int VERSION = 2;
+
+  /** A place in a replay where all the terms of a query occur. */
+  public static final class Hit {
+    public final File replay;
+    public final int timestamp;
+
+    Hit(File replay, int timestamp) {
+      this.replay = replay;
+      this.timestamp = timestamp;
+    }
+  }
+
+  private final File m_file;
+
+  // Held for a whole update or load, while the lock of the index is only held to swap the tables
+  // and replace the file, so searches don't wait for replays to be decoded
+  private final Object m_updateLock = new Object();
+
+  private Tables m_tables = new Tables();
+  private File m_keyCacheDirectory;
+
+  /** The replays and the dictionary of an index file. */
+  private static final class Tables {
+    // Replays by id, with the size and modification time of their in.bin.gz when indexed
+    String[] paths = new String[0];
+    long[] lengths = new long[0];
+    long[] modified = new long[0];
+
+    // Sorted terms with the file offset of their postings, offsets has one more for the end
+    String[] terms = new String[0];
+    long[] offsets = new long[] {0};
+
+    long getPostingsSize(int term) {
+      return offsets[term + 1] - offsets[term];
+    }
+  }
+
+  public ReplaySearchIndex(File file) {
+    m_file = file;
+  }
+
+  /**
+   * Sets the directory the keys that matched the logins of indexed replays are remembered in.
+   *
+   * @param directory the key cache directory, null to not use a cache
+   */
+  public void setKeyCacheDirectory(File directory) {
+    m_keyCacheDirectory = directory;
+  }
+
+  public synchronized int getReplayCount() {
+    return m_tables.paths.length;
+  }
+
+  public synchronized int getTermCount() {
+    return m_tables.terms.length;
+  }
+
+  /**
+   * Loads the replays and the dictionary of the index file.
+   *
+   * @return false if there's no index file or it can't be read, leaving the index empty
+   */
+  public boolean load() {
+    synchronized (m_updateLock) {
+      Tables tables = null;
+      if (m_file.exists()) {
+        try {
+          tables = read(m_file);
+        } catch (IOException e) {
+          Logger.Warn("Could not read the replay search index: " + e.getMessage());
+        }
+      }
+
+      synchronized (this) {
+        m_tables = tables != null ? tables : new Tables();
+      }
+      return tables != null;
+    }
+  }
+
+  /** Reads the tables of an index file, or returns null if it has an unknown format. */
+  private static Tables read(File indexFile) throws IOException {
+    try (RandomAccessFile file = new RandomAccessFile(indexFile, "r")) {
+      file.seek(file.length() - 8);
+      long dictionaryOffset = file.readLong();
+      file.seek(0);
+
+      DataInputStream in =
+          new DataInputStream(new BufferedInputStream(new FileInputStream(file.getFD())));
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        Logger.Warn("Replay search index has an unknown format, it will be rebuilt");
+        return null;
+      }
+      Tables tables = new Tables();
+      int replayCount = in.readInt();
+      tables.paths = new String[replayCount];
+      tables.lengths = new long[replayCount];
+      tables.modified = new long[replayCount];
+      for (int i = 0; i < replayCount; i++) {
+        tables.paths[i] = in.readUTF();
+        tables.lengths[i] = in.readLong();
+        tables.modified[i] = in.readLong();
+      }
+
+      file.seek(dictionaryOffset);
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(file.getFD())));
+      int termCount = in.readInt();
+      tables.terms = new String[termCount];
+      tables.offsets = new long[termCount + 1];
+      for (int i = 0; i < termCount; i++) {
+        tables.terms[i] = in.readUTF();
+        tables.offsets[i] = in.readLong();
+      }
+      tables.offsets[termCount] = dictionaryOffset;
+      return tables;
+    }
+  }
+
+  /**
+   * Finds the places where all terms of a query occur at the same timestamp of a replay.
+   *
+   * <p>Words of the query match words of messages, "from:", "to:" and "kill:" terms are matched as
+   * they are.
+   *
+   * @return the hits in order of replay and timestamp, at most limit of them
+   */
+  public synchronized List<Hit> search(String query, int limit) throws IOException {
+    List<String> terms = parseQuery(query);
+    List<Hit> hits = new ArrayList<Hit>();
+    if (terms.isEmpty()) return hits;
+
+    // Intersect starting from the rarest term
+    final Tables tables = m_tables;
+    int[] termIndexes = new int[terms.size()];
+    for (int i = 0; i < termIndexes.length; i++) {
+      termIndexes[i] = Arrays.binarySearch(tables.terms, terms.get(i));
+      if (termIndexes[i] < 0) return hits;
+    }
+    Integer[] order = new Integer[termIndexes.length];
+    for (int i = 0; i < order.length; i++) order[i] = termIndexes[i];
+    Arrays.sort(
+        order, (a, b) -> Long.compare(tables.getPostingsSize(a), tables.getPostingsSize(b)));
+
+    long[] postings;
+    try (RandomAccessFile file = new RandomAccessFile(m_file, "r")) {
+      postings = readPostings(file, tables, order[0]);
+      for (int i = 1; i < order.length && postings.length > 0; i++)
+        postings = intersect(postings, readPostings(file, tables, order[i]));
+    }
+
+    for (int i = 0; i < postings.length && hits.size() < limit; i++) {
+      int replay = (int) (postings[i] >>> 32);
+      hits.add(new Hit(new File(tables.paths[replay]), (int) postings[i]));
+    }
+    return hits;
+  }
+
+  /**
+   * Brings the index up to date with a list of replays and writes it out.
+   *
+   * <p>Replays whose in.bin.gz didn't change keep their postings, the new and changed ones are
+   * decoded in parallel and replays that aren't in the list anymore are dropped. The index can be
+   * searched while this runs, the new tables are only swapped in once the new file is written.
+   *
+   * @return the number of replays that were decoded
+   */
+  public int update(List<File> replays, int parallelism) throws IOException {
+    synchronized (m_updateLock) {
+      if (getReplayCount() == 0) load();
+      // Only updates replace the tables and the file, so they can be used without the lock
+      Tables old;
+      synchronized (this) {
+        old = m_tables;
+      }
+
+      // New replay table sorted by path, keeping the ids of unchanged replays mapped to new ones
+      List<String> paths = new ArrayList<String>();
+      for (File replay : replays) paths.add(replay.getPath());
+      Collections.sort(paths);
+      HashMap<String, Integer> oldIds = new HashMap<String, Integer>();
+      for (int i = 0; i < old.paths.length; i++) oldIds.put(old.paths[i], i);
+
+      int[] newIds = new int[old.paths.length];
+      Arrays.fill(newIds, -1);
+      String[] newPaths = new String[paths.size()];
+      long[] newLengths = new long[paths.size()];
+      long[] newModified = new long[paths.size()];
+      final List<Integer> changed = new ArrayList<Integer>();
+      int id = 0;
+      for (String path : paths) {
+        // Skip duplicates
+        if (id > 0 && newPaths[id - 1].equals(path)) continue;
+
+        File in = new File(path, "in.bin.gz");
+        newPaths[id] = path;
+        newLengths[id] = in.length();
+        newModified[id] = in.lastModified();
+        Integer oldId = oldIds.get(path);
+        if (oldId != null
+            && old.lengths[oldId] == newLengths[id]
+            && old.modified[oldId] == newModified[id]) {
+          newIds[oldId] = id;
+        } else {
+          changed.add(id);
+        }
+        id++;
+      }
+      // Every replay was indexed already and none were removed
+      if (changed.isEmpty() && id == old.paths.length) return 0;
+      final String[] replayPaths = Arrays.copyOf(newPaths, id);
+
+      // Keep the postings of unchanged replays
+      final HashMap<String, PostingList> postings = new HashMap<String, PostingList>();
+      if (old.terms.length > 0) {
+        try (RandomAccessFile file = new RandomAccessFile(m_file, "r")) {
+          for (int i = 0; i < old.terms.length; i++) {
+            PostingList list = null;
+            for (long posting : readPostings(file, old, i)) {
+              int newId = newIds[(int) (posting >>> 32)];
+              if (newId < 0) continue;
+              if (list == null) list = new PostingList();
+              list.add(((long) newId << 32) | (posting & 0xFFFFFFFFL));
+            }
+            if (list != null) postings.put(old.terms[i], list);
+          }
+        }
+      }
+
+      // Decode the new and changed replays
+      if (!changed.isEmpty()) {
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+        try {
+          pool.invoke(new IndexTask(replayPaths, changed, 0, changed.size(), postings));
+        } finally {
+          pool.shutdown();
+        }
+      }
+
+      File tempFile = new File(m_file.getPath() + ".tmp");
+      write(
+          tempFile,
+          replayPaths,
+          Arrays.copyOf(newLengths, id),
+          Arrays.copyOf(newModified, id),
+          postings);
+      Tables tables = read(tempFile);
+
+      // Searches read the postings of the current tables from the file, so both change together
+      synchronized (this) {
+        if (m_file.exists() && !m_file.delete())
+          throw new IOException("Could not replace " + m_file);
+        if (!tempFile.renameTo(m_file)) throw new IOException("Could not write " + m_file);
+        m_tables = tables;
+      }
+      return changed.size();
+    }
+  }
+
+  private static void write(
+      File tempFile,
+      String[] paths,
+      long[] lengths,
+      long[] modified,
+      Map<String, PostingList> postings)
+      throws IOException {
+    String[] terms = postings.keySet().toArray(new String[0]);
+    Arrays.sort(terms);
+    long[] offsets = new long[terms.length];
+
+    try (CountingOutputStream counter =
+            new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+        DataOutputStream out = new DataOutputStream(counter)) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(paths.length);
+      for (int i = 0; i < paths.length; i++) {
+        out.writeUTF(paths[i]);
+        out.writeLong(lengths[i]);
+        out.writeLong(modified[i]);
+      }
+
+      for (int i = 0; i < terms.length; i++) {
+        offsets[i] = counter.getCount();
+        long[] list = postings.get(terms[i]).toSortedArray();
+        long previous = 0;
+        for (long posting : list) {
+          int replay = (int) (posting >>> 32);
+          int timestamp = (int) posting;
+          int replayDelta = replay - (int) (previous >>> 32);
+          writeVarint(out, replayDelta);
+          writeVarint(out, replayDelta == 0 ? timestamp - (int) previous : timestamp);
+          previous = posting;
+        }
+      }
+
+      long dictionaryOffset = counter.getCount();
+      out.writeInt(terms.length);
+      for (int i = 0; i < terms.length; i++) {
+        out.writeUTF(terms[i]);
+        out.writeLong(offsets[i]);
+      }
+      out.writeLong(dictionaryOffset);
+    }
+  }
+
+  private static long[] readPostings(RandomAccessFile file, Tables tables, int term)
+      throws IOException {
+    byte[] data = new byte[(int) tables.getPostingsSize(term)];
+    file.seek(tables.offsets[term]);
+    file.readFully(data);
+
+    PostingList list = new PostingList();
+    int[] position = new int[1];
+    int replay = 0;
+    int timestamp = 0;
+    while (position[0] < data.length) {
+      int replayDelta = readVarint(data, position);
+      int value = readVarint(data, position);
+      if (replayDelta == 0) {
+        timestamp += value;
+      } else {
+        replay += replayDelta;
+        timestamp = value;
+      }
+      list.add(((long) replay << 32) | (timestamp & 0xFFFFFFFFL));
+    }
+    return list.toArray();
+  }
+
+  private static long[] intersect(long[] a, long[] b) {
+    long[] result = new long[Math.min(a.length, b.length)];
+    int count = 0;
+    int i = 0;
+    int j = 0;
+    while (i < a.length && j < b.length) {
+      if (a[i] < b[j]) i++;
+      else if (a[i] > b[j]) j++;
+      else {
+        result[count++] = a[i];
+        i++;
+        j++;
+      }
+    }
+    return Arrays.copyOf(result, count);
+  }
+
+  private static int readVarint(byte[] data, int[] position) {
+    int value = 0;
+    for (int shift = 0; ; shift += 7) {
+      byte b = data[position[0]++];
+      value |= (b & 0x7F) << shift;
+      if (b >= 0) return value;
+    }
+  }
+
+  private static void writeVarint(DataOutputStream out, int value) throws IOException {
+    while ((value & ~0x7F) != 0) {
+      out.writeByte((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte(value);
+  }
+
+  /** Splits text into lowercase words of letters and digits. */
+  public static List<String> tokenize(String text) {
+    List<String> words = new ArrayList<String>();
+    if (text == null) return words;
+
+    int start = -1;
+    for (int i = 0; i <= text.length(); i++) {
+      boolean letter = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+      if (letter && start < 0) {
+        start = i;
+      } else if (!letter && start >= 0) {
+        words.add(text.substring(start, i).toLowerCase());
+        start = -1;
+      }
+    }
+    return words;
+  }
+
+  /** Returns the term of a player name, with the spaces in it replaced by underscores. */
+  public static String nameTerm(String prefix, String name) {
+    return prefix + name.trim().toLowerCase().replace(' ', '_').replace('\u00a0', '_');
+  }
+
+  private static List<String> parseQuery(String query) {
+    List<String> terms = new ArrayList<String>();
+    for (String part : query.trim().split("\\s+")) {
+      int colon = part.indexOf(':');
+      if (colon > 0) terms.add(part.toLowerCase());
+      else terms.addAll(tokenize(part));
+    }
+    return terms;
+  }
+
+  /** Returns the terms of an event, or an empty list if it isn't indexed. */
+  static List<String> getTerms(ReplayEvent event) {
+    List<String> terms = new ArrayList<String>();
+    if (event instanceof ReplayEvent.Chat) {
+      ReplayEvent.Chat chat = (ReplayEvent.Chat) event;
+      terms.addAll(tokenize(chat.message));
+      if (chat.sender != null) terms.add(nameTerm("from:", chat.sender));
+      if (chat.recipient != null) terms.add(nameTerm("to:", chat.recipient));
+    } else if (event instanceof ReplayEvent.NpcKill) {
+      ReplayEvent.NpcKill kill = (ReplayEvent.NpcKill) event;
+      if (kill.npcId >= 0) terms.add("kill:" + kill.npcId);
+    }
+    return terms;
+  }
+
+  /**
+   * Decodes the events of a replay for indexing.
+   *
+   * @param path the replay folder
+   */
+  protected void decode(String path, ReplayEventDecoder.Listener listener) {
+    // Hits are seeked to in playback, which uses the recorded timestamps
+    ReplayEditor editor = new ReplayEditor();
+    editor.setKeyCacheDirectory(m_keyCacheDirectory);
+    if (!editor.openData(path, false)) Logger.Warn("Replay could not be read completely: " + path);
+    new ReplayEventDecoder(listener).decode(editor);
+  }
+
+  private class IndexTask extends RecursiveAction {
+    private final String[] m_paths;
+    private final List<Integer> m_ids;
+    private final int m_start;
+    private final int m_end;
+    private final HashMap<String, PostingList> m_postings;
+
+    IndexTask(
+        String[] paths,
+        List<Integer> ids,
+        int start,
+        int end,
+        HashMap<String, PostingList> postings) {
+      m_paths = paths;
+      m_ids = ids;
+      m_start = start;
+      m_end = end;
+      m_postings = postings;
+    }
+
+    @Override
+    protected void compute() {
+      if (m_end - m_start > 1) {
+        int middle = (m_start + m_end) >>> 1;
+        invokeAll(
+            new IndexTask(m_paths, m_ids, m_start, middle, m_postings),
+            new IndexTask(m_paths, m_ids, middle, m_end, m_postings));
+        return;
+      }
+      if (m_end == m_start) return;
+
+      final int id = m_ids.get(m_start);
+      final HashMap<String, PostingList> replayPostings = new HashMap<String, PostingList>();
+      decode(
+          m_paths[id],
+          new ReplayEventDecoder.Listener() {
+            @Override
+            public void event(ReplayEvent event) {
+              for (String term : getTerms(event)) {
+                PostingList list = replayPostings.get(term);
+                if (list == null) {
+                  list = new PostingList();
+                  replayPostings.put(term, list);
+                }
+                list.add(((long) id << 32) | (event.timestamp & 0xFFFFFFFFL));
+              }
+            }
+          });
+
+      synchronized (m_postings) {
+        for (Map.Entry<String, PostingList> entry : replayPostings.entrySet()) {
+          PostingList list = m_postings.get(entry.getKey());
+          if (list == null) m_postings.put(entry.getKey(), entry.getValue());
+          else list.addAll(entry.getValue());
+        }
+      }
+    }
+  }
+
+  /** A growable array of postings, each the replay id in the high and timestamp in the low half. */
+  private static class PostingList {
+    private long[] m_values = new long[4];
+    private int m_size;
+
+    void add(long value) {
+      if (m_size == m_values.length) m_values = Arrays.copyOf(m_values, m_size * 2);
+      m_values[m_size++] = value;
+    }
+
+    void addAll(PostingList list) {
+      if (m_size + list.m_size > m_values.length)
+        m_values = Arrays.copyOf(m_values, Math.max(m_size + list.m_size, m_size * 2));
+      System.arraycopy(list.m_values, 0, m_values, m_size, list.m_size);
+      m_size += list.m_size;
+    }
+
+    long[] toArray() {
+      return Arrays.copyOf(m_values, m_size);
+    }
+
+    /** Returns the postings sorted, without duplicates. */
+    long[] toSortedArray() {
+      long[] values = toArray();
+      Arrays.sort(values);
+      int count = 0;
+      for (int i = 0; i < values.length; i++) {
+        if (count == 0 || values[i] != values[count - 1]) values[count++] = values[i];
+      }
+      return Arrays.copyOf(values, count);
+    }
+  }
+
+  /** Counts the bytes written, for the offsets of the postings. */
+  private static class CountingOutputStream extends FilterOutputStream {
+    private long m_count;
+
+    CountingOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    long getCount() {
+      return m_count;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      m_count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      m_count += len;
+    }
+  }
+}
@@ -0,0 +1,399 @@
+/**
+ * rscminus
+ *
+ * <p>This file is part of rscminus.
+ *
+ * <p>rscminus is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * <p>rscminus is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * <p>You should have received a copy of the GNU General Public License along with rscminus. If not,
+ * see <http://www.gnu.org/licenses/>.
+ *
+ * <p>Authors: see <https://github.com/RSCPlus/rscminus>
+ */
+package Replay.analysis;
+
+import Client.Logger;
+import Game.Replay;
+import Replay.scraper.ReplayEditor;
+import Replay.scraper.ReplayKeyPair;
+import Replay.scraper.ReplayPacket;
+import Replay.scraper.ReplayStreamReader;
+import Replay.scraper.ReplayVersion;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.zip.ZipException;
+
+/**
+ * Checks the integrity of whole replay libraries without the client.
+ *
+ * <p>The replays are checked in parallel on a fork/join pool. Each file is streamed once through
+ * a fixed size buffer, so the memory used doesn't depend on the size of the replays:
+ *
+ * <ul>
+ *   <li>the gzip data of in.bin.gz and out.bin.gz, up to and including the gzip trailer
+ *   <li>the checksum stored after each stream since replay version 3
+ *   <li>every packet decoding with the keys of keys.bin
+ *   <li>the sizes and values of version.bin, keys.bin and metadata.bin
+ * </ul>
+ *
+ * <p>One CSV or JSON row is written per replay, in the order of the replays. Run with "ant verify
+ * -Dverify.input=path/to/replays", see {@link #main(String[])}.
+ */
+public class ReplayVerifier {
+  public static final String STATUS_OK = "ok";
+  public static final String STATUS_WARNING = "warning";
+  public static final String STATUS_ERROR = "error";
+
+  public static final String CHECKSUM_OK = "ok";
+  public static final String CHECKSUM_MISMATCH = "mismatch";
+  public static final String CHECKSUM_MISSING = "missing";
+  // A stream that ended or failed before its checksum could be compared
+  public static final String CHECKSUM_UNVERIFIED = "unverified";
+  // Replays before version 3 have no checksum
+  public static final String CHECKSUM_NONE = "none";
+
+  private static final List<String> CHECKSUM_ORDER =
+      Arrays.asList(
+          CHECKSUM_NONE, CHECKSUM_OK, CHECKSUM_UNVERIFIED, CHECKSUM_MISSING, CHECKSUM_MISMATCH);
+
+  public static final String[] COLUMNS = {
+    "status",
+    "version",
+    "client_version",
+    "keys",
+    "keys_used",
+    "logins",
+    "incoming_packets",
+    "outgoing_packets",
+    "length",
+    "end",
+    "checksum",
+    "issues"
+  };
+
+  private final int m_parallelism;
+
+  // State of a run
+  private int m_warningCount;
+  private int m_errorCount;
+  private long m_size;
+
+  /** What was found in one replay. */
+  public static class Result {
+    public String status = STATUS_OK;
+    public int version = -1;
+    public int clientVersion = -1;
+    public int keyCount = 0;
+    public int keysUsed = 0;
+    public int loginCount = 0;
+    public long incomingPackets = 0;
+    public long outgoingPackets = 0;
+    // Length from metadata.bin, and timestamp of the last complete record of in.bin.gz
+    public int length = -1;
+    public int end = -1;
+    // The worst checksum status of the streams
+    public String checksum = CHECKSUM_NONE;
+    public final List<String> issues = new ArrayList<String>();
+
+    void warn(String issue) {
+      issues.add(issue);
+      if (STATUS_OK.equals(status)) status = STATUS_WARNING;
+    }
+
+    void error(String issue) {
+      issues.add(issue);
+      status = STATUS_ERROR;
+    }
+
+    void checksum(String streamChecksum) {
+      if (CHECKSUM_ORDER.indexOf(streamChecksum) > CHECKSUM_ORDER.indexOf(checksum))
+        checksum = streamChecksum;
+    }
+
+    Object[] toRow() {
+      return new Object[] {
+        status,
+        version,
+        clientVersion,
+        keyCount,
+        keysUsed,
+        loginCount,
+        incomingPackets,
+        outgoingPackets,
+        length,
+        end,
+        checksum,
+        String.join("; ", issues)
+      };
+    }
+  }
+
+  public ReplayVerifier(int parallelism) {
+    m_parallelism = Math.max(1, parallelism);
+  }
+
+  /**
+   * Returns the replay folders in and below the inputs, sorted by path. Unlike {@link
+   * ReplayAnalysis#findReplays(List)} this includes folders with only some of the replay files.
+   */
+  public static List<File> findReplays(List<File> inputs) {
+    return ReplayBatch.findReplays(
+        inputs,
+        new FileFilter() {
+          @Override
+          public boolean accept(File folder) {
+            return new File(folder, "in.bin.gz").exists()
+                || new File(folder, "keys.bin").exists()
+                || new File(folder, "version.bin").exists();
+          }
+        });
+  }
+
+  /** Returns the number of replays with warnings but no errors in the last run. */
+  public int getWarningCount() {
+    return m_warningCount;
+  }
+
+  /** Returns the number of replays with errors in the last run. */
+  public int getErrorCount() {
+    return m_errorCount;
+  }
+
+  /**
+   * Checks the replays and writes the report, returning when it's written.
+   *
+   * @param format {@link ReplayAnalysis#FORMAT_CSV} or {@link ReplayAnalysis#FORMAT_JSON}
+   */
+  public void run(List<File> replays, String format, File report) throws IOException {
+    if (!ReplayAnalysis.FORMAT_CSV.equals(format) && !ReplayAnalysis.FORMAT_JSON.equals(format))
+      throw new IllegalArgumentException("Unknown format: " + format);
+    File reportDirectory = report.getAbsoluteFile().getParentFile();
+    if (reportDirectory != null) reportDirectory.mkdirs();
+
+    m_warningCount = 0;
+    m_errorCount = 0;
+    m_size = 0;
+
+    long start = System.nanoTime();
+    ReplayAnalysisWriter writer = ReplayAnalysisWriter.create(format, report, COLUMNS);
+    try {
+      new ReplayBatch<Result>(replays) {
+        @Override
+        protected Result process(File replay) {
+          Result result = verify(replay);
+          long size =
+              new File(replay, "in.bin.gz").length() + new File(replay, "out.bin.gz").length();
+          synchronized (ReplayVerifier.this) {
+            m_size += size;
+            if (STATUS_WARNING.equals(result.status)) m_warningCount++;
+            else if (STATUS_ERROR.equals(result.status)) m_errorCount++;
+          }
+          if (!STATUS_OK.equals(result.status))
+            Logger.Warn("Replay " + replay.getPath() + ": " + String.join("; ", result.issues));
+          return result;
+        }
+
+        @Override
+        protected void write(File replay, Result result) throws IOException {
+          writer.write(replay.getPath(), result.toRow());
+        }
+      }.run(m_parallelism);
+    } finally {
+      writer.close();
+    }
+
+    double seconds = (System.nanoTime() - start) / 1e9;
+    Logger.Info(
+        String.format(
+            "Verified %d replays in %.1f s, %.1f MB/s, %d with warnings, %d with errors",
+            replays.size(),
+            seconds,
+            m_size / 1048576.0 / Math.max(seconds, 0.001),
+            m_warningCount,
+            m_errorCount));
+  }
+
+  /** Checks one replay folder. */
+  public static Result verify(File replay) {
+    Result result = new Result();
+
+    // Version
+    ReplayVersion replayVersion = new ReplayVersion();
+    File versionFile = new File(replay, "version.bin");
+    if (!versionFile.exists()) {
+      result.error("version.bin is missing");
+    } else if (versionFile.length() != 8) {
+      result.error("version.bin has " + versionFile.length() + " bytes instead of 8");
+    } else {
+      try (DataInputStream in = new DataInputStream(new FileInputStream(versionFile))) {
+        result.version = in.readInt();
+        result.clientVersion = in.readInt();
+      } catch (IOException e) {
+        result.error("version.bin can't be read: " + e.getMessage());
+      }
+      if (result.version < 0 || result.version > Replay.VERSION)
+        result.error("Unknown replay version " + result.version);
+      else replayVersion.version = result.version;
+      if (result.clientVersion != 235) result.warn("Client version is " + result.clientVersion);
+    }
+
+    // Keys
+    LinkedList<ReplayKeyPair> keys = new LinkedList<ReplayKeyPair>();
+    File keysFile = new File(replay, "keys.bin");
+    if (!keysFile.exists()) {
+      result.error("keys.bin is missing");
+    } else if (keysFile.length() == 0 || keysFile.length() % 16 != 0) {
+      result.error("keys.bin has " + keysFile.length() + " bytes, not a multiple of 16");
+    } else {
+      try (DataInputStream in =
+          new DataInputStream(new BufferedInputStream(new FileInputStream(keysFile)))) {
+        for (long i = keysFile.length() / 16; i > 0; i--) {
+          ReplayKeyPair keyPair = new ReplayKeyPair();
+          for (int j = 0; j < keyPair.keys.length; j++) keyPair.keys[j] = in.readInt();
+          keys.add(keyPair);
+        }
+      } catch (IOException e) {
+        result.error("keys.bin can't be read: " + e.getMessage());
+      }
+      result.keyCount = keys.size();
+    }
+
+    // Metadata
+    File metadataFile = new File(replay, "metadata.bin");
+    if (!metadataFile.exists()) {
+      result.warn("metadata.bin is missing");
+    } else if (metadataFile.length() != 12 && metadataFile.length() != 33) {
+      result.error("metadata.bin has " + metadataFile.length() + " bytes instead of 12 or 33");
+    } else {
+      try (DataInputStream in = new DataInputStream(new FileInputStream(metadataFile))) {
+        result.length = in.readInt();
+      } catch (IOException e) {
+        result.error("metadata.bin can't be read: " + e.getMessage());
+      }
+    }
+
+    // Streams
+    File inFile = new File(replay, "in.bin.gz");
+    File outFile = new File(replay, "out.bin.gz");
+    if (!inFile.exists()) result.error("in.bin.gz is missing");
+    else verifyStream(result, inFile, replayVersion, keys, false);
+    if (!outFile.exists()) result.warn("out.bin.gz is missing");
+    else verifyStream(result, outFile, replayVersion, keys, true);
+    if (replayVersion.version >= 3 && (!inFile.exists() || !outFile.exists()))
+      result.checksum(CHECKSUM_UNVERIFIED);
+
+    if (result.length != -1 && result.end != -1 && result.length != result.end)
+      result.warn(
+          "metadata.bin has a length of "
+              + result.length
+              + " but in.bin.gz ends at "
+              + result.end);
+    return result;
+  }
+
+  private static void verifyStream(
+      Result result,
+      File file,
+      ReplayVersion replayVersion,
+      LinkedList<ReplayKeyPair> keys,
+      boolean outgoing) {
+    String name = file.getName();
+    String checksum = CHECKSUM_UNVERIFIED;
+    ReplayStreamReader reader = null;
+    try {
+      reader = new ReplayStreamReader(file, replayVersion, keys, outgoing);
+      long packets = 0;
+      int logins = 0;
+      int skippedKeys = 0;
+      ReplayPacket packet;
+      while ((packet = reader.readPacket()) != null) {
+        if (packet.opcode == ReplayEditor.VIRTUAL_OPCODE_CONNECT) {
+          logins++;
+          skippedKeys += packet.skipKeys;
+        } else {
+          packets++;
+        }
+      }
+      if (reader.getError() != null) result.error(name + ": " + reader.getError());
+      else if (!reader.isDecoded()) result.warn(name + ": Packets after a failed login");
+      if (skippedKeys > 0) result.warn(name + ": " + skippedKeys + " keys skipped");
+      result.keysUsed = Math.max(result.keysUsed, reader.getKeyIndex() + 1);
+
+      long extra = reader.skipRemaining();
+      if (!reader.isComplete()) {
+        result.error(name + ": Truncated");
+      } else if (replayVersion.version >= 3) {
+        if (!reader.hasStoredChecksum()) {
+          checksum = CHECKSUM_MISSING;
+          result.warn(name + ": No checksum");
+        } else if (!Arrays.equals(reader.getChecksum(), reader.getFileMetadata())) {
+          checksum = CHECKSUM_MISMATCH;
+          result.error(name + ": Checksum mismatch");
+        } else {
+          checksum = CHECKSUM_OK;
+        }
+      }
+      if (extra > 0) result.warn(name + ": " + extra + " bytes after the end of the replay");
+
+      if (outgoing) {
+        result.outgoingPackets = packets;
+        if (logins != result.loginCount)
+          result.warn(name + ": " + logins + " logins, in.bin.gz has " + result.loginCount);
+      } else {
+        result.incomingPackets = packets;
+        result.loginCount = logins;
+        result.end = reader.getEndTimestamp();
+      }
+    } catch (ZipException e) {
+      result.error(name + ": Corrupt gzip data: " + e.getMessage());
+    } catch (Exception e) {
+      result.error(name + ": " + e.getMessage());
+    } finally {
+      if (replayVersion.version >= 3) result.checksum(checksum);
+      if (reader != null) {
+        try {
+          reader.close();
+        } catch (IOException e) {
+        }
+      }
+    }
+  }
+
+  /**
+   * Command line entry point, exits with 2 if a replay has errors.
+   *
+   * <p>Usage: [-f csv|json] [-o report] [-t threads] paths...
+   */
+  public static void main(String[] args) throws IOException {
+    ReplayBatch.Options options = ReplayBatch.Options.parse(args, "-f", "-o", "-t");
+    String format = options.get("-f", ReplayAnalysis.FORMAT_CSV);
+    File report = new File(options.get("-o", "verify." + format));
+    int threads = options.getThreads();
+    List<File> inputs = options.getInputs();
+
+    if (inputs.isEmpty()) {
+      System.err.println("Usage: ReplayVerifier [-f csv|json] [-o report] [-t threads] paths...");
+      System.exit(1);
+    }
+
+    List<File> replays = findReplays(inputs);
+    Logger.Info("Found " + replays.size() + " replays, verifying with " + threads + " threads");
+    ReplayVerifier verifier = new ReplayVerifier(threads);
+    verifier.run(replays, format, report);
+    System.exit(verifier.getErrorCount() > 0 ? 2 : 0);
+  }
+}
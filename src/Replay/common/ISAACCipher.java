@@ -72,6 +72,21 @@ public class ISAACCipher {
     init(true);
   }
 
+  /**
+   * Puts the cipher in the same state as another one, which is much cheaper than setting the same
+   * keys again.
+   *
+   * @param other The cipher to copy the state of.
+   */
+  public void copyFrom(ISAACCipher other) {
+    System.arraycopy(other.results, 0, results, 0, SIZE);
+    System.arraycopy(other.memory, 0, memory, 0, SIZE);
+    count = other.count;
+    a = other.a;
+    b = other.b;
+    c = other.c;
+  }
+
   /** Resets the ISAAC cipher */
   public void reset() {
     for (int i = 0; i < memory.length; i++) memory[i] = 0x00;
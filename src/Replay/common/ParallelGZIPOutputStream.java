@@ -0,0 +1,257 @@
+/**
+ * rscminus
+ *
+ * <p>This file is part of rscminus.
+ *
+ * <p>rscminus is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * <p>rscminus is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * <p>You should have received a copy of the GNU General Public License along with rscminus. If not,
+ * see <http://www.gnu.org/licenses/>.
+ *
+ * <p>Authors: see <https://github.com/RSCPlus/rscminus>
+ */
+package Replay.common;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A gzip output stream that compresses blocks of its input on several threads.
+ *
+ * <p>Every block is deflated on its own, primed with the last 32 KiB of the input before it, and
+ * ends with a sync flush so the blocks join into one deflate stream. The output is a single
+ * standard gzip member with the same header as {@link java.util.zip.GZIPOutputStream}, and the CRC
+ * of the trailer is combined from the CRCs of the blocks.
+ *
+ * <p>The blocks of every stream are compressed on one shared pool of daemon threads, so a stream
+ * that is never closed doesn't keep any threads alive.
+ */
+public class ParallelGZIPOutputStream extends OutputStream {
+  // Uncompressed size of each block
+  public static final int BLOCK_SIZE = 128 * 1024;
+  // Size of the deflate history window
+  private static final int WINDOW_SIZE = 32 * 1024;
+  private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+
+  private static ForkJoinPool pool;
+
+  private final OutputStream m_out;
+  // Blocks being compressed, in order, the oldest is written once there are too many
+  private final ArrayDeque<ForkJoinTask<Block>> m_pending = new ArrayDeque<ForkJoinTask<Block>>();
+  private final int m_maxPending;
+
+  private byte[] m_block = new byte[BLOCK_SIZE];
+  private int m_blockLength = 0;
+  // Last WINDOW_SIZE bytes written before the block being filled, never modified once set
+  private byte[] m_window = new byte[0];
+  private long m_crc = 0;
+  private long m_size = 0;
+  private boolean m_closed = false;
+
+  private static class Block {
+    final byte[] data;
+    final int length;
+    final long crc;
+    final int inputLength;
+
+    Block(byte[] data, int length, long crc, int inputLength) {
+      this.data = data;
+      this.length = length;
+      this.crc = crc;
+      this.inputLength = inputLength;
+    }
+  }
+
+  public ParallelGZIPOutputStream(OutputStream out) throws IOException {
+    this(out, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * @param out the stream the gzip data is written to
+   * @param threads number of blocks compressed at the same time, at most the number of processors
+   */
+  public ParallelGZIPOutputStream(OutputStream out, int threads) throws IOException {
+    m_out = out;
+    m_maxPending = Math.max(1, threads) * 2;
+    m_out.write(HEADER);
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    if (m_blockLength == BLOCK_SIZE) submit(false);
+    m_block[m_blockLength++] = (byte) b;
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    while (len > 0) {
+      if (m_blockLength == BLOCK_SIZE) submit(false);
+      int count = Math.min(len, BLOCK_SIZE - m_blockLength);
+      System.arraycopy(b, off, m_block, m_blockLength, count);
+      m_blockLength += count;
+      off += count;
+      len -= count;
+    }
+  }
+
+  /**
+   * Compresses the block being filled right away and writes out everything compressed so far,
+   * ending with a sync flush so all data written until now can be decompressed.
+   */
+  @Override
+  public void flush() throws IOException {
+    if (m_closed) return;
+
+    if (m_blockLength > 0) submit(false);
+    while (!m_pending.isEmpty()) writeBlock(m_pending.poll());
+    m_out.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (m_closed) return;
+    m_closed = true;
+
+    try {
+      submit(true);
+      while (!m_pending.isEmpty()) writeBlock(m_pending.poll());
+
+      // Trailer
+      writeIntLE(m_crc);
+      writeIntLE(m_size);
+    } finally {
+      m_out.close();
+    }
+  }
+
+  private void submit(final boolean last) throws IOException {
+    final byte[] data = m_block;
+    final int length = m_blockLength;
+    final byte[] dictionary = m_window;
+    m_pending.add(
+        getPool()
+            .submit(
+                new Callable<Block>() {
+                  @Override
+                  public Block call() {
+                    return compress(dictionary, data, length, last);
+                  }
+                }));
+
+    // Blocks cut short by flush() can be smaller than the window, so keep the tail of both
+    byte[] window = new byte[Math.min(WINDOW_SIZE, dictionary.length + length)];
+    int kept = Math.max(0, window.length - length);
+    System.arraycopy(dictionary, dictionary.length - kept, window, 0, kept);
+    System.arraycopy(data, length - (window.length - kept), window, kept, window.length - kept);
+    m_window = window;
+    m_block = new byte[BLOCK_SIZE];
+    m_blockLength = 0;
+    while (m_pending.size() > m_maxPending) writeBlock(m_pending.poll());
+  }
+
+  private static synchronized ForkJoinPool getPool() {
+    if (pool == null) pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    return pool;
+  }
+
+  private void writeBlock(ForkJoinTask<Block> task) throws IOException {
+    Block block = task.join();
+    m_out.write(block.data, 0, block.length);
+    m_crc = combineCRC(m_crc, block.crc, block.inputLength);
+    m_size += block.inputLength;
+  }
+
+  private void writeIntLE(long value) throws IOException {
+    m_out.write((int) value & 0xFF);
+    m_out.write((int) (value >> 8) & 0xFF);
+    m_out.write((int) (value >> 16) & 0xFF);
+    m_out.write((int) (value >> 24) & 0xFF);
+  }
+
+  private static Block compress(byte[] dictionary, byte[] data, int length, boolean last) {
+    CRC32 crc = new CRC32();
+    crc.update(data, 0, length);
+
+    Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    try {
+      if (dictionary.length > 0) deflater.setDictionary(dictionary);
+      deflater.setInput(data, 0, length);
+      if (last) deflater.finish();
+
+      byte[] output = new byte[length + length / 1000 + 64];
+      int count = 0;
+      for (; ; ) {
+        if (count == output.length) output = Arrays.copyOf(output, output.length * 2);
+        int space = output.length - count;
+        int deflated =
+            deflater.deflate(
+                output, count, space, last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+        count += deflated;
+        // A sync flush is complete once it leaves space in the output
+        if (last ? deflater.finished() : deflated < space) break;
+      }
+      return new Block(output, count, crc.getValue(), length);
+    } finally {
+      deflater.end();
+    }
+  }
+
+  /**
+   * Returns the CRC-32 of two pieces of data joined together, from the CRC of each piece and the
+   * length of the second, the same way zlib's crc32_combine does it.
+   */
+  static long combineCRC(long crc1, long crc2, long length2) {
+    if (length2 <= 0) return crc1;
+
+    // Operator for one zero bit, then squared into operators for two and four zero bits
+    long[] odd = new long[32];
+    long[] even = new long[32];
+    odd[0] = 0xEDB88320L;
+    long row = 1;
+    for (int n = 1; n < 32; n++) {
+      odd[n] = row;
+      row <<= 1;
+    }
+    square(even, odd);
+    square(odd, even);
+
+    // Apply length2 zero bytes to crc1
+    do {
+      square(even, odd);
+      if ((length2 & 1) != 0) crc1 = times(even, crc1);
+      length2 >>= 1;
+      if (length2 == 0) break;
+
+      square(odd, even);
+      if ((length2 & 1) != 0) crc1 = times(odd, crc1);
+      length2 >>= 1;
+    } while (length2 != 0);
+
+    return crc1 ^ crc2;
+  }
+
+  private static long times(long[] matrix, long vector) {
+    long sum = 0;
+    for (int i = 0; vector != 0; i++, vector >>>= 1) {
+      if ((vector & 1) != 0) sum ^= matrix[i];
+    }
+    return sum;
+  }
+
+  private static void square(long[] square, long[] matrix) {
+    for (int n = 0; n < 32; n++) square[n] = times(matrix, matrix[n]);
+  }
+}
@@ -136,6 +136,11 @@ public class Game {
   public static final int STAT_PRAYER = 5;
   public static final int STAT_MAGIC = 6;
   public static final int STAT_COUNT = 18;
+  public static final String[] STAT_NAMES = {
+    "Attack", "Defense", "Strength", "Hits", "Ranged", "Prayer", "Magic", "Cooking", "Woodcut",
+    "Fletching", "Fishing", "Firemaking", "Crafting", "Smithing", "Mining", "Herblaw", "Agility",
+    "Thieving"
+  };
 
   // Chat Types
   public static final int CHAT_QUEST = 3;
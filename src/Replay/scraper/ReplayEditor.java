@@ -19,15 +19,17 @@
 package Replay.scraper;
 
 import Replay.common.ISAACCipher;
+import Replay.common.ParallelGZIPOutputStream;
 import java.io.*;
 import java.util.Date;
 import java.util.LinkedList;
-import java.util.zip.GZIPOutputStream;
 
 public class ReplayEditor {
   private LinkedList<ReplayKeyPair> m_keys = new LinkedList<ReplayKeyPair>();
-  private LinkedList<ReplayPacket> m_incomingPackets = new LinkedList<ReplayPacket>();
-  private LinkedList<ReplayPacket> m_outgoingPackets = new LinkedList<ReplayPacket>();
+  private ReplayPacketStore m_incomingPackets = new ReplayPacketStore();
+  private ReplayPacketStore m_outgoingPackets = new ReplayPacketStore();
+  private ReplayPacketCursor m_incomingCursor;
+  private ReplayPacketCursor m_outgoingCursor;
   private ReplayVersion m_replayVersion = new ReplayVersion();
   private ReplayMetadata m_replayMetadata = new ReplayMetadata();
   private byte[] m_inMetadata = new byte[32];
@@ -35,6 +37,7 @@ public class ReplayEditor {
   private byte[] m_inChecksum = new byte[32];
   private byte[] m_outChecksum = new byte[32];
   private byte[] m_metadata = new byte[1];
+  private File m_keyCacheDirectory;
 
   public static final int VERSION = 5;
 
@@ -51,11 +54,11 @@ public class ReplayEditor {
     return m_metadata;
   }
 
-  public LinkedList<ReplayPacket> getIncomingPackets() {
+  public ReplayPacketStore getIncomingPackets() {
     return m_incomingPackets;
   }
 
-  public LinkedList<ReplayPacket> getOutgoingPackets() {
+  public ReplayPacketStore getOutgoingPackets() {
     return m_outgoingPackets;
   }
 
@@ -88,7 +91,39 @@ public class ReplayEditor {
     return true;
   }
 
-  public boolean importData(String fname) {
+  /**
+   * Sets the directory the keys that matched the logins of opened replays are remembered in, so
+   * opening them again doesn't try the keys.
+   *
+   * @param directory the key cache directory, null to not use a cache
+   */
+  public void setKeyCacheDirectory(File directory) {
+    m_keyCacheDirectory = directory;
+  }
+
+  /**
+   * Opens a replay so its packets can be decoded one at a time with {@link #getIncomingCursor()}
+   * and {@link #getOutgoingCursor()}, without importing all of them first.
+   *
+   * <p>Incoming timestamps after a quick reconnect are skewed like {@link #importData(String)}
+   * does it, see {@link #openData(String, boolean)} to keep the recorded ones.
+   *
+   * @return false if the replay can't be read completely, the cursors still hold what was readable
+   */
+  public boolean openData(String fname) {
+    return openData(fname, true);
+  }
+
+  /**
+   * Opens a replay like {@link #openData(String)}.
+   *
+   * @param skewDisconnects whether to skew incoming timestamps after a quick reconnect, false keeps
+   *     the recorded timestamps that replay playback seeks to
+   */
+  public boolean openData(String fname, boolean skewDisconnects) {
+    m_incomingCursor = new ReplayPacketCursor(null, false);
+    m_outgoingCursor = new ReplayPacketCursor(null, false);
+
     // Required files
     File keysFile = new File(fname + "/keys.bin");
     File versionFile = new File(fname + "/version.bin");
@@ -129,7 +164,8 @@ public class ReplayEditor {
 
       // Import keys
       int keyCount = (int) keysFile.length() / 16;
-      DataInputStream keys = new DataInputStream(new FileInputStream(keysFile));
+      DataInputStream keys =
+          new DataInputStream(new BufferedInputStream(new FileInputStream(keysFile)));
       for (int i = 0; i < keyCount; i++) {
         ReplayKeyPair keyPair = new ReplayKeyPair();
         keyPair.keys[0] = keys.readInt();
@@ -143,10 +179,10 @@ public class ReplayEditor {
       e.printStackTrace();
     }
 
-    ReplayPacket replayPacket;
     try {
-      // Import incoming packets
+      // Open incoming packets
       ReplayReader incomingReader = new ReplayReader();
+      incomingReader.setKeyCacheDirectory(m_keyCacheDirectory);
       boolean success =
           incomingReader.open(
               inFile,
@@ -158,9 +194,7 @@ public class ReplayEditor {
               m_inChecksum,
               false);
       if (!success) return false;
-      while ((replayPacket = incomingReader.readPacket(false)) != null) {
-        m_incomingPackets.add(replayPacket);
-      }
+      m_incomingCursor = new ReplayPacketCursor(incomingReader, skewDisconnects);
       // FileUtil.writeFull("output/in.raw", incomingReader.getData());
     } catch (Exception e) {
       e.printStackTrace();
@@ -168,7 +202,7 @@ public class ReplayEditor {
 
     if (outFile.exists()) {
       try {
-        // Import outgoing packets
+        // Open outgoing packets
         ReplayReader outgoingReader = new ReplayReader();
         boolean success =
             outgoingReader.open(
@@ -181,44 +215,50 @@ public class ReplayEditor {
                 m_outChecksum,
                 true);
         if (!success) return false;
-        while ((replayPacket = outgoingReader.readPacket(false)) != null) {
-          m_outgoingPackets.add(replayPacket);
-        }
+        m_outgoingCursor = new ReplayPacketCursor(outgoingReader, false);
         // FileUtil.writeFull("output/out.raw", outgoingReader.getData());
       } catch (Exception e) {
         e.printStackTrace();
       }
     }
 
-    // Skew disconnect timestamps
-    boolean firstLogin = false;
-    ReplayPacket previousPacket = null;
-    int skew = 0;
-    for (ReplayPacket packet : m_incomingPackets) {
-      packet.timestamp += skew;
-      if (packet.opcode == VIRTUAL_OPCODE_CONNECT) {
-        if (firstLogin) {
-          int timestampDiff = packet.timestamp - previousPacket.timestamp;
-          if (timestampDiff <= 400) {
-            int offset = 401 - timestampDiff;
-            skew += offset;
-            packet.timestamp += offset;
-            System.out.println(
-                "WARNING: Skewing timestamps by +"
-                    + offset
-                    + " ("
-                    + (packet.timestamp - offset)
-                    + ":"
-                    + packet.timestamp
-                    + ")");
-          }
-        }
-        firstLogin = true;
-      }
-      previousPacket = packet;
+    return true;
+  }
+
+  public ReplayPacketCursor getIncomingCursor() {
+    return m_incomingCursor;
+  }
+
+  public ReplayPacketCursor getOutgoingCursor() {
+    return m_outgoingCursor;
+  }
+
+  /** Returns the size of the replay data held by the cursors opened with {@link #openData}. */
+  public long getDataSize() {
+    long size = 0;
+    if (m_incomingCursor != null) size += m_incomingCursor.getDataSize();
+    if (m_outgoingCursor != null) size += m_outgoingCursor.getDataSize();
+    return size;
+  }
+
+  public boolean importData(String fname) {
+    boolean success = openData(fname);
+
+    ReplayPacket replayPacket;
+    while ((replayPacket = m_incomingCursor.next()) != null) {
+      m_incomingPackets.add(replayPacket);
     }
+    m_incomingPackets.trimToSize();
+    while ((replayPacket = m_outgoingCursor.next()) != null) {
+      m_outgoingPackets.add(replayPacket);
+    }
+    m_outgoingPackets.trimToSize();
 
-    return true;
+    // The imported packets replace the cursors and their replay data
+    m_incomingCursor = null;
+    m_outgoingCursor = null;
+
+    return success;
   }
 
   public void exportData(String fname) {
@@ -254,14 +294,18 @@ public class ReplayEditor {
       int lastTimestamp = 0;
       DataOutputStream in =
           new DataOutputStream(
-              new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(inFile))));
-      for (ReplayPacket packet : m_incomingPackets) {
-        if (packet.opcode == VIRTUAL_OPCODE_NOP) {
+              new BufferedOutputStream(
+                  new ParallelGZIPOutputStream(new FileOutputStream(inFile))));
+      byte[] data = m_incomingPackets.getData();
+      for (int i = 0; i < m_incomingPackets.size(); i++) {
+        int opcode = m_incomingPackets.getOpcode(i);
+        int timestamp = m_incomingPackets.getTimestamp(i);
+        if (opcode == VIRTUAL_OPCODE_NOP) {
           continue;
         }
 
         // Handle virtual packets
-        if (packet.opcode == VIRTUAL_OPCODE_CONNECT) {
+        if (opcode == VIRTUAL_OPCODE_CONNECT) {
           // Write disconnect
           if (m_replayVersion.version > 0 && disconnectCount > 0) {
             in.writeInt(lastTimestamp);
@@ -269,10 +313,11 @@ public class ReplayEditor {
           }
 
           disconnectCount++;
-          in.writeInt(packet.timestamp);
+          byte loginResponse = m_incomingPackets.getDataByte(i, 0);
+          in.writeInt(timestamp);
           in.writeInt(1);
-          in.writeByte(packet.data[0]);
-          if ((packet.data[0] & 64) != 0) {
+          in.writeByte(loginResponse);
+          if ((loginResponse & 64) != 0) {
             isaac.reset();
             isaac.setKeys(m_keys.get(++keyIndex).keys);
           }
@@ -280,11 +325,11 @@ public class ReplayEditor {
         }
 
         // Write timestamp
-        in.writeInt(packet.timestamp);
+        in.writeInt(timestamp);
 
         // Handle normal packets
-        int packetLength = 1;
-        if (packet.data != null) packetLength += packet.data.length;
+        int dataOffset = m_incomingPackets.getDataOffset(i);
+        int packetLength = 1 + m_incomingPackets.getDataLength(i);
         if (packetLength >= 160) {
           in.writeInt(packetLength + 2);
           in.writeByte(packetLength / 256 + 160);
@@ -295,29 +340,29 @@ public class ReplayEditor {
         }
 
         // Write data
-        int encodedOpcode = (packet.opcode + isaac.getNextValue()) & 0xFF;
+        int encodedOpcode = (opcode + isaac.getNextValue()) & 0xFF;
         if (packetLength == 1) {
           in.writeByte(encodedOpcode);
         } else {
           if (packetLength < 160) {
             int dataSize = packetLength - 1;
-            in.writeByte(packet.data[dataSize - 1]);
+            in.writeByte(data[dataOffset + dataSize - 1]);
             in.writeByte(encodedOpcode);
-            if (dataSize > 1) in.write(packet.data, 0, dataSize - 1);
+            if (dataSize > 1) in.write(data, dataOffset, dataSize - 1);
           } else {
             in.writeByte(encodedOpcode);
-            in.write(packet.data, 0, packet.data.length);
+            in.write(data, dataOffset, packetLength - 1);
           }
         }
 
-        if (packet.timestamp < lastTimestamp) {
+        if (timestamp < lastTimestamp) {
           System.out.println("Timestamp is in the past");
         }
 
         // Update metadata length
-        m_replayMetadata.replayLength = packet.timestamp;
+        m_replayMetadata.replayLength = timestamp;
 
-        lastTimestamp = packet.timestamp;
+        lastTimestamp = timestamp;
       }
       in.writeInt(ReplayReader.TIMESTAMP_EOF);
       if (m_replayVersion.version >= 3) in.write(m_inMetadata);
@@ -327,19 +372,23 @@ public class ReplayEditor {
       // Export outgoing packets
       DataOutputStream out =
           new DataOutputStream(
-              new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(outFile))));
+              new BufferedOutputStream(
+                  new ParallelGZIPOutputStream(new FileOutputStream(outFile))));
       keyIndex = -1;
-      for (ReplayPacket packet : m_outgoingPackets) {
-        if (packet.opcode == VIRTUAL_OPCODE_NOP) {
+      data = m_outgoingPackets.getData();
+      for (int i = 0; i < m_outgoingPackets.size(); i++) {
+        int opcode = m_outgoingPackets.getOpcode(i);
+        int timestamp = m_outgoingPackets.getTimestamp(i);
+        if (opcode == VIRTUAL_OPCODE_NOP) {
           continue;
         }
 
         // Write timestamp
-        out.writeInt(packet.timestamp);
+        out.writeInt(timestamp);
 
         // Handle normal packets
-        int packetLength = 1;
-        if (packet.data != null) packetLength += packet.data.length;
+        int dataOffset = m_outgoingPackets.getDataOffset(i);
+        int packetLength = 1 + m_outgoingPackets.getDataLength(i);
         if (packetLength >= 160) {
           out.writeInt(packetLength + 2);
           out.writeByte(packetLength / 256 + 160);
@@ -350,7 +399,7 @@ public class ReplayEditor {
         }
 
         // Write data
-        int encodedOpcode = packet.opcode;
+        int encodedOpcode = opcode;
         if (encodedOpcode == VIRTUAL_OPCODE_CONNECT) {
           encodedOpcode = 0;
           isaac.reset();
@@ -363,15 +412,15 @@ public class ReplayEditor {
         } else {
           if (packetLength < 160) {
             int dataSize = packetLength - 1;
-            out.writeByte(packet.data[dataSize - 1]);
+            out.writeByte(data[dataOffset + dataSize - 1]);
             out.writeByte(encodedOpcode);
-            if (dataSize > 1) out.write(packet.data, 0, dataSize - 1);
+            if (dataSize > 1) out.write(data, dataOffset, dataSize - 1);
           } else {
             out.writeByte(encodedOpcode);
-            out.write(packet.data, 0, packet.data.length);
+            out.write(data, dataOffset, packetLength - 1);
           }
         }
-        lastTimestamp = packet.timestamp;
+        lastTimestamp = timestamp;
       }
       out.writeInt(ReplayReader.TIMESTAMP_EOF);
       if (m_replayVersion.version >= 3) out.write(m_outMetadata);
@@ -0,0 +1,163 @@
+/**
+ * rscminus
+ *
+ * <p>This file is part of rscminus.
+ *
+ * <p>rscminus is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * <p>rscminus is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * <p>You should have received a copy of the GNU General Public License along with rscminus. If not,
+ * see <http://www.gnu.org/licenses/>.
+ *
+ * <p>Authors: see <https://github.com/RSCPlus/rscminus>
+ */
+package Replay.scraper;
+
+import Client.Logger;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The key that decrypted each login of a replay's in.bin.gz, saved in a directory of key caches
+ * chosen by the caller, one file per replay.
+ *
+ * <p>Finding the key of a login means trying the keys of keys.bin one after another, so the keys
+ * that matched are remembered by the data offset of their login. The file is only used while it
+ * belongs to the same in.bin.gz and while in.bin.gz, its checksum and keys.bin are the same as when
+ * it was written.
+ */
+class ReplayKeyCache {
+  private static final int MAGIC = 0x524B4D43; // RKMC
+  private static final int VERSION = 2;
+
+  private final File m_file;
+  private final String m_path;
+  private final long m_inLength;
+  private final long m_inModified;
+  private final long m_keysLength;
+  private final byte[] m_checksum;
+  private final HashMap<Integer, Integer> m_keyIndexes = new HashMap<Integer, Integer>();
+  // Whether keys were found since the cache was loaded or saved
+  private boolean m_changed = false;
+
+  private ReplayKeyCache(File directory, File inFile, byte[] checksum) {
+    File folder = inFile.getAbsoluteFile().getParentFile();
+    m_path = inFile.getAbsolutePath();
+    m_file = new File(directory, getFilename(m_path));
+    m_inLength = inFile.length();
+    m_inModified = inFile.lastModified();
+    m_keysLength = new File(folder, "keys.bin").length();
+    m_checksum = checksum.clone();
+  }
+
+  /**
+   * Loads the key cache of a replay stream.
+   *
+   * @param directory the directory the key caches are saved in
+   * @param inFile the in.bin.gz of the replay
+   * @param checksum checksum of the stream, zeroes if the replay version has none
+   * @return the cache, empty if there's no usable cache file
+   */
+  static ReplayKeyCache load(File directory, File inFile, byte[] checksum) {
+    ReplayKeyCache cache = new ReplayKeyCache(directory, inFile, checksum);
+    if (!cache.m_file.exists()) return cache;
+
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(new FileInputStream(cache.m_file)))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) return cache;
+      if (!in.readUTF().equals(cache.m_path)) return cache;
+      long inLength = in.readLong();
+      long inModified = in.readLong();
+      long keysLength = in.readLong();
+      byte[] fileChecksum = new byte[in.readUnsignedByte()];
+      in.readFully(fileChecksum);
+      if (inLength != cache.m_inLength
+          || inModified != cache.m_inModified
+          || keysLength != cache.m_keysLength
+          || !Arrays.equals(fileChecksum, cache.m_checksum)) return cache;
+
+      int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        int offset = in.readInt();
+        cache.m_keyIndexes.put(offset, in.readInt());
+      }
+    } catch (IOException e) {
+      cache.m_keyIndexes.clear();
+    }
+    return cache;
+  }
+
+  /**
+   * Returns the index of the key that decrypted the login at a data offset.
+   *
+   * @return the key index, or -1 if it isn't known
+   */
+  int get(int offset) {
+    Integer keyIndex = m_keyIndexes.get(offset);
+    return keyIndex != null ? keyIndex : -1;
+  }
+
+  /** Remembers the key of a login, it's written out by the next {@link #save()}. */
+  void put(int offset, int keyIndex) {
+    Integer previous = m_keyIndexes.put(offset, keyIndex);
+    if (previous == null || previous != keyIndex) m_changed = true;
+  }
+
+  /** Saves the cache if keys were found since it was loaded or last saved. */
+  void save() {
+    if (!m_changed) return;
+    m_changed = false;
+
+    m_file.getParentFile().mkdirs();
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(new FileOutputStream(m_file)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeUTF(m_path);
+      out.writeLong(m_inLength);
+      out.writeLong(m_inModified);
+      out.writeLong(m_keysLength);
+      out.writeByte(m_checksum.length);
+      out.write(m_checksum);
+      out.writeInt(m_keyIndexes.size());
+      for (Map.Entry<Integer, Integer> entry : m_keyIndexes.entrySet()) {
+        out.writeInt(entry.getKey());
+        out.writeInt(entry.getValue());
+      }
+    } catch (IOException e) {
+      // Read-only directories just don't get a cache
+      Logger.Debug("Could not save " + m_file + ": " + e.getMessage());
+    }
+  }
+
+  /** Returns the name of the cache file of a replay, from a hash of its in.bin.gz path. */
+  private static String getFilename(String path) {
+    try {
+      byte[] hash =
+          MessageDigest.getInstance("SHA-256").digest(path.getBytes(StandardCharsets.UTF_8));
+      StringBuilder name = new StringBuilder();
+      for (int i = 0; i < 8; i++) name.append(String.format("%02x", hash[i] & 0xFF));
+      return name.append(".bin").toString();
+    } catch (NoSuchAlgorithmException e) {
+      // SHA-256 is always available, the path is checked on load anyway
+      return String.format("%08x.bin", path.hashCode());
+    }
+  }
+}
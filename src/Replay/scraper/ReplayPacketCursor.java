@@ -0,0 +1,104 @@
+/**
+ * rscminus
+ *
+ * <p>This file is part of rscminus.
+ *
+ * <p>rscminus is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * <p>rscminus is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * <p>You should have received a copy of the GNU General Public License along with rscminus. If not,
+ * see <http://www.gnu.org/licenses/>.
+ *
+ * <p>Authors: see <https://github.com/RSCPlus/rscminus>
+ */
+package Replay.scraper;
+
+import Client.Logger;
+
+/**
+ * Decodes the packets of an opened replay stream one at a time, keeping one packet of look-ahead.
+ *
+ * <p>For incoming packets the timestamps after a reconnect are skewed as they are decoded, the
+ * same way {@link ReplayEditor#importData(String)} does it for the whole replay.
+ */
+public class ReplayPacketCursor {
+  private final ReplayReader m_reader;
+  private final boolean m_skewDisconnects;
+  private ReplayPacket m_next;
+
+  // Disconnect skew state
+  private boolean m_firstLogin;
+  private int m_skew;
+  private int m_previousTimestamp;
+
+  ReplayPacketCursor(ReplayReader reader, boolean skewDisconnects) {
+    m_reader = reader;
+    m_skewDisconnects = skewDisconnects;
+    rewind();
+  }
+
+  /** Returns true if there's a packet left to read with {@link #next()}. */
+  public boolean hasNext() {
+    return m_next != null;
+  }
+
+  /**
+   * Returns the next packet.
+   *
+   * @return the packet, or null at the end of the replay
+   */
+  public ReplayPacket next() {
+    ReplayPacket packet = m_next;
+    if (packet != null) m_next = decode();
+    return packet;
+  }
+
+  /** Returns the size of the replay data held for decoding, in bytes. */
+  public int getDataSize() {
+    return m_reader != null ? m_reader.getDataSize() : 0;
+  }
+
+  /** Goes back to the first packet of the replay. */
+  public void rewind() {
+    m_firstLogin = false;
+    m_skew = 0;
+    m_previousTimestamp = 0;
+    if (m_reader != null) m_reader.rewind();
+    m_next = decode();
+  }
+
+  private ReplayPacket decode() {
+    if (m_reader == null) return null;
+
+    ReplayPacket packet = m_reader.readPacket(false);
+    if (packet == null || !m_skewDisconnects) return packet;
+
+    packet.timestamp += m_skew;
+    if (packet.opcode == ReplayEditor.VIRTUAL_OPCODE_CONNECT) {
+      if (m_firstLogin) {
+        int timestampDiff = packet.timestamp - m_previousTimestamp;
+        if (timestampDiff <= 400) {
+          int offset = 401 - timestampDiff;
+          m_skew += offset;
+          packet.timestamp += offset;
+          Logger.Warn(
+              "Skewing timestamps by +"
+                  + offset
+                  + " ("
+                  + (packet.timestamp - offset)
+                  + ":"
+                  + packet.timestamp
+                  + ")");
+        }
+      }
+      m_firstLogin = true;
+    }
+    m_previousTimestamp = packet.timestamp;
+    return packet;
+  }
+}
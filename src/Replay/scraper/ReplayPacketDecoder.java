@@ -0,0 +1,310 @@
+/**
+ * rscminus
+ *
+ * <p>This file is part of rscminus.
+ *
+ * <p>rscminus is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * <p>rscminus is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * <p>You should have received a copy of the GNU General Public License along with rscminus. If not,
+ * see <http://www.gnu.org/licenses/>.
+ *
+ * <p>Authors: see <https://github.com/RSCPlus/rscminus>
+ */
+package Replay.scraper;
+
+import Client.Logger;
+import Replay.common.ISAACCipher;
+import Replay.game.PacketBuilder;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.LinkedList;
+
+/**
+ * Decodes the packets of a replay stream, shared by {@link ReplayReader}, which holds all of the
+ * data, and {@link ReplayStreamReader}, which holds a window of it.
+ *
+ * <p>This handles the framing of the packets, the logins with the search for the key of each, and
+ * the reconnects. The readers provide the data, where the logins are and the timestamps.
+ */
+abstract class ReplayPacketDecoder {
+  static final byte[] m_inputDisconnectPattern = {
+    0x40, 0x05, 0x00, 0x6E, 0x00, 0x00, 0x00, 0x1A, 0x00, 0x6C, 0x03, 0x00, 0x00, 0x57, 0x65, 0x6C,
+    0x63
+  };
+
+  static final byte[] m_outputDisconnectPattern = {
+    0x00, 0x01, 0x00, 0x00, 0x00, (byte) 0xEB
+  };
+
+  // Decoder state
+  boolean m_loggedIn;
+  boolean m_forceQuit;
+  boolean m_outgoing;
+  private LinkedList<ReplayKeyPair> m_keys;
+  private int m_keyIndex;
+  private String m_error;
+  private final ISAACCipher isaac = new ISAACCipher();
+  // Cipher of every key as set up by setKeys, copied into isaac to try a key again
+  private ISAACCipher[] m_keyCiphers;
+
+  /** Sets up decoding from the first packet of a stream. */
+  void initDecoder(LinkedList<ReplayKeyPair> keys, boolean outgoing) {
+    m_keys = keys;
+    m_outgoing = outgoing;
+    m_keyCiphers = new ISAACCipher[keys.size()];
+    resetDecoder();
+  }
+
+  /** Goes back to the state before the first packet, the reader goes back to its data. */
+  void resetDecoder() {
+    m_loggedIn = false;
+    m_forceQuit = false;
+    m_keyIndex = -1;
+    m_error = null;
+  }
+
+  /** Returns the index in keys.bin of the key of the current login. */
+  public int getKeyIndex() {
+    return m_keyIndex;
+  }
+
+  /**
+   * Returns why decoding stopped before the end of the data, or null if it didn't stop for an
+   * error.
+   */
+  public String getError() {
+    return m_error;
+  }
+
+  /**
+   * Prepares reading the next packet, at the data position.
+   *
+   * @param peek whether the packet is read ahead to verify a login, and gets no timestamp
+   * @return false if there is no packet left
+   */
+  abstract boolean startPacket(boolean peek) throws IOException;
+
+  /** Returns the timestamp of the packet whose login response or last byte is at a position. */
+  abstract int getTimestamp(long position);
+
+  /** Returns true if a reconnect of the incoming data starts at a position. */
+  abstract boolean isInputLogin(long position) throws IOException;
+
+  /** Returns true if the login packet of the outgoing data follows its length at a position. */
+  abstract boolean isOutputLogin(long position) throws IOException;
+
+  abstract long getPosition();
+
+  abstract void setPosition(long position);
+
+  /** Reads a byte at the data position, throwing an EOFException at the end of the data. */
+  abstract byte readByte() throws IOException;
+
+  /** Reads bytes at the data position, throwing an EOFException at the end of the data. */
+  abstract void read(byte[] data, int offset, int length) throws IOException;
+
+  /** Keeps the data from a position on readable until {@link #release()}, to read it again. */
+  void hold(long position) {}
+
+  void release() {}
+
+  /** Returns the index of the key that matched the login at a position before, or -1. */
+  int getCachedKeyIndex(long position) {
+    return -1;
+  }
+
+  /** Called when a key was found to match the login at a position. */
+  void keyFound(long position, int keyIndex) {}
+
+  /**
+   * Returns the next packet.
+   *
+   * @param peek whether to read ahead to verify a login, without the checks for reconnects
+   * @return the packet, or null at the end of the data or if decoding stopped for an error
+   */
+  ReplayPacket decodePacket(boolean peek) throws IOException {
+    if (m_forceQuit || !startPacket(peek)) return null;
+
+    try {
+      long position = getPosition();
+      // Check for disconnect for outgoing (workaround)
+      if (m_outgoing) {
+        hold(position);
+        readPacketLength();
+        if (isOutputLogin(getPosition())) m_loggedIn = false;
+        setPosition(position);
+        release();
+      } else if (!peek) {
+        // Handle disconnect
+        if (isInputLogin(position)) {
+          m_loggedIn = false;
+        } else if (isInputLogin(position + 1)) {
+          // This is safe because no packet can ever be 1 byte long
+          m_loggedIn = false;
+          setPosition(position + 1);
+        } else if (isInputLogin(position + 2)) {
+          // This is unsafe because a 1 byte packet can be skipped, but since we are disconnecting
+          // it may not matter much anyway since the packet is likely fragmented from the way
+          // the server sends packets.
+          m_loggedIn = false;
+          setPosition(position + 2);
+        }
+      }
+
+      if (!m_loggedIn && !m_outgoing) return decodeLogin(peek);
+
+      ReplayPacket replayPacket = new ReplayPacket();
+      int length = readPacketLength();
+      if (length > 1) {
+        int dataLength = length - 1;
+        replayPacket.data = new byte[dataLength];
+        if (length < 160) {
+          replayPacket.data[dataLength - 1] = readByte();
+          replayPacket.opcode = readUnsignedByte();
+          if (dataLength > 1) read(replayPacket.data, 0, dataLength - 1);
+        } else {
+          replayPacket.opcode = readUnsignedByte();
+          read(replayPacket.data, 0, dataLength);
+        }
+      } else {
+        replayPacket.data = null;
+        replayPacket.opcode = readUnsignedByte();
+      }
+      if (!peek) replayPacket.timestamp = getTimestamp(getPosition() - 1);
+
+      if (m_loggedIn) {
+        replayPacket.opcode = (replayPacket.opcode - isaac.getNextValue()) & 0xFF;
+      } else {
+        // Outgoing login
+        if (replayPacket.opcode != 0) {
+          return fail("Invalid outgoing login packet: " + replayPacket.opcode);
+        }
+        if (++m_keyIndex >= m_keys.size()) {
+          return fail("Replay is trying to use non-existing keys");
+        }
+        useKey(m_keyIndex);
+        replayPacket.opcode = ReplayEditor.VIRTUAL_OPCODE_CONNECT;
+        m_loggedIn = true;
+      }
+      return replayPacket;
+    } catch (EOFException e) {
+      if (!peek) {
+        Logger.Warn("Invalid packet found, trimming replay");
+        m_error = "Invalid packet found";
+      }
+      return null;
+    }
+  }
+
+  /** Decodes a login response of the incoming data as a virtual connect packet. */
+  private ReplayPacket decodeLogin(boolean peek) throws IOException {
+    long loginPosition = getPosition();
+    int loginResponse = readUnsignedByte();
+    int skipKeys = 0;
+    int cachedKeyIndex = getCachedKeyIndex(loginPosition);
+    if ((loginResponse & 64) != 0
+        && cachedKeyIndex > m_keyIndex
+        && cachedKeyIndex < m_keys.size()) {
+      // Key found for this login before
+      skipKeys = cachedKeyIndex - m_keyIndex - 1;
+      m_keyIndex = cachedKeyIndex;
+      useKey(m_keyIndex);
+      m_loggedIn = true;
+    } else if ((loginResponse & 64) != 0) {
+      // Find working key
+      for (; ; ) {
+        if (++m_keyIndex >= m_keys.size()) {
+          return fail("Replay is trying to use non-existing keys");
+        }
+        useKey(m_keyIndex);
+        m_loggedIn = true;
+
+        if (verifyLogin()) break;
+        skipKeys++;
+      }
+      keyFound(loginPosition, m_keyIndex);
+    } else {
+      m_forceQuit = true;
+    }
+
+    if (skipKeys > 0) Logger.Warn("Skipping " + skipKeys + " keys");
+
+    // Create virtual connect packet
+    ReplayPacket replayPacket = new ReplayPacket();
+    replayPacket.opcode = ReplayEditor.VIRTUAL_OPCODE_CONNECT;
+    replayPacket.data = new byte[] {(byte) loginResponse};
+    replayPacket.skipKeys = skipKeys;
+    if (!peek) replayPacket.timestamp = getTimestamp(loginPosition);
+    return replayPacket;
+  }
+
+  private ReplayPacket fail(String error) {
+    Logger.Error(error);
+    m_error = error;
+    return null;
+  }
+
+  /** Returns true if the key being tried decodes the packets that follow every login. */
+  private boolean verifyLogin() throws IOException {
+    boolean success = true;
+    long originalPosition = getPosition();
+    hold(originalPosition);
+    ReplayPacket packet;
+    packet = decodePacket(true);
+    if (packet == null || packet.opcode != PacketBuilder.OPCODE_PRIVACY_SETTINGS) success = false;
+    packet = decodePacket(true);
+    if (packet == null
+        || (packet.opcode != PacketBuilder.OPCODE_SEND_MESSAGE
+            && packet.opcode != PacketBuilder.OPCODE_SHOW_APPEARANCE_CHANGE)) success = false;
+    setPosition(originalPosition);
+    release();
+    useKey(m_keyIndex);
+    return success;
+  }
+
+  /** Sets the cipher up with a key of keys.bin, setting each key up only once. */
+  private void useKey(int keyIndex) {
+    ISAACCipher cipher = m_keyCiphers[keyIndex];
+    if (cipher == null) {
+      cipher = new ISAACCipher();
+      cipher.setKeys(m_keys.get(keyIndex).keys);
+      m_keyCiphers[keyIndex] = cipher;
+    }
+    isaac.copyFrom(cipher);
+  }
+
+  int readUnsignedByte() throws IOException {
+    return readByte() & 0xFF;
+  }
+
+  int readPacketLength() throws IOException {
+    int length = readUnsignedByte();
+    if (length >= 160) length = 256 * length - (40960 - readUnsignedByte());
+    return length;
+  }
+
+  /**
+   * Returns true if the incoming data at an offset looks like a login, which is a login response
+   * followed by the privacy settings and the welcome message.
+   */
+  static boolean isInputLogin(byte[] data, int position) {
+    for (int i = 0; i < m_inputDisconnectPattern.length; i++) {
+      if (i == 0 || i == 3 || i == 9) continue;
+
+      int offset = position + i;
+      int searchValue = m_inputDisconnectPattern[i];
+      if (searchValue == 0x00 && i <= 6) {
+        if (!(data[offset] == 0x00 || data[offset] == 0x01)) return false;
+      } else {
+        if (data[offset] != searchValue) return false;
+      }
+    }
+    return true;
+  }
+}
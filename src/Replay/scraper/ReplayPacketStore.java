@@ -0,0 +1,149 @@
+/**
+ * rscminus
+ *
+ * <p>This file is part of rscminus.
+ *
+ * <p>rscminus is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * <p>rscminus is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * <p>You should have received a copy of the GNU General Public License along with rscminus. If not,
+ * see <http://www.gnu.org/licenses/>.
+ *
+ * <p>Authors: see <https://github.com/RSCPlus/rscminus>
+ */
+package Replay.scraper;
+
+import java.util.Arrays;
+
+/**
+ * Packets of a replay stored by column.
+ *
+ * <p>Timestamps and opcodes are kept in primitive arrays and all packet data in a single byte
+ * array, so access by index is constant time and there's no object per packet.
+ */
+public class ReplayPacketStore {
+  private static final int INITIAL_CAPACITY = 1024;
+  private static final int INITIAL_DATA_CAPACITY = 64 * 1024;
+
+  private int m_size = 0;
+  private int[] m_timestamps = new int[INITIAL_CAPACITY];
+  private int[] m_opcodes = new int[INITIAL_CAPACITY];
+  private int[] m_skipKeys = new int[INITIAL_CAPACITY];
+  // Offset of each packet's data in m_data, the data ends where the next packet's data begins
+  private int[] m_dataOffsets = new int[INITIAL_CAPACITY + 1];
+  // Packets without a data array, as opposed to an empty one
+  private boolean[] m_dataNull = new boolean[INITIAL_CAPACITY];
+  private byte[] m_data = new byte[INITIAL_DATA_CAPACITY];
+
+  public int size() {
+    return m_size;
+  }
+
+  public boolean isEmpty() {
+    return m_size == 0;
+  }
+
+  public void add(ReplayPacket packet) {
+    int length = packet.data != null ? packet.data.length : 0;
+    add(packet.timestamp, packet.opcode, packet.data, 0, length, packet.skipKeys);
+  }
+
+  /**
+   * Appends a packet.
+   *
+   * @param data array holding the packet data, or null if the packet has none
+   */
+  public void add(int timestamp, int opcode, byte[] data, int offset, int length, int skipKeys) {
+    if (m_size == m_timestamps.length) {
+      // Trimmed stores can be empty
+      int capacity = Math.max(INITIAL_CAPACITY, m_size * 2);
+      m_timestamps = Arrays.copyOf(m_timestamps, capacity);
+      m_opcodes = Arrays.copyOf(m_opcodes, capacity);
+      m_skipKeys = Arrays.copyOf(m_skipKeys, capacity);
+      m_dataOffsets = Arrays.copyOf(m_dataOffsets, capacity + 1);
+      m_dataNull = Arrays.copyOf(m_dataNull, capacity);
+    }
+
+    int dataOffset = m_dataOffsets[m_size];
+    if (data != null) {
+      if (dataOffset + length > m_data.length)
+        m_data = Arrays.copyOf(m_data, Math.max(dataOffset + length, m_data.length * 2));
+      System.arraycopy(data, offset, m_data, dataOffset, length);
+    } else {
+      length = 0;
+    }
+
+    m_timestamps[m_size] = timestamp;
+    m_opcodes[m_size] = opcode;
+    m_skipKeys[m_size] = skipKeys;
+    m_dataNull[m_size] = data == null;
+    m_dataOffsets[m_size + 1] = dataOffset + length;
+    m_size++;
+  }
+
+  /** Shrinks the arrays to the stored packets once all packets are added. */
+  public void trimToSize() {
+    m_timestamps = Arrays.copyOf(m_timestamps, m_size);
+    m_opcodes = Arrays.copyOf(m_opcodes, m_size);
+    m_skipKeys = Arrays.copyOf(m_skipKeys, m_size);
+    m_dataOffsets = Arrays.copyOf(m_dataOffsets, m_size + 1);
+    m_dataNull = Arrays.copyOf(m_dataNull, m_size);
+    m_data = Arrays.copyOf(m_data, m_dataOffsets[m_size]);
+  }
+
+  public int getTimestamp(int index) {
+    return m_timestamps[index];
+  }
+
+  public void setTimestamp(int index, int timestamp) {
+    m_timestamps[index] = timestamp;
+  }
+
+  public int getOpcode(int index) {
+    return m_opcodes[index];
+  }
+
+  public int getSkipKeys(int index) {
+    return m_skipKeys[index];
+  }
+
+  public boolean hasData(int index) {
+    return !m_dataNull[index];
+  }
+
+  /** Returns the array holding the data of every packet, see {@link #getDataOffset(int)}. */
+  public byte[] getData() {
+    return m_data;
+  }
+
+  public int getDataOffset(int index) {
+    return m_dataOffsets[index];
+  }
+
+  public int getDataLength(int index) {
+    return m_dataOffsets[index + 1] - m_dataOffsets[index];
+  }
+
+  /** Returns the byte at a position of a packet's data. */
+  public byte getDataByte(int index, int position) {
+    return m_data[m_dataOffsets[index] + position];
+  }
+
+  /** Creates a standalone copy of a packet. */
+  public ReplayPacket get(int index) {
+    ReplayPacket packet = new ReplayPacket();
+    packet.timestamp = m_timestamps[index];
+    packet.opcode = m_opcodes[index];
+    packet.skipKeys = m_skipKeys[index];
+    if (!m_dataNull[index]) {
+      int offset = m_dataOffsets[index];
+      packet.data = Arrays.copyOfRange(m_data, offset, m_dataOffsets[index + 1]);
+    }
+    return packet;
+  }
+}
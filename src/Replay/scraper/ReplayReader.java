@@ -19,49 +19,51 @@
 package Replay.scraper;
 
 import Client.Logger;
-import Replay.common.ISAACCipher;
-import Replay.game.PacketBuilder;
 import java.io.BufferedInputStream;
 import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.Iterator;
-import java.util.LinkedHashMap;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.LinkedList;
-import java.util.Map;
-import java.util.Queue;
 import java.util.zip.GZIPInputStream;
 
-public class ReplayReader {
+public class ReplayReader extends ReplayPacketDecoder {
   private byte[] m_data;
-  private Queue<Integer> m_timestamps = new LinkedList<Integer>();
-  LinkedList<Integer> m_disconnectOffsets = new LinkedList<Integer>();
-
-  private static final byte[] m_inputDisconnectPattern = {
-    0x40, 0x05, 0x00, 0x6E, 0x00, 0x00, 0x00, 0x1A, 0x00, 0x6C, 0x03, 0x00, 0x00, 0x57, 0x65, 0x6C,
-    0x63
-  };
-
-  private static final byte[] m_outputDisconnectPattern = {
-    0x00, 0x01, 0x00, 0x00, 0x00, (byte) 0xEB
-  };
+  // Length of the data in m_data, which is allocated from an estimate and can be larger
+  private int m_dataLength;
+  // Timestamp of every packet in order, consumed by readPacket
+  private int[] m_timestamps = new int[0];
+  private int m_timestampCount = 0;
+  private int m_timestampIndex = 0;
+  BitSet m_disconnectOffsets = new BitSet();
+
+  // Part of the input disconnect pattern without wildcards, searched for first
+  private static final int INPUT_DISCONNECT_ANCHOR = 10;
+  private static final byte[] m_inputDisconnectAnchor =
+      Arrays.copyOfRange(
+          m_inputDisconnectPattern, INPUT_DISCONNECT_ANCHOR, m_inputDisconnectPattern.length);
+  private static final int[] m_inputDisconnectAnchorShift = buildShift(m_inputDisconnectAnchor);
+  private static final int[] m_outputDisconnectShift = buildShift(m_outputDisconnectPattern);
 
   // Reader state
-  private boolean m_loggedIn;
-  private boolean m_forceQuit;
-  private boolean m_outgoing;
   private int m_position;
-  private LinkedList<ReplayKeyPair> m_keys;
-  private int m_keyIndex;
-  private ISAACCipher isaac = new ISAACCipher();
+  // Timestamp of the packet being read
+  private int m_packetTimestamp;
+  // Directory the key caches are saved in, null to not cache the keys
+  private File m_keyCacheDirectory;
+  // Keys that matched the logins of in.bin.gz, null for out.bin.gz
+  private ReplayKeyCache m_keyCache;
 
   public static final int TIMESTAMP_EOF = -1;
 
   public byte[] getData() {
-    return m_data;
+    return m_data.length == m_dataLength ? m_data : Arrays.copyOf(m_data, m_dataLength);
   }
 
   public int getDataPosition() {
@@ -69,7 +71,17 @@ public class ReplayReader {
   }
 
   public int getDataSize() {
-    return m_data.length;
+    return m_dataLength;
+  }
+
+  /**
+   * Sets the directory the keys that matched the logins are remembered in, before opening an
+   * in.bin.gz. The cache is saved once all packets were read.
+   *
+   * @param directory the key cache directory, null to not use a cache
+   */
+  public void setKeyCacheDirectory(File directory) {
+    m_keyCacheDirectory = directory;
   }
 
   public boolean open(
@@ -82,103 +94,125 @@ public class ReplayReader {
       byte[] checksum,
       boolean outgoing)
       throws IOException, NoSuchAlgorithmException {
-    int size = calculateSize(f);
+    initDecoder(keys, outgoing);
 
-    if (size == 0) return false;
+    // Read the replay in a single pass, collecting the data without replay headers, the timestamp
+    // of every data offset and the checksum of the whole stream
+    MessageDigest messageDigest =
+        replayVersion.version >= 3 ? MessageDigest.getInstance("SHA-256") : null;
+    DataInputStream in =
+        new DataInputStream(
+            new BufferedInputStream(new GZIPInputStream(new FileInputStream(f), 65536), 65536));
+    m_data = new byte[estimateSize(f)];
+    int size = 0;
+    int timestamp = 0;
+    int replayLength = replayMetadata.replayLength;
+    int lengthBeforeData = replayLength;
+    int timestampCount = 0;
+    int dataTimestampCount = 0;
+    int[] timestampOffsets = new int[1024];
+    int[] timestamps = new int[1024];
+    byte[] header = new byte[8];
+    boolean complete = false;
+    try {
+      for (; ; ) {
+        in.readFully(header, 0, 4);
+        timestamp = readInt(header, 0);
+        if (timestamp == TIMESTAMP_EOF) {
+          if (messageDigest != null) messageDigest.update(header, 0, 4);
+          complete = true;
+          break;
+        }
+        in.readFully(header, 4, 4);
+        int length = readInt(header, 4);
+        if (messageDigest != null) messageDigest.update(header);
+
+        // Packets sharing an offset are timestamped by the last of them
+        if (timestampCount > 0 && timestampOffsets[timestampCount - 1] == size) {
+          timestamps[timestampCount - 1] = timestamp;
+        } else {
+          if (timestampCount == timestamps.length) {
+            timestampOffsets = Arrays.copyOf(timestampOffsets, timestampCount * 2);
+            timestamps = Arrays.copyOf(timestamps, timestampCount * 2);
+          }
+          timestampOffsets[timestampCount] = size;
+          timestamps[timestampCount++] = timestamp;
+        }
+
+        if (length > 0) {
+          if (size + length > m_data.length)
+            m_data = Arrays.copyOf(m_data, Math.max(size + length, m_data.length / 2 * 3));
+          int start = size;
+          size += length;
+          lengthBeforeData = replayLength;
+          dataTimestampCount = timestampCount;
+          // Missing data of a truncated replay is left zeroed
+          in.readFully(m_data, start, length);
+          if (messageDigest != null) messageDigest.update(m_data, start, length);
+        }
 
-    // Calculate checksum
-    if (replayVersion.version >= 3) {
-      MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
-      DataInputStream in =
-          new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(f))));
-      m_data = new byte[calculateRealSize(f)];
-      in.read(m_data);
+        // Update replay length
+        replayLength = timestamp;
+      }
+    } catch (EOFException e) {
+      // Truncated replay, keep what was readable
+    }
 
-      int length = in.read(fileMetadata);
+    // Replay metadata follows the end of the stream
+    if (messageDigest != null) {
+      int length = complete ? readFully(in, fileMetadata) : 0;
       if (length < fileMetadata.length) {
         System.arraycopy(fileMetadata, 0, metadata, 0, metadata.length);
         for (int i = 0; i < fileMetadata.length; i++) fileMetadata[i] = 0x00;
       } else {
-        in.read(metadata);
+        readFully(in, metadata);
       }
-
-      in.close();
-      System.arraycopy(messageDigest.digest(m_data), 0, checksum, 0, checksum.length);
+      System.arraycopy(messageDigest.digest(), 0, checksum, 0, checksum.length);
     }
 
-    // Allocate space for data without replay headers
-    m_data = new byte[size];
-    m_outgoing = outgoing;
-
-    // Read replay data
-    DataInputStream in =
-        new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(f))));
-    int timestamp = 0;
-    int lastTimestamp = timestamp;
-    int offset = 0;
-    int lastOffset = offset;
-    LinkedHashMap<Integer, Integer> timestamps = new LinkedHashMap<Integer, Integer>();
-    while ((timestamp = in.readInt()) != TIMESTAMP_EOF) {
-      timestamps.put(offset, timestamp);
-      int length = in.readInt();
-
-      // Detect extreme disconnects that may be missed
-      // int timestampDiff = timestamp - lastTimestamp;
-      // if (timestampDiff >= 500) {
-      //    m_disconnectOffsets.add(offset);
-      // Logger.Warn("Using potential extreme disconnect point at offset " +
-      // offset);
-      //    Sleep.sleep(10000);
-      // }
-
-      if (length > 0) {
-        in.read(m_data, offset, length);
-        offset += length;
-      }
-
-      // We have reached the end of readable data
-      if (offset >= size) break;
-
-      // Update replay length
-      replayMetadata.replayLength = timestamp;
+    in.close();
 
-      lastTimestamp = timestamp;
-    }
+    if (size == 0) return false;
+    m_dataLength = size;
 
-    in.close();
+    // Only packets up to the last one with data are used, and the length is the timestamp before it
+    timestampCount = dataTimestampCount;
+    replayMetadata.replayLength = lengthBeforeData;
 
     m_loggedIn = false;
     m_position = 0;
-    m_keys = keys;
-    m_keyIndex = -1;
+    m_keyCache =
+        outgoing || m_keyCacheDirectory == null
+            ? null
+            : ReplayKeyCache.load(m_keyCacheDirectory, f, checksum);
 
     // Build disconnect map for in.bin
     // Our initial recording implementation had problems with this
     if (!m_outgoing) {
       // Skip first login
-      m_position = 1;
-      while (!isEOF()) {
-        if (loginBinarySearch()) {
-          m_disconnectOffsets.add(m_position);
-          // Logger.Debug("Disconnect found at offset " + m_position);
+      int anchor = 1 + INPUT_DISCONNECT_ANCHOR;
+      byte[] pattern = m_inputDisconnectAnchor;
+      while ((anchor = indexOf(pattern, m_inputDisconnectAnchorShift, anchor)) != -1) {
+        int disconnect = anchor - INPUT_DISCONNECT_ANCHOR;
+        if (loginBinarySearch(disconnect)) {
+          m_disconnectOffsets.set(disconnect);
+          // Logger.Debug("Disconnect found at offset " + disconnect);
         }
-        skip(1);
+        anchor++;
       }
-      m_position = 0;
     }
 
     // Map timestamps for faster import
-    Iterator<Map.Entry<Integer, Integer>> iterator = timestamps.entrySet().iterator();
-    Map.Entry<Integer, Integer> entry = iterator.next();
+    int timestampIndex = 0;
     int timestampOffset = 0;
     while (!isEOF()) {
       // Handle disconnect
-      if (m_disconnectOffsets.contains(m_position)) {
+      if (m_disconnectOffsets.get(m_position)) {
         m_loggedIn = false;
-      } else if (m_disconnectOffsets.contains(m_position + 1)) {
+      } else if (m_disconnectOffsets.get(m_position + 1)) {
         m_loggedIn = false;
         m_position++;
-      } else if (m_disconnectOffsets.contains(m_position + 2)) {
+      } else if (m_disconnectOffsets.get(m_position + 2)) {
         m_loggedIn = false;
         m_position += 2;
       }
@@ -193,16 +227,18 @@ public class ReplayReader {
         m_loggedIn = true;
       }
 
-      while (timestampOffset >= entry.getKey()) {
-        timestamp = entry.getValue();
-        if (!iterator.hasNext()) {
+      while (timestampOffset >= timestampOffsets[timestampIndex]) {
+        timestamp = timestamps[timestampIndex];
+        if (timestampIndex + 1 == timestampCount) {
           break;
         }
-        entry = iterator.next();
+        timestampIndex++;
       }
 
       // Add timestamp to FIFO
-      m_timestamps.add(timestamp);
+      if (m_timestampCount == m_timestamps.length)
+        m_timestamps = Arrays.copyOf(m_timestamps, Math.max(1024, m_timestampCount * 2));
+      m_timestamps[m_timestampCount++] = timestamp;
     }
     m_position = 0;
     m_loggedIn = false;
@@ -210,201 +246,127 @@ public class ReplayReader {
     // Build disconnect map for out.bin because we didn't handle it
     // We detect the login information packet
     if (outgoing) {
-      while (!isEOF()) {
-        if (binarySearch(m_outputDisconnectPattern)) {
-          m_disconnectOffsets.add(m_position);
-        }
-        skip(1);
+      byte[] pattern = m_outputDisconnectPattern;
+      int disconnect = 0;
+      while ((disconnect = indexOf(pattern, m_outputDisconnectShift, disconnect)) != -1) {
+        m_disconnectOffsets.set(disconnect);
+        disconnect++;
       }
-      m_position = 0;
     }
 
     return true;
   }
 
-  private boolean loginBinarySearch() {
-    if (m_data.length - m_position < m_inputDisconnectPattern.length) return false;
-
-    for (int i = 0; i < m_inputDisconnectPattern.length; i++) {
-      if (i == 0 || i == 3 || i == 9) continue;
-
-      int offset = m_position + i;
-      int searchValue = m_inputDisconnectPattern[i];
-      if (searchValue == 0x00 && i <= 6) {
-        if (!(m_data[offset] == 0x00 || m_data[offset] == 0x01)) return false;
-      } else {
-        if (m_data[offset] != searchValue) return false;
-      }
-    }
-    return true;
+  /** Goes back to the start of the data, to read the packets again with readPacket. */
+  public void rewind() {
+    m_position = 0;
+    m_timestampIndex = 0;
+    resetDecoder();
   }
 
-  private boolean binarySearch(byte[] pattern) {
-    for (int i = 0; i < pattern.length; i++) {
-      int offset = m_position + i;
-      if (offset >= m_data.length || m_data[offset] != pattern[i]) return false;
-    }
-    return true;
+  private boolean loginBinarySearch(int position) {
+    if (m_dataLength - position < m_inputDisconnectPattern.length) return false;
+    return isInputLogin(m_data, position);
   }
 
-  private boolean verifyLogin() {
-    boolean success = true;
-    int originalPosition = m_position;
-    ReplayPacket packet;
-    packet = readPacket(true);
-    if (packet == null || packet.opcode != PacketBuilder.OPCODE_PRIVACY_SETTINGS) success = false;
-    packet = readPacket(true);
-    if (packet == null
-        || (packet.opcode != PacketBuilder.OPCODE_SEND_MESSAGE
-            && packet.opcode != PacketBuilder.OPCODE_SHOW_APPEARANCE_CHANGE)) success = false;
-    m_position = originalPosition;
-    isaac.reset();
-    isaac.setKeys(m_keys.get(m_keyIndex).keys);
-    return success;
+  /** Builds the table of how far to skip ahead for each byte at the end of a mismatch. */
+  private static int[] buildShift(byte[] pattern) {
+    int[] shift = new int[256];
+    Arrays.fill(shift, pattern.length);
+    for (int i = 0; i < pattern.length - 1; i++) shift[pattern[i] & 0xFF] = pattern.length - 1 - i;
+    return shift;
   }
 
-  public ReplayPacket readPacket(boolean peek) {
-    if (isEOF() || m_forceQuit) return null;
-
-    int packetTimestamp;
-    if (peek) packetTimestamp = 0; // m_timestamps.peek();
-    else packetTimestamp = m_timestamps.poll();
-
-    // Check for disconnect for outgoing (workaround)
-    if (m_outgoing) {
-      int oldPosition = m_position;
-      readPacketLength();
-      if (m_disconnectOffsets.contains(m_position)) m_loggedIn = false;
-      m_position = oldPosition;
-    } else if (!peek) {
-      // Logger.Debug("Checking disconnect at " + m_position);
-      // Handle disconnect
-      if (m_disconnectOffsets.contains(m_position)) {
-        m_loggedIn = false;
-      } else if (m_disconnectOffsets.contains(m_position + 1)) {
-        // This is safe because no packet can ever be 1 byte long
-        m_loggedIn = false;
-        m_position++;
-      } else if (m_disconnectOffsets.contains(m_position + 2)) {
-        // This is unsafe because a 1 byte packet can be skipped, but since we are disconnecting
-        // it may not matter much anyway since the packet is likely fragmented from the way
-        // the server sends packets.
-        m_loggedIn = false;
-        m_position += 2;
+  /**
+   * Finds the next occurrence of a pattern with the Boyer-Moore-Horspool algorithm, which skips
+   * ahead by up to the pattern length on every mismatch.
+   *
+   * @param shift skip table of the pattern from {@link #buildShift(byte[])}
+   * @return the offset of the match, or -1 if there is none
+   */
+  private int indexOf(byte[] pattern, int[] shift, int from) {
+    int last = pattern.length - 1;
+    for (int offset = Math.max(from, 0); offset + last < m_dataLength; ) {
+      int i = last;
+      while (m_data[offset + i] == pattern[i]) {
+        if (i-- == 0) return offset;
       }
+      offset += shift[m_data[offset + last] & 0xFF];
     }
+    return -1;
+  }
 
+  /**
+   * Returns the next packet.
+   *
+   * @param peek whether to read ahead to verify a login, without the checks for reconnects
+   * @return the packet, or null at the end of the replay
+   */
+  public ReplayPacket readPacket(boolean peek) {
     try {
-      ReplayPacket replayPacket = new ReplayPacket();
-      if (!m_loggedIn) {
-        if (m_outgoing) {
-          int length = readPacketLength();
-          if (length > 1) {
-            int dataLength = length - 1;
-            replayPacket.data = new byte[dataLength];
-            if (length < 160) {
-              replayPacket.data[dataLength - 1] = readByte();
-              replayPacket.opcode = readUnsignedByte();
-              if (dataLength > 1) read(replayPacket.data, 0, dataLength - 1);
-            } else {
-              replayPacket.opcode = readUnsignedByte();
-              read(replayPacket.data, 0, dataLength);
-            }
-          } else {
-            replayPacket.data = null;
-            replayPacket.opcode = readUnsignedByte();
-          }
-          replayPacket.timestamp = packetTimestamp;
+      ReplayPacket packet = decodePacket(peek);
+      // Keys found while reading are saved together at the end
+      if (packet == null && !peek && m_keyCache != null) m_keyCache.save();
+      return packet;
+    } catch (IOException e) {
+      // The end of the data is handled while decoding, and the data is all in memory
+      e.printStackTrace();
+      return null;
+    }
+  }
 
-          if (replayPacket.opcode != 0) {
-            Logger.Error("Invalid outgoing login packet: " + replayPacket.opcode);
-            return null;
-          }
+  @Override
+  boolean startPacket(boolean peek) {
+    if (isEOF()) return false;
+    if (peek) return true;
+    if (m_timestampIndex == m_timestampCount) return false;
+    m_packetTimestamp = m_timestamps[m_timestampIndex++];
+    return true;
+  }
 
-          // Set isaac keys
-          isaac.reset();
-          isaac.setKeys(m_keys.get(++m_keyIndex).keys);
+  @Override
+  int getTimestamp(long position) {
+    // Timestamps were mapped to the packets in order by open
+    return m_packetTimestamp;
+  }
 
-          replayPacket.opcode = ReplayEditor.VIRTUAL_OPCODE_CONNECT;
+  @Override
+  boolean isInputLogin(long position) {
+    return m_disconnectOffsets.get((int) position);
+  }
 
-          m_loggedIn = true;
-        } else {
-          // Handle login response
-          int loginResponse = readUnsignedByte();
-          int skipKeys = 0;
-          if ((loginResponse & 64) != 0) {
-            // Find working key
-            for (; ; ) {
-              // Set isaac keys
-              m_keyIndex++;
-              if (m_keyIndex >= m_keys.size()) {
-                Logger.Error("Replay is trying to use non-existing keys");
-                return null;
-              }
-              isaac.reset();
-              isaac.setKeys(m_keys.get(m_keyIndex).keys);
-              m_loggedIn = true;
-
-              boolean success = verifyLogin();
-              if (!success) skipKeys++;
-              else break;
-            }
-          } else {
-            m_forceQuit = true;
-          }
+  @Override
+  boolean isOutputLogin(long position) {
+    return m_disconnectOffsets.get((int) position);
+  }
 
-          if (skipKeys > 0) Logger.Warn("Skipping " + skipKeys + " keys");
+  @Override
+  long getPosition() {
+    return m_position;
+  }
 
-          // Create virtual connect packet
-          replayPacket.opcode = ReplayEditor.VIRTUAL_OPCODE_CONNECT;
-          replayPacket.data = new byte[1];
-          replayPacket.data[0] = (byte) loginResponse;
+  @Override
+  void setPosition(long position) {
+    m_position = (int) position;
+  }
 
-          // Set timestamp
-          replayPacket.timestamp = packetTimestamp;
-          replayPacket.skipKeys = skipKeys;
-        }
-      } else {
-        try {
-          int length = readPacketLength();
-          if (length > 1) {
-            int dataLength = length - 1;
-            replayPacket.data = new byte[dataLength];
-            if (length < 160) {
-              replayPacket.data[dataLength - 1] = readByte();
-              replayPacket.opcode = readUnsignedByte();
-              if (dataLength > 1) read(replayPacket.data, 0, dataLength - 1);
-            } else {
-              replayPacket.opcode = readUnsignedByte();
-              read(replayPacket.data, 0, dataLength);
-            }
-          } else {
-            replayPacket.data = null;
-            replayPacket.opcode = readUnsignedByte();
-          }
+  @Override
+  int getCachedKeyIndex(long position) {
+    return m_keyCache != null ? m_keyCache.get((int) position) : -1;
+  }
 
-          replayPacket.opcode = (replayPacket.opcode - isaac.getNextValue()) & 0xFF;
-          replayPacket.timestamp = packetTimestamp;
-          replayPacket.skipKeys = 0;
-        } catch (Exception e) {
-          Logger.Warn("Invalid packet found, trimming replay");
-          return null;
-        }
-      }
-      return replayPacket;
-    } catch (Exception e) {
-      e.printStackTrace();
-      return null;
-    }
+  @Override
+  void keyFound(long position, int keyIndex) {
+    if (m_keyCache != null) m_keyCache.put((int) position, keyIndex);
   }
 
   private boolean isEOF() {
-    return (m_position >= m_data.length);
+    return (m_position >= m_dataLength);
   }
 
-  private void read(byte[] data, int offset, int length) {
-    int maxLength = Math.min(m_data.length - m_position, length);
-    if (maxLength != length) Logger.Warn("Copy is out of bounds");
+  @Override
+  void read(byte[] data, int offset, int length) throws EOFException {
+    if (length > m_dataLength - m_position) throw new EOFException();
     System.arraycopy(m_data, m_position, data, offset, length);
     m_position += length;
   }
@@ -413,55 +375,45 @@ public class ReplayReader {
     m_position += size;
   }
 
-  private byte readByte() {
+  @Override
+  byte readByte() throws EOFException {
+    if (m_position >= m_dataLength) throw new EOFException();
     return m_data[m_position++];
   }
 
-  private int readUnsignedByte() {
-    return readByte() & 0xFF;
-  }
-
-  public int readPacketLength() {
-    int length = readUnsignedByte();
-    if (length >= 160) length = 256 * length - (40960 - readUnsignedByte());
-    return length;
-  }
-
-  private int calculateRealSize(File f) {
-    int size = 0;
-    try {
-      DataInputStream in =
-          new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(f))));
-      while (in.readInt() != TIMESTAMP_EOF) {
-        int length = in.readInt();
-        if (length > 0) {
-          size += length;
-          in.skipBytes(length);
-        }
-        size += 8;
+  /**
+   * Estimates the size of the replay data from the uncompressed size in the gzip trailer, which
+   * includes the replay headers, so the data usually fits without growing the array.
+   */
+  private static int estimateSize(File f) {
+    long estimate = f.length() * 4;
+    try (RandomAccessFile file = new RandomAccessFile(f, "r")) {
+      if (file.length() >= 4) {
+        file.seek(file.length() - 4);
+        long trailerSize = Integer.reverseBytes(file.readInt()) & 0xFFFFFFFFL;
+        // Sizes of 4 GiB and more wrap around, and a truncated file has no trailer
+        if (trailerSize <= f.length() * 64) estimate = trailerSize;
       }
-      in.close();
-    } catch (Exception e) {
+    } catch (IOException e) {
     }
-    size += 4;
-    return size;
+    return (int) Math.min(Math.max(estimate, 65536), Integer.MAX_VALUE - 8);
   }
 
-  private int calculateSize(File f) {
-    int size = 0;
-    try {
-      DataInputStream in =
-          new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(f))));
-      while (in.readInt() != TIMESTAMP_EOF) {
-        int length = in.readInt();
-        if (length > 0) {
-          size += length;
-          in.skipBytes(length);
-        }
-      }
-      in.close();
-    } catch (Exception e) {
+  private static int readInt(byte[] data, int offset) {
+    return ((data[offset] & 0xFF) << 24)
+        | ((data[offset + 1] & 0xFF) << 16)
+        | ((data[offset + 2] & 0xFF) << 8)
+        | (data[offset + 3] & 0xFF);
+  }
+
+  /** Reads until the array is full or the stream ends, returns the number of bytes read. */
+  private static int readFully(DataInputStream in, byte[] data) throws IOException {
+    int count = 0;
+    while (count < data.length) {
+      int length = in.read(data, count, data.length - count);
+      if (length == -1) break;
+      count += length;
     }
-    return size;
+    return count;
   }
 }
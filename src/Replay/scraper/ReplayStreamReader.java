@@ -0,0 +1,374 @@
+/**
+ * rscminus
+ *
+ * <p>This file is part of rscminus.
+ *
+ * <p>rscminus is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * <p>rscminus is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * <p>You should have received a copy of the GNU General Public License along with rscminus. If not,
+ * see <http://www.gnu.org/licenses/>.
+ *
+ * <p>Authors: see <https://github.com/RSCPlus/rscminus>
+ */
+package Replay.scraper;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Decodes the packets of a replay stream while reading it, with the same {@link
+ * ReplayPacketDecoder} as {@link ReplayReader}, keeping only a fixed window of the data in memory.
+ *
+ * <p>Reconnects are found by checking for the login pattern at each packet instead of searching
+ * the whole data up front. The key cache isn't used, since it's checked against the checksum of the
+ * stream, which is only known once the stream has been read.
+ */
+public class ReplayStreamReader extends ReplayPacketDecoder {
+  // Data kept in memory, enough to read ahead two of the largest packets to verify a login
+  private static final int WINDOW_SIZE = 128 * 1024;
+
+  private final DataInputStream m_in;
+  private final MessageDigest m_messageDigest;
+
+  // Data from stream offset m_windowStart up to m_dataEnd
+  private final byte[] m_window = new byte[WINDOW_SIZE];
+  private long m_windowStart = 0;
+  private long m_dataEnd = 0;
+  // Data of the current record that isn't in the window yet
+  private int m_recordRemaining = 0;
+  private boolean m_truncated = false;
+  private boolean m_ended = false;
+  // Set once the end of the stream was reached, and once a stored checksum was read after it
+  private boolean m_complete = false;
+  private boolean m_checksumStored = false;
+  // Timestamp of the last record with all of its data
+  private int m_endTimestamp = 0;
+  private int m_pendingTimestamp = 0;
+  private final byte[] m_header = new byte[8];
+
+  // Data offset and timestamp of the records from the one holding m_position on, as a ring
+  private long[] m_recordOffsets = new long[64];
+  private int[] m_recordTimestamps = new int[64];
+  private int m_recordHead = 0;
+  private int m_recordCount = 0;
+
+  private final byte[] m_fileMetadata = new byte[32];
+  private final byte[] m_metadata = new byte[1];
+  private final byte[] m_checksum = new byte[32];
+
+  // Reader state
+  private long m_position = 0;
+  // Start of the data being read ahead, kept in the window until it's read again
+  private long m_mark = -1;
+
+  public ReplayStreamReader(
+      File f, ReplayVersion replayVersion, LinkedList<ReplayKeyPair> keys, boolean outgoing)
+      throws IOException, NoSuchAlgorithmException {
+    m_in =
+        new DataInputStream(
+            new BufferedInputStream(new GZIPInputStream(new FileInputStream(f), 65536), 65536));
+    m_messageDigest =
+        replayVersion.version >= 3 ? MessageDigest.getInstance("SHA-256") : null;
+    initDecoder(keys, outgoing);
+  }
+
+  /** Returns the metadata that follows the stream, only known once it has been read. */
+  public byte[] getMetadata() {
+    return m_metadata;
+  }
+
+  /** Returns the checksum of the stream, only known once it has been read. */
+  public byte[] getChecksum() {
+    return m_checksum;
+  }
+
+  /** Returns the checksum stored at the end of the stream, only known once it has been read. */
+  public byte[] getFileMetadata() {
+    return m_fileMetadata;
+  }
+
+  /** Returns true if the stream was read up to its end marker, false if it's truncated. */
+  public boolean isComplete() {
+    return m_complete;
+  }
+
+  /** Returns true if a checksum was stored after the end of the stream. */
+  public boolean hasStoredChecksum() {
+    return m_checksumStored;
+  }
+
+  /** Returns the timestamp of the last record read with all of its data. */
+  public int getEndTimestamp() {
+    return m_endTimestamp;
+  }
+
+  /** Returns true if every packet of the data was decoded. */
+  public boolean isDecoded() {
+    return m_ended && m_position >= m_dataEnd;
+  }
+
+  /** Reads the rest of the stream without decoding it, to get the data that follows it. */
+  public void finish() throws IOException {
+    while (!m_ended) {
+      m_windowStart = m_dataEnd;
+      m_position = m_dataEnd;
+      fill();
+    }
+  }
+
+  /**
+   * Reads the rest of the stream and of the gzip data after it, which checks the gzip trailer.
+   *
+   * @return the number of bytes after the replay metadata
+   */
+  public long skipRemaining() throws IOException {
+    finish();
+    long count = 0;
+    int length;
+    while ((length = readStream(m_window, 0, m_window.length)) != -1) count += length;
+    return count;
+  }
+
+  public void close() throws IOException {
+    m_in.close();
+  }
+
+  /**
+   * Returns the next packet.
+   *
+   * @return the packet, or null at the end of the replay
+   */
+  public ReplayPacket readPacket() throws IOException {
+    return decodePacket(false);
+  }
+
+  @Override
+  boolean startPacket(boolean peek) throws IOException {
+    return ensure(m_position + 1);
+  }
+
+  @Override
+  boolean isInputLogin(long position) throws IOException {
+    // The first login is never a reconnect
+    if (position < 1 || !ensure(position + m_inputDisconnectPattern.length)) return false;
+    return isInputLogin(m_window, (int) (position - m_windowStart));
+  }
+
+  @Override
+  boolean isOutputLogin(long position) throws IOException {
+    byte[] pattern = m_outputDisconnectPattern;
+    if (!ensure(position + pattern.length)) return false;
+    int offset = (int) (position - m_windowStart);
+    for (int i = 0; i < pattern.length; i++) {
+      if (m_window[offset + i] != pattern[i]) return false;
+    }
+    return true;
+  }
+
+  @Override
+  long getPosition() {
+    return m_position;
+  }
+
+  @Override
+  void setPosition(long position) {
+    m_position = position;
+  }
+
+  @Override
+  void hold(long position) {
+    m_mark = position;
+  }
+
+  @Override
+  void release() {
+    m_mark = -1;
+  }
+
+  /** Returns the timestamp of the last record starting at or before a data offset. */
+  @Override
+  int getTimestamp(long offset) {
+    if (m_recordCount == 0) return 0;
+    int capacity = m_recordOffsets.length;
+    while (m_recordCount > 1 && m_recordOffsets[(m_recordHead + 1) % capacity] <= offset) {
+      m_recordHead = (m_recordHead + 1) % capacity;
+      m_recordCount--;
+    }
+    return m_recordTimestamps[m_recordHead];
+  }
+
+  private void addRecord(long offset, int timestamp) {
+    int capacity = m_recordOffsets.length;
+    if (m_recordCount > 0) {
+      // Packets sharing an offset are timestamped by the last of them
+      int last = (m_recordHead + m_recordCount - 1) % capacity;
+      if (m_recordOffsets[last] == offset) {
+        m_recordTimestamps[last] = timestamp;
+        return;
+      }
+    }
+    if (m_recordCount == capacity) {
+      long[] offsets = new long[capacity * 2];
+      int[] timestamps = new int[capacity * 2];
+      for (int i = 0; i < m_recordCount; i++) {
+        offsets[i] = m_recordOffsets[(m_recordHead + i) % capacity];
+        timestamps[i] = m_recordTimestamps[(m_recordHead + i) % capacity];
+      }
+      m_recordOffsets = offsets;
+      m_recordTimestamps = timestamps;
+      m_recordHead = 0;
+      capacity *= 2;
+    }
+    int index = (m_recordHead + m_recordCount++) % capacity;
+    m_recordOffsets[index] = offset;
+    m_recordTimestamps[index] = timestamp;
+  }
+
+  /**
+   * Reads the stream until the data up to an offset is in the window.
+   *
+   * @return false if the stream ends before it
+   */
+  private boolean ensure(long end) throws IOException {
+    while (m_dataEnd < end) {
+      if (m_ended) return false;
+      fill();
+    }
+    return true;
+  }
+
+  /** Reads the next record header, or as much of the current record as fits in the window. */
+  private void fill() throws IOException {
+    if (m_recordRemaining == 0) {
+      readRecordHeader();
+      return;
+    }
+
+    if (m_dataEnd - m_windowStart == WINDOW_SIZE) {
+      // Drop the data that has been read
+      long keep = m_mark >= 0 ? Math.min(m_mark, m_position) : m_position;
+      int drop = (int) Math.min(keep - m_windowStart, m_dataEnd - m_windowStart);
+      if (drop <= 0) throw new IOException("Replay packet doesn't fit in the read window");
+      System.arraycopy(m_window, drop, m_window, 0, (int) (m_dataEnd - m_windowStart) - drop);
+      m_windowStart += drop;
+    }
+
+    int offset = (int) (m_dataEnd - m_windowStart);
+    int count = Math.min(m_recordRemaining, WINDOW_SIZE - offset);
+    int read = 0;
+    while (!m_truncated && read < count) {
+      int length = readStream(m_window, offset + read, count - read);
+      if (length == -1) m_truncated = true;
+      else read += length;
+    }
+    if (m_messageDigest != null) m_messageDigest.update(m_window, offset, read);
+    // Missing data of a truncated replay is left zeroed
+    Arrays.fill(m_window, offset + read, offset + count, (byte) 0);
+    m_dataEnd += count;
+    m_recordRemaining -= count;
+    if (m_truncated && m_recordRemaining == 0) end();
+    else if (m_recordRemaining == 0) m_endTimestamp = m_pendingTimestamp;
+  }
+
+  private void readRecordHeader() throws IOException {
+    try {
+      m_in.readFully(m_header, 0, 4);
+      int timestamp = readInt(m_header, 0);
+      if (timestamp == ReplayReader.TIMESTAMP_EOF) {
+        if (m_messageDigest != null) m_messageDigest.update(m_header, 0, 4);
+        m_complete = true;
+        readTrailer();
+        return;
+      }
+      m_in.readFully(m_header, 4, 4);
+      int length = readInt(m_header, 4);
+      if (m_messageDigest != null) m_messageDigest.update(m_header);
+
+      addRecord(m_dataEnd, timestamp);
+      if (length > 0) {
+        m_recordRemaining = length;
+        m_pendingTimestamp = timestamp;
+      } else {
+        m_endTimestamp = timestamp;
+      }
+    } catch (EOFException e) {
+      // Truncated replay, keep what was readable
+      end();
+    }
+  }
+
+  /** Reads the replay metadata that follows the end of the stream. */
+  private void readTrailer() throws IOException {
+    if (m_messageDigest != null) {
+      int length = readFully(m_fileMetadata);
+      if (length < m_fileMetadata.length) {
+        System.arraycopy(m_fileMetadata, 0, m_metadata, 0, m_metadata.length);
+        Arrays.fill(m_fileMetadata, (byte) 0);
+      } else {
+        m_checksumStored = true;
+        readFully(m_metadata);
+      }
+    }
+    end();
+  }
+
+  private void end() {
+    m_ended = true;
+    if (m_messageDigest != null)
+      System.arraycopy(m_messageDigest.digest(), 0, m_checksum, 0, m_checksum.length);
+  }
+
+  private int readFully(byte[] data) throws IOException {
+    int count = 0;
+    while (count < data.length) {
+      int length = readStream(data, count, data.length - count);
+      if (length == -1) break;
+      count += length;
+    }
+    return count;
+  }
+
+  /** Reads from the stream, where the end of truncated gzip data counts as the end. */
+  private int readStream(byte[] data, int offset, int length) throws IOException {
+    try {
+      return m_in.read(data, offset, length);
+    } catch (EOFException e) {
+      return -1;
+    }
+  }
+
+  @Override
+  void read(byte[] data, int offset, int length) throws IOException {
+    if (!ensure(m_position + length)) throw new EOFException();
+    System.arraycopy(m_window, (int) (m_position - m_windowStart), data, offset, length);
+    m_position += length;
+  }
+
+  @Override
+  byte readByte() throws IOException {
+    if (!ensure(m_position + 1)) throw new EOFException();
+    return m_window[(int) (m_position++ - m_windowStart)];
+  }
+
+  private static int readInt(byte[] data, int offset) {
+    return ((data[offset] & 0xFF) << 24)
+        | ((data[offset + 1] & 0xFF) << 16)
+        | ((data[offset + 2] & 0xFF) << 8)
+        | (data[offset + 3] & 0xFF);
+  }
+}
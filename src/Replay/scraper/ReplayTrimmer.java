@@ -0,0 +1,499 @@
+/**
+ * rscminus
+ *
+ * <p>This file is part of rscminus.
+ *
+ * <p>rscminus is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * <p>rscminus is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * <p>You should have received a copy of the GNU General Public License along with rscminus. If not,
+ * see <http://www.gnu.org/licenses/>.
+ *
+ * <p>Authors: see <https://github.com/RSCPlus/rscminus>
+ */
+package Replay.scraper;
+
+import Client.Logger;
+import Client.Settings;
+import Replay.common.ISAACCipher;
+import Replay.common.ParallelGZIPOutputStream;
+import Replay.game.PacketBuilder;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.Properties;
+
+/**
+ * Cuts parts of a replay into a new replay while streaming it, without importing it into a {@link
+ * ReplayEditor}, so the memory used doesn't depend on the length of the replay.
+ *
+ * <p>The packets between the start and end timestamp of each range are decoded from the replay
+ * and encrypted again for the new one. A range that starts after a login gets a login of its own,
+ * followed by the first packets of the original login and the last packet of each kind that sets
+ * a part of the game state as a whole. The ranges are joined with a reconnect, and the timestamps
+ * are moved so the first range starts at 0 and each next one follows {@link #SEGMENT_GAP} frames
+ * after the end of the one before it.
+ */
+public class ReplayTrimmer {
+  // Frames between two ranges, more than the 400 within which a reconnect is skewed
+  public static final int SEGMENT_GAP = 500;
+
+  // Packets that set a part of the game state as a whole
+  private static final int[] STATE_OPCODES = {
+    PacketBuilder.OPCODE_FLOOR_SET,
+    PacketBuilder.OPCODE_PRIVACY_SETTINGS,
+    PacketBuilder.OPCODE_GAME_SETTINGS,
+    PacketBuilder.OPCODE_SET_STATS,
+    PacketBuilder.OPCODE_SET_EQUIP_STATS,
+    PacketBuilder.OPCODE_SET_INVENTORY,
+    PacketBuilder.OPCODE_QUEST_STATUS,
+    PacketBuilder.OPCODE_SET_PRAYERS,
+    PacketBuilder.OPCODE_SET_FATIGUE,
+    PacketBuilder.OPCODE_SET_IGNORE
+  };
+  private static final boolean[] STATE_OPCODE = new boolean[256];
+
+  static {
+    for (int opcode : STATE_OPCODES) STATE_OPCODE[opcode] = true;
+  }
+
+  private final String m_input;
+  private final String m_output;
+  private final int[][] m_ranges;
+  // Offset added to the timestamps of each range
+  private final int[] m_shifts;
+
+  private final ReplayVersion m_replayVersion = new ReplayVersion();
+  private final ReplayMetadata m_replayMetadata = new ReplayMetadata();
+  private final LinkedList<ReplayKeyPair> m_keys = new LinkedList<ReplayKeyPair>();
+  // Keys of the logins written to the new replay, and which of the original keys each range uses
+  private final LinkedList<ReplayKeyPair> m_newKeys = new LinkedList<ReplayKeyPair>();
+  private final ArrayList<ArrayList<Integer>> m_rangeKeys = new ArrayList<ArrayList<Integer>>();
+
+  /** A login of the replay being read and the packets remembered since. */
+  private static class Session {
+    final ReplayPacket login;
+    final int keyIndex;
+    final ReplayPacket[] opening = new ReplayPacket[2];
+    final ReplayPacket[] state = new ReplayPacket[256];
+    final long[] stateOrder = new long[256];
+    int openingCount = 0;
+    long packetCount = 0;
+    // Last range the login was written to
+    int range = -1;
+
+    Session(ReplayPacket login, int keyIndex) {
+      this.login = login;
+      this.keyIndex = keyIndex;
+    }
+
+    void remember(ReplayPacket packet) {
+      packetCount++;
+      if (openingCount < opening.length) {
+        opening[openingCount++] = packet;
+      } else if (STATE_OPCODE[packet.opcode]) {
+        state[packet.opcode] = packet;
+        stateOrder[packet.opcode] = packetCount;
+      }
+    }
+
+    /** Returns the remembered state packets in the order they were received. */
+    ArrayList<ReplayPacket> getState() {
+      ArrayList<ReplayPacket> ret = new ArrayList<ReplayPacket>();
+      long last = 0;
+      for (; ; ) {
+        int next = -1;
+        for (int opcode : STATE_OPCODES) {
+          if (state[opcode] != null
+              && stateOrder[opcode] > last
+              && (next == -1 || stateOrder[opcode] < stateOrder[next])) next = opcode;
+        }
+        if (next == -1) return ret;
+        ret.add(state[next]);
+        last = stateOrder[next];
+      }
+    }
+  }
+
+  /**
+   * @param input the replay folder to read
+   * @param output the folder to write the new replay to
+   * @param ranges start and end timestamp of each range, in order and not overlapping
+   */
+  public ReplayTrimmer(String input, String output, int[][] ranges) {
+    if (new File(input).getAbsoluteFile().equals(new File(output).getAbsoluteFile()))
+      throw new IllegalArgumentException("Can't write a trimmed replay over itself");
+    if (ranges.length == 0) throw new IllegalArgumentException("No ranges to keep");
+
+    m_input = input;
+    m_output = output;
+    m_ranges = ranges;
+    m_shifts = new int[ranges.length];
+    long start = 0;
+    for (int i = 0; i < ranges.length; i++) {
+      if (ranges[i][0] < 0 || ranges[i][0] >= ranges[i][1])
+        throw new IllegalArgumentException("Invalid range " + ranges[i][0] + "-" + ranges[i][1]);
+      if (i > 0 && ranges[i][0] < ranges[i - 1][1])
+        throw new IllegalArgumentException("Ranges must be in order and not overlap");
+      if (i > 0) start += (long) ranges[i - 1][1] - ranges[i - 1][0] + SEGMENT_GAP;
+      if (start > Integer.MAX_VALUE) throw new IllegalArgumentException("Ranges are too long");
+      m_shifts[i] = (int) start - ranges[i][0];
+      m_rangeKeys.add(new ArrayList<Integer>());
+    }
+  }
+
+  /** Writes the part of a replay between two timestamps to a new replay. */
+  public static boolean trim(String input, String output, int start, int end) {
+    return new ReplayTrimmer(input, output, new int[][] {{start, end}}).run();
+  }
+
+  /** Writes the parts of a replay between pairs of timestamps, joined, to a new replay. */
+  public static boolean splice(String input, String output, int[][] ranges) {
+    return new ReplayTrimmer(input, output, ranges).run();
+  }
+
+  /**
+   * Writes the new replay.
+   *
+   * @return false if the replay can't be read, or its packets in the ranges can't be decoded
+   */
+  public boolean run() {
+    File keysFile = new File(m_input + "/keys.bin");
+    File versionFile = new File(m_input + "/version.bin");
+    File inFile = new File(m_input + "/in.bin.gz");
+    File outFile = new File(m_input + "/out.bin.gz");
+    File metadataFile = new File(m_input + "/metadata.bin");
+
+    if (!keysFile.exists() || !versionFile.exists() || !inFile.exists()) {
+      Logger.Error("Replay is missing files: " + m_input);
+      return false;
+    }
+
+    try {
+      DataInputStream versionInput = new DataInputStream(new FileInputStream(versionFile));
+      m_replayVersion.version = versionInput.readInt();
+      m_replayVersion.clientVersion = versionInput.readInt();
+      versionInput.close();
+
+      int keyCount = (int) keysFile.length() / 16;
+      DataInputStream keysInput =
+          new DataInputStream(new BufferedInputStream(new FileInputStream(keysFile)));
+      for (int i = 0; i < keyCount; i++) {
+        ReplayKeyPair keyPair = new ReplayKeyPair();
+        for (int j = 0; j < keyPair.keys.length; j++) keyPair.keys[j] = keysInput.readInt();
+        m_keys.add(keyPair);
+      }
+      keysInput.close();
+
+      m_replayMetadata.dateModified = new Date().getTime();
+      if (metadataFile.exists() && metadataFile.length() >= 12) {
+        DataInputStream metadataInput = new DataInputStream(new FileInputStream(metadataFile));
+        metadataInput.readInt();
+        m_replayMetadata.dateModified = metadataInput.readLong();
+        metadataInput.close();
+      }
+
+      new File(m_output).mkdirs();
+      byte[] trailer = trimIncoming(inFile);
+      if (outFile.exists()) trimOutgoing(outFile, trailer);
+
+      DataOutputStream version =
+          new DataOutputStream(new FileOutputStream(new File(m_output + "/version.bin")));
+      version.writeInt(m_replayVersion.version);
+      version.writeInt(m_replayVersion.clientVersion);
+      version.close();
+
+      DataOutputStream keys =
+          new DataOutputStream(
+              new BufferedOutputStream(new FileOutputStream(new File(m_output + "/keys.bin"))));
+      for (ReplayKeyPair keyPair : m_newKeys) {
+        for (int key : keyPair.keys) keys.writeInt(key);
+      }
+      keys.close();
+
+      DataOutputStream metadata =
+          new DataOutputStream(new FileOutputStream(new File(m_output + "/metadata.bin")));
+      metadata.writeInt(m_replayMetadata.replayLength);
+      metadata.writeLong(m_replayMetadata.dateModified);
+      metadata.close();
+    } catch (Exception e) {
+      Logger.Error("Unable to trim replay " + m_input + ": " + e.getMessage());
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Writes the incoming packets of the ranges, remembering the keys of the logins written.
+   *
+   * @return the metadata that follows the stream
+   */
+  private byte[] trimIncoming(File inFile) throws IOException, NoSuchAlgorithmException {
+    ReplayStreamReader reader = new ReplayStreamReader(inFile, m_replayVersion, m_keys, false);
+    Output out = new Output(new File(m_output + "/in.bin.gz"), m_replayVersion, false);
+    try {
+      int range = 0;
+      Session session = null;
+      ReplayPacket packet;
+      while ((packet = reader.readPacket()) != null) {
+        while (range < m_ranges.length && packet.timestamp >= m_ranges[range][1]) range++;
+        if (range == m_ranges.length) break;
+        boolean inRange = packet.timestamp >= m_ranges[range][0];
+
+        if (packet.opcode == ReplayEditor.VIRTUAL_OPCODE_CONNECT) {
+          session = new Session(packet, reader.getKeyIndex());
+          if (inRange) writeLogin(out, session, range);
+          continue;
+        }
+        if (session == null) continue;
+
+        if (inRange) {
+          if (session.range != range) writeLogin(out, session, range);
+          out.writePacket(packet.timestamp + m_shifts[range], packet.opcode, packet.data);
+        }
+        session.remember(packet);
+      }
+      if (reader.getError() != null) throw new IOException(reader.getError());
+
+      m_replayMetadata.replayLength = out.lastTimestamp;
+      reader.finish();
+      if (!reader.isComplete()) Logger.Warn("Replay is truncated, trimmed what was readable");
+      out.close(reader.getMetadata());
+      return reader.getMetadata();
+    } finally {
+      reader.close();
+    }
+  }
+
+  /** Writes the login of a session at the start of a range, with the state it had by then. */
+  private void writeLogin(Output out, Session session, int range) throws IOException {
+    int timestamp = Math.max(session.login.timestamp, m_ranges[range][0]) + m_shifts[range];
+    boolean hasKey = (session.login.data[0] & 64) != 0;
+    ReplayKeyPair key = hasKey ? m_keys.get(session.keyIndex) : null;
+    out.writeConnect(timestamp, session.login, key);
+    if (hasKey) {
+      m_newKeys.add(key);
+      m_rangeKeys.get(range).add(session.keyIndex);
+    }
+    session.range = range;
+
+    for (int i = 0; i < session.openingCount; i++)
+      out.writePacket(timestamp, session.opening[i].opcode, session.opening[i].data);
+    for (ReplayPacket packet : session.getState())
+      out.writePacket(timestamp, packet.opcode, packet.data);
+  }
+
+  /**
+   * Writes the outgoing packets of the ranges, with a login for each login written to the incoming
+   * packets so both use the same keys.
+   */
+  private void trimOutgoing(File outFile, byte[] metadata)
+      throws IOException, NoSuchAlgorithmException {
+    ReplayStreamReader reader = new ReplayStreamReader(outFile, m_replayVersion, m_keys, true);
+    Output out = new Output(new File(m_output + "/out.bin.gz"), m_replayVersion, true);
+    try {
+      int range = 0;
+      // Logins of the range written so far
+      int loginCount = 0;
+      ReplayPacket login = null;
+      int keyIndex = -1;
+      boolean loginWritten = false;
+      ReplayPacket packet;
+      while ((packet = reader.readPacket()) != null) {
+        while (range < m_ranges.length && packet.timestamp >= m_ranges[range][1]) {
+          finishRange(out, range++, loginCount, login);
+          loginCount = 0;
+          loginWritten = false;
+        }
+        if (range == m_ranges.length) break;
+        boolean inRange = packet.timestamp >= m_ranges[range][0];
+
+        if (packet.opcode == ReplayEditor.VIRTUAL_OPCODE_CONNECT) {
+          login = packet;
+          keyIndex = reader.getKeyIndex();
+          loginWritten = false;
+        }
+        if (!inRange || login == null) continue;
+
+        if (!loginWritten) {
+          // Write the logins up to this one, skipping it if the incoming packets have none
+          ArrayList<Integer> keys = m_rangeKeys.get(range);
+          int index = keys.subList(loginCount, keys.size()).indexOf(keyIndex);
+          if (index == -1) continue;
+          int timestamp = Math.max(login.timestamp, m_ranges[range][0]) + m_shifts[range];
+          for (int i = 0; i <= index; i++)
+            out.writeConnect(timestamp, login, m_keys.get(keys.get(loginCount++)));
+          loginWritten = true;
+        }
+        if (packet.opcode != ReplayEditor.VIRTUAL_OPCODE_CONNECT)
+          out.writePacket(packet.timestamp + m_shifts[range], packet.opcode, packet.data);
+      }
+      if (reader.getError() != null) throw new IOException(reader.getError());
+      for (; range < m_ranges.length; range++) {
+        finishRange(out, range, loginCount, login);
+        loginCount = 0;
+      }
+
+      out.close(metadata);
+    } finally {
+      reader.close();
+    }
+  }
+
+  /** Writes the logins of a range that have no outgoing packets, to keep the keys in step. */
+  private void finishRange(Output out, int range, int loginCount, ReplayPacket login)
+      throws IOException {
+    ArrayList<Integer> keys = m_rangeKeys.get(range);
+    if (login == null) {
+      if (keys.size() > 0) Logger.Warn("Replay has no outgoing login to write");
+      return;
+    }
+    int timestamp = Math.max(out.lastTimestamp, m_ranges[range][0] + m_shifts[range]);
+    for (int i = loginCount; i < keys.size(); i++)
+      out.writeConnect(timestamp, login, m_keys.get(keys.get(i)));
+  }
+
+  /** Writes the packets of a replay stream, encrypted the same way {@link ReplayEditor} does. */
+  private static class Output {
+    private final DataOutputStream m_out;
+    private final DigestOutputStream m_digestStream;
+    private final ReplayVersion m_replayVersion;
+    private final boolean m_outgoing;
+    private final ISAACCipher isaac = new ISAACCipher();
+    private int m_connectCount = 0;
+    int lastTimestamp = 0;
+
+    Output(File f, ReplayVersion replayVersion, boolean outgoing)
+        throws IOException, NoSuchAlgorithmException {
+      m_replayVersion = replayVersion;
+      m_outgoing = outgoing;
+      OutputStream stream =
+          new BufferedOutputStream(new ParallelGZIPOutputStream(new FileOutputStream(f)));
+      if (replayVersion.version >= 3) {
+        m_digestStream = new DigestOutputStream(stream, MessageDigest.getInstance("SHA-256"));
+        stream = m_digestStream;
+      } else {
+        m_digestStream = null;
+      }
+      m_out = new DataOutputStream(stream);
+    }
+
+    void writeConnect(int timestamp, ReplayPacket login, ReplayKeyPair key) throws IOException {
+      if (m_outgoing) {
+        writePacket(timestamp, 0, login.data, false);
+      } else {
+        // Write disconnect
+        if (m_replayVersion.version > 0 && m_connectCount > 0) {
+          m_out.writeInt(lastTimestamp);
+          m_out.writeInt(-1);
+        }
+        m_out.writeInt(timestamp);
+        m_out.writeInt(1);
+        m_out.writeByte(login.data[0]);
+        lastTimestamp = timestamp;
+      }
+      if (key != null) {
+        isaac.reset();
+        isaac.setKeys(key.keys);
+      }
+      m_connectCount++;
+    }
+
+    void writePacket(int timestamp, int opcode, byte[] data) throws IOException {
+      writePacket(timestamp, opcode, data, true);
+    }
+
+    private void writePacket(int timestamp, int opcode, byte[] data, boolean encrypt)
+        throws IOException {
+      m_out.writeInt(timestamp);
+
+      int packetLength = 1 + (data != null ? data.length : 0);
+      if (packetLength >= 160) {
+        m_out.writeInt(packetLength + 2);
+        m_out.writeByte(packetLength / 256 + 160);
+        m_out.writeByte(packetLength & 0xFF);
+      } else {
+        m_out.writeInt(packetLength + 1);
+        m_out.writeByte(packetLength);
+      }
+
+      int encodedOpcode = encrypt ? (opcode + isaac.getNextValue()) & 0xFF : opcode;
+      if (packetLength == 1) {
+        m_out.writeByte(encodedOpcode);
+      } else if (packetLength < 160) {
+        int dataSize = packetLength - 1;
+        m_out.writeByte(data[dataSize - 1]);
+        m_out.writeByte(encodedOpcode);
+        if (dataSize > 1) m_out.write(data, 0, dataSize - 1);
+      } else {
+        m_out.writeByte(encodedOpcode);
+        m_out.write(data, 0, packetLength - 1);
+      }
+      lastTimestamp = timestamp;
+    }
+
+    /** Ends the stream with its checksum and the replay metadata. */
+    void close(byte[] metadata) throws IOException {
+      m_out.writeInt(ReplayReader.TIMESTAMP_EOF);
+      if (m_digestStream != null) {
+        m_digestStream.on(false);
+        m_out.write(m_digestStream.getMessageDigest().digest());
+      }
+      m_out.write(metadata);
+      m_out.close();
+    }
+  }
+
+  /**
+   * Trims a replay from the command line.
+   *
+   * <p>Usage: ReplayTrimmer replay output start-end [start-end...], with times in seconds or as
+   * [h:]m:s
+   */
+  public static void main(String[] args) {
+    Settings.initDir();
+    Settings.definePresets(new Properties());
+
+    if (args.length < 3) {
+      System.out.println("Usage: ReplayTrimmer replay output start-end [start-end...]");
+      System.exit(1);
+    }
+
+    int[][] ranges = new int[args.length - 2][];
+    for (int i = 2; i < args.length; i++) {
+      String[] range = args[i].split("-", 2);
+      if (range.length < 2) {
+        System.out.println("Invalid range: " + args[i]);
+        System.exit(1);
+      }
+      ranges[i - 2] = new int[] {parseTime(range[0]), parseTime(range[1])};
+    }
+
+    boolean success = splice(args[0], args[1], ranges);
+    System.exit(success ? 0 : 1);
+  }
+
+  /** Returns the frame at a time given in seconds or as [h:]m:s. */
+  private static int parseTime(String time) {
+    int seconds = 0;
+    for (String part : time.split(":")) seconds = seconds * 60 + Integer.parseInt(part.trim());
+    return seconds * 50;
+  }
+}
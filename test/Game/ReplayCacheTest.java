@@ -0,0 +1,133 @@
+package Game;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import Client.Settings;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ReplayCacheTest {
+
+	private static final int REPLAY_SIZE = 1024 * 1024;
+
+	private File directory;
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Before
+	public void setUp() throws Exception {
+		directory = temporaryFolder.getRoot();
+		Settings.LOG_VERBOSITY.put(Settings.currentProfile, -1);
+		Settings.REPLAY_CACHE_SIZE.put(Settings.currentProfile, 2);
+	}
+
+	@Test
+	public void testReadsDecompressedReplay() throws Exception {
+		byte[] data = createReplay("replay", 1);
+		ReplayCache.Entry entry = acquire("replay");
+		assertEquals(data.length, entry.length());
+		assertArrayEquals(data, readAll(entry.open(0)));
+		assertArrayEquals(Arrays.copyOfRange(data, 12345, data.length), readAll(entry.open(12345)));
+		ReplayCache.release(entry);
+	}
+
+	@Test
+	public void testEvictsLeastRecentlyUsed() throws Exception {
+		createReplay("a", 2);
+		createReplay("b", 3);
+		createReplay("c", 4);
+
+		ReplayCache.Entry a = acquire("a");
+		ReplayCache.release(a);
+		ReplayCache.Entry b = acquire("b");
+		ReplayCache.release(b);
+		// Caching c goes over 2 MB, a is the least recently used
+		ReplayCache.Entry c = acquire("c");
+
+		ReplayCache.Entry bAgain = acquire("b");
+		assertSame(b, bAgain);
+		ReplayCache.Entry aAgain = acquire("a");
+		assertNotSame(a, aAgain);
+
+		ReplayCache.release(aAgain);
+		ReplayCache.release(bAgain);
+		ReplayCache.release(c);
+	}
+
+	@Test
+	public void testRejectsReplayLargerThanCache() throws Exception {
+		// 3 MB doesn't fit a 2 MB cache
+		createReplay("large", 5, 3 * REPLAY_SIZE);
+		File replay = new File(directory, "large");
+		ReplayCache.Entry entry = ReplayCache.acquire(replay.getPath());
+		ReplayCache.release(entry);
+
+		// Acquiring it again gives the entry being inflated until it fails, then nothing
+		ReplayCache.Entry again = entry;
+		for (int i = 0; i < 1000 && again != null; i++) {
+			assertSame(entry, again);
+			Thread.sleep(10);
+			again = ReplayCache.acquire(replay.getPath());
+			ReplayCache.release(again);
+		}
+		assertNull(again);
+		assertNull(ReplayCache.acquire(replay.getPath()));
+		assertFalse(entry.isReady());
+
+		// A changed replay is tried again
+		File source = new File(replay, "in.bin.gz");
+		source.setLastModified(source.lastModified() - 10000);
+		again = ReplayCache.acquire(replay.getPath());
+		assertNotNull(again);
+		assertNotSame(entry, again);
+		ReplayCache.release(again);
+	}
+
+	private byte[] createReplay(String name, int seed) throws Exception {
+		return createReplay(name, seed, REPLAY_SIZE);
+	}
+
+	private byte[] createReplay(String name, int seed, int size) throws Exception {
+		File replay = new File(directory, name);
+		replay.mkdir();
+		byte[] data = new byte[size];
+		new Random(seed).nextBytes(data);
+		GZIPOutputStream out = new GZIPOutputStream(new FileOutputStream(new File(replay, "in.bin.gz")));
+		out.write(data);
+		out.close();
+		return data;
+	}
+
+	private ReplayCache.Entry acquire(String name) throws Exception {
+		ReplayCache.Entry entry = ReplayCache.acquire(new File(directory, name).getPath());
+		for (int i = 0; i < 1000 && !entry.isReady(); i++) Thread.sleep(10);
+		assertTrue(entry.isReady());
+		return entry;
+	}
+
+	private byte[] readAll(InputStream in) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[65536];
+		int count;
+		while ((count = in.read(buffer)) != -1) out.write(buffer, 0, count);
+		return out.toByteArray();
+	}
+
+}
@@ -0,0 +1,85 @@
+package Game;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import Client.Settings;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ReplayCatalogTest {
+
+	private File directory;
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Before
+	public void setUp() throws Exception {
+		directory = temporaryFolder.getRoot();
+		Settings.LOG_VERBOSITY.put(Settings.currentProfile, -1);
+		Settings.Dir.JAR = directory.getPath();
+		ReplayCatalog.reset();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		ReplayCatalog.reset();
+	}
+
+	@Test
+	public void testPersistsMetadata() throws Exception {
+		File first = createReplay("first", 1234, 0x7F000001, 3);
+		File second = createReplay("second", 5678, -643615310, 0);
+		Object[] firstMetadata = ReplayCatalog.getMetadata(first.getPath());
+		Object[] secondMetadata = ReplayCatalog.getMetadata(second.getPath());
+		assertArrayEquals(Replay.readMetadata(first.getPath()), firstMetadata);
+		assertEquals("Jagex 1", secondMetadata[2]);
+
+		ReplayCatalog.save();
+		assertTrue(new File(directory, ReplayCatalog.FILENAME).exists());
+		ReplayCatalog.reset();
+		assertArrayEquals(firstMetadata, ReplayCatalog.getMetadata(first.getPath()));
+		assertArrayEquals(secondMetadata, ReplayCatalog.getMetadata(second.getPath()));
+
+		// A changed metadata.bin is read again
+		createReplay("second", 9999, -643615310, 0);
+		new File(second, "metadata.bin").setLastModified(System.currentTimeMillis() + 10000);
+		ReplayCatalog.save();
+		ReplayCatalog.reset();
+		// The loaded entry is trusted until the background check drops it
+		ReplayCatalog.getMetadata(second.getPath());
+		for (int i = 0; i < 500 && !ReplayCatalog.isChecked(); i++) Thread.sleep(10);
+		assertEquals(9999, (int) ReplayCatalog.getMetadata(second.getPath())[0]);
+
+		// Renamed folders keep their entry
+		File renamed = new File(directory, "renamed");
+		assertTrue(first.renameTo(renamed));
+		ReplayCatalog.rename(first, renamed);
+		assertArrayEquals(firstMetadata, ReplayCatalog.getMetadata(renamed.getPath()));
+	}
+
+	private File createReplay(String name, int length, int address, int userField) throws Exception {
+		File replay = new File(directory, name);
+		replay.mkdirs();
+		DataOutputStream metadata = new DataOutputStream(new FileOutputStream(new File(replay, "metadata.bin")));
+		metadata.writeInt(length);
+		metadata.writeLong(1234567890L);
+		metadata.writeInt(0);
+		metadata.writeInt(0);
+		metadata.writeInt(0xFFFF);
+		metadata.writeInt(address);
+		metadata.writeByte(1);
+		metadata.writeInt(userField);
+		metadata.close();
+		return replay;
+	}
+
+}
@@ -0,0 +1,125 @@
+package Game;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import Client.FlushableGZIPOutputStream;
+import Client.Settings;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ReplayIndexTest {
+
+	private File directory;
+	private File inFile;
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Before
+	public void setUp() throws Exception {
+		directory = temporaryFolder.getRoot();
+		inFile = new File(directory, "in.bin.gz");
+		Settings.LOG_VERBOSITY.put(Settings.currentProfile, -1);
+	}
+
+	@Test
+	public void testRecordedIndexMatchesScan() throws Exception {
+		int[] expected = record();
+		ReplayIndex recorded = ReplayIndex.load(directory.getPath());
+		assertEquals(expected[0], recorded.endTimestamp);
+		assertEquals(expected[1], recorded.packetCount);
+		assertEquals(expected[2], countReconnects(recorded));
+
+		new File(directory, ReplayIndex.FILENAME).delete();
+		ReplayIndex scanned = ReplayIndex.load(directory.getPath());
+		assertTrue(new File(directory, ReplayIndex.FILENAME).exists());
+		assertEquals(expected[0], scanned.endTimestamp);
+		assertEquals(expected[1], scanned.packetCount);
+		assertEquals(expected[2], countReconnects(scanned));
+
+		checkCheckpoints(recorded);
+		checkCheckpoints(scanned);
+	}
+
+	/** Records a replay with periodic disconnects, returns its end timestamp, packet count and reconnect count */
+	private int[] record() throws Exception {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FlushableGZIPOutputStream(new ReplayIndex.Recorder(inFile))));
+		Random random = new Random(235);
+		int packets = 0;
+		int reconnects = 0;
+		int timestamp = 0;
+		for (int tick = 0; tick < 20000; tick++) {
+			timestamp = tick;
+			if (tick % 3000 == 2999) {
+				out.writeInt(tick);
+				out.writeInt(-1);
+				out.flush();
+				reconnects++;
+				continue;
+			}
+
+			byte[] data = new byte[random.nextInt(tick % 40 == 0 ? 5000 : 500)];
+			random.nextBytes(data);
+			out.writeInt(tick);
+			out.writeInt(data.length);
+			out.write(data);
+			out.flush();
+			packets++;
+		}
+		out.writeInt(Replay.TIMESTAMP_EOF);
+		out.close();
+		return new int[] {timestamp, packets, reconnects};
+	}
+
+	private int countReconnects(ReplayIndex index) {
+		int count = 0;
+		for (ReplayIndex.Checkpoint checkpoint : index.checkpoints) {
+			if (checkpoint.isReconnect()) count++;
+		}
+		return count;
+	}
+
+	/** Every checkpoint has to resume exactly where it is in the full stream */
+	private void checkCheckpoints(ReplayIndex index) throws Exception {
+		byte[] full = readAll(new GZIPInputStream(new FileInputStream(inFile)));
+		assertTrue(index.checkpoints.size() > 1);
+		for (ReplayIndex.Checkpoint checkpoint : index.checkpoints) {
+			byte[] resumed = readAll(ReplayIndex.open(new FileInputStream(inFile), checkpoint));
+			assertEquals(full.length - checkpoint.offset, resumed.length);
+			byte[] tail = new byte[resumed.length];
+			System.arraycopy(full, (int) checkpoint.offset, tail, 0, tail.length);
+			assertArrayEquals(tail, resumed);
+
+			// A reconnect checkpoint starts right after the disconnect marker
+			if (checkpoint.isReconnect()) {
+				DataInputStream marker = new DataInputStream(new ByteArrayInputStream(full, (int) checkpoint.offset - 8, 8));
+				assertEquals(checkpoint.timestamp, marker.readInt());
+				assertEquals(-1, marker.readInt());
+			}
+		}
+	}
+
+	private byte[] readAll(InputStream in) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[65536];
+		int count;
+		while ((count = in.read(buffer)) != -1) out.write(buffer, 0, count);
+		in.close();
+		return out.toByteArray();
+	}
+
+}
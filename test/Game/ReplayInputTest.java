@@ -0,0 +1,175 @@
+package Game;
+
+import static org.junit.Assert.assertEquals;
+
+import Client.Settings;
+import java.awt.event.KeyEvent;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReplayInputTest {
+
+	private ByteArrayOutputStream keyboard;
+	private ByteArrayOutputStream mouse;
+	private ReplayWriter writer;
+	private ReplayInputWriter inputWriter;
+
+	@Before
+	public void setUp() throws Exception {
+		Settings.LOG_VERBOSITY.put(Settings.currentProfile, -1);
+		keyboard = new ByteArrayOutputStream();
+		mouse = new ByteArrayOutputStream();
+		writer = new ReplayWriter();
+		writer.setStream(ReplayWriter.STREAM_KEYBOARD, new DataOutputStream(keyboard), null);
+		writer.setStream(ReplayWriter.STREAM_MOUSE, new DataOutputStream(mouse), null);
+		writer.start();
+		inputWriter = new ReplayInputWriter(writer);
+	}
+
+	@Test
+	public void testKeyboardRoundTrip() throws Exception {
+		inputWriter.writeKeyboard(10, Replay.KEYBOARD_PRESSED, KeyEvent.CHAR_UNDEFINED, KeyEvent.VK_SHIFT, KeyEvent.SHIFT_DOWN_MASK);
+		inputWriter.writeKeyboard(12, Replay.KEYBOARD_TYPED, 'A', 0, KeyEvent.SHIFT_DOWN_MASK);
+		inputWriter.writeKeyboard(12, Replay.KEYBOARD_RELEASED, '\u00e9', 300000, 0);
+		// Timestamps can go back when the clock is reset between sessions
+		inputWriter.writeKeyboard(3, Replay.KEYBOARD_PRESSED, 'b', KeyEvent.VK_B, 0);
+		close();
+
+		ReplayInputReader reader = reader(keyboard, ReplayInputReader.VERSION_COMPACT);
+		assertKeyboard(reader, 10, Replay.KEYBOARD_PRESSED, KeyEvent.CHAR_UNDEFINED, KeyEvent.VK_SHIFT, KeyEvent.SHIFT_DOWN_MASK);
+		// The modifier is carried over from the previous record
+		assertKeyboard(reader, 12, Replay.KEYBOARD_TYPED, 'A', 0, KeyEvent.SHIFT_DOWN_MASK);
+		assertKeyboard(reader, 12, Replay.KEYBOARD_RELEASED, '\u00e9', 300000, 0);
+		assertKeyboard(reader, 3, Replay.KEYBOARD_PRESSED, 'b', KeyEvent.VK_B, 0);
+		assertEquals(Replay.TIMESTAMP_EOF, reader.readTimestamp());
+		assertEquals(Replay.TIMESTAMP_EOF, reader.readTimestamp());
+	}
+
+	@Test
+	public void testMouseRoundTrip() throws Exception {
+		// Moves in the same tick are coalesced into the last one
+		inputWriter.writeMouse(5, Replay.MOUSE_MOVED, 10, 10, 0, 0, 0, 0, 0, false, 0);
+		inputWriter.writeMouse(5, Replay.MOUSE_MOVED, 20, 30, 0, 0, 0, 0, 0, false, 0);
+		// A move in a new tick writes out the held back one
+		inputWriter.writeMouse(6, Replay.MOUSE_MOVED, 25, 35, 0, 0, 0, 0, 0, false, 0);
+		// A click writes out the move before it, even in the same tick
+		inputWriter.writeMouse(6, Replay.MOUSE_PRESSED, 25, 35, 0, 1024, 1, 0, 0, false, 1);
+		inputWriter.writeMouse(7, Replay.MOUSE_RELEASED, 25, 35, 0, 1024, 1, 0, 0, false, 1);
+		// Negative coordinates and a step back in time
+		inputWriter.writeMouse(4, Replay.MOUSE_EXITED, -5, 2, 0, 0, 1, 0, 0, false, 1);
+		inputWriter.writeMouse(8, Replay.MOUSE_PRESSED, 100, 200, 0, 4096, 2, 0, 0, true, 3);
+		inputWriter.writeMouse(9, Replay.MOUSE_WHEEL_MOVED, 100, 200, -2, 4096, 2, 1, -6, false, 3);
+		inputWriter.writeMouse(9, Replay.MOUSE_CLICKED, 90, 150, 0, 4096, 0, 0, 0, false, 0);
+		close();
+
+		ReplayInputReader reader = reader(mouse, ReplayInputReader.VERSION_COMPACT);
+		assertMouse(reader, 5, Replay.MOUSE_MOVED, 20, 30, 0, 0, 0, 0, 0, false, 0);
+		assertMouse(reader, 6, Replay.MOUSE_MOVED, 25, 35, 0, 0, 0, 0, 0, false, 0);
+		assertMouse(reader, 6, Replay.MOUSE_PRESSED, 25, 35, 0, 1024, 1, 0, 0, false, 1);
+		// Modifier, click count and button are carried over from the previous record
+		assertMouse(reader, 7, Replay.MOUSE_RELEASED, 25, 35, 0, 1024, 1, 0, 0, false, 1);
+		assertMouse(reader, 4, Replay.MOUSE_EXITED, -5, 2, 0, 0, 1, 0, 0, false, 1);
+		assertMouse(reader, 8, Replay.MOUSE_PRESSED, 100, 200, 0, 4096, 2, 0, 0, true, 3);
+		assertMouse(reader, 9, Replay.MOUSE_WHEEL_MOVED, 100, 200, -2, 4096, 2, 1, -6, false, 3);
+		// The wheel fields are reset by records without them
+		assertMouse(reader, 9, Replay.MOUSE_CLICKED, 90, 150, 0, 4096, 0, 0, 0, false, 0);
+		assertEquals(Replay.TIMESTAMP_EOF, reader.readTimestamp());
+	}
+
+	@Test
+	public void testHeldBackMoveWrittenOnClose() throws Exception {
+		inputWriter.writeMouse(5, Replay.MOUSE_MOVED, 10, 10, 0, 0, 0, 0, 0, false, 0);
+		close();
+
+		ReplayInputReader reader = reader(mouse, ReplayInputReader.VERSION_COMPACT);
+		assertMouse(reader, 5, Replay.MOUSE_MOVED, 10, 10, 0, 0, 0, 0, 0, false, 0);
+		assertEquals(Replay.TIMESTAMP_EOF, reader.readTimestamp());
+		assertEquals(Replay.TIMESTAMP_EOF, reader(keyboard, ReplayInputReader.VERSION_COMPACT).readTimestamp());
+	}
+
+	@Test
+	public void testLegacyStreams() throws Exception {
+		close();
+
+		ByteArrayOutputStream keyboardData = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(keyboardData);
+		out.writeInt(10);
+		out.writeByte(Replay.KEYBOARD_PRESSED);
+		out.writeChar(KeyEvent.CHAR_UNDEFINED);
+		out.writeInt(KeyEvent.VK_SHIFT);
+		out.writeInt(KeyEvent.SHIFT_DOWN_MASK);
+		out.writeInt(11);
+		out.writeByte(Replay.KEYBOARD_TYPED);
+		out.writeChar('A');
+		out.writeInt(0);
+		out.writeInt(KeyEvent.SHIFT_DOWN_MASK);
+		out.writeInt(Replay.TIMESTAMP_EOF);
+
+		ReplayInputReader reader = reader(keyboardData, 5);
+		assertKeyboard(reader, 10, Replay.KEYBOARD_PRESSED, KeyEvent.CHAR_UNDEFINED, KeyEvent.VK_SHIFT, KeyEvent.SHIFT_DOWN_MASK);
+		assertKeyboard(reader, 11, Replay.KEYBOARD_TYPED, 'A', 0, KeyEvent.SHIFT_DOWN_MASK);
+		assertEquals(Replay.TIMESTAMP_EOF, reader.readTimestamp());
+
+		ByteArrayOutputStream mouseData = new ByteArrayOutputStream();
+		out = new DataOutputStream(mouseData);
+		writeLegacyMouse(out, 5, Replay.MOUSE_PRESSED, -3, 40, 0, 1024, 1, 0, 0, true, 3);
+		writeLegacyMouse(out, 6, Replay.MOUSE_WHEEL_MOVED, 10, 20, 1, 0, 0, 1, 3, false, 0);
+		out.writeInt(Replay.TIMESTAMP_EOF);
+
+		reader = reader(mouseData, 5);
+		assertMouse(reader, 5, Replay.MOUSE_PRESSED, -3, 40, 0, 1024, 1, 0, 0, true, 3);
+		assertMouse(reader, 6, Replay.MOUSE_WHEEL_MOVED, 10, 20, 1, 0, 0, 1, 3, false, 0);
+		assertEquals(Replay.TIMESTAMP_EOF, reader.readTimestamp());
+	}
+
+	private void close() throws Exception {
+		inputWriter.close();
+		writer.close();
+	}
+
+	private static ReplayInputReader reader(ByteArrayOutputStream data, int version) {
+		return new ReplayInputReader(new DataInputStream(new ByteArrayInputStream(data.toByteArray())), version);
+	}
+
+	private static void assertKeyboard(ReplayInputReader reader, int timestamp, byte event, char keychar, int keycode, int modifier) throws Exception {
+		assertEquals(timestamp, reader.readTimestamp());
+		reader.readKeyboard();
+		assertEquals(event, reader.event);
+		assertEquals(keychar, reader.keychar);
+		assertEquals(keycode, reader.keycode);
+		assertEquals(modifier, reader.modifier);
+	}
+
+	private static void assertMouse(ReplayInputReader reader, int timestamp, byte event, int x, int y, int rotation, int modifier, int clickCount, int scrollType, int scrollAmount, boolean popupTrigger, int button) throws Exception {
+		assertEquals(timestamp, reader.readTimestamp());
+		reader.readMouse();
+		assertEquals(event, reader.event);
+		assertEquals(x, reader.x);
+		assertEquals(y, reader.y);
+		assertEquals(rotation, reader.rotation);
+		assertEquals(modifier, reader.modifier);
+		assertEquals(clickCount, reader.clickCount);
+		assertEquals(scrollType, reader.scrollType);
+		assertEquals(scrollAmount, reader.scrollAmount);
+		assertEquals(popupTrigger, reader.popupTrigger);
+		assertEquals(button, reader.button);
+	}
+
+	private static void writeLegacyMouse(DataOutputStream out, int timestamp, byte event, int x, int y, int rotation, int modifier, int clickCount, int scrollType, int scrollAmount, boolean popupTrigger, int button) throws Exception {
+		out.writeInt(timestamp);
+		out.writeByte(event);
+		out.writeInt(x);
+		out.writeInt(y);
+		out.writeInt(rotation);
+		out.writeInt(modifier);
+		out.writeInt(clickCount);
+		out.writeInt(scrollType);
+		out.writeInt(scrollAmount);
+		out.writeBoolean(popupTrigger);
+		out.writeInt(button);
+	}
+}
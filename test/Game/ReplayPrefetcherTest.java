@@ -0,0 +1,83 @@
+package Game;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import Client.Settings;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.zip.GZIPOutputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ReplayPrefetcherTest {
+
+	private File directory;
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Before
+	public void setUp() throws Exception {
+		directory = temporaryFolder.getRoot();
+		Settings.LOG_VERBOSITY.put(Settings.currentProfile, -1);
+		Settings.PARSE_OPCODES.put(Settings.currentProfile, false);
+		Settings.REPLAY_CACHE_SIZE.put(Settings.currentProfile, 16);
+		Settings.REPLAY_PREFETCH_COUNT.put(Settings.currentProfile, 2);
+		Settings.REPLAY_PREFETCH_SIZE.put(Settings.currentProfile, 16);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		ReplayPrefetcher.clear();
+	}
+
+	@Test
+	public void testPrefetchesFollowingReplays() throws Exception {
+		ArrayList<File> queue = new ArrayList<File>();
+		for (int i = 0; i < 4; i++) queue.add(createReplay("replay" + i, 1000 * (i + 1)));
+
+		ReplayPrefetcher.update(queue, 0);
+		// The replay about to play and the ones past the prefetch count aren't prepared
+		assertNull(ReplayPrefetcher.take(queue.get(0).getPath()));
+		assertNull(ReplayPrefetcher.take(queue.get(3).getPath()));
+
+		waitForPrefetch(queue.get(1));
+		waitForPrefetch(queue.get(2));
+		ReplayPrefetcher.Prefetch prefetch = ReplayPrefetcher.take(queue.get(1).getPath());
+		assertNotNull(prefetch);
+		assertNotNull(prefetch.getIndex());
+		assertNull(prefetch.takeEditor());
+		prefetch.discard();
+
+		// Moving on drops what isn't among the next replays anymore
+		ReplayPrefetcher.update(queue, 3);
+		assertNull(ReplayPrefetcher.take(queue.get(2).getPath()));
+	}
+
+	private void waitForPrefetch(File replay) throws Exception {
+		for (int i = 0; i < 500 && !ReplayPrefetcher.isPrefetched(replay.getPath()); i++) Thread.sleep(10);
+		assertTrue(ReplayPrefetcher.isPrefetched(replay.getPath()));
+	}
+
+	private File createReplay(String name, int endTimestamp) throws Exception {
+		File replay = new File(directory, name);
+		replay.mkdir();
+		DataOutputStream out = new DataOutputStream(new GZIPOutputStream(new FileOutputStream(new File(replay, "in.bin.gz"))));
+		for (int timestamp = 0; timestamp <= endTimestamp; timestamp += 10) {
+			out.writeInt(timestamp);
+			out.writeInt(4);
+			out.writeInt(timestamp);
+		}
+		out.writeInt(Replay.TIMESTAMP_EOF);
+		out.close();
+		return replay;
+	}
+
+}
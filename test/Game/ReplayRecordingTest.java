@@ -0,0 +1,250 @@
+package Game;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import Client.FlushableGZIPOutputStream;
+import Client.Settings;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ReplayRecordingTest {
+
+	private static final int CLIENT_VERSION = 235;
+
+	private File directory;
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Before
+	public void setUp() throws Exception {
+		directory = temporaryFolder.getRoot();
+		Settings.LOG_VERBOSITY.put(Settings.currentProfile, -1);
+		Client.version = CLIENT_VERSION;
+
+		// Receiving the welcome packet marks the player logged in, keep that from touching anything
+		Client.username_login = "";
+		Settings.FIRST_TIME.put(Settings.currentProfile, false);
+		Settings.REMIND_HOW_TO_OPEN_SETTINGS.put(Settings.currentProfile, false);
+		Settings.CHECK_UPDATES.put(Settings.currentProfile, false);
+		Settings.TWITCH_CHANNEL.put(Settings.currentProfile, "");
+		Settings.TWITCH_OAUTH.put(Settings.currentProfile, "");
+		Settings.TWITCH_CHAT_ENABLED.put(Settings.currentProfile, false);
+	}
+
+	@After
+	public void tearDown() {
+		Replay.isRecording = false;
+		Replay.writer = null;
+	}
+
+	@Test
+	public void testRecordedStreamsUnchanged() throws Exception {
+		// Record a session through the replay hooks
+		ReplayWriter writer = new ReplayWriter();
+		writer.setStream(ReplayWriter.STREAM_INPUT, openGZIP("in.bin.gz"), MessageDigest.getInstance("SHA-256"));
+		writer.setStream(ReplayWriter.STREAM_OUTPUT, openGZIP("out.bin.gz"), MessageDigest.getInstance("SHA-256"));
+		writer.setStream(ReplayWriter.STREAM_KEYS, openRaw("keys.bin"), null);
+		writer.start();
+		Replay.writer = writer;
+		Replay.metadata = openRaw("metadata.bin");
+		Replay.ipAddressMetadata = new byte[4];
+		Replay.started_record_kb_mouse = false;
+		Replay.retained_timestamp = Replay.TIMESTAMP_EOF;
+		Replay.retained_bytes = null;
+		Replay.timestamp = 0;
+		Replay.timestamp_disconnect = Replay.TIMESTAMP_EOF;
+		Replay.isRecording = true;
+
+		LegacyRecorder legacy = new LegacyRecorder();
+
+		Random random = new Random(235);
+		byte[] clientBuffer = new byte[5000];
+		for (int tick = 0; tick < 2000; tick++) {
+			Replay.timestamp = tick;
+			legacy.timestamp = tick;
+
+			if (tick == 1000) {
+				Replay.disconnect_hook();
+				legacy.timestamp_disconnect = tick;
+			}
+
+			// Server data
+			// A login response followed by the welcome packet after every login, and after the reconnect
+			boolean welcome = tick % 300 == 1 || tick == 1000;
+			int bytesread = random.nextInt(tick % 50 == 0 ? 4000 : 200);
+			if (welcome) bytesread += 10;
+			int n2 = random.nextInt(100);
+			int n5 = random.nextInt(100);
+			random.nextBytes(clientBuffer);
+			if (welcome) clientBuffer[n2 + n5] = 64;
+			legacy.dumpRawInputStream(clientBuffer, n2, n5, bytesread);
+			Replay.dumpRawInputStream(clientBuffer, 0, n2, n5, bytesread);
+			// The client decrypts the buffer in place afterwards
+			for (int i = 0; i < clientBuffer.length; i++) clientBuffer[i] ^= 0x5A;
+			if (welcome) {
+				// Scrubs the host block out of the retained packet and writes it right away
+				legacy.checkPoint(182);
+				Replay.checkPoint(182, bytesread);
+			}
+
+			// Client data, with a login block every few hundred ticks
+			int len = 20 + random.nextInt(200);
+			int off = random.nextInt(100);
+			byte[] out = new byte[off + len + 10];
+			random.nextBytes(out);
+			if (tick % 300 == 0) {
+				out[off + 2] = 0;
+				out[off + 3] = 1;
+				out[off + 7] = (byte) CLIENT_VERSION;
+			}
+			byte[] outCopy = out.clone();
+			legacy.dumpRawOutputStream(out, off, len);
+			Replay.dumpRawOutputStream(out, off, len);
+			assertArrayEquals(outCopy, out);
+		}
+
+		legacy.close();
+		Replay.closeReplayRecording();
+
+		assertArrayEquals(legacy.inBytes.toByteArray(), read("in.bin.gz"));
+		assertArrayEquals(legacy.outBytes.toByteArray(), read("out.bin.gz"));
+	}
+
+	private DataOutputStream openGZIP(String name) throws Exception {
+		return new DataOutputStream(new BufferedOutputStream(new FlushableGZIPOutputStream(new FileOutputStream(new File(directory, name)))));
+	}
+
+	private DataOutputStream openRaw(String name) throws Exception {
+		return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(directory, name))));
+	}
+
+	private byte[] read(String name) throws Exception {
+		return Files.readAllBytes(new File(directory, name).toPath());
+	}
+
+	/** The synchronous recorder replays were written with before ReplayWriter existed */
+	private static class LegacyRecorder {
+		ByteArrayOutputStream inBytes = new ByteArrayOutputStream();
+		ByteArrayOutputStream outBytes = new ByteArrayOutputStream();
+		DataOutputStream input;
+		DataOutputStream output;
+		MessageDigest input_checksum;
+		MessageDigest output_checksum;
+		int timestamp;
+		int timestamp_disconnect = Replay.TIMESTAMP_EOF;
+		int retained_timestamp = Replay.TIMESTAMP_EOF;
+		byte[] retained_bytes;
+		int retained_off;
+		int retained_bread;
+
+		LegacyRecorder() throws Exception {
+			input = new DataOutputStream(new BufferedOutputStream(new FlushableGZIPOutputStream(inBytes)));
+			output = new DataOutputStream(new BufferedOutputStream(new FlushableGZIPOutputStream(outBytes)));
+			input_checksum = MessageDigest.getInstance("SHA-256");
+			output_checksum = MessageDigest.getInstance("SHA-256");
+		}
+
+		void dumpRawInputStream(byte[] b, int n2, int n5, int bytesread) throws Exception {
+			int off = n2 + n5;
+			if (retained_timestamp != Replay.TIMESTAMP_EOF) {
+				if (timestamp_disconnect != Replay.TIMESTAMP_EOF && retained_timestamp >= timestamp_disconnect) {
+					ByteBuffer buffer = ByteBuffer.allocate(8);
+					buffer.putInt(timestamp_disconnect);
+					buffer.putInt(-1);
+					input_checksum.update(buffer.array());
+					input.write(buffer.array());
+					input.flush();
+					timestamp_disconnect = Replay.TIMESTAMP_EOF;
+				}
+
+				ByteBuffer buffer = ByteBuffer.allocate(retained_bread + 8);
+				buffer.putInt(retained_timestamp);
+				buffer.putInt(retained_bread);
+				buffer.put(retained_bytes, retained_off, retained_bread);
+				input_checksum.update(buffer.array());
+				input.write(buffer.array());
+				input.flush();
+			}
+			retained_timestamp = timestamp;
+			retained_bytes = b.clone();
+			retained_off = off;
+			retained_bread = bytesread;
+		}
+
+		void checkPoint(int opcode) throws Exception {
+			if (opcode == 182) {
+				ByteBuffer buffer = ByteBuffer.allocate(retained_bread + 8);
+				buffer.putInt(retained_timestamp);
+				buffer.putInt(retained_bread);
+				retained_bytes[retained_off + 1] = (byte) 127;
+				retained_bytes[retained_off + 2] = 0;
+				retained_bytes[retained_off + 3] = 0;
+				retained_bytes[retained_off + 4] = 1;
+				buffer.put(retained_bytes, retained_off, retained_bread);
+				input_checksum.update(buffer.array());
+				input.write(buffer.array());
+				input.flush();
+				retained_timestamp = Replay.TIMESTAMP_EOF;
+				retained_bytes = null;
+			}
+		}
+
+		void dumpRawOutputStream(byte[] b, int off, int len) throws Exception {
+			byte[] out_b = b;
+			for (int i = off + 5; i < off + Math.min(15, len); i++) {
+				if (b[i] == (byte) CLIENT_VERSION && b[i - 5] == 0 && (b[i - 4] == 0 || b[i - 4] == 1)) {
+					out_b = b.clone();
+					for (int j = i + 1; j < off + len; j++) out_b[j] = 0x00;
+					break;
+				}
+			}
+
+			ByteBuffer buffer = ByteBuffer.allocate(len + 8);
+			buffer.putInt(timestamp);
+			buffer.putInt(len);
+			buffer.put(out_b, off, len);
+			output_checksum.update(buffer.array());
+			output.write(buffer.array());
+			output.flush();
+		}
+
+		void close() throws Exception {
+			if (retained_timestamp != Replay.TIMESTAMP_EOF && retained_bytes != null) {
+				ByteBuffer buffer = ByteBuffer.allocate(retained_bread + 8);
+				buffer.putInt(retained_timestamp);
+				buffer.putInt(retained_bread);
+				buffer.put(retained_bytes, retained_off, retained_bread);
+				input_checksum.update(buffer.array());
+				input.write(buffer.array());
+				input.flush();
+			}
+
+			ByteBuffer buffer = ByteBuffer.allocate(4);
+			buffer.putInt(Replay.TIMESTAMP_EOF);
+			input_checksum.update(buffer.array());
+			input.write(buffer.array());
+			output_checksum.update(buffer.array());
+			output.write(buffer.array());
+
+			input.write(input_checksum.digest());
+			output.write(output_checksum.digest());
+
+			output.close();
+			input.close();
+		}
+	}
+
+}
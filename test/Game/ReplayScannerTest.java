@@ -0,0 +1,111 @@
+package Game;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import Client.Settings;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ReplayScannerTest {
+
+	private File directory;
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Before
+	public void setUp() throws Exception {
+		directory = temporaryFolder.getRoot();
+		Settings.LOG_VERBOSITY.put(Settings.currentProfile, -1);
+		Replay.ipAddressMetadata = new byte[4];
+	}
+
+	@Test
+	public void testFindsReplaysInOrder() throws Exception {
+		List<File> expected = new ArrayList<File>();
+		for (int i = 0; i < 40; i++) {
+			File player = new File(directory, "player" + (i % 3));
+			expected.add(createReplay(new File(player, String.format("replay%02d", i)), 16));
+		}
+		createReplay(new File(directory, "broken"), 0);
+		new File(directory, "empty/nested").mkdirs();
+		Collections.sort(expected);
+
+		List<File> inputs = new ArrayList<File>();
+		inputs.add(directory);
+		List<File> found = scan(inputs);
+		assertEquals(expected, found);
+		for (File replay : found) {
+			assertTrue(new File(replay, "metadata.bin").exists());
+			assertEquals(990, (int) Replay.readMetadata(replay.getPath())[0]);
+		}
+
+		// Scanning again gives the same result from the cached checks
+		assertEquals(expected, scan(inputs));
+	}
+
+	@Test
+	public void testCancel() throws Exception {
+		for (int i = 0; i < 20; i++) createReplay(new File(directory, "replay" + i), 16);
+
+		List<File> inputs = new ArrayList<File>();
+		inputs.add(directory);
+		final boolean[] result = new boolean[1];
+		ReplayScanner scanner = new ReplayScanner(inputs, new ReplayScanner.Listener() {
+			@Override
+			public void replaysFound(List<File> replays) {}
+
+			@Override
+			public void progress(int scanned, int total) {}
+
+			@Override
+			public void finished(int found, boolean foundBroken, boolean cancelled) {
+				result[0] = cancelled;
+			}
+		});
+		scanner.cancel();
+		scanner.run();
+		assertTrue(scanner.isFinished());
+		assertTrue(result[0]);
+		assertFalse(new File(directory, "replay0/metadata.bin").exists() && new File(directory, "replay19/metadata.bin").exists());
+	}
+
+	private List<File> scan(List<File> inputs) {
+		ReplayScanner scanner = new ReplayScanner(inputs, null);
+		scanner.run();
+		assertTrue(scanner.hasFoundBrokenReplay());
+		return scanner.getReplays();
+	}
+
+	private File createReplay(File replay, int keysLength) throws Exception {
+		replay.mkdirs();
+		DataOutputStream out = new DataOutputStream(new GZIPOutputStream(new FileOutputStream(new File(replay, "in.bin.gz"))));
+		for (int timestamp = 0; timestamp < 1000; timestamp += 10) {
+			out.writeInt(timestamp);
+			out.writeInt(4);
+			out.writeInt(timestamp);
+		}
+		out.writeInt(Replay.TIMESTAMP_EOF);
+		out.close();
+		FileOutputStream keys = new FileOutputStream(new File(replay, "keys.bin"));
+		keys.write(new byte[keysLength]);
+		keys.close();
+		DataOutputStream version = new DataOutputStream(new FileOutputStream(new File(replay, "version.bin")));
+		version.writeInt(Replay.VERSION);
+		version.writeInt(235);
+		version.close();
+		return replay;
+	}
+
+}
@@ -0,0 +1,106 @@
+package Game;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import Client.Settings;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReplaySocketTest {
+
+	private ReplayPipe pipe;
+	private Socket socket;
+
+	@Before
+	public void setUp() throws Exception {
+		Settings.LOG_VERBOSITY.put(Settings.currentProfile, -1);
+		pipe = new ReplayPipe();
+		socket = new ReplaySocket(pipe);
+	}
+
+	@Test(timeout = 10000)
+	public void testReadsSingleBytes() throws Exception {
+		// Wraps around the end of the ring buffer
+		byte[] data = new byte[ReplayPipe.CAPACITY - 10];
+		pipe.write(ByteBuffer.wrap(data));
+		InputStream in = socket.getInputStream();
+		assertEquals(data.length, in.read(new byte[data.length]));
+
+		byte[] sent = new byte[100];
+		for (int i = 0; i < sent.length; i++) sent[i] = (byte) (200 + i);
+		pipe.write(ByteBuffer.wrap(sent));
+		pipe.close();
+		byte[] received = new byte[sent.length];
+		for (int i = 0; i < received.length; i++) received[i] = (byte) in.read();
+		assertArrayEquals(sent, received);
+		assertEquals(-1, in.read());
+	}
+
+	@Test(timeout = 10000)
+	public void testReadTimeout() throws Exception {
+		socket.setSoTimeout(50);
+		assertEquals(50, socket.getSoTimeout());
+		try {
+			socket.getInputStream().read();
+			fail();
+		} catch (SocketTimeoutException e) {
+		}
+	}
+
+	@Test
+	public void testSocketMethods() throws Exception {
+		// The client sets these up like on a real socket
+		socket.setTcpNoDelay(true);
+		socket.setKeepAlive(true);
+		socket.setSoLinger(false, 0);
+		socket.setReceiveBufferSize(8192);
+		socket.setSendBufferSize(8192);
+		socket.setTrafficClass(0);
+		socket.setReuseAddress(false);
+		socket.setOOBInline(false);
+		assertTrue(socket.isConnected());
+		assertTrue(socket.isBound());
+		assertEquals(ReplayPipe.CAPACITY, socket.getReceiveBufferSize());
+		assertEquals(0, socket.getPort());
+		assertTrue(socket.getInetAddress().isLoopbackAddress());
+		assertTrue(((InetSocketAddress) socket.getRemoteSocketAddress()).getAddress().isLoopbackAddress());
+		socket.getOutputStream().write(new byte[10]);
+
+		try {
+			socket.connect(new InetSocketAddress(43594));
+			fail();
+		} catch (SocketException e) {
+		}
+
+		socket.shutdownOutput();
+		assertTrue(socket.isOutputShutdown());
+		try {
+			socket.getOutputStream().write(1);
+			fail();
+		} catch (SocketException e) {
+		}
+
+		socket.close();
+		assertTrue(socket.isClosed());
+		try {
+			socket.getInputStream();
+			fail();
+		} catch (SocketException e) {
+		}
+		try {
+			pipe.write(ByteBuffer.wrap(new byte[1]));
+			fail();
+		} catch (IOException e) {
+		}
+	}
+}
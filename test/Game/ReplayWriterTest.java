@@ -0,0 +1,67 @@
+package Game;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import Client.Settings;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReplayWriterTest {
+
+	private ByteArrayOutputStream bytes;
+	private ReplayWriter writer;
+
+	@Before
+	public void setUp() throws Exception {
+		Settings.LOG_VERBOSITY.put(Settings.currentProfile, -1);
+		bytes = new ByteArrayOutputStream();
+		writer = new ReplayWriter();
+		writer.setStream(ReplayWriter.STREAM_INPUT, new DataOutputStream(bytes), null);
+		writer.start();
+	}
+
+	@Test(timeout = 10000)
+	public void testWritesAfterCloseAreDropped() throws Exception {
+		writer.writeInt(ReplayWriter.STREAM_INPUT, 1, false);
+		writer.close();
+		// More than the queue holds, none of them block
+		for (int i = 0; i < ReplayWriter.QUEUE_CAPACITY * 2; i++) writer.writeInt(ReplayWriter.STREAM_INPUT, 2, false);
+		writer.close();
+
+		assertEquals(4, bytes.size());
+		assertFalse(writer.hasFailed());
+	}
+
+	@Test(timeout = 10000)
+	public void testCloseWhileWriting() throws Exception {
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			final int value = i;
+			threads[i] = new Thread(() -> {
+				try {
+					for (int j = 0; j < ReplayWriter.QUEUE_CAPACITY * 4; j++) writer.writeInt(ReplayWriter.STREAM_INPUT, value, false);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			});
+			threads[i].start();
+		}
+		Thread.sleep(5);
+		writer.close();
+		// Every writing thread finishes, whether its records came before the close or not
+		for (Thread thread : threads) thread.join();
+
+		// Whole records only, everything queued before the close was written
+		assertEquals(0, bytes.size() % 4);
+		ByteBuffer data = ByteBuffer.wrap(bytes.toByteArray());
+		while (data.hasRemaining()) {
+			int value = data.getInt();
+			assertTrue(value >= 0 && value < threads.length);
+		}
+	}
+}
@@ -0,0 +1,162 @@
+package Replay.analysis;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import Client.Settings;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ReplayAnalysisTest {
+
+	private File directory;
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Before
+	public void setUp() throws Exception {
+		directory = temporaryFolder.getRoot();
+		Settings.LOG_VERBOSITY.put(Settings.currentProfile, -1);
+	}
+
+	@Test
+	public void testExperienceGains() {
+		ReplayAnalyzer analyzer = ReplayAnalyzer.create("xp");
+		analyzer.event(new ReplayEvent.Stat(10, 3, 10, 10, 4000));
+		analyzer.event(new ReplayEvent.Stat(20, 3, 10, 10, 4000));
+		analyzer.event(new ReplayEvent.Stat(30, 3, -1, -1, 4100));
+		analyzer.event(new ReplayEvent.Stat(40, 3, 9, 10, 4100));
+
+		List<Object[]> rows = analyzer.getRows();
+		assertEquals(2, rows.size());
+		assertArrayEquals(new Object[] {10, "Hits", 10, 10, 4000, 0}, rows.get(0));
+		assertArrayEquals(new Object[] {30, "Hits", 10, 10, 4100, 100}, rows.get(1));
+	}
+
+	@Test
+	public void testTradeLog() {
+		ReplayAnalyzer analyzer = ReplayAnalyzer.create("trades");
+		analyzer.event(new ReplayEvent.Trade(100, ReplayEvent.Trade.STAGE_OPEN, null, null));
+		analyzer.event(new ReplayEvent.Trade(110, ReplayEvent.Trade.STAGE_OFFER_SENT, new int[] {10, 546}, new int[] {5000, 1}));
+		analyzer.event(new ReplayEvent.Trade(120, ReplayEvent.Trade.STAGE_OFFER_RECEIVED, new int[] {373}, new int[] {20}));
+		analyzer.event(new ReplayEvent.Trade(130, ReplayEvent.Trade.STAGE_CONFIRM, null, null));
+		analyzer.event(new ReplayEvent.Trade(140, ReplayEvent.Trade.STAGE_ACCEPT, null, null));
+		analyzer.event(new ReplayEvent.Trade(150, ReplayEvent.Trade.STAGE_CLOSE, null, null));
+		// Declined before the confirm screen, and still open at the end of the replay
+		analyzer.event(new ReplayEvent.Trade(200, ReplayEvent.Trade.STAGE_OPEN, null, null));
+		analyzer.event(new ReplayEvent.Trade(210, ReplayEvent.Trade.STAGE_ACCEPT, null, null));
+		analyzer.event(new ReplayEvent.Trade(220, ReplayEvent.Trade.STAGE_CLOSE, null, null));
+		analyzer.event(new ReplayEvent.Trade(300, ReplayEvent.Trade.STAGE_OPEN, null, null));
+		analyzer.finish();
+
+		List<Object[]> rows = analyzer.getRows();
+		assertEquals(3, rows.size());
+		assertArrayEquals(new Object[] {100, 150, true, "10:5000;546:1", "373:20"}, rows.get(0));
+		assertArrayEquals(new Object[] {200, 220, false, "", ""}, rows.get(1));
+		assertArrayEquals(new Object[] {300, null, false, "", ""}, rows.get(2));
+	}
+
+	@Test
+	public void testWriters() throws Exception {
+		String[] columns = {"timestamp", "sender", "message"};
+		File csv = new File(directory, "chat.csv");
+		File json = new File(directory, "chat.json");
+		ReplayAnalysisWriter csvWriter = ReplayAnalysisWriter.create(ReplayAnalysis.FORMAT_CSV, csv, columns);
+		ReplayAnalysisWriter jsonWriter = ReplayAnalysisWriter.create(ReplayAnalysis.FORMAT_JSON, json, columns);
+		Object[][] rows = {{5, null, "Welcome to RuneScape!"}, {6, "Zezima", "Hello, \"world\"\\"}};
+		for (Object[] row : rows) {
+			csvWriter.write("replays/a", row);
+			jsonWriter.write("replays/a", row);
+		}
+		csvWriter.close();
+		jsonWriter.close();
+
+		assertEquals(
+			"replay,timestamp,sender,message\n"
+				+ "replays/a,5,,Welcome to RuneScape!\n"
+				+ "replays/a,6,Zezima,\"Hello, \"\"world\"\"\\\"\n",
+			new String(Files.readAllBytes(csv.toPath()), StandardCharsets.UTF_8));
+		assertEquals(
+			"[\n"
+				+ "{\"replay\":\"replays/a\",\"timestamp\":5,\"sender\":null,\"message\":\"Welcome to RuneScape!\"},\n"
+				+ "{\"replay\":\"replays/a\",\"timestamp\":6,\"sender\":\"Zezima\",\"message\":\"Hello, \\\"world\\\"\\\\\"}\n"
+				+ "]\n",
+			new String(Files.readAllBytes(json.toPath()), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testRunWritesEveryAnalyzer() throws Exception {
+		File library = new File(directory, "library");
+		List<File> expected = new ArrayList<File>();
+		for (int i = 0; i < 6; i++) expected.add(createReplay(new File(library, "player" + (i % 2) + "/replay" + i)));
+		new File(library, "empty").mkdirs();
+		Collections.sort(expected);
+
+		List<File> inputs = new ArrayList<File>();
+		inputs.add(library);
+		List<File> replays = ReplayAnalysis.findReplays(inputs);
+		assertEquals(expected, replays);
+
+		File output = new File(directory, "output");
+		new ReplayAnalysis(ReplayAnalyzer.NAMES, ReplayAnalysis.FORMAT_JSON, output, 3).run(replays);
+		for (String name : ReplayAnalyzer.NAMES) {
+			String text = new String(Files.readAllBytes(new File(output, name + ".json").toPath()), StandardCharsets.UTF_8);
+			assertEquals("[]\n", text);
+		}
+	}
+
+	@Test
+	public void testRunSkipsFailedReplay() throws Exception {
+		List<File> replays = new ArrayList<File>();
+		for (int i = 0; i < 3; i++) replays.add(createReplay(new File(directory, "replay" + i)));
+		final File broken = replays.get(1);
+
+		File output = new File(directory, "output");
+		ReplayAnalysis analysis = new ReplayAnalysis(new String[] {"xp"}, ReplayAnalysis.FORMAT_CSV, output, 2) {
+			@Override
+			protected ReplayAnalyzer[] analyze(File replay) {
+				if (replay.equals(broken)) throw new IllegalStateException("Broken replay");
+				ReplayAnalyzer analyzer = ReplayAnalyzer.create("xp");
+				analyzer.event(new ReplayEvent.Stat(10, 3, 10, 10, 4000));
+				return new ReplayAnalyzer[] {analyzer};
+			}
+		};
+		analysis.run(replays);
+
+		assertEquals(1, analysis.getFailedCount());
+		List<String> lines = Files.readAllLines(new File(output, "xp.csv").toPath());
+		assertEquals(3, lines.size());
+		assertEquals(replays.get(0).getPath() + ",10,Hits,10,10,4000,0", lines.get(1));
+		assertEquals(replays.get(2).getPath() + ",10,Hits,10,10,4000,0", lines.get(2));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownAnalyzer() {
+		new ReplayAnalysis(new String[] {"xp", "fishing"}, ReplayAnalysis.FORMAT_CSV, directory, 1);
+	}
+
+	private static File createReplay(File folder) throws Exception {
+		folder.mkdirs();
+		DataOutputStream version = new DataOutputStream(new FileOutputStream(new File(folder, "version.bin")));
+		version.writeInt(5);
+		version.writeInt(235);
+		version.close();
+		Files.write(new File(folder, "keys.bin").toPath(), new byte[16]);
+		DataOutputStream in = new DataOutputStream(new GZIPOutputStream(new FileOutputStream(new File(folder, "in.bin.gz"))));
+		in.writeInt(-1);
+		in.close();
+		return folder;
+	}
+}
@@ -0,0 +1,207 @@
+package Replay.analysis;
+
+import static org.junit.Assert.assertEquals;
+
+import Client.Settings;
+import Replay.common.ISAACCipher;
+import Replay.game.PacketBuilder;
+import Replay.scraper.ReplayFixture;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ReplaySearchIndexTest {
+
+	private File directory;
+	private File indexFile;
+	private HashMap<String, List<ReplayEvent>> events;
+	private List<String> decoded;
+	// Set to hold decoding until it's counted down
+	private CountDownLatch decodeStarted;
+	private CountDownLatch decodeRelease;
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Before
+	public void setUp() throws Exception {
+		directory = temporaryFolder.getRoot();
+		indexFile = new File(directory, "replay_search.bin");
+		Settings.LOG_VERBOSITY.put(Settings.currentProfile, -1);
+		events = new HashMap<String, List<ReplayEvent>>();
+		decoded = new ArrayList<String>();
+	}
+
+	@Test
+	public void testSearch() throws Exception {
+		File first = createReplay("first", new byte[10]);
+		File second = createReplay("second", new byte[10]);
+		File third = createReplay("third", new byte[10]);
+		addEvent(first, new ReplayEvent.Chat(100, ReplayEvent.Chat.CHANNEL_SERVER, 4, "Zezima", null, "Hello world!"));
+		addEvent(first, new ReplayEvent.NpcKill(200, 12, 62));
+		addEvent(second, new ReplayEvent.Chat(50, ReplayEvent.Chat.CHANNEL_SERVER, 4, "Bob Two", null, "hello, hello there"));
+		addEvent(second, new ReplayEvent.Chat(70000, ReplayEvent.Chat.CHANNEL_PRIVATE, -1, null, "Zezima", "Hello again"));
+
+		ReplaySearchIndex index = createIndex();
+		assertEquals(3, index.update(replays(first, second, third), 2));
+		assertSearch(index, "hello", first, 100, second, 50, second, 70000);
+		assertSearch(index, "from:Zezima HELLO", first, 100);
+		assertSearch(index, "from:bob_two there", second, 50);
+		assertSearch(index, "to:zezima", second, 70000);
+		assertSearch(index, "kill:62", first, 200);
+		assertSearch(index, "hello kill:62");
+		assertSearch(index, "goodbye");
+
+		// Searching a loaded index reads the same postings from the file
+		ReplaySearchIndex loaded = createIndex();
+		loaded.load();
+		assertEquals(3, loaded.getReplayCount());
+		assertSearch(loaded, "hello", first, 100, second, 50, second, 70000);
+		assertEquals(2, loaded.search("hello", 2).size());
+	}
+
+	@Test
+	public void testIncrementalUpdate() throws Exception {
+		File first = createReplay("first", new byte[10]);
+		File second = createReplay("second", new byte[10]);
+		File third = createReplay("third", new byte[10]);
+		addEvent(first, new ReplayEvent.Chat(100, ReplayEvent.Chat.CHANNEL_PUBLIC, -1, null, null, "buying runes"));
+		addEvent(second, new ReplayEvent.Chat(200, ReplayEvent.Chat.CHANNEL_PUBLIC, -1, null, null, "selling runes"));
+		addEvent(third, new ReplayEvent.Chat(300, ReplayEvent.Chat.CHANNEL_PUBLIC, -1, null, null, "runes"));
+		createIndex().update(replays(first, second, third), 2);
+
+		// Nothing changed
+		decoded.clear();
+		ReplaySearchIndex index = createIndex();
+		assertEquals(0, index.update(replays(first, second, third), 2));
+		assertEquals(0, decoded.size());
+
+		// A changed replay is decoded again and a removed one dropped
+		createReplay("second", new byte[20]);
+		events.get(second.getPath()).clear();
+		addEvent(second, new ReplayEvent.Chat(250, ReplayEvent.Chat.CHANNEL_PUBLIC, -1, null, null, "buying logs"));
+		assertEquals(1, index.update(replays(third, second), 2));
+		assertEquals(1, decoded.size());
+		assertEquals(second.getPath(), decoded.get(0));
+		assertEquals(2, index.getReplayCount());
+		assertSearch(index, "runes", third, 300);
+		assertSearch(index, "buying", second, 250);
+		assertSearch(index, "selling");
+	}
+
+	@Test(timeout = 10000)
+	public void testSearchWhileUpdating() throws Exception {
+		File first = createReplay("first", new byte[10]);
+		File second = createReplay("second", new byte[10]);
+		addEvent(first, new ReplayEvent.Chat(100, ReplayEvent.Chat.CHANNEL_PUBLIC, -1, null, null, "buying runes"));
+		addEvent(second, new ReplayEvent.Chat(200, ReplayEvent.Chat.CHANNEL_PUBLIC, -1, null, null, "selling runes"));
+		final ReplaySearchIndex index = createIndex();
+		index.update(replays(first), 1);
+
+		decodeStarted = new CountDownLatch(1);
+		decodeRelease = new CountDownLatch(1);
+		final List<File> updated = replays(first, second);
+		Thread updater = new Thread(() -> {
+			try {
+				index.update(updated, 1);
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		});
+		updater.start();
+		decodeStarted.await();
+
+		// The old tables are searched while the new replay is decoded
+		assertEquals(1, index.getReplayCount());
+		assertSearch(index, "runes", first, 100);
+
+		decodeRelease.countDown();
+		updater.join();
+		assertEquals(2, index.getReplayCount());
+		assertSearch(index, "runes", first, 100, second, 200);
+	}
+
+	@Test
+	public void testRecordedTimestampsAfterReconnect() throws Exception {
+		int[][] keys = {{1, 2, 3, 4}, {5, 6, 7, 8}};
+		File replay = new File(directory, "reconnect");
+		replay.mkdirs();
+		ReplayFixture.writeVersion(replay, 3);
+		ReplayFixture.writeKeys(replay, keys);
+
+		// Reconnected 200 frames after the last packet, which playback doesn't skew
+		ByteArrayOutputStream records = new ByteArrayOutputStream();
+		DataOutputStream in = new DataOutputStream(records);
+		ISAACCipher cipher = new ISAACCipher();
+		ReplayFixture.writeIncomingLogin(in, cipher, 0, keys[0]);
+		ReplayFixture.writePacket(in, cipher, 100, PacketBuilder.OPCODE_UPDATE_STAT, ReplayFixture.data(7, 1));
+		ReplayFixture.writeIncomingLogin(in, cipher, 300, keys[1]);
+		ReplayFixture.writeStream(new File(replay, "in.bin.gz"), records);
+
+		ReplaySearchIndex index = new ReplaySearchIndex(indexFile);
+		index.update(replays(replay), 1);
+		assertSearch(index, "welcome", replay, 2, replay, 302);
+	}
+
+	private ReplaySearchIndex createIndex() {
+		return new ReplaySearchIndex(indexFile) {
+			@Override
+			protected void decode(String path, ReplayEventDecoder.Listener listener) {
+				synchronized (decoded) {
+					decoded.add(path);
+				}
+				if (decodeStarted != null) {
+					decodeStarted.countDown();
+					try {
+						decodeRelease.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				List<ReplayEvent> replayEvents = events.get(path);
+				if (replayEvents == null) return;
+				for (ReplayEvent event : replayEvents) listener.event(event);
+			}
+		};
+	}
+
+	private void assertSearch(ReplaySearchIndex index, String query, Object... expected) throws Exception {
+		List<ReplaySearchIndex.Hit> hits = index.search(query, 100);
+		assertEquals(query, expected.length / 2, hits.size());
+		for (int i = 0; i < hits.size(); i++) {
+			assertEquals(query, expected[i * 2], hits.get(i).replay);
+			assertEquals(query, expected[i * 2 + 1], hits.get(i).timestamp);
+		}
+	}
+
+	private void addEvent(File replay, ReplayEvent event) {
+		List<ReplayEvent> replayEvents = events.get(replay.getPath());
+		if (replayEvents == null) {
+			replayEvents = new ArrayList<ReplayEvent>();
+			events.put(replay.getPath(), replayEvents);
+		}
+		replayEvents.add(event);
+	}
+
+	private File createReplay(String name, byte[] data) throws Exception {
+		File replay = new File(directory, name);
+		replay.mkdirs();
+		Files.write(new File(replay, "in.bin.gz").toPath(), data);
+		return replay;
+	}
+
+	private static List<File> replays(File... replays) {
+		List<File> list = new ArrayList<File>();
+		for (File replay : replays) list.add(replay);
+		return list;
+	}
+}
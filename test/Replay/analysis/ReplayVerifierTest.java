@@ -0,0 +1,172 @@
+package Replay.analysis;
+
+import static Replay.scraper.ReplayFixture.data;
+import static Replay.scraper.ReplayFixture.writePacket;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import Client.Settings;
+import Replay.common.ISAACCipher;
+import Replay.game.PacketBuilder;
+import Replay.scraper.ReplayFixture;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ReplayVerifierTest {
+
+	private static final int[] KEY = {1, 2, 3, 4};
+	private static final int END = 990;
+
+	private File directory;
+	private File replay;
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Before
+	public void setUp() throws Exception {
+		Settings.LOG_VERBOSITY.put(Settings.currentProfile, -1);
+		directory = temporaryFolder.getRoot();
+		replay = new File(directory, "replay");
+		createReplay(replay, false);
+	}
+
+	@Test
+	public void testValidReplay() throws Exception {
+		ReplayVerifier.Result result = ReplayVerifier.verify(replay);
+		assertEquals(result.issues.toString(), ReplayVerifier.STATUS_OK, result.status);
+		assertEquals(3, result.version);
+		assertEquals(1, result.keyCount);
+		assertEquals(1, result.keysUsed);
+		assertEquals(1, result.loginCount);
+		assertEquals(101, result.incomingPackets);
+		assertEquals(39, result.outgoingPackets);
+		assertEquals(END, result.end);
+		assertEquals(ReplayVerifier.CHECKSUM_OK, result.checksum);
+	}
+
+	@Test
+	public void testChecksumMismatch() throws Exception {
+		createReplay(replay, true);
+		ReplayVerifier.Result result = ReplayVerifier.verify(replay);
+		assertEquals(ReplayVerifier.STATUS_ERROR, result.status);
+		assertEquals(ReplayVerifier.CHECKSUM_MISMATCH, result.checksum);
+	}
+
+	@Test
+	public void testTruncatedStream() throws Exception {
+		File file = new File(replay, "in.bin.gz");
+		try (RandomAccessFile stream = new RandomAccessFile(file, "rw")) {
+			stream.setLength(stream.length() / 2);
+		}
+		ReplayVerifier.Result result = ReplayVerifier.verify(replay);
+		assertEquals(ReplayVerifier.STATUS_ERROR, result.status);
+		assertEquals(ReplayVerifier.CHECKSUM_UNVERIFIED, result.checksum);
+	}
+
+	@Test
+	public void testMissingOutgoingStream() throws Exception {
+		assertTrue(new File(replay, "out.bin.gz").delete());
+		ReplayVerifier.Result result = ReplayVerifier.verify(replay);
+		assertEquals(ReplayVerifier.STATUS_WARNING, result.status);
+		assertEquals(ReplayVerifier.CHECKSUM_UNVERIFIED, result.checksum);
+	}
+
+	@Test
+	public void testCorruptGzipTrailer() throws Exception {
+		File file = new File(replay, "out.bin.gz");
+		try (RandomAccessFile stream = new RandomAccessFile(file, "rw")) {
+			// The CRC-32 of the data, before the size in the last 4 bytes
+			stream.seek(stream.length() - 8);
+			int crc = stream.read();
+			stream.seek(stream.length() - 8);
+			stream.write(crc ^ 0xFF);
+		}
+		assertEquals(ReplayVerifier.STATUS_ERROR, ReplayVerifier.verify(replay).status);
+	}
+
+	@Test
+	public void testWrongKey() throws Exception {
+		ReplayFixture.writeKeys(replay, new int[] {5, 6, 7, 8});
+		assertEquals(ReplayVerifier.STATUS_ERROR, ReplayVerifier.verify(replay).status);
+	}
+
+	@Test
+	public void testBadVersion() throws Exception {
+		try (FileOutputStream out = new FileOutputStream(new File(replay, "version.bin"), true)) {
+			out.write(0);
+		}
+		assertEquals(ReplayVerifier.STATUS_ERROR, ReplayVerifier.verify(replay).status);
+	}
+
+	@Test
+	public void testMissingMetadata() throws Exception {
+		assertTrue(new File(replay, "metadata.bin").delete());
+		ReplayVerifier.Result result = ReplayVerifier.verify(replay);
+		assertEquals(ReplayVerifier.STATUS_WARNING, result.status);
+		assertEquals(1, result.issues.size());
+	}
+
+	@Test
+	public void testReport() throws Exception {
+		File broken = new File(directory, "broken");
+		createReplay(broken, false);
+		ReplayFixture.writeKeys(broken, new int[] {5, 6, 7, 8});
+		File other = new File(directory, "other");
+		createReplay(other, false);
+
+		List<File> replays = ReplayVerifier.findReplays(Arrays.asList(directory));
+		assertEquals(Arrays.asList(broken, other, replay), replays);
+		File report = new File(directory, "report/verify.csv");
+		ReplayVerifier verifier = new ReplayVerifier(2);
+		verifier.run(replays, ReplayAnalysis.FORMAT_CSV, report);
+		assertEquals(1, verifier.getErrorCount());
+		assertEquals(0, verifier.getWarningCount());
+
+		List<String> lines = Files.readAllLines(report.toPath());
+		assertEquals(4, lines.size());
+		assertTrue(lines.get(1).startsWith(broken.getPath() + ",error,"));
+		assertTrue(lines.get(2).startsWith(other.getPath() + ",ok,"));
+		assertTrue(lines.get(3).startsWith(replay.getPath() + ",ok,"));
+	}
+
+	private static void createReplay(File replay, boolean badChecksum) throws Exception {
+		replay.mkdirs();
+		ReplayFixture.writeVersion(replay, 3);
+		ReplayFixture.writeKeys(replay, KEY);
+
+		DataOutputStream metadata = new DataOutputStream(new FileOutputStream(new File(replay, "metadata.bin")));
+		metadata.writeInt(END);
+		metadata.writeLong(0);
+		metadata.close();
+
+		ByteArrayOutputStream inData = new ByteArrayOutputStream();
+		ByteArrayOutputStream outData = new ByteArrayOutputStream();
+		DataOutputStream in = new DataOutputStream(inData);
+		DataOutputStream out = new DataOutputStream(outData);
+		ISAACCipher inCipher = new ISAACCipher();
+		ISAACCipher outCipher = new ISAACCipher();
+
+		ReplayFixture.writeIncomingLogin(in, inCipher, 0, KEY);
+		for (int timestamp = 10; timestamp <= END; timestamp += 10) {
+			if (timestamp % 70 == 0) writePacket(in, inCipher, timestamp, PacketBuilder.OPCODE_UPDATE_XP, data(300, timestamp));
+			else writePacket(in, inCipher, timestamp, PacketBuilder.OPCODE_UPDATE_STAT, data(3, timestamp));
+		}
+
+		ReplayFixture.writeOutgoingLogin(out, outCipher, 0, KEY);
+		for (int timestamp = 25; timestamp < 1000; timestamp += 25) writePacket(out, outCipher, timestamp, 190, data(4, timestamp));
+
+		ReplayFixture.writeStream(new File(replay, "in.bin.gz"), inData, badChecksum);
+		ReplayFixture.writeStream(new File(replay, "out.bin.gz"), outData, false);
+	}
+}
@@ -0,0 +1,103 @@
+package Replay.common;
+
+import Client.Settings;
+import Replay.scraper.ReplayKeyPair;
+import Replay.scraper.ReplayMetadata;
+import Replay.scraper.ReplayReader;
+import Replay.scraper.ReplayVersion;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.LinkedList;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compares GZIPOutputStream with ParallelGZIPOutputStream on replay data, then checks that
+ * ReplayReader opens the parallel output.
+ *
+ * <p>Run with "ant benchmark-export", optionally with -Dbenchmark.size=MB for the size of the
+ * generated replay.
+ */
+public class ParallelGZIPBenchmark {
+
+	private static final int RUNS = 3;
+	private static final int[] THREADS = {1, 2, 4, 8};
+
+	public static void main(String[] args) throws Exception {
+		Settings.LOG_VERBOSITY.put(Settings.currentProfile, -1);
+
+		int size = args.length > 0 ? Integer.parseInt(args[0]) : 128;
+		System.out.println("Generating " + size + " MB replay on " + Runtime.getRuntime().availableProcessors() + " processors...");
+		byte[] data = generate(size * 1024 * 1024);
+
+		long baseline = measure("GZIPOutputStream", data, 0);
+		for (int threads : THREADS) {
+			long time = measure("Parallel, " + threads + " threads", data, threads);
+			System.out.println(String.format("  %.2fx", baseline / (double) time));
+		}
+
+		File directory = Files.createTempDirectory("rscplus-benchmark").toFile();
+		File replay = new File(directory, "in.bin.gz");
+		OutputStream out = new ParallelGZIPOutputStream(new FileOutputStream(replay));
+		out.write(data);
+		out.close();
+
+		ReplayVersion version = new ReplayVersion();
+		version.version = 3;
+		version.clientVersion = 235;
+		ReplayReader reader = new ReplayReader();
+		boolean success = reader.open(replay, version, new ReplayMetadata(), new LinkedList<ReplayKeyPair>(), new byte[32], new byte[1], new byte[32], false);
+		System.out.println("ReplayReader: " + (success ? "ok" : "failed") + ", " + reader.getDataSize() / 1048576 + " MB of data");
+
+		replay.delete();
+		directory.delete();
+	}
+
+	private static long measure(String name, byte[] data, int threads) throws Exception {
+		long best = Long.MAX_VALUE;
+		int compressed = 0;
+		for (int run = 0; run < RUNS; run++) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length / 2);
+			long start = System.nanoTime();
+			OutputStream out = threads == 0 ? new GZIPOutputStream(bytes) : new ParallelGZIPOutputStream(bytes, threads);
+			// Written in the small pieces exportData writes through its BufferedOutputStream
+			for (int offset = 0; offset < data.length; offset += 8192) out.write(data, offset, Math.min(8192, data.length - offset));
+			out.close();
+			best = Math.min(best, System.nanoTime() - start);
+			compressed = bytes.size();
+		}
+		System.out.println(String.format("%s: %d ms, %.1f MB/s, %.1f%% of the input", name, best / 1000000, data.length / 1048576.0 / (best / 1e9), compressed * 100.0 / data.length));
+		return best;
+	}
+
+	/** Returns an uncompressed replay with a mix of small and large packets, like a real one */
+	private static byte[] generate(int size) throws Exception {
+		Random random = new Random(235);
+		MessageDigest digest = MessageDigest.getInstance("SHA-256");
+		ByteArrayOutputStream out = new ByteArrayOutputStream(size + 8192);
+		byte[] data = new byte[5000];
+		int timestamp = 0;
+		for (int written = 0; written < size; ) {
+			int length = 1 + random.nextInt(random.nextInt(20) == 0 ? 5000 : 200);
+			for (int i = 0; i < length; i++) data[i] = (byte) (random.nextInt(16) * random.nextInt(16));
+			byte[] header = {(byte) (timestamp >> 24), (byte) (timestamp >> 16), (byte) (timestamp >> 8), (byte) timestamp, (byte) (length >> 24), (byte) (length >> 16), (byte) (length >> 8), (byte) length};
+			digest.update(header);
+			digest.update(data, 0, length);
+			out.write(header);
+			out.write(data, 0, length);
+			timestamp += random.nextInt(3);
+			written += length;
+		}
+		byte[] eof = {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF};
+		digest.update(eof);
+		out.write(eof);
+		out.write(digest.digest());
+		out.write(0);
+		return out.toByteArray();
+	}
+
+}
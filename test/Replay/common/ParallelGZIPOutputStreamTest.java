@@ -0,0 +1,139 @@
+package Replay.common;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import org.junit.Test;
+
+public class ParallelGZIPOutputStreamTest {
+
+	private static final int BLOCK = ParallelGZIPOutputStream.BLOCK_SIZE;
+
+	@Test
+	public void roundTrip() throws Exception {
+		int[] sizes = {0, 1, 1000, BLOCK - 1, BLOCK, BLOCK + 1, BLOCK * 5 + 12345};
+		for (int threads : new int[] {1, 4}) {
+			for (int size : sizes) {
+				byte[] data = generate(size);
+				byte[] compressed = compress(data, threads, 997);
+				assertArrayEquals("size " + size + ", threads " + threads, data, gunzip(compressed));
+			}
+		}
+	}
+
+	@Test
+	public void singleWrites() throws Exception {
+		byte[] data = generate(BLOCK * 2 + 100);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ParallelGZIPOutputStream out = new ParallelGZIPOutputStream(bytes, 2);
+		for (byte b : data) out.write(b);
+		out.close();
+		assertArrayEquals(data, gunzip(bytes.toByteArray()));
+	}
+
+	@Test
+	public void singleMember() throws Exception {
+		byte[] data = generate(BLOCK * 4);
+		byte[] compressed = compress(data, 4, BLOCK);
+
+		// One deflate stream between the header and the trailer
+		Inflater inflater = new Inflater(true);
+		inflater.setInput(compressed, 10, compressed.length - 18);
+		byte[] output = new byte[data.length];
+		int count = 0;
+		while (!inflater.finished()) count += inflater.inflate(output, count, output.length - count);
+		assertEquals(data.length, count);
+		assertEquals(0, inflater.getRemaining());
+		assertArrayEquals(data, output);
+		inflater.end();
+	}
+
+	@Test
+	public void flushWritesPartialBlock() throws Exception {
+		byte[] data = generate(BLOCK * 2 + 5000);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ParallelGZIPOutputStream out = new ParallelGZIPOutputStream(bytes, 2);
+		Inflater inflater = new Inflater(true);
+		byte[] output = new byte[data.length];
+		int count = 0;
+		int inflated = 10;
+		for (int written : new int[] {1000, BLOCK + 3000, BLOCK + 3000, data.length}) {
+			out.write(data, count, written - count);
+			out.flush();
+
+			// Everything written so far can be decompressed from what the stream has output
+			byte[] compressed = bytes.toByteArray();
+			inflater.setInput(compressed, inflated, compressed.length - inflated);
+			inflated = compressed.length;
+			while (inflater.getRemaining() > 0) count += inflater.inflate(output, count, output.length - count);
+			assertEquals(written, count);
+		}
+		inflater.end();
+		assertArrayEquals(data, output);
+
+		out.close();
+		assertArrayEquals(data, gunzip(bytes.toByteArray()));
+	}
+
+	@Test
+	public void compressesAcrossBlocks() throws Exception {
+		// Data that repeats within the window only compresses as well as one stream with the dictionary
+		byte[] pattern = generate(20000);
+		byte[] data = new byte[BLOCK * 4];
+		for (int i = 0; i < data.length; i++) data[i] = pattern[i % pattern.length];
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+		gzip.write(data);
+		gzip.close();
+		byte[] parallel = compress(data, 4, BLOCK);
+		assertTrue(parallel.length < bytes.size() + 1000);
+	}
+
+	@Test
+	public void combineCRC() {
+		byte[] data = generate(10000);
+		CRC32 whole = new CRC32();
+		whole.update(data);
+		for (int split : new int[] {0, 1, 5000, 9999, 10000}) {
+			CRC32 first = new CRC32();
+			first.update(data, 0, split);
+			CRC32 second = new CRC32();
+			second.update(data, split, data.length - split);
+			assertEquals(whole.getValue(), ParallelGZIPOutputStream.combineCRC(first.getValue(), second.getValue(), data.length - split));
+		}
+	}
+
+	private static byte[] generate(int size) {
+		Random random = new Random(size);
+		byte[] data = new byte[size];
+		for (int i = 0; i < size; i++) data[i] = (byte) (random.nextInt(16) * random.nextInt(16));
+		return data;
+	}
+
+	private static byte[] compress(byte[] data, int threads, int chunk) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ParallelGZIPOutputStream out = new ParallelGZIPOutputStream(bytes, threads);
+		for (int offset = 0; offset < data.length; offset += chunk) out.write(data, offset, Math.min(chunk, data.length - offset));
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	private static byte[] gunzip(byte[] compressed) throws Exception {
+		InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int count;
+		while ((count = in.read(buffer)) != -1) out.write(buffer, 0, count);
+		in.close();
+		return out.toByteArray();
+	}
+}
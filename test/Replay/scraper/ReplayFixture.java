@@ -0,0 +1,102 @@
+package Replay.scraper;
+
+import Replay.common.ISAACCipher;
+import Replay.game.PacketBuilder;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.security.MessageDigest;
+import java.util.zip.GZIPOutputStream;
+
+/** Writes the files of synthetic replays for tests, one record per packet. */
+public class ReplayFixture {
+
+	public static void writeVersion(File replay, int version) throws Exception {
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(new File(replay, "version.bin")));
+		out.writeInt(version);
+		out.writeInt(235);
+		out.close();
+	}
+
+	public static void writeKeys(File replay, int[]... keys) throws Exception {
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(new File(replay, "keys.bin")));
+		for (int[] key : keys) {
+			for (int value : key) out.writeInt(value);
+		}
+		out.close();
+	}
+
+	/** Writes a login response using a key, with the privacy settings and welcome message after it */
+	public static void writeIncomingLogin(DataOutputStream in, ISAACCipher cipher, int timestamp, int[] key) throws Exception {
+		in.writeInt(timestamp);
+		in.writeInt(1);
+		in.writeByte(64);
+		cipher.reset();
+		cipher.setKeys(key);
+		byte[] welcome = new byte[25];
+		System.arraycopy(new byte[] {0x03, 0x00, 0x00, 'W', 'e', 'l', 'c', 'o', 'm', 'e'}, 0, welcome, 0, 10);
+		writePacket(in, cipher, timestamp + 1, PacketBuilder.OPCODE_PRIVACY_SETTINGS, new byte[4]);
+		writePacket(in, cipher, timestamp + 2, PacketBuilder.OPCODE_SEND_MESSAGE, welcome);
+	}
+
+	/** Writes a login packet, which isn't encrypted, and sets the key of the packets after it */
+	public static void writeOutgoingLogin(DataOutputStream out, ISAACCipher cipher, int timestamp, int[] key) throws Exception {
+		byte[] loginData = new byte[200];
+		System.arraycopy(new byte[] {0x01, 0x00, 0x00, 0x00, (byte) 0xEB}, 0, loginData, 0, 5);
+		cipher.reset();
+		writePacket(out, cipher, timestamp, 0, loginData);
+		cipher.setKeys(key);
+	}
+
+	/** Writes a packet as its own record, with the last data byte before the opcode if it's short */
+	public static void writePacket(DataOutputStream out, ISAACCipher cipher, int timestamp, int opcode, byte[] data) throws Exception {
+		int length = 1 + data.length;
+		int encoded = opcode == 0 ? 0 : (opcode + cipher.getNextValue()) & 0xFF;
+		out.writeInt(timestamp);
+		if (length >= 160) {
+			out.writeInt(length + 2);
+			out.writeByte(length / 256 + 160);
+			out.writeByte(length & 0xFF);
+			out.writeByte(encoded);
+			out.write(data);
+		} else {
+			out.writeInt(length + 1);
+			out.writeByte(length);
+			out.writeByte(data[data.length - 1]);
+			out.writeByte(encoded);
+			out.write(data, 0, data.length - 1);
+		}
+	}
+
+	public static byte[] data(int length, int seed) {
+		byte[] data = new byte[length];
+		for (int i = 0; i < length; i++) data[i] = (byte) (seed * 31 + i);
+		return data;
+	}
+
+	/**
+	 * Ends the records and writes them to a gzip file, followed by their checksum and the metadata
+	 * byte like rscminus writes them
+	 */
+	public static void writeStream(File file, ByteArrayOutputStream records) throws Exception {
+		writeStream(file, records, false);
+	}
+
+	/**
+	 * Writes the records like {@link #writeStream(File, ByteArrayOutputStream)}
+	 *
+	 * @param badChecksum whether to write a checksum that doesn't match the records
+	 */
+	public static void writeStream(File file, ByteArrayOutputStream records, boolean badChecksum) throws Exception {
+		new DataOutputStream(records).writeInt(-1);
+		byte[] data = records.toByteArray();
+		byte[] checksum = MessageDigest.getInstance("SHA-256").digest(data);
+		if (badChecksum) checksum[0] ^= 1;
+		GZIPOutputStream out = new GZIPOutputStream(new FileOutputStream(file));
+		out.write(data);
+		out.write(checksum);
+		out.write(0);
+		out.close();
+	}
+}
@@ -0,0 +1,153 @@
+package Replay.scraper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import Client.Settings;
+import Replay.common.ISAACCipher;
+import Replay.game.PacketBuilder;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.zip.GZIPOutputStream;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ReplayKeyCacheTest {
+
+	private static final int[][] KEYS = {{1, 2, 3, 4}, {5, 6, 7, 8}, {9, 10, 11, 12}, {13, 14, 15, 16}};
+	private static final int LOGIN_KEY = 2;
+	private static final int[] OPCODES = {PacketBuilder.OPCODE_PRIVACY_SETTINGS, PacketBuilder.OPCODE_SEND_MESSAGE, PacketBuilder.OPCODE_UPDATE_XP};
+
+	private File directory;
+	private File cacheDirectory;
+	private byte[] checksum;
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Before
+	public void setUp() throws Exception {
+		directory = temporaryFolder.newFolder("replay");
+		cacheDirectory = new File(temporaryFolder.getRoot(), "keymatch");
+		Settings.LOG_VERBOSITY.put(Settings.currentProfile, -1);
+		createReplay();
+	}
+
+	@Test
+	public void testCopiedCipherGivesSameValues() {
+		ISAACCipher cipher = new ISAACCipher();
+		cipher.setKeys(KEYS[1]);
+		for (int i = 0; i < 100; i++) cipher.getNextValue();
+		ISAACCipher copy = new ISAACCipher();
+		copy.setKeys(KEYS[3]);
+		copy.copyFrom(cipher);
+		for (int i = 0; i < 1000; i++) assertEquals(cipher.getNextValue(), copy.getNextValue());
+	}
+
+	@Test
+	public void testRemembersLoginKey() throws Exception {
+		assertOpcodes(OPCODES);
+		File inFile = new File(directory, "in.bin.gz");
+		assertEquals(LOGIN_KEY, ReplayKeyCache.load(cacheDirectory, inFile, checksum).get(0));
+
+		// The remembered key is used without trying the keys, even if it's the wrong one
+		ReplayKeyCache cache = ReplayKeyCache.load(cacheDirectory, inFile, checksum);
+		cache.put(0, LOGIN_KEY + 1);
+		cache.save();
+		ReplayEditor editor = new ReplayEditor();
+		editor.setKeyCacheDirectory(cacheDirectory);
+		editor.openData(directory.getPath());
+		ReplayPacketCursor cursor = editor.getIncomingCursor();
+		assertEquals(LOGIN_KEY + 1, cursor.next().skipKeys);
+		assertTrue(cursor.next().opcode != OPCODES[0]);
+
+		// A changed replay tries the keys again
+		inFile.setLastModified(inFile.lastModified() - 10000);
+		assertOpcodes(OPCODES);
+		assertEquals(LOGIN_KEY, ReplayKeyCache.load(cacheDirectory, inFile, checksum).get(0));
+	}
+
+	@Test
+	public void testSavesOnceAllPacketsAreRead() throws Exception {
+		ReplayEditor editor = new ReplayEditor();
+		editor.setKeyCacheDirectory(cacheDirectory);
+		assertTrue(editor.openData(directory.getPath()));
+		ReplayPacketCursor cursor = editor.getIncomingCursor();
+		assertEquals(LOGIN_KEY, cursor.next().skipKeys);
+		assertEquals(OPCODES[0], cursor.next().opcode);
+		assertFalse(cacheDirectory.exists());
+
+		while (cursor.next() != null) ;
+		assertEquals(1, cacheDirectory.listFiles().length);
+		File inFile = new File(directory, "in.bin.gz");
+		assertEquals(LOGIN_KEY, ReplayKeyCache.load(cacheDirectory, inFile, checksum).get(0));
+
+		// Nothing is written to the replay folder, and another replay doesn't use the cache
+		assertFalse(new File(directory, "keymatch.bin").exists());
+		File copy = temporaryFolder.newFolder("copy");
+		for (File file : directory.listFiles()) Files.copy(file.toPath(), new File(copy, file.getName()).toPath(), StandardCopyOption.COPY_ATTRIBUTES);
+		assertEquals(-1, ReplayKeyCache.load(cacheDirectory, new File(copy, "in.bin.gz"), checksum).get(0));
+	}
+
+	@Test
+	public void testNoCacheDirectory() throws Exception {
+		ReplayEditor editor = new ReplayEditor();
+		assertTrue(editor.openData(directory.getPath()));
+		ReplayPacketCursor cursor = editor.getIncomingCursor();
+		while (cursor.next() != null) ;
+		assertFalse(cacheDirectory.exists());
+		// Only version.bin, keys.bin and in.bin.gz
+		assertEquals(3, directory.listFiles().length);
+	}
+
+	private void assertOpcodes(int[] opcodes) {
+		ReplayEditor editor = new ReplayEditor();
+		editor.setKeyCacheDirectory(cacheDirectory);
+		assertTrue(editor.openData(directory.getPath()));
+		ReplayPacketCursor cursor = editor.getIncomingCursor();
+		ReplayPacket login = cursor.next();
+		assertEquals(ReplayEditor.VIRTUAL_OPCODE_CONNECT, login.opcode);
+		assertEquals(LOGIN_KEY, login.skipKeys);
+		for (int opcode : opcodes) assertEquals(opcode, cursor.next().opcode);
+		assertNull(cursor.next());
+	}
+
+	private void createReplay() throws Exception {
+		ReplayFixture.writeVersion(directory, 5);
+		ReplayFixture.writeKeys(directory, KEYS);
+
+		ISAACCipher isaac = new ISAACCipher();
+		isaac.setKeys(KEYS[LOGIN_KEY]);
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(stream);
+		// Login response
+		out.writeInt(1);
+		out.writeInt(1);
+		out.writeByte(64);
+		for (int i = 0; i < OPCODES.length; i++) {
+			// Packets of 5 bytes, with the last data byte before the opcode
+			out.writeInt(10 + i);
+			out.writeInt(6);
+			out.writeByte(5);
+			out.writeByte(0);
+			out.writeByte((OPCODES[i] + isaac.getNextValue()) & 0xFF);
+			out.write(new byte[3]);
+		}
+		out.writeInt(-1);
+		byte[] data = stream.toByteArray();
+		checksum = MessageDigest.getInstance("SHA-256").digest(data);
+
+		GZIPOutputStream in = new GZIPOutputStream(new FileOutputStream(new File(directory, "in.bin.gz")));
+		in.write(data);
+		in.close();
+	}
+}
@@ -0,0 +1,99 @@
+package Replay.scraper;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ReplayPacketStoreTest {
+
+	@Test
+	public void testAddAndGet() {
+		ReplayPacketStore store = new ReplayPacketStore();
+		assertTrue(store.isEmpty());
+		store.add(packet(10, 5, new byte[] {1, 2, 3}, 0));
+		store.add(20, 6, new byte[] {9, 8, 7, 6}, 1, 2, 1);
+
+		assertEquals(2, store.size());
+		ReplayPacket packet = store.get(0);
+		assertEquals(10, packet.timestamp);
+		assertEquals(5, packet.opcode);
+		assertEquals(0, packet.skipKeys);
+		assertArrayEquals(new byte[] {1, 2, 3}, packet.data);
+
+		packet = store.get(1);
+		assertEquals(20, packet.timestamp);
+		assertEquals(6, packet.opcode);
+		assertEquals(1, packet.skipKeys);
+		assertArrayEquals(new byte[] {8, 7}, packet.data);
+		assertEquals(2, store.getDataLength(1));
+		assertEquals(7, store.getDataByte(1, 1));
+		assertEquals(8, store.getData()[store.getDataOffset(1)]);
+
+		store.setTimestamp(1, 30);
+		assertEquals(30, store.getTimestamp(1));
+	}
+
+	@Test
+	public void testNullAndEmptyData() {
+		ReplayPacketStore store = new ReplayPacketStore();
+		store.add(packet(1, 0, null, 0));
+		store.add(packet(2, 0, new byte[0], 0));
+
+		assertFalse(store.hasData(0));
+		assertNull(store.get(0).data);
+		assertTrue(store.hasData(1));
+		assertArrayEquals(new byte[0], store.get(1).data);
+		assertEquals(0, store.getDataLength(0));
+		assertEquals(0, store.getDataLength(1));
+	}
+
+	@Test
+	public void testGrowth() {
+		// Past the initial capacity of both the packets and the data
+		ReplayPacketStore store = new ReplayPacketStore();
+		for (int i = 0; i < 5000; i++) store.add(packet(i, i & 0xFF, data(i % 100, i), 0));
+
+		assertEquals(5000, store.size());
+		for (int i = 0; i < 5000; i++) {
+			ReplayPacket packet = store.get(i);
+			assertEquals(i, packet.timestamp);
+			assertEquals(i & 0xFF, packet.opcode);
+			assertArrayEquals(data(i % 100, i), packet.data);
+		}
+	}
+
+	@Test
+	public void testAddAfterTrim() {
+		ReplayPacketStore store = new ReplayPacketStore();
+		store.trimToSize();
+		store.add(packet(1, 2, new byte[] {3}, 0));
+		assertEquals(1, store.size());
+		assertArrayEquals(new byte[] {3}, store.get(0).data);
+
+		store.trimToSize();
+		store.add(packet(4, 5, new byte[] {6, 7}, 0));
+		store.trimToSize();
+		assertEquals(2, store.size());
+		assertArrayEquals(new byte[] {3}, store.get(0).data);
+		assertArrayEquals(new byte[] {6, 7}, store.get(1).data);
+	}
+
+	private static ReplayPacket packet(int timestamp, int opcode, byte[] data, int skipKeys) {
+		ReplayPacket packet = new ReplayPacket();
+		packet.timestamp = timestamp;
+		packet.opcode = opcode;
+		packet.data = data;
+		packet.skipKeys = skipKeys;
+		return packet;
+	}
+
+	private static byte[] data(int length, int seed) {
+		byte[] data = new byte[length];
+		for (int i = 0; i < length; i++) data[i] = (byte) (seed + i);
+		return data;
+	}
+}
@@ -0,0 +1,109 @@
+package Replay.scraper;
+
+import Client.Settings;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.LinkedList;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Measures ReplayReader.open on a large in.bin.gz.
+ *
+ * <p>Run with "ant benchmark", optionally with -Dbenchmark.replay=path/to/in.bin.gz to use a real
+ * replay instead of a generated one, and -Dbenchmark.size=MB for the size of the generated one.
+ */
+public class ReplayReaderBenchmark {
+
+	private static final int RUNS = 5;
+
+	public static void main(String[] args) throws Exception {
+		Settings.LOG_VERBOSITY.put(Settings.currentProfile, -1);
+
+		File replay;
+		File directory = null;
+		if (args.length > 0 && args[0].length() > 0) {
+			replay = new File(args[0]);
+		} else {
+			int size = args.length > 1 ? Integer.parseInt(args[1]) : 256;
+			directory = Files.createTempDirectory("rscplus-benchmark").toFile();
+			replay = new File(directory, "in.bin.gz");
+			System.out.println("Generating " + size + " MB replay...");
+			generate(replay, size * 1024 * 1024);
+		}
+
+		ReplayVersion version = new ReplayVersion();
+		version.version = 3;
+		version.clientVersion = 235;
+
+		for (int run = 0; run < RUNS; run++) {
+			System.gc();
+			resetPeakUsage();
+			long start = System.nanoTime();
+
+			ReplayReader reader = new ReplayReader();
+			reader.open(replay, version, new ReplayMetadata(), new LinkedList<ReplayKeyPair>(), new byte[32], new byte[1], new byte[32], false);
+
+			long time = System.nanoTime() - start;
+			long peak = getPeakUsage();
+			System.out.println(String.format("Run %d: %d ms, %.1f MB/s, %d MB peak heap, %d MB of data", run + 1, time / 1000000, reader.getDataSize() / 1048576.0 / (time / 1e9), peak / 1048576, reader.getDataSize() / 1048576));
+		}
+
+		if (directory != null) {
+			replay.delete();
+			directory.delete();
+		}
+	}
+
+	/** Writes a replay with a mix of small and large packets that compresses like a real one */
+	private static void generate(File file, int size) throws Exception {
+		Random random = new Random(235);
+		MessageDigest digest = MessageDigest.getInstance("SHA-256");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(file))));
+		byte[] data = new byte[5000];
+		int timestamp = 0;
+		for (int written = 0; written < size; ) {
+			int length = 1 + random.nextInt(random.nextInt(20) == 0 ? 5000 : 200);
+			for (int i = 0; i < length; i++) data[i] = (byte) (random.nextInt(16) * random.nextInt(16));
+			writeRecord(out, digest, timestamp, length, data);
+			timestamp += random.nextInt(3);
+			written += length;
+		}
+		byte[] eof = {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF};
+		digest.update(eof);
+		out.write(eof);
+		out.write(digest.digest());
+		out.write(0);
+		out.close();
+	}
+
+	private static void writeRecord(DataOutputStream out, MessageDigest digest, int timestamp, int length, byte[] data) throws Exception {
+		byte[] header = {(byte) (timestamp >> 24), (byte) (timestamp >> 16), (byte) (timestamp >> 8), (byte) timestamp, (byte) (length >> 24), (byte) (length >> 16), (byte) (length >> 8), (byte) length};
+		digest.update(header);
+		digest.update(data, 0, length);
+		out.write(header);
+		out.write(data, 0, length);
+	}
+
+	private static void resetPeakUsage() {
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) pool.resetPeakUsage();
+		}
+	}
+
+	private static long getPeakUsage() {
+		long peak = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) peak += pool.getPeakUsage().getUsed();
+		}
+		return peak;
+	}
+
+}
@@ -0,0 +1,455 @@
+package Replay.scraper;
+
+import static Replay.scraper.ReplayFixture.data;
+import static Replay.scraper.ReplayFixture.writePacket;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import Client.Logger;
+import Client.Settings;
+import Replay.common.ISAACCipher;
+import Replay.game.PacketBuilder;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ReplayReaderTest {
+
+	private static final int[][] KEYS = {{1, 2, 3, 4}, {5, 6, 7, 8}, {9, 10, 11, 12}, {13, 14, 15, 16}};
+	// Login times of the sessions, and how many bytes of a cut off packet come before each login
+	private static final int[] LOGINS = {0, 1000, 2000, 3000};
+	private static final int[] RECONNECT_OFFSETS = {0, 0, 1, 2};
+
+	private File replay;
+	private LinkedList<ReplayKeyPair> keys;
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Before
+	public void setUp() throws Exception {
+		Settings.LOG_VERBOSITY.put(Settings.currentProfile, -1);
+		replay = temporaryFolder.getRoot();
+		keys = new LinkedList<ReplayKeyPair>();
+		for (int[] key : KEYS) {
+			ReplayKeyPair keyPair = new ReplayKeyPair();
+			keyPair.keys = key.clone();
+			keys.add(keyPair);
+		}
+	}
+
+	@Test
+	public void testReconnects() throws Exception {
+		ReplayFixture.writeStream(new File(replay, "in.bin.gz"), createIncoming());
+		ReplayFixture.writeStream(new File(replay, "out.bin.gz"), createOutgoing());
+
+		List<ReplayPacket> packets = assertSameAsLegacy("in.bin.gz", false);
+		int logins = 0;
+		for (ReplayPacket packet : packets) {
+			if (packet.opcode == ReplayEditor.VIRTUAL_OPCODE_CONNECT) {
+				assertEquals(LOGINS[logins++], packet.timestamp);
+			}
+		}
+		assertEquals(LOGINS.length, logins);
+		assertEquals(LOGINS[LOGINS.length - 1] + 990, packets.get(packets.size() - 1).timestamp);
+
+		packets = assertSameAsLegacy("out.bin.gz", true);
+		assertEquals(LOGINS.length * 40, packets.size());
+	}
+
+	@Test
+	public void testTruncated() throws Exception {
+		// Cut off in the middle of the data of a packet, without the end of the replay
+		byte[] records = createIncoming().toByteArray();
+		int cut = records.length * 2 / 3;
+		try (GZIPOutputStream out = new GZIPOutputStream(new FileOutputStream(new File(replay, "in.bin.gz")))) {
+			out.write(records, 0, cut);
+		}
+
+		List<ReplayPacket> packets = assertSameAsLegacy("in.bin.gz", false);
+		assertTrue(packets.size() > 100);
+	}
+
+	@Test
+	public void testUnderreportedSize() throws Exception {
+		// The size in the gzip trailer only covers the last member of a gzip file with several
+		ByteArrayOutputStream in = createIncoming();
+		new DataOutputStream(in).writeInt(ReplayReader.TIMESTAMP_EOF);
+		byte[] records = in.toByteArray();
+		File file = new File(replay, "in.bin.gz");
+		try (FileOutputStream out = new FileOutputStream(file)) {
+			GZIPOutputStream first = new GZIPOutputStream(out);
+			first.write(records, 0, records.length - 100);
+			first.finish();
+			GZIPOutputStream last = new GZIPOutputStream(out);
+			last.write(records, records.length - 100, 100);
+			last.finish();
+		}
+		try (RandomAccessFile trailer = new RandomAccessFile(file, "r")) {
+			trailer.seek(trailer.length() - 4);
+			assertEquals(100, Integer.reverseBytes(trailer.readInt()));
+		}
+
+		assertSameAsLegacy("in.bin.gz", false);
+	}
+
+	/** Decodes a stream with the replay readers and the legacy reader, and checks they have the same packets */
+	private List<ReplayPacket> assertSameAsLegacy(String name, boolean outgoing) throws Exception {
+		File file = new File(replay, name);
+		ReplayVersion version = new ReplayVersion();
+		version.version = 3;
+		version.clientVersion = 235;
+
+		LegacyReader legacy = new LegacyReader();
+		assertTrue(legacy.open(file, keys, outgoing));
+		List<ReplayPacket> expected = new ArrayList<ReplayPacket>();
+		ReplayPacket packet;
+		while ((packet = legacy.readPacket(false)) != null) expected.add(packet);
+
+		ReplayReader reader = new ReplayReader();
+		assertTrue(reader.open(file, version, new ReplayMetadata(), keys, new byte[32], new byte[1], new byte[32], outgoing));
+		List<ReplayPacket> actual = new ArrayList<ReplayPacket>();
+		while ((packet = reader.readPacket(false)) != null) actual.add(packet);
+
+		assertPackets(expected, actual);
+
+		// The stream reader decodes the same way while reading
+		ReplayStreamReader streamReader = new ReplayStreamReader(file, version, keys, outgoing);
+		List<ReplayPacket> streamed = new ArrayList<ReplayPacket>();
+		while ((packet = streamReader.readPacket()) != null) streamed.add(packet);
+		streamReader.close();
+		assertPackets(expected, streamed);
+		return actual;
+	}
+
+	private static void assertPackets(List<ReplayPacket> expected, List<ReplayPacket> actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals("timestamp of packet " + i, expected.get(i).timestamp, actual.get(i).timestamp);
+			assertEquals("opcode of packet " + i, expected.get(i).opcode, actual.get(i).opcode);
+			assertArrayEquals("data of packet " + i, expected.get(i).data, actual.get(i).data);
+		}
+	}
+
+	private static ByteArrayOutputStream createIncoming() throws Exception {
+		ByteArrayOutputStream records = new ByteArrayOutputStream();
+		DataOutputStream in = new DataOutputStream(records);
+		ISAACCipher cipher = new ISAACCipher();
+		for (int session = 0; session < LOGINS.length; session++) {
+			int login = LOGINS[session];
+			if (session > 0) {
+				// The start of a packet that was cut off by the disconnect
+				if (RECONNECT_OFFSETS[session] > 0) {
+					in.writeInt(login - 5);
+					in.writeInt(RECONNECT_OFFSETS[session]);
+					in.write(new byte[RECONNECT_OFFSETS[session]]);
+				}
+				in.writeInt(login - 1);
+				in.writeInt(-1);
+			}
+			ReplayFixture.writeIncomingLogin(in, cipher, login, KEYS[session]);
+			writePacket(in, cipher, login + 5, PacketBuilder.OPCODE_SET_STATS, data(54, session));
+			for (int timestamp = login + 10; timestamp < login + 1000; timestamp += 10) {
+				if (timestamp % 70 == 0) writePacket(in, cipher, timestamp, PacketBuilder.OPCODE_UPDATE_XP, data(300, timestamp));
+				else writePacket(in, cipher, timestamp, PacketBuilder.OPCODE_UPDATE_STAT, data(3, timestamp));
+			}
+		}
+		return records;
+	}
+
+	private static ByteArrayOutputStream createOutgoing() throws Exception {
+		ByteArrayOutputStream records = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(records);
+		ISAACCipher cipher = new ISAACCipher();
+		for (int session = 0; session < LOGINS.length; session++) {
+			int login = LOGINS[session];
+			ReplayFixture.writeOutgoingLogin(out, cipher, login, KEYS[session]);
+			for (int timestamp = login + 25; timestamp < login + 1000; timestamp += 25) writePacket(out, cipher, timestamp, 190, data(4, timestamp));
+		}
+		return records;
+	}
+
+	/** The ReplayReader algorithm replays were decoded with before the single pass reader, without the checksum */
+	private static class LegacyReader {
+		private static final byte[] m_inputDisconnectPattern = {
+			0x40, 0x05, 0x00, 0x6E, 0x00, 0x00, 0x00, 0x1A, 0x00, 0x6C, 0x03, 0x00, 0x00, 0x57, 0x65, 0x6C, 0x63
+		};
+		private static final byte[] m_outputDisconnectPattern = {0x00, 0x01, 0x00, 0x00, 0x00, (byte) 0xEB};
+
+		private byte[] m_data;
+		private Queue<Integer> m_timestamps = new LinkedList<Integer>();
+		private LinkedList<Integer> m_disconnectOffsets = new LinkedList<Integer>();
+		private boolean m_loggedIn;
+		private boolean m_forceQuit;
+		private boolean m_outgoing;
+		private int m_position;
+		private LinkedList<ReplayKeyPair> m_keys;
+		private int m_keyIndex;
+		private ISAACCipher isaac = new ISAACCipher();
+
+		boolean open(File f, LinkedList<ReplayKeyPair> keys, boolean outgoing) throws Exception {
+			int size = calculateSize(f);
+			if (size == 0) return false;
+
+			m_data = new byte[size];
+			m_outgoing = outgoing;
+
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(f))));
+			int timestamp = 0;
+			int offset = 0;
+			LinkedHashMap<Integer, Integer> timestamps = new LinkedHashMap<Integer, Integer>();
+			while ((timestamp = in.readInt()) != ReplayReader.TIMESTAMP_EOF) {
+				timestamps.put(offset, timestamp);
+				int length = in.readInt();
+				if (length > 0) {
+					// Read until the end of a truncated replay, a single read stops at the end of a gzip member
+					for (int count = 0, read; count < length && (read = in.read(m_data, offset + count, length - count)) != -1; ) count += read;
+					offset += length;
+				}
+				if (offset >= size) break;
+			}
+			in.close();
+
+			m_loggedIn = false;
+			m_position = 0;
+			m_keys = keys;
+			m_keyIndex = -1;
+
+			if (!m_outgoing) {
+				m_position = 1;
+				while (!isEOF()) {
+					if (loginBinarySearch()) m_disconnectOffsets.add(m_position);
+					m_position++;
+				}
+				m_position = 0;
+			}
+
+			Iterator<Map.Entry<Integer, Integer>> iterator = timestamps.entrySet().iterator();
+			Map.Entry<Integer, Integer> entry = iterator.next();
+			int timestampOffset = 0;
+			while (!isEOF()) {
+				if (m_disconnectOffsets.contains(m_position)) {
+					m_loggedIn = false;
+				} else if (m_disconnectOffsets.contains(m_position + 1)) {
+					m_loggedIn = false;
+					m_position++;
+				} else if (m_disconnectOffsets.contains(m_position + 2)) {
+					m_loggedIn = false;
+					m_position += 2;
+				}
+
+				if (m_loggedIn || m_outgoing) {
+					int length = readPacketLength();
+					m_position += length;
+					timestampOffset = m_position - 1;
+				} else {
+					timestampOffset = m_position;
+					m_position++;
+					m_loggedIn = true;
+				}
+
+				while (timestampOffset >= entry.getKey()) {
+					timestamp = entry.getValue();
+					if (!iterator.hasNext()) break;
+					entry = iterator.next();
+				}
+				m_timestamps.add(timestamp);
+			}
+			m_position = 0;
+			m_loggedIn = false;
+
+			if (outgoing) {
+				while (!isEOF()) {
+					if (binarySearch(m_outputDisconnectPattern)) m_disconnectOffsets.add(m_position);
+					m_position++;
+				}
+				m_position = 0;
+			}
+			return true;
+		}
+
+		private boolean loginBinarySearch() {
+			if (m_data.length - m_position < m_inputDisconnectPattern.length) return false;
+			for (int i = 0; i < m_inputDisconnectPattern.length; i++) {
+				if (i == 0 || i == 3 || i == 9) continue;
+				int offset = m_position + i;
+				int searchValue = m_inputDisconnectPattern[i];
+				if (searchValue == 0x00 && i <= 6) {
+					if (!(m_data[offset] == 0x00 || m_data[offset] == 0x01)) return false;
+				} else {
+					if (m_data[offset] != searchValue) return false;
+				}
+			}
+			return true;
+		}
+
+		private boolean binarySearch(byte[] pattern) {
+			for (int i = 0; i < pattern.length; i++) {
+				int offset = m_position + i;
+				if (offset >= m_data.length || m_data[offset] != pattern[i]) return false;
+			}
+			return true;
+		}
+
+		private boolean verifyLogin() {
+			boolean success = true;
+			int originalPosition = m_position;
+			ReplayPacket packet = readPacket(true);
+			if (packet == null || packet.opcode != PacketBuilder.OPCODE_PRIVACY_SETTINGS) success = false;
+			packet = readPacket(true);
+			if (packet == null || (packet.opcode != PacketBuilder.OPCODE_SEND_MESSAGE && packet.opcode != PacketBuilder.OPCODE_SHOW_APPEARANCE_CHANGE)) success = false;
+			m_position = originalPosition;
+			isaac.reset();
+			isaac.setKeys(m_keys.get(m_keyIndex).keys);
+			return success;
+		}
+
+		ReplayPacket readPacket(boolean peek) {
+			if (isEOF() || m_forceQuit) return null;
+
+			int packetTimestamp = peek ? 0 : m_timestamps.poll();
+
+			if (m_outgoing) {
+				int oldPosition = m_position;
+				readPacketLength();
+				if (m_disconnectOffsets.contains(m_position)) m_loggedIn = false;
+				m_position = oldPosition;
+			} else if (!peek) {
+				if (m_disconnectOffsets.contains(m_position)) {
+					m_loggedIn = false;
+				} else if (m_disconnectOffsets.contains(m_position + 1)) {
+					m_loggedIn = false;
+					m_position++;
+				} else if (m_disconnectOffsets.contains(m_position + 2)) {
+					m_loggedIn = false;
+					m_position += 2;
+				}
+			}
+
+			try {
+				ReplayPacket replayPacket = new ReplayPacket();
+				if (!m_loggedIn) {
+					if (m_outgoing) {
+						readPacketData(replayPacket);
+						replayPacket.timestamp = packetTimestamp;
+						if (replayPacket.opcode != 0) return null;
+						isaac.reset();
+						isaac.setKeys(m_keys.get(++m_keyIndex).keys);
+						replayPacket.opcode = ReplayEditor.VIRTUAL_OPCODE_CONNECT;
+						m_loggedIn = true;
+					} else {
+						int loginResponse = readUnsignedByte();
+						int skipKeys = 0;
+						if ((loginResponse & 64) != 0) {
+							for (; ; ) {
+								m_keyIndex++;
+								if (m_keyIndex >= m_keys.size()) return null;
+								isaac.reset();
+								isaac.setKeys(m_keys.get(m_keyIndex).keys);
+								m_loggedIn = true;
+								if (verifyLogin()) break;
+								skipKeys++;
+							}
+						} else {
+							m_forceQuit = true;
+						}
+						replayPacket.opcode = ReplayEditor.VIRTUAL_OPCODE_CONNECT;
+						replayPacket.data = new byte[] {(byte) loginResponse};
+						replayPacket.timestamp = packetTimestamp;
+						replayPacket.skipKeys = skipKeys;
+					}
+				} else {
+					try {
+						readPacketData(replayPacket);
+						replayPacket.opcode = (replayPacket.opcode - isaac.getNextValue()) & 0xFF;
+						replayPacket.timestamp = packetTimestamp;
+					} catch (Exception e) {
+						return null;
+					}
+				}
+				return replayPacket;
+			} catch (Exception e) {
+				Logger.Error("Legacy reader failed: " + e);
+				return null;
+			}
+		}
+
+		private void readPacketData(ReplayPacket replayPacket) {
+			int length = readPacketLength();
+			if (length > 1) {
+				int dataLength = length - 1;
+				replayPacket.data = new byte[dataLength];
+				if (length < 160) {
+					replayPacket.data[dataLength - 1] = readByte();
+					replayPacket.opcode = readUnsignedByte();
+					if (dataLength > 1) read(replayPacket.data, 0, dataLength - 1);
+				} else {
+					replayPacket.opcode = readUnsignedByte();
+					read(replayPacket.data, 0, dataLength);
+				}
+			} else {
+				replayPacket.data = null;
+				replayPacket.opcode = readUnsignedByte();
+			}
+		}
+
+		private boolean isEOF() {
+			return m_position >= m_data.length;
+		}
+
+		private void read(byte[] data, int offset, int length) {
+			System.arraycopy(m_data, m_position, data, offset, length);
+			m_position += length;
+		}
+
+		private byte readByte() {
+			return m_data[m_position++];
+		}
+
+		private int readUnsignedByte() {
+			return readByte() & 0xFF;
+		}
+
+		private int readPacketLength() {
+			int length = readUnsignedByte();
+			if (length >= 160) length = 256 * length - (40960 - readUnsignedByte());
+			return length;
+		}
+
+		private static int calculateSize(File f) {
+			int size = 0;
+			try {
+				DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(f))));
+				while (in.readInt() != ReplayReader.TIMESTAMP_EOF) {
+					int length = in.readInt();
+					if (length > 0) {
+						size += length;
+						in.skipBytes(length);
+					}
+				}
+				in.close();
+			} catch (Exception e) {
+			}
+			return size;
+		}
+	}
+}
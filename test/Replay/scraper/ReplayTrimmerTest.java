@@ -0,0 +1,190 @@
+package Replay.scraper;
+
+import static Replay.scraper.ReplayFixture.data;
+import static Replay.scraper.ReplayFixture.writePacket;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import Client.Settings;
+import Replay.common.ISAACCipher;
+import Replay.game.PacketBuilder;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ReplayTrimmerTest {
+
+	private static final int[][] KEYS = {{1, 2, 3, 4}, {5, 6, 7, 8}};
+	// Login times of the two sessions of the replay, each lasting 1000 frames
+	private static final int[] LOGINS = {0, 2000};
+
+	private File directory;
+	private File replay;
+	private File clip;
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Before
+	public void setUp() throws Exception {
+		Settings.LOG_VERBOSITY.put(Settings.currentProfile, -1);
+		directory = temporaryFolder.getRoot();
+		replay = new File(directory, "replay");
+		clip = new File(directory, "clip");
+		replay.mkdirs();
+		createReplay();
+	}
+
+	@Test
+	public void testWholeReplay() throws Exception {
+		assertTrue(ReplayTrimmer.trim(replay.getPath(), clip.getPath(), 0, Integer.MAX_VALUE));
+		assertPackets(decode(replay, false), decode(clip, false));
+		assertPackets(decode(replay, true), decode(clip, true));
+		assertEquals(32, new File(clip, "keys.bin").length());
+	}
+
+	@Test
+	public void testTrim() throws Exception {
+		assertTrue(ReplayTrimmer.trim(replay.getPath(), clip.getPath(), 300, 700));
+
+		List<ReplayPacket> original = decode(replay, false);
+		List<ReplayPacket> expected = new ArrayList<ReplayPacket>();
+		// The login, its first packets and the state before the cut come first
+		for (int i = 0; i < 5; i++) expected.add(copy(original.get(i), 0));
+		expected.addAll(range(original, 300, 700, -300));
+		assertPackets(expected, decode(clip, false));
+		assertEquals(PacketBuilder.OPCODE_SET_STATS, expected.get(3).opcode);
+
+		List<ReplayPacket> originalOut = decode(replay, true);
+		expected = new ArrayList<ReplayPacket>();
+		expected.add(copy(originalOut.get(0), 0));
+		expected.addAll(range(originalOut, 300, 700, -300));
+		assertPackets(expected, decode(clip, true));
+
+		// The checksums are those of the new replay
+		ReplayEditor editor = new ReplayEditor();
+		assertTrue(editor.openData(clip.getPath()));
+		assertTrue(editor.authenticReplay());
+		assertEquals(16, new File(clip, "keys.bin").length());
+	}
+
+	@Test
+	public void testSpliceAcrossLogins() throws Exception {
+		assertTrue(ReplayTrimmer.splice(replay.getPath(), clip.getPath(), new int[][] {{300, 700}, {2100, 2500}}));
+
+		// The second range starts SEGMENT_GAP frames after the end of the first
+		int second = 400 + ReplayTrimmer.SEGMENT_GAP;
+		List<ReplayPacket> original = decode(replay, false);
+		int login = indexOf(original, LOGINS[1]);
+		List<ReplayPacket> expected = new ArrayList<ReplayPacket>();
+		for (int i = 0; i < 5; i++) expected.add(copy(original.get(i), 0));
+		expected.addAll(range(original, 300, 700, -300));
+		for (int i = 0; i < 5; i++) expected.add(copy(original.get(login + i), second));
+		expected.addAll(range(original, 2100, 2500, second - 2100));
+		assertPackets(expected, decode(clip, false));
+
+		List<ReplayPacket> originalOut = decode(replay, true);
+		int loginOut = indexOf(originalOut, LOGINS[1]);
+		expected = new ArrayList<ReplayPacket>();
+		expected.add(copy(originalOut.get(0), 0));
+		expected.addAll(range(originalOut, 300, 700, -300));
+		expected.add(copy(originalOut.get(loginOut), second));
+		expected.addAll(range(originalOut, 2100, 2500, second - 2100));
+		assertPackets(expected, decode(clip, true));
+
+		assertEquals(32, new File(clip, "keys.bin").length());
+	}
+
+	@Test
+	public void testBadKey() throws Exception {
+		ReplayFixture.writeKeys(replay, KEYS[0], new int[] {9, 9, 9, 9});
+
+		// The second login can't be decoded
+		assertFalse(ReplayTrimmer.trim(replay.getPath(), clip.getPath(), 0, Integer.MAX_VALUE));
+		assertFalse(ReplayTrimmer.trim(replay.getPath(), clip.getPath(), 2100, 2500));
+		assertTrue(ReplayTrimmer.trim(replay.getPath(), clip.getPath(), 300, 700));
+	}
+
+	private static List<ReplayPacket> decode(File replay, boolean outgoing) {
+		ReplayEditor editor = new ReplayEditor();
+		assertTrue(editor.openData(replay.getPath()));
+		ReplayPacketCursor cursor = outgoing ? editor.getOutgoingCursor() : editor.getIncomingCursor();
+		List<ReplayPacket> packets = new ArrayList<ReplayPacket>();
+		ReplayPacket packet;
+		while ((packet = cursor.next()) != null) packets.add(packet);
+		return packets;
+	}
+
+	private static List<ReplayPacket> range(List<ReplayPacket> packets, int start, int end, int shift) {
+		List<ReplayPacket> ret = new ArrayList<ReplayPacket>();
+		for (ReplayPacket packet : packets) {
+			if (packet.timestamp >= start && packet.timestamp < end) ret.add(copy(packet, packet.timestamp + shift));
+		}
+		return ret;
+	}
+
+	private static int indexOf(List<ReplayPacket> packets, int timestamp) {
+		for (int i = 0; i < packets.size(); i++) {
+			if (packets.get(i).timestamp == timestamp) return i;
+		}
+		return -1;
+	}
+
+	private static ReplayPacket copy(ReplayPacket packet, int timestamp) {
+		ReplayPacket ret = new ReplayPacket();
+		ret.timestamp = timestamp;
+		ret.opcode = packet.opcode;
+		ret.data = packet.data;
+		return ret;
+	}
+
+	private static void assertPackets(List<ReplayPacket> expected, List<ReplayPacket> actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals("timestamp of packet " + i, expected.get(i).timestamp, actual.get(i).timestamp);
+			assertEquals("opcode of packet " + i, expected.get(i).opcode, actual.get(i).opcode);
+			assertArrayEquals("data of packet " + i, expected.get(i).data, actual.get(i).data);
+		}
+	}
+
+	private void createReplay() throws Exception {
+		ReplayFixture.writeVersion(replay, 3);
+		ReplayFixture.writeKeys(replay, KEYS);
+
+		ByteArrayOutputStream inData = new ByteArrayOutputStream();
+		ByteArrayOutputStream outData = new ByteArrayOutputStream();
+		DataOutputStream in = new DataOutputStream(inData);
+		DataOutputStream out = new DataOutputStream(outData);
+		ISAACCipher inCipher = new ISAACCipher();
+		ISAACCipher outCipher = new ISAACCipher();
+		for (int session = 0; session < LOGINS.length; session++) {
+			int login = LOGINS[session];
+			if (session > 0) {
+				// Disconnect
+				in.writeInt(login - 1000);
+				in.writeInt(-1);
+			}
+			ReplayFixture.writeIncomingLogin(in, inCipher, login, KEYS[session]);
+			writePacket(in, inCipher, login + 5, PacketBuilder.OPCODE_SET_STATS, data(54, session));
+			writePacket(in, inCipher, login + 6, PacketBuilder.OPCODE_FLOOR_SET, data(8, session));
+			for (int timestamp = login + 10; timestamp < login + 1000; timestamp += 10) {
+				if (timestamp % 500 == 0) writePacket(in, inCipher, timestamp, PacketBuilder.OPCODE_SET_INVENTORY, data(31, timestamp));
+				else if (timestamp % 70 == 0) writePacket(in, inCipher, timestamp, PacketBuilder.OPCODE_UPDATE_XP, data(300, timestamp));
+				else writePacket(in, inCipher, timestamp, PacketBuilder.OPCODE_UPDATE_STAT, data(3, timestamp));
+			}
+
+			ReplayFixture.writeOutgoingLogin(out, outCipher, login, KEYS[session]);
+			for (int timestamp = login + 25; timestamp < login + 1000; timestamp += 25) writePacket(out, outCipher, timestamp, 190, data(4, timestamp));
+		}
+		ReplayFixture.writeStream(new File(replay, "in.bin.gz"), inData);
+		ReplayFixture.writeStream(new File(replay, "out.bin.gz"), outData);
+	}
+}